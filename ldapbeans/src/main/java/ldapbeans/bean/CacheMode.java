@@ -0,0 +1,36 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.bean;
+
+public enum CacheMode {
+    /**
+     * Objects are read from the cache, new objects are added to the cache and
+     * cached objects are updated with the attributes found
+     */
+    READ_WRITE,
+    /**
+     * Objects are read from the cache but the cache is not modified: objects
+     * that are not cached are transient
+     */
+    READ_ONLY,
+    /** The cache is not used, all objects are transient */
+    NONE
+}
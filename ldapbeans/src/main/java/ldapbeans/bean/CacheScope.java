@@ -0,0 +1,179 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.bean;
+
+import java.util.concurrent.Callable;
+
+import ldapbeans.util.cache.ConcurrentCache;
+import ldapbeans.util.cache.ConcurrentHashCache;
+
+public final class CacheScope {
+
+    /** Scope of the operations executed by the current thread */
+    private final static ThreadLocal<CacheScope> CURRENT;
+
+    /** Scope used when the current thread has no scope */
+    private final static CacheScope DEFAULT;
+
+    /** Static constructor */
+    static {
+	CURRENT = new ThreadLocal<CacheScope>();
+	DEFAULT = new CacheScope(CacheMode.READ_WRITE, null);
+    }
+
+    /** Usage of the cache shared by all the operations of a manager */
+    private final CacheMode m_Mode;
+
+    /** Cache of the objects of the scope, may be <code>null</code> */
+    private final ConcurrentCache<String, LdapObject> m_ScanCache;
+
+    /**
+     * Construct a scope
+     * 
+     * @param p_Mode
+     *            Usage of the cache shared by all the operations of a manager
+     * @param p_ScanCache
+     *            Cache of the objects of the scope, or <code>null</code>
+     */
+    private CacheScope(CacheMode p_Mode,
+	    ConcurrentCache<String, LdapObject> p_ScanCache) {
+	m_Mode = p_Mode;
+	m_ScanCache = p_ScanCache;
+    }
+
+    /**
+     * Return the usage of the cache shared by all the operations of a manager
+     * 
+     * @return The cache mode
+     */
+    public CacheMode getMode() {
+	return m_Mode;
+    }
+
+    /**
+     * Return the cache of the objects of the scope. Objects that are not in
+     * the shared cache are added to this cache, so a batch job reuses its
+     * objects without filling the shared cache.
+     * 
+     * @return The cache of the scope, or <code>null</code> if objects that
+     *         are not in the shared cache are transient
+     */
+    public ConcurrentCache<String, LdapObject> getScanCache() {
+	return m_ScanCache;
+    }
+
+    /**
+     * Return the scope of the operations executed by the current thread
+     * 
+     * @return The scope of the current thread, a scope in
+     *         {@link CacheMode#READ_WRITE} mode without scan cache by default
+     */
+    public static CacheScope current() {
+	CacheScope scope = CURRENT.get();
+	return (scope == null) ? DEFAULT : scope;
+    }
+
+    /**
+     * Change the usage of the cache by the operations executed by the current
+     * thread. The previous scope has to be restored with
+     * {@link #restore(CacheScope)} when the operations are finished.
+     * 
+     * @param p_Mode
+     *            Usage of the cache shared by all the operations of a manager
+     * @return The previous scope of the current thread, or <code>null</code>
+     *         if it has the default scope
+     */
+    public static CacheScope start(CacheMode p_Mode) {
+	return start(p_Mode, null);
+    }
+
+    /**
+     * Start a scope for a batch job: the shared cache is only read, and the
+     * other objects are kept in a new scan cache that is discarded when the
+     * scope is restored.
+     * 
+     * @return The previous scope of the current thread, or <code>null</code>
+     *         if it has the default scope
+     */
+    public static CacheScope startScan() {
+	return start(CacheMode.READ_ONLY,
+		new ConcurrentHashCache<String, LdapObject>());
+    }
+
+    /**
+     * Change the usage of the cache by the operations executed by the current
+     * thread. The previous scope has to be restored with
+     * {@link #restore(CacheScope)} when the operations are finished.
+     * 
+     * @param p_Mode
+     *            Usage of the cache shared by all the operations of a manager
+     * @param p_ScanCache
+     *            Cache of the objects that are not read from the shared
+     *            cache, or <code>null</code> if they are transient
+     * @return The previous scope of the current thread, or <code>null</code>
+     *         if it has the default scope
+     */
+    public static CacheScope start(CacheMode p_Mode,
+	    ConcurrentCache<String, LdapObject> p_ScanCache) {
+	CacheScope previous = CURRENT.get();
+	CURRENT.set(new CacheScope(p_Mode, p_ScanCache));
+	return previous;
+    }
+
+    /**
+     * Restore the scope of the current thread
+     * 
+     * @param p_Scope
+     *            The scope, or <code>null</code> for the default scope
+     */
+    public static void restore(CacheScope p_Scope) {
+	if (p_Scope == null) {
+	    CURRENT.remove();
+	} else {
+	    CURRENT.set(p_Scope);
+	}
+    }
+
+    /**
+     * Return a task that is executed with the scope of the current thread,
+     * whatever the thread that execute it.
+     * 
+     * @param <T>
+     *            Type of the result of the task
+     * @param p_Task
+     *            The task
+     * @return The task executed with the scope of the current thread
+     */
+    public static <T> Callable<T> propagate(final Callable<T> p_Task) {
+	final CacheScope scope = CURRENT.get();
+	return new Callable<T>() {
+	    public T call() throws Exception {
+		CacheScope previous = CURRENT.get();
+		restore(scope);
+		try {
+		    return p_Task.call();
+		} finally {
+		    restore(previous);
+		}
+	    }
+	};
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.bean;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.Binding;
+import javax.naming.NamingException;
+import javax.naming.event.EventContext;
+import javax.naming.event.EventDirContext;
+import javax.naming.event.NamespaceChangeListener;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingExceptionEvent;
+import javax.naming.event.NamingListener;
+import javax.naming.event.ObjectChangeListener;
+import javax.naming.ldap.LdapContext;
+
+import ldapbeans.config.LdapbeansMessageManager;
+import ldapbeans.util.DaemonThreadFactory;
+import ldapbeans.util.i18n.Logger;
+import ldapbeans.util.pool.LdapContextPool;
+
+final class ChangeMonitor implements NamespaceChangeListener,
+	ObjectChangeListener {
+
+    /** The logger for this class */
+    private final static Logger LOG = Logger.getLogger();
+
+    /** Message manager instance */
+    private final static LdapbeansMessageManager MESSAGE;
+
+    /** Delay (in milliseconds) before the first try to subscribe again */
+    private final static long MIN_RETRY_DELAY = 1000;
+
+    /** Maximum delay (in milliseconds) between two tries to subscribe */
+    private final static long MAX_RETRY_DELAY = 60000;
+
+    /** Executor of the subscriptions after a connection loss */
+    private final static ScheduledExecutorService SCHEDULER;
+
+    /** Static constructor */
+    static {
+	MESSAGE = LdapbeansMessageManager.getInstance();
+	SCHEDULER = Executors
+		.newSingleThreadScheduledExecutor(new DaemonThreadFactory(
+			"ldapbeans-change-monitor"));
+    }
+
+    /** The manager whose cache is updated */
+    private final LdapObjectManager m_Manager;
+
+    /** The pool that give the connections to the directory */
+    private final LdapContextPool m_Pool;
+
+    /** Root DN of the listened tree */
+    private final String m_Root;
+
+    /** Connection used by the subscription, or <code>null</code> */
+    private LdapContext m_Context;
+
+    /** Context that notifies the changes, or <code>null</code> */
+    private EventDirContext m_EventContext;
+
+    /** Flag that indicate if the changes have to be listened to */
+    private boolean m_Started;
+
+    /** Flag that indicate if changes may have been missed */
+    private boolean m_Lost;
+
+    /** Delay (in milliseconds) before the next try to subscribe */
+    private long m_RetryDelay;
+
+    /**
+     * Constructor
+     * 
+     * @param p_Manager
+     *            The manager whose cache is updated
+     * @param p_Pool
+     *            The pool that give the connections to the directory
+     * @param p_Root
+     *            Root DN of the listened tree
+     */
+    ChangeMonitor(LdapObjectManager p_Manager, LdapContextPool p_Pool,
+	    String p_Root) {
+	m_Manager = p_Manager;
+	m_Pool = p_Pool;
+	m_Root = p_Root;
+	m_RetryDelay = MIN_RETRY_DELAY;
+    }
+
+    /**
+     * Start to listen to the changes. If the subscription fails, it is tried
+     * again in background.
+     */
+    synchronized void start() {
+	m_Started = true;
+	subscribe();
+    }
+
+    /**
+     * Stop to listen to the changes
+     */
+    synchronized void stop() {
+	m_Started = false;
+	close();
+    }
+
+    /**
+     * Return <code>true</code> if the changes are being listened to
+     * 
+     * @return <code>true</code> if the subscription is active
+     */
+    synchronized boolean isSubscribed() {
+	return m_EventContext != null;
+    }
+
+    /**
+     * Subscribe to the changes of the tree of the root DN. If the
+     * subscription fails, a new try is scheduled.
+     * 
+     * @return <code>true</code> if the subscription has been done and
+     *         changes may have been missed since the previous subscription
+     */
+    private synchronized boolean subscribe() {
+	boolean result = false;
+	if (m_Started && (m_EventContext == null)) {
+	    try {
+		m_Context = m_Pool.createUnpooledContext();
+		m_EventContext = (EventDirContext) m_Context.lookup("");
+		m_EventContext.addNamingListener(m_Root,
+			EventContext.SUBTREE_SCOPE, this);
+		m_RetryDelay = MIN_RETRY_DELAY;
+		result = m_Lost;
+		m_Lost = false;
+	    } catch (NamingException e) {
+		LOG.warn(MESSAGE.getChangeMonitorErrorMessage(m_Root,
+			m_RetryDelay), e);
+		close();
+		m_Lost = true;
+		scheduleSubscription();
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Schedule a new subscription, after a delay that is doubled after each
+     * failure
+     */
+    private void scheduleSubscription() {
+	SCHEDULER.schedule(new Runnable() {
+	    public void run() {
+		if (subscribe()) {
+		    LOG.info(MESSAGE
+			    .getChangeMonitorReconnectedMessage(m_Root));
+		    revalidate();
+		}
+	    }
+	}, m_RetryDelay, TimeUnit.MILLISECONDS);
+	m_RetryDelay = Math.min(2 * m_RetryDelay, MAX_RETRY_DELAY);
+    }
+
+    /**
+     * Revalidate the cached objects after the changes may have been missed.
+     * If the revalidation fails, the cache is cleared.
+     */
+    private void revalidate() {
+	try {
+	    m_Manager.revalidateCache();
+	} catch (NamingException e) {
+	    LOG.warn(MESSAGE.getChangeMonitorRevalidationErrorMessage(m_Root),
+		    e);
+	    m_Manager.clearCache();
+	}
+    }
+
+    /**
+     * Close the subscription
+     */
+    private void close() {
+	try {
+	    if (m_EventContext != null) {
+		m_EventContext.removeNamingListener(this);
+		m_EventContext.close();
+	    }
+	} catch (NamingException e) {
+	    // Nothing to do, the context is not used anymore
+	}
+	try {
+	    if (m_Context != null) {
+		m_Context.close();
+	    }
+	} catch (NamingException e) {
+	    // Nothing to do, the context is not used anymore
+	}
+	m_EventContext = null;
+	m_Context = null;
+    }
+
+    /**
+     * {@inheritDoc} The subscription is closed and a new one is scheduled.
+     * 
+     * @see NamingListener#namingExceptionThrown(NamingExceptionEvent)
+     */
+    public synchronized void namingExceptionThrown(
+	    NamingExceptionEvent p_Event) {
+	if (p_Event.getEventContext() == m_EventContext) {
+	    LOG.warn(MESSAGE.getChangeMonitorErrorMessage(m_Root,
+		    m_RetryDelay), p_Event.getException());
+	    close();
+	    m_Lost = true;
+	    if (m_Started) {
+		scheduleSubscription();
+	    }
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see NamespaceChangeListener#objectAdded(NamingEvent)
+     */
+    public void objectAdded(NamingEvent p_Event) {
+	m_Manager.changed(ChangeType.ADDED, getDn(p_Event.getNewBinding()),
+		null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see NamespaceChangeListener#objectRemoved(NamingEvent)
+     */
+    public void objectRemoved(NamingEvent p_Event) {
+	m_Manager.changed(ChangeType.REMOVED, getDn(p_Event.getOldBinding()),
+		null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see NamespaceChangeListener#objectRenamed(NamingEvent)
+     */
+    public void objectRenamed(NamingEvent p_Event) {
+	m_Manager.changed(ChangeType.RENAMED, getDn(p_Event.getOldBinding()),
+		getDn(p_Event.getNewBinding()));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ObjectChangeListener#objectChanged(NamingEvent)
+     */
+    public void objectChanged(NamingEvent p_Event) {
+	m_Manager.changed(ChangeType.MODIFIED, getDn(p_Event.getNewBinding()),
+		null);
+    }
+
+    /**
+     * Return the DN of the entry of an event
+     * 
+     * @param p_Binding
+     *            The binding of the entry given by the event
+     * @return The DN of the entry
+     */
+    private static String getDn(Binding p_Binding) {
+	String result;
+	try {
+	    result = p_Binding.getNameInNamespace();
+	} catch (UnsupportedOperationException e) {
+	    // The name is relative to the root of the namespace
+	    result = p_Binding.getName();
+	}
+	return result;
+    }
+}
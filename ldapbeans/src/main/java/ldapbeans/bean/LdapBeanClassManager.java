@@ -743,6 +743,12 @@ public final class LdapBeanClassManager {
 	    int p_StartIndex, LdapAttribute p_LdapAttribute) {
 	MethodVisitor mv = p_MethodVisitor;
 	String attributeName = p_LdapAttribute.value();
+	// m_LdapObject.modified();
+	mv.visitVarInsn(ALOAD, 0);
+	mv.visitFieldInsn(GETFIELD, INTERNAL_PACKAGE_NAME + '/' + p_ClassName,
+		"m_LdapObject", "Lldapbeans/bean/LdapObject;");
+	mv.visitMethodInsn(INVOKEVIRTUAL, "ldapbeans/bean/LdapObject",
+		"modified", "()V");
 	// Attributes attributes = m_LdapObject.getAttributes();
 	mv.visitVarInsn(ALOAD, 0);
 	mv.visitFieldInsn(GETFIELD, INTERNAL_PACKAGE_NAME + '/' + p_ClassName,
@@ -159,6 +159,7 @@ class LdapBeanInvocationHandler implements InvocationHandler {
      */
     private void invokeSetter(Method p_Method, LdapAttribute p_LdapAttribute,
 	    Object p_Param) {
+	m_LdapObject.modified();
 	if (p_Method.getName().startsWith("set")) {
 	    // It must be a setter
 	    invokeSimpleSetter(p_LdapAttribute, p_Param);
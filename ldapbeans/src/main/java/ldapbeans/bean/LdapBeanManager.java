@@ -20,20 +20,53 @@
  */
 package ldapbeans.bean;
 
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.naming.InterruptedNamingException;
+import javax.naming.InvalidNameException;
 import javax.naming.NamingException;
+import javax.naming.TimeLimitExceededException;
 import javax.naming.directory.Attributes;
 import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
 
 import ldapbeans.config.LdapbeansConfiguration;
 import ldapbeans.config.LdapbeansMessageManager;
+import ldapbeans.util.DaemonThreadFactory;
+import ldapbeans.util.StringUtil;
+import ldapbeans.util.cache.Cache.CacheEntry;
+import ldapbeans.util.cache.CacheSpec;
+import ldapbeans.util.cache.ConcurrentLRUCache;
+import ldapbeans.util.cache.GenericKey;
+import ldapbeans.util.cache.InvalidationBus;
 import ldapbeans.util.i18n.Logger;
+import ldapbeans.util.pool.Deadline;
+import ldapbeans.util.pool.LdapBindPool;
 import ldapbeans.util.pool.LdapContextPool;
+import ldapbeans.util.pool.LdapContextPoolRouter;
+import ldapbeans.util.pool.OperationType;
+import ldapbeans.util.pool.Priority;
+import ldapbeans.util.pool.RateLimiter;
 
 public final class LdapBeanManager {
 
@@ -46,12 +79,46 @@ public final class LdapBeanManager {
     /** the configuration */
     private final static LdapbeansConfiguration CONFIG = LdapbeansConfiguration
 	    .getInstance();
-    /** Map that contains instances per ldap url */
-    private final static Map<String, LdapBeanManager> INSTANCES;
+    /** Size of the pools of {@link LdapContext} */
+    private final static int POOL_SIZE = 10;
+    /** Maximum number of proxied managers kept by an instance */
+    private final static int PROXIED_MANAGERS_SIZE = 100;
+    /** Map that contains instances per ldap url, root dn and identity */
+    private final static ConcurrentMap<GenericKey, LdapBeanManager> INSTANCES;
+    /** Map that contains pools per ldap url and identity */
+    private final static ConcurrentMap<GenericKey, LdapContextPool> POOLS;
+    /** Executor of the searches in the partitions of a routing instance */
+    private final static ExecutorService PARTITION_EXECUTOR;
 
     /** Static constructor */
     static {
-	INSTANCES = new TreeMap<String, LdapBeanManager>();
+	INSTANCES = new ConcurrentHashMap<GenericKey, LdapBeanManager>();
+	POOLS = new ConcurrentHashMap<GenericKey, LdapContextPool>();
+	PARTITION_EXECUTOR = Executors
+		.newCachedThreadPool(new DaemonThreadFactory(
+			"ldapbeans-partition"));
+    }
+
+    /**
+     * Operation executed in a partition of the directory
+     * 
+     * @param <T>
+     *            Type of the result of the operation
+     */
+    private static interface PartitionCallback<T> {
+	/**
+	 * Execute the operation in a partition
+	 * 
+	 * @param p_LdapObjectManager
+	 *            The manager of the LdapObject of the partition
+	 * @param p_Base
+	 *            The base DN of the operation in the partition
+	 * @return The result of the operation
+	 * @throws NamingException
+	 *             If an error occurs
+	 */
+	T doInPartition(LdapObjectManager p_LdapObjectManager, String p_Base)
+		throws NamingException;
     }
 
     /**
@@ -68,18 +135,110 @@ public final class LdapBeanManager {
      *            Password used to login to the directory, or <code>null</code>
      *            if no authentication
      * @return An instance of {@link LdapBeanManager}
+     * @throws IllegalArgumentException
+     *             If the instance exists and has been returned for another
+     *             password
      */
     public static LdapBeanManager getInstance(String p_Url, String p_Root,
 	    String p_Principal, String p_Password) {
-	LdapBeanManager instance = null;
-	synchronized (INSTANCES) {
-	    instance = INSTANCES.get(p_Url);
-	    if (instance == null) {
-		instance = new LdapBeanManager(p_Url, p_Root, p_Principal,
-			p_Password);
-		INSTANCES.put(p_Url, instance);
+	return getInstance(p_Url, null, p_Root, p_Principal, p_Password);
+    }
+
+    /**
+     * Return an instance of {@link LdapBeanManager} that write in a primary
+     * directory and read from replicas. There is one instance per url, root
+     * dn and principal, the password of the first call for an instance is
+     * required by the next ones. Instances that use the same directory with
+     * the same identity share their connections, but each instance has its
+     * own cache. The replicas are those of the first call for an instance.
+     * The statistics
+     * of the cache are published in the platform MBean server with the name
+     * <code>ldapbeans:type=Cache,name="url/root",principal="principal"</code>.
+     * 
+     * @param p_Url
+     *            Url Of the writable Ldap directory
+     * @param p_ReplicaUrls
+     *            Urls of the Ldap directories used for read operations, or
+     *            <code>null</code> if all operations have to use the writable
+     *            directory
+     * @param p_Root
+     *            Root dn of the directory
+     * @param p_Principal
+     *            User name used to login to the directory, or <code>null</code>
+     *            if no authentication
+     * @param p_Password
+     *            Password used to login to the directory, or <code>null</code>
+     *            if no authentication
+     * @return An instance of {@link LdapBeanManager}
+     * @throws IllegalArgumentException
+     *             If the instance exists and has been returned for another
+     *             password
+     */
+    public static LdapBeanManager getInstance(String p_Url,
+	    String[] p_ReplicaUrls, String p_Root, String p_Principal,
+	    String p_Password) {
+	return getInstance(p_Url, p_ReplicaUrls, p_Root, p_Principal,
+		p_Password, null);
+    }
+
+    /**
+     * Return an instance of {@link LdapBeanManager} whose cache is described
+     * by a specification. As the replicas, the specification is the one of
+     * the first call for an instance.
+     * 
+     * @param p_Url
+     *            Url Of the writable Ldap directory
+     * @param p_ReplicaUrls
+     *            Urls of the Ldap directories used for read operations, or
+     *            <code>null</code> if all operations have to use the writable
+     *            directory
+     * @param p_Root
+     *            Root dn of the directory
+     * @param p_Principal
+     *            User name used to login to the directory, or <code>null</code>
+     *            if no authentication
+     * @param p_Password
+     *            Password used to login to the directory, or <code>null</code>
+     *            if no authentication
+     * @param p_CacheSpec
+     *            Specification of the cache, or <code>null</code> to use the
+     *            specification of the configuration
+     * @return An instance of {@link LdapBeanManager}
+     * @throws IllegalArgumentException
+     *             If the policy of the specification does not support its
+     *             options, or if the instance exists and has been returned
+     *             for another password
+     * @see CacheSpec#parse(String)
+     */
+    public static LdapBeanManager getInstance(String p_Url,
+	    String[] p_ReplicaUrls, String p_Root, String p_Principal,
+	    String p_Password, CacheSpec p_CacheSpec) {
+	// The password is not a part of the key, only its digest is kept to
+	// verify the password of the next calls
+	GenericKey key = new GenericKey(p_Url, p_Root, p_Principal);
+	String passwordDigest = digest(p_Password);
+	LdapBeanManager instance = INSTANCES.get(key);
+	if (instance == null) {
+	    synchronized (INSTANCES) {
+		// Only the instance that is kept is created, so no pool,
+		// cache or MBean is created for nothing
+		instance = INSTANCES.get(key);
+		if (instance == null) {
+		    instance = new LdapBeanManager(p_Url, p_ReplicaUrls,
+			    p_Root, p_Principal, p_Password, p_CacheSpec);
+		    instance.m_PasswordDigest = passwordDigest;
+		    INSTANCES.put(key, instance);
+		    instance.register(p_Principal);
+		}
 	    }
 	}
+	// A wrong password never gives the instance connected with the
+	// right one
+	if ((passwordDigest == null) ? (instance.m_PasswordDigest != null)
+		: !passwordDigest.equals(instance.m_PasswordDigest)) {
+	    throw new IllegalArgumentException("Wrong password for "
+		    + p_Principal + " on " + p_Url + "/" + p_Root);
+	}
 	return instance;
     }
 
@@ -96,34 +255,800 @@ public final class LdapBeanManager {
 	return getInstance(p_Url, p_Root, null, null);
     }
 
+    /**
+     * Return an instance of {@link LdapBeanManager} that route operations to
+     * the partitions of a namespace. Each partition is an instance whose root
+     * dn is the suffix of the partition. Beans are read and written by the
+     * partition that has the longest suffix of their dn, or by the first
+     * partition if there is no such partition. Searches are executed in
+     * parallel in all the partitions that are in the tree of the root dn, or
+     * that contain it, and their results are merged in the order of the
+     * partitions.
+     * <p>
+     * The caches and pools are those of the partitions. The pools settings
+     * of the returned instance ({@link #getPoolRouter()},
+     * {@link #setReadYourWritesWindow(long)}) are those of the first
+     * partition. Beans can not be moved from a partition to another one. The
+     * returned instance is not registered.
+     * </p>
+     * 
+     * @param p_Root
+     *            Root dn of the searches
+     * @param p_Partitions
+     *            The partitions
+     * @return An instance of {@link LdapBeanManager} that route operations to
+     *         the partitions
+     */
+    public static LdapBeanManager getRoutingInstance(String p_Root,
+	    LdapBeanManager... p_Partitions) {
+	if (p_Partitions.length == 0) {
+	    throw new IllegalArgumentException();
+	}
+	List<LdapBeanManager> partitions = new ArrayList<LdapBeanManager>();
+	for (LdapBeanManager partition : p_Partitions) {
+	    partitions.addAll(partition.getPartitions());
+	}
+	return new LdapBeanManager(p_Root, partitions);
+    }
+
     /** Ldap helper */
     private final LdapObjectManager m_LdapObjectManager;
-    /** Pool of {@link LdapContext} */
-    private final LdapContextPool m_Pool;
+    /** Specification of the cache, or <code>null</code> for the default one */
+    private final CacheSpec m_CacheSpec;
+    /** Router of the pools of {@link LdapContext} */
+    private final LdapContextPoolRouter m_Router;
+    /** Root dn of the directory */
+    private final String m_Root;
+    /** Root dn of the directory, or <code>null</code> if it is not valid */
+    private final LdapName m_RootName;
+    /** Partitions of a routing instance, empty for other instances */
+    private final List<LdapBeanManager> m_Partitions;
+    /** Default timeout (in milliseconds) of the find and search operations */
+    private volatile long m_DefaultTimeout = 0;
+    /** Pool of {@link LdapContext} used to verify credentials of users */
+    private volatile LdapBindPool m_BindPool = null;
+    /** Managers that execute operations as another user, per DN of the user */
+    private final ConcurrentLRUCache<String, LdapBeanManager> m_ProxiedManagers;
+    /**
+     * Digest of the password of an instance returned by
+     * {@link #getInstance(String, String[], String, String, String, CacheSpec)}
+     * , or <code>null</code> if there is no password
+     */
+    private volatile String m_PasswordDigest = null;
+    /**
+     * Properties of the names of the MBeans of this instance, or
+     * <code>null</code> if it has not been returned by
+     * {@link #getInstance(String, String[], String, String, String, CacheSpec)}
+     */
+    private volatile String m_MBeanProperties = null;
 
     /**
      * Constructor
      * 
      * @param p_Url
-     *            The URL of LDAP directory
+     *            The URL of the writable LDAP directory
+     * @param p_ReplicaUrls
+     *            The URLs of the LDAP directories used for read operations,
+     *            or <code>null</code>
+     * @param p_Root
+     *            Root dn of the directory
+     * @param p_Principal
+     *            Login for LDAP authentication
+     * @param p_Password
+     *            Password for LDAP authentication
+     * @param p_CacheSpec
+     *            Specification of the cache, or <code>null</code> to use the
+     *            specification of the configuration
+     */
+    private LdapBeanManager(String p_Url, String[] p_ReplicaUrls,
+	    String p_Root, String p_Principal, String p_Password,
+	    CacheSpec p_CacheSpec) {
+	this(createRouter(p_Url, p_ReplicaUrls, p_Principal, p_Password),
+		p_Root, p_CacheSpec);
+	// The limiter is registered with the instance, if the instance is
+	// kept
+	m_Router.setRateLimiter(createRateLimiter());
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param p_Router
+     *            Router of the pools of {@link LdapContext}
      * @param p_Root
      *            Root dn of the directory
+     * @param p_CacheSpec
+     *            Specification of the cache, or <code>null</code> to use the
+     *            specification of the configuration
+     */
+    private LdapBeanManager(LdapContextPoolRouter p_Router, String p_Root,
+	    CacheSpec p_CacheSpec) {
+	m_Router = p_Router;
+	m_Root = p_Root;
+	m_RootName = parseDn(p_Root);
+	m_Partitions = Collections.emptyList();
+	m_CacheSpec = p_CacheSpec;
+	m_ProxiedManagers = new ConcurrentLRUCache<String, LdapBeanManager>();
+	m_ProxiedManagers.setMaxSize(PROXIED_MANAGERS_SIZE);
+	if (p_CacheSpec == null) {
+	    m_LdapObjectManager = new LdapObjectManager(m_Router, p_Root);
+	} else {
+	    m_LdapObjectManager = new LdapObjectManager(m_Router, p_Root,
+		    p_CacheSpec);
+	}
+    }
+
+    /**
+     * Constructor of a routing instance
+     * 
+     * @param p_Root
+     *            Root dn of the searches
+     * @param p_Partitions
+     *            The partitions, the first one is the default partition
+     */
+    private LdapBeanManager(String p_Root, List<LdapBeanManager> p_Partitions) {
+	LdapBeanManager defaultPartition = p_Partitions.get(0);
+	m_Router = defaultPartition.m_Router;
+	m_Root = p_Root;
+	m_RootName = parseDn(p_Root);
+	m_Partitions = Collections
+		.unmodifiableList(new ArrayList<LdapBeanManager>(p_Partitions));
+	m_CacheSpec = defaultPartition.m_CacheSpec;
+	m_LdapObjectManager = defaultPartition.m_LdapObjectManager;
+	m_ProxiedManagers = new ConcurrentLRUCache<String, LdapBeanManager>();
+	m_ProxiedManagers.setMaxSize(PROXIED_MANAGERS_SIZE);
+    }
+
+    /**
+     * Parse a dn
+     * 
+     * @param p_Dn
+     *            The dn to parse
+     * @return The parsed dn, or <code>null</code> if it is not valid
+     */
+    private static LdapName parseDn(String p_Dn) {
+	LdapName result;
+	try {
+	    result = new LdapName(p_Dn);
+	} catch (InvalidNameException e) {
+	    result = null;
+	}
+	return result;
+    }
+
+    /**
+     * Return the partitions of this instance
+     * 
+     * @return The partitions of a routing instance, or this instance
+     */
+    private List<LdapBeanManager> getPartitions() {
+	List<LdapBeanManager> result = m_Partitions;
+	if (result.isEmpty()) {
+	    result = Collections.singletonList(this);
+	}
+	return result;
+    }
+
+    /**
+     * Return the partition of a dn, that is the partition with the longest
+     * suffix of the dn
+     * 
+     * @param p_Dn
+     *            The dn
+     * @return The partition of the dn, the default partition if there is no
+     *         partition for this dn, or this instance if it is not a routing
+     *         instance
+     */
+    private LdapBeanManager getPartition(String p_Dn) {
+	LdapBeanManager result = this;
+	LdapName name = parseDn(p_Dn);
+	if (!m_Partitions.isEmpty()) {
+	    result = m_Partitions.get(0);
+	    int size = -1;
+	    for (LdapBeanManager partition : m_Partitions) {
+		LdapName suffix = partition.m_RootName;
+		if ((name != null) && (suffix != null)
+			&& (suffix.size() > size) && name.startsWith(suffix)) {
+		    result = partition;
+		    size = suffix.size();
+		}
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Return the base dn of a search of this instance in a partition
+     * 
+     * @param p_Partition
+     *            The partition
+     * @return The base dn of the search, or <code>null</code> if the
+     *         partition is not in the tree of the root dn of this instance
+     */
+    private String getSearchBase(LdapBeanManager p_Partition) {
+	String result;
+	LdapName suffix = p_Partition.m_RootName;
+	if ((m_RootName == null) || (suffix == null)
+		|| suffix.startsWith(m_RootName)) {
+	    result = p_Partition.m_Root;
+	} else if (m_RootName.startsWith(suffix)) {
+	    result = m_Root;
+	} else {
+	    result = null;
+	}
+	return result;
+    }
+
+    /**
+     * Execute an operation in all partitions of this instance that are in
+     * the tree of the root dn. Partitions are queried in parallel, with the
+     * deadline and the priority of the current thread.
+     * 
+     * @param <T>
+     *            Type of the result of the operation
+     * @param p_Callback
+     *            The operation
+     * @return The results of the partitions, in the order of the partitions
+     * @throws NamingException
+     *             If an error occurs in a partition
+     */
+    private <T> List<T> executeInPartitions(
+	    final PartitionCallback<T> p_Callback) throws NamingException {
+	List<T> result = new ArrayList<T>();
+	List<LdapBeanManager> partitions = new ArrayList<LdapBeanManager>();
+	List<String> bases = new ArrayList<String>();
+	for (LdapBeanManager partition : getPartitions()) {
+	    String base = (partition == this) ? m_Root
+		    : getSearchBase(partition);
+	    if (base != null) {
+		partitions.add(partition);
+		bases.add(base);
+	    }
+	}
+	if (partitions.size() == 1) {
+	    result.add(p_Callback.doInPartition(
+		    partitions.get(0).m_LdapObjectManager, bases.get(0)));
+	} else if (partitions.size() > 1) {
+	    List<Future<T>> futures = new ArrayList<Future<T>>();
+	    for (int i = 0; i < partitions.size(); i++) {
+		final LdapObjectManager ldapObjectManager = partitions.get(i)
+			.m_LdapObjectManager;
+		final String base = bases.get(i);
+		futures.add(PARTITION_EXECUTOR.submit(CacheScope
+			.propagate(Priority.propagate(Deadline
+				.propagate(new Callable<T>() {
+				    public T call() throws NamingException {
+					return p_Callback.doInPartition(
+						ldapObjectManager, base);
+				    }
+				})))));
+	    }
+	    try {
+		for (Future<T> future : futures) {
+		    result.add(future.get(Deadline.remaining(Long.MAX_VALUE),
+			    TimeUnit.MILLISECONDS));
+		}
+	    } catch (ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof NamingException) {
+		    throw (NamingException) cause;
+		} else if (cause instanceof RuntimeException) {
+		    throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+		    throw (Error) cause;
+		}
+		throw new RuntimeException(cause);
+	    } catch (TimeoutException e) {
+		throw new TimeLimitExceededException("Deadline exceeded");
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new InterruptedNamingException();
+	    } finally {
+		// Searches of the other partitions are useless after an error
+		for (Future<T> future : futures) {
+		    future.cancel(true);
+		}
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Search LDAP objects in all partitions of this instance
+     * 
+     * @param p_LdapSearch
+     *            The LDAP search
+     * @return List of {@link LdapObject} corresponding to the LDAP search
+     * @throws NamingException
+     *             If an error occurs
+     */
+    private List<LdapObject> searchLdapObjects(final String p_LdapSearch)
+	    throws NamingException {
+	List<LdapObject> result = new ArrayList<LdapObject>();
+	List<List<LdapObject>> results = executeInPartitions(new PartitionCallback<List<LdapObject>>() {
+	    public List<LdapObject> doInPartition(
+		    LdapObjectManager p_LdapObjectManager, String p_Base)
+		    throws NamingException {
+		return p_LdapObjectManager.search(p_Base, p_LdapSearch);
+	    }
+	});
+	for (List<LdapObject> ldapObjects : results) {
+	    result.addAll(ldapObjects);
+	}
+	return result;
+    }
+
+    /**
+     * Search the first LDAP object in the partitions of this instance
+     * 
+     * @param p_LdapSearch
+     *            The LDAP search
+     * @return The first {@link LdapObject} corresponding to the LDAP search,
+     *         in the order of the partitions, or <code>null</code>
+     * @throws NamingException
+     *             If an error occurs
+     */
+    private LdapObject searchFirstLdapObject(final String p_LdapSearch)
+	    throws NamingException {
+	LdapObject result = null;
+	List<LdapObject> results = executeInPartitions(new PartitionCallback<LdapObject>() {
+	    public LdapObject doInPartition(
+		    LdapObjectManager p_LdapObjectManager, String p_Base)
+		    throws NamingException {
+		return p_LdapObjectManager.searchFirst(p_Base, p_LdapSearch);
+	    }
+	});
+	for (LdapObject ldapObject : results) {
+	    if ((result == null) && (ldapObject != null)) {
+		result = ldapObject;
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Create the router of the pools of {@link LdapContext}
+     * 
+     * @param p_Url
+     *            The URL of the writable LDAP directory
+     * @param p_ReplicaUrls
+     *            The URLs of the LDAP directories used for read operations,
+     *            or <code>null</code>
      * @param p_Principal
      *            Login for LDAP authentication
      * @param p_Password
      *            Password for LDAP authentication
+     * @return The router of the pools
+     */
+    private static LdapContextPoolRouter createRouter(String p_Url,
+	    String[] p_ReplicaUrls, String p_Principal, String p_Password) {
+	List<LdapContextPool> replicaPools = new ArrayList<LdapContextPool>();
+	if (p_ReplicaUrls != null) {
+	    for (String replicaUrl : p_ReplicaUrls) {
+		replicaPools.add(getPool(replicaUrl, p_Principal, p_Password));
+	    }
+	}
+	return new LdapContextPoolRouter(getPool(p_Url, p_Principal,
+		p_Password), replicaPools);
+    }
+
+    /**
+     * Compute the digest of a password, so that the password is not kept in
+     * the keys of the instances and pools
+     * 
+     * @param p_Password
+     *            The password, or <code>null</code>
+     * @return The SHA-256 digest of the password in hexadecimal, or
+     *         <code>null</code> if the password is <code>null</code>
      */
-    private LdapBeanManager(String p_Url, String p_Root, String p_Principal,
+    private static String digest(String p_Password) {
+	String result = null;
+	if (p_Password != null) {
+	    try {
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+			p_Password.getBytes("UTF-8"));
+		result = String.format("%064x", new BigInteger(1, digest));
+	    } catch (GeneralSecurityException e) {
+		// SHA-256 is supported by every Java platform
+		throw new RuntimeException(e);
+	    } catch (UnsupportedEncodingException e) {
+		// UTF-8 is supported by every Java platform
+		throw new RuntimeException(e);
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Create the rate limiter of a new instance from the configuration
+     * 
+     * @return The rate limiter, or <code>null</code> if no rate is limited
+     */
+    private static RateLimiter createRateLimiter() {
+	RateLimiter result = null;
+	long readRateLimit = CONFIG.getReadRateLimit();
+	long searchRateLimit = CONFIG.getSearchRateLimit();
+	long writeRateLimit = CONFIG.getWriteRateLimit();
+	if ((readRateLimit > 0) || (searchRateLimit > 0)
+		|| (writeRateLimit > 0)) {
+	    result = new RateLimiter(true);
+	    result.setRate(OperationType.READ, readRateLimit);
+	    result.setRate(OperationType.SEARCH, searchRateLimit);
+	    result.setRate(OperationType.WRITE, writeRateLimit);
+	}
+	return result;
+    }
+
+    /**
+     * Return the pool of {@link LdapContext} of a directory and an identity.
+     * The pool is shared by all the instances that use this directory with
+     * this identity.
+     * 
+     * @param p_Url
+     *            The URL of the LDAP directory
+     * @param p_Principal
+     *            Login for LDAP authentication
+     * @param p_Password
+     *            Password for LDAP authentication
+     * @return The pool of {@link LdapContext}
+     */
+    private static LdapContextPool getPool(String p_Url, String p_Principal,
 	    String p_Password) {
-	m_Pool = new LdapContextPool(10, p_Url, p_Principal, p_Password);
-	m_LdapObjectManager = new LdapObjectManager(m_Pool, p_Root);
+	GenericKey key = new GenericKey(p_Url, p_Principal,
+		digest(p_Password));
+	LdapContextPool pool = POOLS.get(key);
+	if (pool == null) {
+	    // No connection is opened until the pool is used
+	    pool = new LdapContextPool(POOL_SIZE, p_Url, p_Principal,
+		    p_Password);
+	    LdapContextPool previous = POOLS.putIfAbsent(key, pool);
+	    if (previous != null) {
+		pool = previous;
+	    }
+	}
+	return pool;
+    }
+
+    /**
+     * Return a manager that execute every operation as another user. The
+     * operations use the connections of this manager, with the proxied
+     * authorization control (RFC 4370), so the user does not have to bind.
+     * The user of this manager must be allowed to use this control.
+     * <p>
+     * The returned manager has its own cache, since the user may not see the
+     * same entries and attributes, and is not registered. The managers of
+     * the most recently used DN are kept, so the manager of a user, and its
+     * cache, can be requested for each request of the user. Their caches are
+     * cleared with the cache of this manager.
+     * </p>
+     * 
+     * @param p_Dn
+     *            DN of the user
+     * @return A manager that execute operations as the user
+     */
+    public LdapBeanManager getProxiedManager(String p_Dn) {
+	LdapBeanManager manager = m_ProxiedManagers.get(p_Dn);
+	if (manager == null) {
+	    if (m_Partitions.isEmpty()) {
+		manager = new LdapBeanManager(m_Router.proxiedAs(p_Dn),
+			m_Root, m_CacheSpec);
+	    } else {
+		List<LdapBeanManager> partitions;
+		partitions = new ArrayList<LdapBeanManager>();
+		for (LdapBeanManager partition : m_Partitions) {
+		    partitions.add(partition.getProxiedManager(p_Dn));
+		}
+		manager = new LdapBeanManager(m_Root, partitions);
+	    }
+	    LdapBeanManager previous = m_ProxiedManagers.putIfAbsent(p_Dn,
+		    manager);
+	    if (previous != null) {
+		// Another thread has created the manager
+		manager = previous;
+	    }
+	}
+	// The timeout may have changed since the creation of the manager
+	manager.setDefaultTimeout(m_DefaultTimeout);
+	return manager;
     }
 
     /**
      * Clear the Ldap cache
      */
     public void clearCache() {
-	m_LdapObjectManager.clearCache();
+	for (LdapBeanManager partition : getPartitions()) {
+	    partition.m_LdapObjectManager.clearCache();
+	    for (CacheEntry<String, LdapBeanManager> entry : partition
+		    .m_ProxiedManagers) {
+		entry.getValue().clearCache();
+	    }
+	}
+    }
+
+    /**
+     * Check that the objects of the Ldap cache are up to date. Only the
+     * versions of the entries are read, by batches, and the attributes are
+     * reloaded only for the entries whose version has changed.
+     * 
+     * @return The number of objects reloaded or removed from the cache
+     * @throws NamingException
+     *             If an error occurs
+     * @see LdapObjectManager#revalidate(java.util.Collection)
+     */
+    public int revalidateCache() throws NamingException {
+	int result = 0;
+	for (LdapBeanManager partition : getPartitions()) {
+	    result += partition.m_LdapObjectManager.revalidateCache();
+	}
+	return result;
+    }
+
+    /**
+     * Start to keep the Ldap cache in sync with the changes of the directory
+     * 
+     * @see LdapObjectManager#startChangeMonitoring()
+     */
+    public void startChangeMonitoring() {
+	for (LdapBeanManager partition : getPartitions()) {
+	    partition.m_LdapObjectManager.startChangeMonitoring();
+	}
+    }
+
+    /**
+     * Stop to listen to the changes of the directory
+     * 
+     * @see LdapObjectManager#stopChangeMonitoring()
+     */
+    public void stopChangeMonitoring() {
+	for (LdapBeanManager partition : getPartitions()) {
+	    partition.m_LdapObjectManager.stopChangeMonitoring();
+	}
+    }
+
+    /**
+     * Add a listener notified of the changes of the directory, while the
+     * changes are monitored
+     * 
+     * @param p_Listener
+     *            The listener
+     * @see #startChangeMonitoring()
+     */
+    public void addChangeListener(LdapChangeListener p_Listener) {
+	for (LdapBeanManager partition : getPartitions()) {
+	    partition.m_LdapObjectManager.addChangeListener(p_Listener);
+	}
+    }
+
+    /**
+     * Remove a listener of the changes of the directory
+     * 
+     * @param p_Listener
+     *            The listener
+     */
+    public void removeChangeListener(LdapChangeListener p_Listener) {
+	for (LdapBeanManager partition : getPartitions()) {
+	    partition.m_LdapObjectManager.removeChangeListener(p_Listener);
+	}
+    }
+
+    /**
+     * Share the invalidations of the Ldap cache with the other managers of a
+     * bus, for example the managers of the other nodes of a cluster
+     * 
+     * @param p_InvalidationBus
+     *            The bus, or <code>null</code> to leave the current bus
+     * @see LdapObjectManager#setInvalidationBus(InvalidationBus)
+     */
+    public void setInvalidationBus(InvalidationBus p_InvalidationBus) {
+	for (LdapBeanManager partition : getPartitions()) {
+	    partition.m_LdapObjectManager
+		    .setInvalidationBus(p_InvalidationBus);
+	}
+    }
+
+    /**
+     * Change the read-your-writes window. After a write, the current thread
+     * will read from the writable directory instead of the replicas during
+     * this time, so freshly stored beans are not read stale.
+     * 
+     * @param p_ReadYourWritesWindow
+     *            Time in milliseconds, or 0 to disable
+     */
+    public void setReadYourWritesWindow(long p_ReadYourWritesWindow) {
+	m_Router.setReadYourWritesWindow(p_ReadYourWritesWindow);
+    }
+
+    /**
+     * Return the router of the pools used by this manager. It can be used to
+     * configure the pools (retry policy, circuit breaker, limits of
+     * concurrent operations...)
+     * 
+     * @return The router of the pools used by this manager
+     */
+    public LdapContextPoolRouter getPoolRouter() {
+	return m_Router;
+    }
+
+    /**
+     * Change the default timeout of the find and search operations. The
+     * timeout covers the wait for a connection and the operation on the
+     * directory. Operations executed during another operation (for example a
+     * relation getter) never get more time than the outer operation.
+     * 
+     * @param p_DefaultTimeout
+     *            Timeout in milliseconds, or 0 if there is no timeout
+     */
+    public void setDefaultTimeout(long p_DefaultTimeout) {
+	m_DefaultTimeout = p_DefaultTimeout;
+    }
+
+    /**
+     * Return the default timeout of the find and search operations
+     * 
+     * @return Timeout in milliseconds, or 0 if there is no timeout
+     */
+    public long getDefaultTimeout() {
+	return m_DefaultTimeout;
+    }
+
+    /**
+     * Return the pool of {@link LdapContext} used to verify credentials of
+     * users. It is created at the first verification. Its metrics give the
+     * throughput of the verifications.
+     * 
+     * @return The pool used to verify credentials of users
+     */
+    public LdapBindPool getBindPool() {
+	LdapBindPool bindPool = m_BindPool;
+	if (bindPool == null) {
+	    synchronized (this) {
+		bindPool = m_BindPool;
+		if (bindPool == null) {
+		    // Idle contexts are anonymous, so they never keep the
+		    // identity of a user
+		    String url = m_Router.getPrimaryPool().getUrl();
+		    bindPool = new LdapBindPool(POOL_SIZE, url, null, null);
+		    m_BindPool = bindPool;
+		}
+	    }
+	}
+	return bindPool;
+    }
+
+    /**
+     * Verify the credentials of a user. The verification uses connections
+     * that are kept open, and the DN of an uid is kept in an index, so a
+     * verification usually cost a single bind.
+     * 
+     * @param p_DnOrUid
+     *            DN or uid of the user
+     * @param p_Password
+     *            Password of the user
+     * @return <code>true</code> if the credentials are valid,
+     *         <code>false</code> otherwise
+     * @throws NamingException
+     *             If the credentials can not be verified
+     */
+    public boolean authenticate(String p_DnOrUid, String p_Password)
+	    throws NamingException {
+	String dn = null;
+	if (p_DnOrUid.indexOf('=') >= 0) {
+	    dn = p_DnOrUid;
+	} else {
+	    for (LdapBeanManager partition : getPartitions()) {
+		if (dn == null) {
+		    dn = partition.m_LdapObjectManager.getDnByUid(p_DnOrUid);
+		}
+	    }
+	}
+	return (dn != null)
+		&& getPartition(dn).getBindPool().authenticate(dn, p_Password);
+    }
+
+    /**
+     * Return the read-your-writes window
+     * 
+     * @return Time in milliseconds during witch the current thread will read
+     *         from the writable directory after a write
+     */
+    public long getReadYourWritesWindow() {
+	return m_Router.getReadYourWritesWindow();
+    }
+
+    /**
+     * Change the limiter of the rate of operations of this instance. For an
+     * instance returned by <code>getInstance</code>, the limiter is
+     * registered in the platform MBean server with the name
+     * <code>ldapbeans:type=RateLimiter,name="url/root",principal="principal"</code>
+     * . As the registry refuses the calls with a wrong password, this MBean is
+     * never replaced by the limiter of another instance. For a routing
+     * instance, the limiter is used by the default partition.
+     * 
+     * @param p_RateLimiter
+     *            The rate limiter, or <code>null</code> for no limit
+     */
+    public void setRateLimiter(RateLimiter p_RateLimiter) {
+	if (!m_Partitions.isEmpty()) {
+	    m_Partitions.get(0).setRateLimiter(p_RateLimiter);
+	} else {
+	    if (m_MBeanProperties != null) {
+		registerMBean(getMBeanName("RateLimiter"), p_RateLimiter);
+	    }
+	    m_Router.setRateLimiter(p_RateLimiter);
+	}
+    }
+
+    /**
+     * Register the MBeans of an instance that has been kept by
+     * <code>getInstance</code>. It is called once per url, root dn and
+     * principal, the calls with a wrong password being refused, so the MBeans
+     * of an instance are never replaced by those of another instance.
+     * Instances that use the same directory with different identities have
+     * different names.
+     * 
+     * @param p_Principal
+     *            User name used to login to the directory, or
+     *            <code>null</code>
+     */
+    private void register(String p_Principal) {
+	String properties = "name="
+		+ ObjectName.quote(m_Router.getPrimaryPool().getUrl() + "/"
+			+ m_Root);
+	if (p_Principal != null) {
+	    properties += ",principal=" + ObjectName.quote(p_Principal);
+	}
+	m_MBeanProperties = properties;
+	registerMBean(getMBeanName("Cache"), m_LdapObjectManager);
+	RateLimiter rateLimiter = m_Router.getRateLimiter();
+	if (rateLimiter != null) {
+	    registerMBean(getMBeanName("RateLimiter"), rateLimiter);
+	}
+    }
+
+    /**
+     * Return the name of a MBean of this instance
+     * 
+     * @param p_Type
+     *            The type of the MBean
+     * @return The name
+     *         <code>ldapbeans:type=type,name="url/root",principal="principal"</code>
+     */
+    private String getMBeanName(String p_Type) {
+	return "ldapbeans:type=" + p_Type + "," + m_MBeanProperties;
+    }
+
+    /**
+     * Register a MBean in the platform MBean server. A MBean already
+     * registered with the same name is replaced.
+     * 
+     * @param p_Name
+     *            The name of the MBean
+     * @param p_MBean
+     *            The MBean, or <code>null</code> to only unregister the
+     *            previous one
+     */
+    private void registerMBean(String p_Name, Object p_MBean) {
+	try {
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    ObjectName objectName = new ObjectName(p_Name);
+	    if (server.isRegistered(objectName)) {
+		server.unregisterMBean(objectName);
+	    }
+	    if (p_MBean != null) {
+		server.registerMBean(p_MBean, objectName);
+	    }
+	} catch (JMException e) {
+	    LOG.warn(MESSAGE.getMBeanRegistrationErrorMessage(p_Name), e);
+	}
+    }
+
+    /**
+     * Return the limiter of the rate of operations of this instance
+     * 
+     * @return The rate limiter, or <code>null</code> if there is no limit
+     */
+    public RateLimiter getRateLimiter() {
+	return m_Router.getRateLimiter();
     }
 
     /**
@@ -191,13 +1116,16 @@ public final class LdapBeanManager {
      */
     public <T extends LdapBean> T create(Class<T> p_Class, String p_Dn) {
 	T bean;
-	LdapObject ldapObject = m_LdapObjectManager.getLdapObjectByDn(p_Dn);
+	LdapObject ldapObject = getPartition(p_Dn).m_LdapObjectManager
+		.getLdapObjectByDn(p_Dn);
 	LdapBeanHelper.getInstance().addObjectClass(p_Class,
 		ldapObject.getAttributes());
 	if (ldapObject.isNew()) {
 	    try {
-		// If object already exists, we have to restore it
-		ldapObject.restore();
+		// If object already exists, we have to restore it.
+		// The bean will be written, so it is read from the writable
+		// directory
+		ldapObject.restoreFromPrimary();
 	    } catch (NamingException e) {
 		// Object does not exist, we keep the new ldapobject
 	    }
@@ -259,17 +1187,42 @@ public final class LdapBeanManager {
      * @return A bean corresponding to the dn, or <code>null</code> if not found
      */
     public <T extends LdapBean> T findByDn(Class<T> p_Class, String p_Dn) {
+	return findByDn(p_Class, p_Dn, m_DefaultTimeout);
+    }
+
+    /**
+     * Find a bean based on his dn
+     * 
+     * @param <T>
+     *            The type of the bean
+     * @param p_Class
+     *            The interface that the bean have to implement
+     * @param p_Dn
+     *            Dn of the bean to find
+     * @param p_Timeout
+     *            Timeout of the operation in milliseconds, or 0 if there is
+     *            no timeout
+     * @return A bean corresponding to the dn, or <code>null</code> if not found
+     *         in time
+     */
+    public <T extends LdapBean> T findByDn(Class<T> p_Class, String p_Dn,
+	    long p_Timeout) {
 	LdapObject ldapObject;
 	// ldapObject can't be null, but it's attributes can
-	ldapObject = m_LdapObjectManager.getLdapObjectByDn(p_Dn);
+	ldapObject = getPartition(p_Dn).m_LdapObjectManager
+		.getLdapObjectByDn(p_Dn);
 	if (ldapObject.isNew()) {
+	    Deadline previous = Deadline.start(p_Timeout);
 	    try {
 		// If ldapobject was not in cache, we have to check that it
 		// exists in directory
-		ldapObject.restore();
+		getPartition(p_Dn).m_LdapObjectManager
+			.restoreLdapObject(ldapObject);
 	    } catch (NamingException e) {
 		// Object does not exist in directory, bean will not be created
 		ldapObject = null;
+	    } finally {
+		Deadline.restore(previous);
 	    }
 	}
 	// Else, ldap object was extract from cache, attributes was not updated
@@ -301,12 +1254,36 @@ public final class LdapBeanManager {
      *         found
      */
     public <T extends LdapBean> T findByUid(Class<T> p_Class, String p_Uid) {
+	return findByUid(p_Class, p_Uid, m_DefaultTimeout);
+    }
+
+    /**
+     * Find a bean based on his uid
+     * 
+     * @param <T>
+     *            The type of the bean
+     * @param p_Class
+     *            The interface that the bean have to implement
+     * @param p_Uid
+     *            Uid of the bean to find
+     * @param p_Timeout
+     *            Timeout of the operation in milliseconds, or 0 if there is
+     *            no timeout
+     * @return A bean corresponding to the uid, or <code>null</code> if not
+     *         found in time
+     */
+    public <T extends LdapBean> T findByUid(Class<T> p_Class, String p_Uid,
+	    long p_Timeout) {
 	LdapObject ldapObject;
+	Deadline previous = Deadline.start(p_Timeout);
 	try {
 	    // ldapObject can be null if uid was not found
-	    ldapObject = m_LdapObjectManager.getLdapObjectByUid(p_Uid);
+	    ldapObject = searchFirstLdapObject("(uid="
+		    + StringUtil.escapeFilterValue(p_Uid) + ")");
 	} catch (NamingException e) {
 	    ldapObject = null;
+	} finally {
+	    Deadline.restore(previous);
 	}
 	return createInstance(p_Class, ldapObject);
     }
@@ -337,15 +1314,67 @@ public final class LdapBeanManager {
      */
     public <T extends LdapBean> List<T> search(Class<T> p_Class,
 	    String p_LdapSearch) {
+	return search(p_Class, p_LdapSearch, m_DefaultTimeout);
+    }
+
+    /**
+     * Find a list of beans
+     * 
+     * @param <T>
+     *            The type of the bean
+     * @param p_Class
+     *            The interface that the bean have to implement
+     * @param p_LdapSearch
+     *            The LDAP search
+     * @param p_Timeout
+     *            Timeout of the operation in milliseconds, or 0 if there is
+     *            no timeout
+     * @return A list of beans corresponding to the LDAP search, or an empty
+     *         list if the search was not finished in time
+     */
+    public <T extends LdapBean> List<T> search(Class<T> p_Class,
+	    String p_LdapSearch, long p_Timeout) {
+	return search(p_Class, p_LdapSearch, p_Timeout, CacheScope.current()
+		.getMode());
+    }
+
+    /**
+     * Find a list of beans. A bulk search can use {@link CacheMode#NONE} or
+     * {@link CacheMode#READ_ONLY}, so its results do not replace the entries
+     * of the cache used by the interactive lookups.
+     * 
+     * @param <T>
+     *            The type of the bean
+     * @param p_Class
+     *            The interface that the bean have to implement
+     * @param p_LdapSearch
+     *            The LDAP search
+     * @param p_Timeout
+     *            Timeout of the operation in milliseconds, or 0 if there is
+     *            no timeout
+     * @param p_CacheMode
+     *            Usage of the cache by the search
+     * @return A list of beans corresponding to the LDAP search, or an empty
+     *         list if the search was not finished in time
+     * @see CacheScope
+     */
+    public <T extends LdapBean> List<T> search(Class<T> p_Class,
+	    String p_LdapSearch, long p_Timeout, CacheMode p_CacheMode) {
 	List<T> result = new ArrayList<T>();
+	CacheScope previousScope = CacheScope.start(p_CacheMode, CacheScope
+		.current().getScanCache());
 	List<LdapObject> ldapObjects;
+	Deadline previous = Deadline.start(p_Timeout);
 	try {
-	    ldapObjects = m_LdapObjectManager.search(p_LdapSearch);
+	    ldapObjects = searchLdapObjects(p_LdapSearch);
 	    for (LdapObject ldapObject : ldapObjects) {
 		result.add(createInstance(p_Class, ldapObject));
 	    }
 	} catch (NamingException e) {
 	    // Nothing to do
+	} finally {
+	    Deadline.restore(previous);
+	    CacheScope.restore(previousScope);
 	}
 	return result;
     }
@@ -374,15 +1403,38 @@ public final class LdapBeanManager {
      */
     public <T extends LdapBean> T searchFirst(Class<T> p_Class,
 	    String p_LdapSearch) {
+	return searchFirst(p_Class, p_LdapSearch, m_DefaultTimeout);
+    }
+
+    /**
+     * Find the fist bean corresponding to the search
+     * 
+     * @param <T>
+     *            The type of the bean
+     * @param p_Class
+     *            The interface that the bean have to implement
+     * @param p_LdapSearch
+     *            The LDAP search
+     * @param p_Timeout
+     *            Timeout of the operation in milliseconds, or 0 if there is
+     *            no timeout
+     * @return The first bean corresponding to the LDAP search, or
+     *         <code>null</code> if not found in time
+     */
+    public <T extends LdapBean> T searchFirst(Class<T> p_Class,
+	    String p_LdapSearch, long p_Timeout) {
 	T result = null;
 	LdapObject ldapObject;
+	Deadline previous = Deadline.start(p_Timeout);
 	try {
-	    ldapObject = m_LdapObjectManager.searchFirst(p_LdapSearch);
+	    ldapObject = searchFirstLdapObject(p_LdapSearch);
 	    if (ldapObject != null) {
 		result = createInstance(p_Class, ldapObject);
 	    }
 	} catch (NamingException e) {
 	    // Nothing to do
+	} finally {
+	    Deadline.restore(previous);
 	}
 	return result;
     }
@@ -438,11 +1490,14 @@ public final class LdapBeanManager {
     @SuppressWarnings("unchecked")
     private <T extends LdapBean> T createInstance(Class<?>[] p_Classes,
 	    LdapObject p_LdapObject) {
+	// Beans are written by the partition of their dn
+	LdapObjectManager ldapObjectManager = getPartition(p_LdapObject
+		.getDn()).m_LdapObjectManager;
 	if (CONFIG.useProxyBean()) {
 	    return (T) Proxy.newProxyInstance(LdapBeanInvocationHandler.class
 		    .getClassLoader(), p_Classes,
 		    new LdapBeanInvocationHandler(p_LdapObject,
-			    m_LdapObjectManager));
+			    ldapObjectManager));
 	} else {
 	    try {
 		return (T) LdapBeanClassManager
@@ -450,7 +1505,7 @@ public final class LdapBeanManager {
 			.getClass(p_Classes)
 			.getConstructor(LdapBeanManager.class,
 				LdapObjectManager.class, LdapObject.class)
-			.newInstance(this, m_LdapObjectManager, p_LdapObject);
+			.newInstance(this, ldapObjectManager, p_LdapObject);
 	    } catch (Exception e) {
 		LOG.error(MESSAGE.getLdapBeanCreationErrorMessage(), e);
 		return null;
@@ -0,0 +1,39 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.bean;
+
+public interface LdapChangeListener {
+    /**
+     * Called when an entry of the tree of the root DN of a
+     * {@link LdapObjectManager} is changed by any client of the directory.
+     * The cache of the manager has already been updated, but the attributes
+     * of a modified entry may still be being reloaded.
+     * 
+     * @param p_Type
+     *            The kind of change
+     * @param p_Dn
+     *            The DN of the entry, before the change
+     * @param p_NewDn
+     *            The new DN of a renamed entry, or <code>null</code> for
+     *            other changes
+     */
+    void changed(ChangeType p_Type, String p_Dn, String p_NewDn);
+}
@@ -20,6 +20,9 @@
  */
 package ldapbeans.bean;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
@@ -27,12 +30,43 @@ import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttributes;
 import javax.naming.ldap.LdapContext;
 
+import ldapbeans.util.pool.ContextCallback;
 import ldapbeans.util.pool.LdapContextPool;
+import ldapbeans.util.pool.LdapContextPoolRouter;
+import ldapbeans.util.pool.OperationType;
 
 public class LdapObject {
+    /** Updater that swaps the attributes of a refreshed LdapObject */
+    private final static AtomicReferenceFieldUpdater<LdapObject, Attributes> ATTRIBUTES;
+
+    /**
+     * Operational attributes that identify an entry and its version: entryUUID
+     * (RFC 4530), entryCSN and modifyTimestamp (RFC 4512)
+     */
+    final static String[] VERSION_ATTRIBUTES;
+
+    /** Attributes read from the directory: user attributes and version */
+    final static String[] RETURNED_ATTRIBUTES;
+
+    /** Static constructor */
+    static {
+	ATTRIBUTES = AtomicReferenceFieldUpdater.newUpdater(LdapObject.class,
+		Attributes.class, "m_Attributes");
+	VERSION_ATTRIBUTES = new String[] { "entryUUID", "entryCSN",
+		"modifyTimestamp" };
+	RETURNED_ATTRIBUTES = new String[] { "*", "entryUUID", "entryCSN",
+		"modifyTimestamp" };
+    }
+
     private boolean m_IsNew;
-    private final LdapContextPool m_Pool;
-    private Attributes m_Attributes;
+    private final LdapContextPoolRouter m_Router;
+    private volatile Attributes m_Attributes;
+    private volatile long m_LoadTime;
+    private volatile String m_EntryUuid;
+    private volatile String m_EntryCsn;
+    private volatile String m_ModifyTimestamp;
+    private final AtomicInteger m_Modifications;
+    private volatile int m_SavedModifications;
     private String m_Dn;
 
     /**
@@ -48,15 +82,35 @@ public class LdapObject {
      */
     public LdapObject(LdapContextPool p_Pool, String p_Dn,
 	    Attributes p_Attributes) {
+	this(new LdapContextPoolRouter(p_Pool), p_Dn, p_Attributes);
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param p_Router
+     *            Router that give the pool of LdapContext to use for each
+     *            operation
+     * @param p_Dn
+     *            Dn of the LdapObject
+     * @param p_Attributes
+     *            Attribute of the LdapObject. If <code>null</code>, LdapObject
+     *            will be created with new {@link BasicAttributes}
+     */
+    public LdapObject(LdapContextPoolRouter p_Router, String p_Dn,
+	    Attributes p_Attributes) {
 	m_IsNew = false;
-	m_Pool = p_Pool;
+	m_Router = p_Router;
 	m_Dn = p_Dn;
+	m_Modifications = new AtomicInteger();
 	if (p_Attributes == null) {
 	    m_Attributes = new BasicAttributes();
 	    m_IsNew = true;
 	} else {
+	    String[] version = removeVersion(p_Attributes);
 	    m_Attributes = p_Attributes;
 	    m_IsNew = false;
+	    loaded(version);
 	}
     }
 
@@ -79,13 +133,72 @@ public class LdapObject {
     }
 
     /**
-     * Modify Attributes of the LdapObject
+     * Modify Attributes of the LdapObject. The operational attributes that
+     * give the version of the entry are removed from the attributes and kept
+     * apart.
      * 
      * @param p_Attributes
      *            The new attributes
      */
     public void setAttributes(Attributes p_Attributes) {
+	String[] version = removeVersion(p_Attributes);
 	m_Attributes = p_Attributes;
+	loaded(version);
+    }
+
+    /**
+     * Return the unique identifier of the entry (entryUUID)
+     * 
+     * @return The identifier, or <code>null</code> if it is not known
+     */
+    public String getEntryUuid() {
+	return m_EntryUuid;
+    }
+
+    /**
+     * Return the change sequence number of the entry (entryCSN)
+     * 
+     * @return The change sequence number, or <code>null</code> if it is not
+     *         known
+     */
+    public String getEntryCsn() {
+	return m_EntryCsn;
+    }
+
+    /**
+     * Return the time of the last modification of the entry
+     * (modifyTimestamp)
+     * 
+     * @return The time in generalized time format, or <code>null</code> if
+     *         it is not known
+     */
+    public String getModifyTimestamp() {
+	return m_ModifyTimestamp;
+    }
+
+    /**
+     * Return the version of the attributes, made of the change sequence
+     * number of the entry and of the time of its last modification. Both are
+     * used since some directories do not change the sequence number when
+     * replication is disabled. The time has a resolution of one second, so
+     * directories that do not change the sequence number do not give a new
+     * version to an entry modified twice in the same second.
+     * 
+     * @return The version, or <code>null</code> if it is not known
+     */
+    public String getVersion() {
+	return getVersion(new String[] { m_EntryUuid, m_EntryCsn,
+		m_ModifyTimestamp });
+    }
+
+    /**
+     * Return the time of the last read or write of the attributes in the
+     * directory
+     * 
+     * @return The time, as given by {@link System#nanoTime()}
+     */
+    public long getLoadTime() {
+	return m_LoadTime;
     }
 
     /**
@@ -100,24 +213,49 @@ public class LdapObject {
     }
 
     /**
-     * Save LdapObject in the directory
+     * Record a modification of the attributes, that is not saved in the
+     * directory until {@link #store()} is called. It must be called before
+     * the attributes are modified in place.
+     */
+    public void modified() {
+	m_Modifications.incrementAndGet();
+    }
+
+    /**
+     * Return <code>true</code> if the attributes have been modified since
+     * they were read from or written to the directory
+     * 
+     * @return <code>true</code> if the attributes have unsaved modifications
+     */
+    public boolean isModified() {
+	return m_Modifications.get() != m_SavedModifications;
+    }
+
+    /**
+     * Save LdapObject in the directory. The version given to the entry by the
+     * write is read back, so the next revalidation does not reload the
+     * attributes.
      * 
      * @throws NamingException
      *             If an error occurs
      */
     public void store() throws NamingException {
-	LdapContext context = m_Pool.acquire();
-	try {
-	    if (m_IsNew) {
-		context.createSubcontext(getDn(), getAttributes());
-		m_IsNew = false;
-	    } else {
-		context.modifyAttributes(getDn(),
-			LdapContext.REPLACE_ATTRIBUTE, getAttributes());
+	final int modifications = m_Modifications.get();
+	m_Router.execute(OperationType.WRITE, new ContextCallback<Void>() {
+	    public Void doInContext(LdapContext p_Context)
+		    throws NamingException {
+		if (m_IsNew) {
+		    p_Context.createSubcontext(getDn(), getAttributes());
+		    m_IsNew = false;
+		} else {
+		    p_Context.modifyAttributes(getDn(),
+			    LdapContext.REPLACE_ATTRIBUTE, getAttributes());
+		}
+		m_SavedModifications = modifications;
+		loaded(readVersion(p_Context));
+		return null;
 	    }
-	} finally {
-	    m_Pool.release(context);
-	}
+	});
     }
 
     /**
@@ -127,13 +265,216 @@ public class LdapObject {
      *             If an error occurs
      */
     public void restore() throws NamingException {
-	LdapContext context = m_Pool.acquire();
+	restored(m_Router.execute(OperationType.READ, createRestoreCallback()));
+    }
+
+    /**
+     * Restore LdapObject from the writable directory. It must be used when
+     * the LdapObject is about to be written, so it is not restored from a
+     * replica that may not be up to date.
+     * 
+     * @throws NamingException
+     *             If an error occurs
+     */
+    public void restoreFromPrimary() throws NamingException {
+	restored(m_Router.executeOnPrimary(OperationType.READ,
+		createRestoreCallback()));
+    }
+
+    /**
+     * Reload the attributes of the LdapObject from the directory. The new
+     * attributes are swapped in atomically, and only if the attributes have
+     * not been replaced during the read, so newer attributes are never
+     * overwritten. Readers see either the previous or the new attributes.
+     * The attributes are not replaced while they have unsaved modifications.
+     * 
+     * @return <code>true</code> if the attributes have been replaced
+     * @throws NamingException
+     *             If an error occurs
+     */
+    public boolean refresh() throws NamingException {
+	boolean result = false;
+	if (!isModified()) {
+	    Attributes previous = m_Attributes;
+	    Attributes attributes = m_Router.execute(OperationType.READ,
+		    createRestoreCallback());
+	    String[] version = removeVersion(attributes);
+	    // The attributes may have been modified during the read
+	    result = !isModified()
+		    && ATTRIBUTES.compareAndSet(this, previous, attributes);
+	    if (result) {
+		loaded(version);
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Check that the LdapObject is up to date. Only the version of the entry
+     * is read from the directory, the attributes are reloaded with
+     * {@link #refresh()} if the version has changed or is not known.
+     * 
+     * @return <code>true</code> if the attributes have been reloaded
+     * @throws NamingException
+     *             If an error occurs
+     */
+    public boolean revalidate() throws NamingException {
+	boolean result;
+	String version = getVersion();
+	if ((version != null) && version.equals(readVersion())) {
+	    validated();
+	    result = false;
+	} else {
+	    result = refresh();
+	}
+	return result;
+    }
+
+    /**
+     * Read the version of the entry, with a base-scope search that return
+     * only the operational attributes of the version
+     * 
+     * @return The version of the entry, or <code>null</code> if it is not
+     *         known
+     * @throws NamingException
+     *             If an error occurs
+     */
+    private String readVersion() throws NamingException {
+	final String dn = m_Dn;
+	return m_Router.execute(OperationType.READ,
+		new ContextCallback<String>() {
+		    public String doInContext(LdapContext p_Context)
+			    throws NamingException {
+			return getVersion(p_Context.getAttributes(dn,
+				VERSION_ATTRIBUTES));
+		    }
+		});
+    }
+
+    /**
+     * Read the version of the entry after a write, with the context of the
+     * write. The write has succeeded, so an error only makes the version
+     * unknown.
+     * 
+     * @param p_Context
+     *            The context of the write
+     * @return The values of the {@link #VERSION_ATTRIBUTES}, or
+     *         <code>null</code> for the unknown ones
+     */
+    private String[] readVersion(LdapContext p_Context) {
+	String[] result;
 	try {
-	    m_Attributes = context.getAttributes(m_Dn);
-	    m_IsNew = false;
-	} finally {
-	    m_Pool.release(context);
+	    result = removeVersion(p_Context.getAttributes(m_Dn,
+		    VERSION_ATTRIBUTES));
+	} catch (NamingException e) {
+	    result = new String[VERSION_ATTRIBUTES.length];
+	}
+	return result;
+    }
+
+    /**
+     * Mark the LdapObject as up to date, after its version has been checked
+     */
+    void validated() {
+	m_LoadTime = System.nanoTime();
+    }
+
+    /**
+     * Return the version of an entry
+     * 
+     * @param p_Attributes
+     *            Operational attributes of the entry
+     * @return The version, or <code>null</code> if it is not known
+     * @see #getVersion()
+     */
+    static String getVersion(Attributes p_Attributes) {
+	return getVersion(removeVersion(p_Attributes));
+    }
+
+    /**
+     * Return the version of an entry
+     * 
+     * @param p_Version
+     *            The values of the {@link #VERSION_ATTRIBUTES}
+     * @return The version, or <code>null</code> if it is not known
+     * @see #getVersion()
+     */
+    private static String getVersion(String[] p_Version) {
+	String result;
+	if ((p_Version[1] == null) && (p_Version[2] == null)) {
+	    result = null;
+	} else {
+	    result = p_Version[1] + " " + p_Version[2];
 	}
+	return result;
+    }
+
+    /**
+     * Remove from attributes the operational attributes that give the
+     * version of the entry
+     * 
+     * @param p_Attributes
+     *            The attributes
+     * @return The values of the {@link #VERSION_ATTRIBUTES}, or
+     *         <code>null</code> for the missing ones
+     */
+    private static String[] removeVersion(Attributes p_Attributes) {
+	String[] result = new String[VERSION_ATTRIBUTES.length];
+	for (int i = 0; i < VERSION_ATTRIBUTES.length; i++) {
+	    Attribute attribute = p_Attributes.remove(VERSION_ATTRIBUTES[i]);
+	    try {
+		if ((attribute != null) && (attribute.size() > 0)) {
+		    result[i] = String.valueOf(attribute.get());
+		}
+	    } catch (NamingException e) {
+		// The version is not known
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Record the version of the attributes loaded from the directory
+     * 
+     * @param p_Version
+     *            The values of the {@link #VERSION_ATTRIBUTES}
+     */
+    private void loaded(String[] p_Version) {
+	m_EntryUuid = p_Version[0];
+	m_EntryCsn = p_Version[1];
+	m_ModifyTimestamp = p_Version[2];
+	m_LoadTime = System.nanoTime();
+    }
+
+    /**
+     * Create the callback that read the attributes of the LdapObject. The
+     * callback has no side effect, so the read can be hedged.
+     * 
+     * @return The callback that read the attributes of the LdapObject
+     */
+    private ContextCallback<Attributes> createRestoreCallback() {
+	final String dn = m_Dn;
+	return new ContextCallback<Attributes>() {
+	    public Attributes doInContext(LdapContext p_Context)
+		    throws NamingException {
+		return p_Context.getAttributes(dn, RETURNED_ATTRIBUTES);
+	    }
+	};
+    }
+
+    /**
+     * Update the LdapObject with the attributes read from the directory
+     * 
+     * @param p_Attributes
+     *            The attributes read from the directory
+     */
+    private void restored(Attributes p_Attributes) {
+	int modifications = m_Modifications.get();
+	String[] version = removeVersion(p_Attributes);
+	m_Attributes = p_Attributes;
+	m_IsNew = false;
+	m_SavedModifications = modifications;
+	loaded(version);
     }
 
     /**
@@ -144,17 +485,18 @@ public class LdapObject {
      * @throws NamingException
      *             If an error occurs
      */
-    public void move(String p_Dn) throws NamingException {
-	LdapContext context = m_Pool.acquire();
-	try {
-	    context.rename(getDn(), p_Dn);
-	    m_Dn = p_Dn;
-	    // Some attributes may have change when moving.
-	    // We have to restore attributes
-	    restore();
-	} finally {
-	    m_Pool.release(context);
-	}
+    public void move(final String p_Dn) throws NamingException {
+	m_Router.execute(OperationType.WRITE, new ContextCallback<Void>() {
+	    public Void doInContext(LdapContext p_Context)
+		    throws NamingException {
+		p_Context.rename(getDn(), p_Dn);
+		m_Dn = p_Dn;
+		return null;
+	    }
+	});
+	// Some attributes may have change when moving.
+	// We have to restore attributes from the directory that was modified
+	restoreFromPrimary();
     }
 
     /**
@@ -165,13 +507,14 @@ public class LdapObject {
      *             If an error occurs
      */
     public void remove() throws NamingException {
-	LdapContext context = m_Pool.acquire();
-	try {
-	    context.destroySubcontext(getDn());
-	    m_IsNew = true;
-	} finally {
-	    m_Pool.release(context);
-	}
+	m_Router.execute(OperationType.WRITE, new ContextCallback<Void>() {
+	    public Void doInContext(LdapContext p_Context)
+		    throws NamingException {
+		p_Context.destroySubcontext(getDn());
+		m_IsNew = true;
+		return null;
+	    }
+	});
     }
 
     @Override
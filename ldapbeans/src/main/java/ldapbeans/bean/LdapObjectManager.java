@@ -21,23 +21,63 @@
 package ldapbeans.bean;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import javax.naming.InvalidNameException;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
 
 import ldapbeans.config.LdapbeansConfiguration;
 import ldapbeans.config.LdapbeansMessageManager;
+import ldapbeans.util.DaemonThreadFactory;
+import ldapbeans.util.StringUtil;
 import ldapbeans.util.cache.Cache;
+import ldapbeans.util.cache.Cache.CacheEntry;
+import ldapbeans.util.cache.CacheFactory;
+import ldapbeans.util.cache.CacheSpec;
+import ldapbeans.util.cache.ConcurrentCache;
+import ldapbeans.util.cache.ConcurrentHashCache;
+import ldapbeans.util.cache.ConcurrentLRUCache;
+import ldapbeans.util.cache.ConcurrentPolicyCache;
+import ldapbeans.util.cache.InvalidationBus;
+import ldapbeans.util.cache.InvalidationListener;
+import ldapbeans.util.cache.LRUCache;
+import ldapbeans.util.cache.RemovalCause;
+import ldapbeans.util.cache.RemovalListener;
 import ldapbeans.util.cache.SimpleCache;
+import ldapbeans.util.cache.StatsCache;
+import ldapbeans.util.cache.SynchronizedCache;
+import ldapbeans.util.cache.WeightedCache;
 import ldapbeans.util.i18n.Logger;
+import ldapbeans.util.pool.ContextCallback;
+import ldapbeans.util.pool.Deadline;
 import ldapbeans.util.pool.LdapContextPool;
+import ldapbeans.util.pool.LdapContextPoolRouter;
+import ldapbeans.util.pool.OperationType;
+import ldapbeans.util.pool.Priority;
 
-public class LdapObjectManager {
+public class LdapObjectManager implements LdapObjectManagerMBean {
 
     /** The logger for this class */
     private final static Logger LOG = Logger.getLogger();
@@ -49,11 +89,66 @@ public class LdapObjectManager {
     private final static LdapbeansMessageManager MESSAGE = LdapbeansMessageManager
 	    .getInstance();
 
+    /** Maximum number of DN kept in the index of uid */
+    private final static int UID_INDEX_SIZE = 1000;
+
+    /** Maximum number of objects revalidated by a single search */
+    private final static int REVALIDATION_BATCH_SIZE = 100;
+
+    /** Maximum number of threads that refresh cached objects */
+    private final static int REFRESH_THREADS = 4;
+
+    /** Maximum number of cached objects waiting for their refresh */
+    private final static int REFRESH_QUEUE_SIZE = 1000;
+
+    /** Executor of the refreshes of the cached objects */
+    private final static ExecutorService REFRESH_EXECUTOR;
+
+    /** Static constructor */
+    static {
+	ThreadPoolExecutor executor = new ThreadPoolExecutor(REFRESH_THREADS,
+		REFRESH_THREADS, 60, TimeUnit.SECONDS,
+		new LinkedBlockingQueue<Runnable>(REFRESH_QUEUE_SIZE),
+		new DaemonThreadFactory("ldapbeans-cache-refresh"));
+	executor.allowCoreThreadTimeOut(true);
+	REFRESH_EXECUTOR = executor;
+    }
+
     /** cache of LdapObject */
-    private Cache<String, LdapObject> m_Cache;
+    private final StatsCache<String, LdapObject> m_Cache;
+
+    /** DN used as key of the cached objects, by normalized DN */
+    private final ConcurrentMap<String, String> m_KeyByName;
+
+    /** DN of the LdapObject found by uid */
+    private final LRUCache<String, String> m_DnByUid;
+
+    /** Uid of the DN kept in the index of uid, by normalized DN */
+    private final ConcurrentMap<String, String> m_UidByName;
+
+    /**
+     * Age (in nanoseconds) after witch a cached object is refreshed when it
+     * is read, or -1 if cached objects are not refreshed
+     */
+    private final long m_RefreshAfterWrite;
+
+    /** Cached objects that are being refreshed, by DN */
+    private final ConcurrentMap<String, LdapObject> m_Refreshing;
 
-    /** Pool of LdapContext */
-    private final LdapContextPool m_Pool;
+    /** Listeners of the changes of the entries */
+    private final List<LdapChangeListener> m_ChangeListeners;
+
+    /** Listener of the changes of the directory, or <code>null</code> */
+    private ChangeMonitor m_ChangeMonitor;
+
+    /** Bus shared with the other managers, or <code>null</code> */
+    private volatile InvalidationBus m_InvalidationBus;
+
+    /** Listener of the invalidations published by the other managers */
+    private final InvalidationListener m_InvalidationListener;
+
+    /** Router that give the pool of LdapContext to use for each operation */
+    private final LdapContextPoolRouter m_Router;
 
     /** Root DN */
     private final String m_Root;
@@ -68,29 +163,504 @@ public class LdapObjectManager {
      * @param p_Root
      *            Root dn
      */
-    @SuppressWarnings("unchecked")
     public LdapObjectManager(LdapContextPool p_Pool, String p_Root) {
-	String className = CONFIG.getCacheImplementationClassName();
-	try {
-	    Class<?> clazz = ClassLoader.getSystemClassLoader().loadClass(
-		    className);
-	    m_Cache = (Cache<String, LdapObject>) clazz.newInstance();
-	    LOG.info(MESSAGE.getCacheImplementationMessage(className));
-	} catch (Exception e) {
-	    LOG.error(MESSAGE.getCacheImplementationErrorMessage(className));
-	    m_Cache = new SimpleCache<String, LdapObject>();
-	}
-	m_Pool = p_Pool;
+	this(new LdapContextPoolRouter(p_Pool), p_Root);
+    }
+
+    /**
+     * Constructor. The cache is described by the specification of the
+     * configuration, or by the cache class implementation if there is no
+     * valid specification.
+     * 
+     * @param p_Router
+     *            Router that give the pool of LdapContext to use for each
+     *            operation
+     * @param p_Root
+     *            Root dn
+     */
+    public LdapObjectManager(LdapContextPoolRouter p_Router, String p_Root) {
+	this(p_Router, p_Root, getDefaultCacheSpec());
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param p_Router
+     *            Router that give the pool of LdapContext to use for each
+     *            operation
+     * @param p_Root
+     *            Root dn
+     * @param p_CacheSpec
+     *            Specification of the cache, or <code>null</code> to use the
+     *            cache class implementation of the configuration. When the
+     *            specification has a refresh delay, a cached object older
+     *            than the delay is returned as is when it is read, and is
+     *            reloaded in background.
+     * @throws IllegalArgumentException
+     *             If the policy of the specification does not support its
+     *             options
+     */
+    public LdapObjectManager(LdapContextPoolRouter p_Router, String p_Root,
+	    CacheSpec p_CacheSpec) {
+	ConcurrentCache<String, LdapObject> cache;
+	if (p_CacheSpec == null) {
+	    cache = createCache();
+	} else {
+	    cache = CacheFactory.getInstance().createCache(p_CacheSpec,
+		    new LdapObjectWeigher());
+	}
+	m_Cache = new StatsCache<String, LdapObject>(cache);
+	m_KeyByName = new ConcurrentHashMap<String, String>();
+	m_Cache.setRemovalListener(new RemovalListener<String, LdapObject>() {
+	    public void removed(String p_Dn, LdapObject p_LdapObject,
+		    RemovalCause p_Cause) {
+		unindex(p_Dn);
+	    }
+	});
+	if ((p_CacheSpec == null) || (p_CacheSpec.getRefreshAfterWrite() < 0)) {
+	    m_RefreshAfterWrite = -1;
+	} else {
+	    m_RefreshAfterWrite = TimeUnit.MILLISECONDS.toNanos(p_CacheSpec
+		    .getRefreshAfterWrite());
+	}
+	m_Refreshing = new ConcurrentHashMap<String, LdapObject>();
+	m_ChangeListeners = new CopyOnWriteArrayList<LdapChangeListener>();
+	m_InvalidationListener = new InvalidationListener() {
+	    public void invalidated(String p_Dn, boolean p_Subtree) {
+		invalidate(p_Dn, p_Subtree);
+	    }
+	};
+	m_UidByName = new ConcurrentHashMap<String, String>();
+	ConcurrentLRUCache<String, String> dnByUid;
+	dnByUid = new ConcurrentLRUCache<String, String>();
+	dnByUid.setMaxSize(UID_INDEX_SIZE);
+	dnByUid.setRemovalListener(new RemovalListener<String, String>() {
+	    public void removed(String p_Uid, String p_Dn,
+		    RemovalCause p_Cause) {
+		String name = normalize(p_Dn);
+		if (name != null) {
+		    m_UidByName.remove(name, p_Uid);
+		}
+	    }
+	});
+	m_DnByUid = dnByUid;
+	m_Router = p_Router;
 	m_Root = p_Root;
     }
 
+    /**
+     * Return the specification of the cache of the configuration
+     * 
+     * @return The specification, or <code>null</code> if there is no valid
+     *         specification
+     */
+    private static CacheSpec getDefaultCacheSpec() {
+	CacheSpec result = null;
+	String spec = CONFIG.getCacheSpec();
+	if (spec != null) {
+	    try {
+		result = CacheSpec.parse(spec);
+		// Check that the policy supports the options
+		CacheFactory.getInstance().createCache(result,
+			new LdapObjectWeigher());
+	    } catch (IllegalArgumentException e) {
+		LOG.error(MESSAGE.getCacheSpecErrorMessage(spec, e
+			.getMessage()));
+		result = null;
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Create the cache described by the cache class implementation and the
+     * maximum weight of the configuration
+     * 
+     * @return The cache
+     */
+    @SuppressWarnings("unchecked")
+    private static ConcurrentCache<String, LdapObject> createCache() {
+	String className = CONFIG.getCacheImplementationClassName();
+	long maxWeight = CONFIG.getCacheMaxWeight();
+	Cache<String, LdapObject> cache;
+	if ((className == null) && (maxWeight > 0)) {
+	    cache = new ConcurrentPolicyCache<String, LdapObject>(
+		    new WeightedCache<String, LdapObject>(
+			    new LdapObjectWeigher(), maxWeight));
+	} else if (className == null) {
+	    cache = new ConcurrentHashCache<String, LdapObject>();
+	} else {
+	    try {
+		Class<?> clazz = ClassLoader.getSystemClassLoader().loadClass(
+			className);
+		cache = (Cache<String, LdapObject>) clazz.newInstance();
+		LOG.info(MESSAGE.getCacheImplementationMessage(className));
+	    } catch (Exception e) {
+		LOG.error(MESSAGE
+			.getCacheImplementationErrorMessage(className));
+		cache = new SimpleCache<String, LdapObject>();
+	    }
+	}
+	ConcurrentCache<String, LdapObject> result;
+	if (cache instanceof ConcurrentCache) {
+	    result = (ConcurrentCache<String, LdapObject>) cache;
+	} else {
+	    // Caches that are not thread safe are protected by a lock
+	    result = new SynchronizedCache<String, LdapObject>(cache);
+	}
+	return result;
+    }
+
+    /**
+     * Return the root DN of the manager
+     * 
+     * @return The root DN
+     */
+    public String getRoot() {
+	return m_Root;
+    }
+
     /**
      * Clear manager cache
      */
     public void clearCache() {
-	synchronized (m_Cache) {
-	    m_Cache.clear();
+	m_Cache.clear();
+	m_KeyByName.clear();
+	m_DnByUid.clear();
+	m_UidByName.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#getHitCount()
+     */
+    public long getHitCount() {
+	return m_Cache.getHitCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#getMissCount()
+     */
+    public long getMissCount() {
+	return m_Cache.getMissCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#getHitRate()
+     */
+    public double getHitRate() {
+	return m_Cache.getHitRate();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#getLoadCount()
+     */
+    public long getLoadCount() {
+	return m_Cache.getLoadCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#getAverageLoadTime()
+     */
+    public double getAverageLoadTime() {
+	long count = m_Cache.getLoadCount();
+	return (count == 0) ? 0 : m_Cache.getTotalLoadTime() / 1e6 / count;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#getSize()
+     */
+    public int getSize() {
+	return m_Cache.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#getSizeEvictionCount()
+     */
+    public long getSizeEvictionCount() {
+	return m_Cache.getRemovalCount(RemovalCause.SIZE);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#getExpiredEvictionCount()
+     */
+    public long getExpiredEvictionCount() {
+	return m_Cache.getRemovalCount(RemovalCause.EXPIRED);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#getCollectedEvictionCount()
+     */
+    public long getCollectedEvictionCount() {
+	return m_Cache.getRemovalCount(RemovalCause.COLLECTED);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#getExplicitRemovalCount()
+     */
+    public long getExplicitRemovalCount() {
+	return m_Cache.getRemovalCount(RemovalCause.EXPLICIT);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#getHottestDns(int)
+     */
+    public Map<String, Long> getHottestDns(int p_Count) {
+	return m_Cache.getHottestKeys(p_Count);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#getSizeByObjectClass()
+     */
+    public Map<String, Integer> getSizeByObjectClass() {
+	Map<String, Integer> result = new TreeMap<String, Integer>(
+		String.CASE_INSENSITIVE_ORDER);
+	for (CacheEntry<String, LdapObject> entry : m_Cache.getEntries()) {
+	    Attribute objectClasses = entry.getValue().getAttributes().get(
+		    "objectClass");
+	    if (objectClasses != null) {
+		for (int i = 0; i < objectClasses.size(); i++) {
+		    try {
+			String objectClass = String.valueOf(objectClasses
+				.get(i));
+			Integer count = result.get(objectClass);
+			result.put(objectClass, Integer
+				.valueOf((count == null) ? 1 : count
+					.intValue() + 1));
+		    } catch (NamingException e) {
+			// Do nothing, skip this value
+		    }
+		}
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#invalidate(String)
+     */
+    public boolean invalidate(String p_Dn) {
+	return invalidate(p_Dn, false) > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#invalidateSubtree(String)
+     */
+    public int invalidateSubtree(String p_Dn) {
+	return invalidate(p_Dn, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#resetStatistics()
+     */
+    public void resetStatistics() {
+	m_Cache.resetStatistics();
+    }
+
+    /**
+     * Remove objects from the cache, and their DN from the index of uid. DN
+     * are compared as LDAP names, so the case and the spaces between RDN are
+     * ignored. The cached objects are found by their normalized DN, the cache
+     * is scanned only to remove the objects of a subtree.
+     * 
+     * @param p_Dn
+     *            The DN of the object, or of the root of the subtree
+     * @param p_Subtree
+     *            <code>true</code> to remove the objects of the subtree
+     * @return The number of removed objects
+     */
+    private int invalidate(String p_Dn, boolean p_Subtree) {
+	int result = 0;
+	if (m_Cache.remove(p_Dn)) {
+	    result++;
+	}
+	LdapName name = null;
+	try {
+	    name = new LdapName(p_Dn);
+	} catch (InvalidNameException e) {
+	    // Only the DN as is can be in the cache
+	}
+	if (name != null) {
+	    // The object may be cached with another form of the DN
+	    String key = m_KeyByName.remove(normalize(name));
+	    if ((key != null) && !key.equals(p_Dn) && m_Cache.remove(key)) {
+		result++;
+	    }
+	    if (p_Subtree) {
+		for (CacheEntry<String, LdapObject> entry : m_Cache
+			.getEntries()) {
+		    if (matches(entry.getKey(), name)
+			    && m_Cache.remove(entry.getKey())) {
+			unindex(entry.getKey());
+			result++;
+		    }
+		}
+	    }
+	    invalidateUids(name, p_Subtree);
+	}
+	return result;
+    }
+
+    /**
+     * Remove from the index of uid the DN of an invalidated object, or the DN
+     * of the objects of an invalidated subtree
+     * 
+     * @param p_Name
+     *            The DN of the object, or of the root of the subtree
+     * @param p_Subtree
+     *            <code>true</code> to remove the DN of the subtree
+     */
+    private void invalidateUids(LdapName p_Name, boolean p_Subtree) {
+	String uid = m_UidByName.remove(normalize(p_Name));
+	if (uid != null) {
+	    m_DnByUid.remove(uid);
+	}
+	if (p_Subtree) {
+	    for (CacheEntry<String, String> entry : m_DnByUid) {
+		if (matches(entry.getValue(), p_Name)) {
+		    m_DnByUid.remove(entry.getKey());
+		    m_UidByName.remove(normalize(entry.getValue()), entry
+			    .getKey());
+		}
+	    }
+	}
+    }
+
+    /**
+     * Return the key of the cached object of a DN. DN are compared as LDAP
+     * names, so the case and the spaces between RDN are ignored.
+     * 
+     * @param p_Dn
+     *            The DN of the object
+     * @return The DN used as key of the cached object, or the DN itself if
+     *         no object is cached with another form of the DN
+     */
+    private String getKey(String p_Dn) {
+	String result = p_Dn;
+	String name = normalize(p_Dn);
+	if (name != null) {
+	    String key = m_KeyByName.get(name);
+	    if (key != null) {
+		result = key;
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Add a cached object to the index of the normalized DN. A single object
+     * is cached for an entry, so an object cached with another form of the DN
+     * is removed.
+     * 
+     * @param p_Dn
+     *            The DN used as key of the object in the cache
+     */
+    private void index(String p_Dn) {
+	String name = normalize(p_Dn);
+	if (name != null) {
+	    String previous = m_KeyByName.put(name, p_Dn);
+	    if ((previous != null) && !previous.equals(p_Dn)) {
+		m_Cache.remove(previous);
+	    }
+	}
+    }
+
+    /**
+     * Remove an object removed from the cache from the index of the
+     * normalized DN
+     * 
+     * @param p_Dn
+     *            The DN used as key of the object in the cache
+     */
+    private void unindex(String p_Dn) {
+	String name = normalize(p_Dn);
+	if (name != null) {
+	    m_KeyByName.remove(name, p_Dn);
+	}
+    }
+
+    /**
+     * Return the normalized form of a DN
+     * 
+     * @param p_Dn
+     *            The DN
+     * @return The normalized DN, or <code>null</code> if the DN is not valid
+     * @see #normalize(LdapName)
+     */
+    private static String normalize(String p_Dn) {
+	String result;
+	try {
+	    result = normalize(new LdapName(p_Dn));
+	} catch (InvalidNameException e) {
+	    result = null;
 	}
+	return result;
+    }
+
+    /**
+     * Return the normalized form of a DN. DN that are equal as LDAP names
+     * have the same normalized form.
+     * 
+     * @param p_Name
+     *            The DN
+     * @return The normalized DN
+     */
+    private static String normalize(LdapName p_Name) {
+	StringBuilder result = new StringBuilder();
+	for (Rdn rdn : p_Name.getRdns()) {
+	    // Types and values of RDN are compared regardless of case
+	    result.append(rdn.toString().toLowerCase(Locale.ENGLISH)).append(
+		    ',');
+	}
+	return result.toString();
+    }
+
+    /**
+     * Check if a DN is in the subtree of an invalidated object
+     * 
+     * @param p_Dn
+     *            The DN of a cached object
+     * @param p_Name
+     *            The DN of the root of the subtree
+     * @return <code>true</code> if the DN is in the subtree
+     */
+    private static boolean matches(String p_Dn, LdapName p_Name) {
+	boolean result;
+	try {
+	    result = new LdapName(p_Dn).startsWith(p_Name);
+	} catch (InvalidNameException e) {
+	    result = false;
+	}
+	return result;
     }
 
     /**
@@ -107,10 +677,13 @@ public class LdapObjectManager {
 	    throws NamingException {
 	String oldDn = p_LdapObject.getDn();
 	p_LdapObject.move(p_Dn);
-	synchronized (m_Cache) {
-	    m_Cache.remove(oldDn);
-	    m_Cache.put(p_Dn, p_LdapObject);
-	}
+	// The objects of the subtree have a new DN
+	invalidate(oldDn, true);
+	invalidate(p_Dn, false);
+	m_Cache.put(p_Dn, p_LdapObject);
+	index(p_Dn);
+	publishInvalidation(oldDn, true);
+	publishInvalidation(p_Dn, false);
     }
 
     /**
@@ -124,6 +697,8 @@ public class LdapObjectManager {
     public void removeLdapObject(LdapObject p_LdapObject)
 	    throws NamingException {
 	p_LdapObject.remove();
+	invalidate(p_LdapObject.getDn(), false);
+	publishInvalidation(p_LdapObject.getDn(), false);
     }
 
     /**
@@ -137,6 +712,43 @@ public class LdapObjectManager {
      */
     public void storeLdapObject(LdapObject p_LdapObject) throws NamingException {
 	p_LdapObject.store();
+	publishInvalidation(p_LdapObject.getDn(), false);
+    }
+
+    /**
+     * Share the invalidations of the cache with the other managers of a bus.
+     * The DN of the objects stored, moved or removed by this manager are
+     * published, and the objects invalidated by the other managers are
+     * removed from the cache.
+     * 
+     * @param p_InvalidationBus
+     *            The bus, or <code>null</code> to leave the current bus
+     */
+    public synchronized void setInvalidationBus(
+	    InvalidationBus p_InvalidationBus) {
+	if (m_InvalidationBus != null) {
+	    m_InvalidationBus.unsubscribe(m_InvalidationListener);
+	}
+	m_InvalidationBus = p_InvalidationBus;
+	if (p_InvalidationBus != null) {
+	    p_InvalidationBus.subscribe(m_InvalidationListener);
+	}
+    }
+
+    /**
+     * Publish the invalidation of an object, or of a subtree, to the other
+     * managers of the bus
+     * 
+     * @param p_Dn
+     *            The DN of the object, or of the root of the subtree
+     * @param p_Subtree
+     *            <code>true</code> to invalidate the objects of the subtree
+     */
+    private void publishInvalidation(String p_Dn, boolean p_Subtree) {
+	InvalidationBus bus = m_InvalidationBus;
+	if (bus != null) {
+	    bus.publish(m_InvalidationListener, p_Dn, p_Subtree);
+	}
     }
 
     /**
@@ -150,7 +762,9 @@ public class LdapObjectManager {
      */
     public void restoreLdapObject(LdapObject p_LdapObject)
 	    throws NamingException {
+	long start = System.nanoTime();
 	p_LdapObject.restore();
+	m_Cache.recordLoad(System.nanoTime() - start);
     }
 
     /**
@@ -162,7 +776,7 @@ public class LdapObjectManager {
      */
     public LdapObject getLdapObjectByDn(String p_Dn) {
 	LdapObject result;
-	result = getLdapObject(p_Dn, null);
+	result = getLdapObject(p_Dn, null, CacheScope.current());
 	return result;
     }
 
@@ -180,6 +794,36 @@ public class LdapObjectManager {
 	return result;
     }
 
+    /**
+     * Return the DN of the LDAP object of an uid. DN are kept in an index, so
+     * the directory is not searched each time the DN of an uid is needed.
+     * 
+     * @param p_Uid
+     *            Uid of the object
+     * @return The DN of the object, or <code>null</code> if not found
+     * @throws NamingException
+     *             If an error occurs
+     */
+    public String getDnByUid(String p_Uid) throws NamingException {
+	String dn = m_DnByUid.get(p_Uid);
+	if (dn == null) {
+	    LdapObject ldapObject = searchFirst("(uid="
+		    + StringUtil.escapeFilterValue(p_Uid) + ")");
+	    if (ldapObject != null) {
+		dn = ldapObject.getDn();
+		m_DnByUid.put(p_Uid, dn);
+		String name = normalize(dn);
+		// A single uid is indexed for a DN, so it can be invalidated
+		String previous = (name == null) ? null : m_UidByName.put(name,
+			p_Uid);
+		if ((previous != null) && !previous.equals(p_Uid)) {
+		    m_DnByUid.remove(previous);
+		}
+	    }
+	}
+	return dn;
+    }
+
     /**
      * Search LDAP object
      * 
@@ -189,30 +833,52 @@ public class LdapObjectManager {
      * @throws NamingException
      *             If an error occurs
      */
-    public List<LdapObject> search(String p_LdapSearch) throws NamingException {
-	List<LdapObject> result = new ArrayList<LdapObject>();
-	Attributes attributes = null;
-	SearchControls searchControls = new SearchControls();
-	NamingEnumeration<SearchResult> namingEnumeration;
-	String dn = null;
-	LdapContext context = m_Pool.acquire();
-	try {
-	    searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
-	    namingEnumeration = context.search(m_Root, p_LdapSearch,
-		    searchControls);
-	    while ((namingEnumeration != null)
-		    && (namingEnumeration.hasMoreElements())) {
-		SearchResult searchResult = namingEnumeration.nextElement();
-		if (searchResult != null) {
-		    dn = searchResult.getNameInNamespace();
-		    attributes = searchResult.getAttributes();
-		    result.add(getLdapObject(dn, attributes));
+    public List<LdapObject> search(String p_LdapSearch)
+	    throws NamingException {
+	return search(m_Root, p_LdapSearch);
+    }
+
+    /**
+     * Search LDAP object in the tree of a base DN
+     * 
+     * @param p_Base
+     *            The base DN of the search
+     * @param p_LdapSearch
+     *            The LDAP search
+     * @return List of {@link LdapObject} corresponding to the LDAP search
+     * @throws NamingException
+     *             If an error occurs
+     */
+    public List<LdapObject> search(final String p_Base,
+	    final String p_LdapSearch) throws NamingException {
+	// The callback may be executed by another thread
+	final CacheScope scope = CacheScope.current();
+	return executeSearch(new ContextCallback<List<LdapObject>>() {
+	    public List<LdapObject> doInContext(LdapContext p_Context)
+		    throws NamingException {
+		List<LdapObject> result = new ArrayList<LdapObject>();
+		Attributes attributes = null;
+		SearchControls searchControls = createSearchControls();
+		NamingEnumeration<SearchResult> namingEnumeration;
+		String dn = null;
+		namingEnumeration = p_Context.search(p_Base,
+			p_LdapSearch, searchControls);
+		// hasMore() and next() are used rather than hasMoreElements()
+		// and nextElement() that hide a time limit exceeded as the
+		// end of the results
+		while ((namingEnumeration != null)
+			&& (namingEnumeration.hasMore())) {
+		    SearchResult searchResult = namingEnumeration.next();
+		    if (searchResult != null) {
+			dn = searchResult.getNameInNamespace();
+			attributes = searchResult.getAttributes();
+			result.add(getLdapObject(dn, attributes,
+				scope));
+		    }
 		}
+		return result;
 	    }
-	} finally {
-	    m_Pool.release(context);
-	}
-	return result;
+	});
     }
 
     /**
@@ -225,32 +891,279 @@ public class LdapObjectManager {
      * @throws NamingException
      *             If an error occurs
      */
-    public LdapObject searchFirst(String p_LdapSearch) throws NamingException {
-	LdapObject result = null;
-	Attributes attributes = null;
-	SearchControls searchControls = new SearchControls();
-	NamingEnumeration<SearchResult> namingEnumeration;
-	String dn = null;
-	LdapContext context = m_Pool.acquire();
-	try {
-	    searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
-	    namingEnumeration = context.search(m_Root, p_LdapSearch,
-		    searchControls);
-	    if ((namingEnumeration != null)
-		    && (namingEnumeration.hasMoreElements())) {
-		SearchResult searchResult = namingEnumeration.nextElement();
-		if (searchResult != null) {
-		    dn = searchResult.getNameInNamespace();
-		    attributes = searchResult.getAttributes();
-		    result = getLdapObject(dn, attributes);
+    public LdapObject searchFirst(String p_LdapSearch)
+	    throws NamingException {
+	return searchFirst(m_Root, p_LdapSearch);
+    }
+
+    /**
+     * Search the first occurrence of LDAP object in the tree of a base DN
+     * 
+     * @param p_Base
+     *            The base DN of the search
+     * @param p_LdapSearch
+     *            The LDAP search
+     * @return The first occurrence of {@link LdapObject} corresponding to the
+     *         LDAP search
+     * @throws NamingException
+     *             If an error occurs
+     */
+    public LdapObject searchFirst(final String p_Base,
+	    final String p_LdapSearch) throws NamingException {
+	// The callback may be executed by another thread
+	final CacheScope scope = CacheScope.current();
+	return executeSearch(new ContextCallback<LdapObject>() {
+	    public LdapObject doInContext(LdapContext p_Context)
+		    throws NamingException {
+		LdapObject result = null;
+		Attributes attributes = null;
+		SearchControls searchControls = createSearchControls();
+		NamingEnumeration<SearchResult> namingEnumeration;
+		String dn = null;
+		namingEnumeration = p_Context.search(p_Base,
+			p_LdapSearch, searchControls);
+		if ((namingEnumeration != null)
+			&& (namingEnumeration.hasMore())) {
+		    SearchResult searchResult = namingEnumeration.next();
+		    if (searchResult != null) {
+			dn = searchResult.getNameInNamespace();
+			attributes = searchResult.getAttributes();
+			result = getLdapObject(dn, attributes, scope);
+		    }
+		    // Other results are not read, the search is
+		    // abandoned so the context can be reused
+		    namingEnumeration.close();
 		}
+		return result;
+	    }
+	});
+    }
+
+    /**
+     * Check that {@link LdapObject} are up to date. The versions of the
+     * objects that have an entryUUID are read by batches, with a single
+     * search whose filter matches all the objects of a batch, and the
+     * attributes are reloaded by a second search only for the objects whose
+     * version has changed. Other objects are revalidated one by one. Objects
+     * that do not exist anymore in the tree of the root DN are removed from
+     * the cache.
+     * 
+     * @param p_LdapObjects
+     *            The objects to revalidate
+     * @return The number of objects reloaded or removed
+     * @throws NamingException
+     *             If an error occurs
+     * @see LdapObject#revalidate()
+     */
+    public int revalidate(Collection<LdapObject> p_LdapObjects)
+	    throws NamingException {
+	int result = 0;
+	Map<String, LdapObject> batch = new HashMap<String, LdapObject>();
+	for (LdapObject ldapObject : p_LdapObjects) {
+	    if (ldapObject.isNew()) {
+		// Nothing to revalidate
+	    } else if ((ldapObject.getEntryUuid() == null)
+		    || (ldapObject.getVersion() == null)) {
+		try {
+		    if (ldapObject.revalidate()) {
+			result++;
+		    }
+		} catch (NameNotFoundException e) {
+		    invalidate(ldapObject.getDn(), false);
+		    result++;
+		}
+	    } else {
+		batch.put(ldapObject.getEntryUuid(), ldapObject);
+		if (batch.size() == REVALIDATION_BATCH_SIZE) {
+		    result += revalidateBatch(batch);
+		    batch.clear();
+		}
+	    }
+	}
+	if (!batch.isEmpty()) {
+	    result += revalidateBatch(batch);
+	}
+	return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LdapObjectManagerMBean#revalidateCache()
+     */
+    public int revalidateCache() throws NamingException {
+	List<LdapObject> ldapObjects = new ArrayList<LdapObject>();
+	for (CacheEntry<String, LdapObject> entry : m_Cache.getEntries()) {
+	    ldapObjects.add(entry.getValue());
+	}
+	return revalidate(ldapObjects);
+    }
+
+    /**
+     * Revalidate a batch of {@link LdapObject} with their entryUUID
+     * 
+     * @param p_Batch
+     *            The objects to revalidate, by entryUUID
+     * @return The number of objects reloaded or removed
+     * @throws NamingException
+     *             If an error occurs
+     */
+    private int revalidateBatch(final Map<String, LdapObject> p_Batch)
+	    throws NamingException {
+	int result = 0;
+	Map<String, String> versions = readVersions(createUuidFilter(p_Batch
+		.keySet()));
+	List<String> changed = new ArrayList<String>();
+	for (Map.Entry<String, LdapObject> entry : p_Batch.entrySet()) {
+	    LdapObject ldapObject = entry.getValue();
+	    if (!versions.containsKey(entry.getKey())) {
+		invalidate(ldapObject.getDn(), false);
+		result++;
+	    } else if (ldapObject.getVersion().equals(
+		    versions.get(entry.getKey()))) {
+		ldapObject.validated();
+	    } else {
+		changed.add(entry.getKey());
 	    }
-	} finally {
-	    m_Pool.release(context);
+	}
+	if (!changed.isEmpty()) {
+	    final String changedFilter = createUuidFilter(changed);
+	    executeSearch(new ContextCallback<Void>() {
+		public Void doInContext(LdapContext p_Context)
+			throws NamingException {
+		    NamingEnumeration<SearchResult> namingEnumeration;
+		    namingEnumeration = p_Context.search(m_Root,
+			    changedFilter, createSearchControls());
+		    while (namingEnumeration.hasMore()) {
+			Attributes attributes = namingEnumeration.next()
+				.getAttributes();
+			LdapObject ldapObject = p_Batch
+				.get(getEntryUuid(attributes));
+			if (ldapObject != null) {
+			    updateLdapObject(m_Cache, ldapObject.getDn(),
+				    ldapObject, attributes);
+			}
+		    }
+		    return null;
+		}
+	    });
+	    result += changed.size();
 	}
 	return result;
     }
 
+    /**
+     * Read the versions of the entries of the tree of the root DN that match
+     * a filter. Only the operational attributes of the versions are returned
+     * by the directory.
+     * 
+     * @param p_Filter
+     *            The filter of the entries
+     * @return The versions of the entries, by entryUUID
+     * @throws NamingException
+     *             If an error occurs
+     */
+    private Map<String, String> readVersions(final String p_Filter)
+	    throws NamingException {
+	return m_Router.execute(OperationType.SEARCH,
+		new ContextCallback<Map<String, String>>() {
+		    public Map<String, String> doInContext(
+			    LdapContext p_Context) throws NamingException {
+			Map<String, String> result;
+			result = new HashMap<String, String>();
+			SearchControls searchControls = createSearchControls();
+			searchControls.setReturningAttributes(LdapObject
+				.VERSION_ATTRIBUTES);
+			NamingEnumeration<SearchResult> namingEnumeration;
+			namingEnumeration = p_Context.search(m_Root,
+				p_Filter, searchControls);
+			while (namingEnumeration.hasMore()) {
+			    Attributes attributes = namingEnumeration.next()
+				    .getAttributes();
+			    String uuid = getEntryUuid(attributes);
+			    if (uuid != null) {
+				result.put(uuid, LdapObject
+					.getVersion(attributes));
+			    }
+			}
+			return result;
+		    }
+		});
+    }
+
+    /**
+     * Create a filter that matches entries by entryUUID
+     * 
+     * @param p_Uuids
+     *            The entryUUID of the entries
+     * @return The filter
+     */
+    private static String createUuidFilter(Collection<String> p_Uuids) {
+	StringBuilder filter = new StringBuilder("(|");
+	for (String uuid : p_Uuids) {
+	    filter.append("(entryUUID=").append(
+		    StringUtil.escapeFilterValue(uuid)).append(')');
+	}
+	return filter.append(')').toString();
+    }
+
+    /**
+     * Return the entryUUID of an entry
+     * 
+     * @param p_Attributes
+     *            The attributes of the entry
+     * @return The entryUUID, or <code>null</code> if it was not returned
+     * @throws NamingException
+     *             If an error occurs
+     */
+    private static String getEntryUuid(Attributes p_Attributes)
+	    throws NamingException {
+	Attribute uuid = p_Attributes.get("entryUUID");
+	return ((uuid == null) || (uuid.size() == 0)) ? null : String
+		.valueOf(uuid.get());
+    }
+
+    /**
+     * Execute a search in the directory, its duration is recorded as the load
+     * time of the objects found
+     * 
+     * @param <T>
+     *            Type of the result of the search
+     * @param p_Callback
+     *            The search
+     * @return The result of the search
+     * @throws NamingException
+     *             If an error occurs
+     */
+    private <T> T executeSearch(ContextCallback<T> p_Callback)
+	    throws NamingException {
+	long start = System.nanoTime();
+	try {
+	    return m_Router.execute(OperationType.SEARCH, p_Callback);
+	} finally {
+	    m_Cache.recordLoad(System.nanoTime() - start);
+	}
+    }
+
+    /**
+     * Create the controls of a search in the whole tree of the root DN. If
+     * the current thread has a {@link Deadline}, the time left is sent to the
+     * directory as the time limit of the search.
+     * 
+     * @return The controls of the search
+     */
+    private static SearchControls createSearchControls() {
+	SearchControls searchControls = new SearchControls();
+	searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+	searchControls.setReturningAttributes(LdapObject.RETURNED_ATTRIBUTES);
+	Deadline deadline = Deadline.current();
+	if (deadline != null) {
+	    searchControls.setTimeLimit((int) Math.min(Integer.MAX_VALUE, Math
+		    .max(1, deadline.getRemaining())));
+	}
+	return searchControls;
+    }
+
     /**
      * Return {@link LdapObject} from cache
      * 
@@ -262,19 +1175,284 @@ public class LdapObjectManager {
      *            {@link LdapObject} otherwise. If <code>null</code> LdapObject
      *            will be create with new {@link Attributes} and will not be
      *            update.
+     * @param p_Scope
+     *            Usage of the caches by the operation
+     * @return {@link LdapObject} from cache, or a transient
+     *         {@link LdapObject} if the scope does not allow to add it to a
+     *         cache
+     */
+    private LdapObject getLdapObject(String p_Dn, Attributes p_Attributes,
+	    CacheScope p_Scope) {
+	LdapObject ldapObject = null;
+	ConcurrentCache<String, LdapObject> scanCache = p_Scope.getScanCache();
+	if (scanCache != null) {
+	    ldapObject = scanCache.get(p_Dn);
+	    if ((ldapObject != null) && (p_Attributes != null)) {
+		updateLdapObject(scanCache, p_Dn, ldapObject, p_Attributes);
+	    }
+	}
+	if (ldapObject == null) {
+	    switch (p_Scope.getMode()) {
+	    case READ_WRITE:
+		ldapObject = getLdapObject(m_Cache, p_Dn, p_Attributes);
+		if (p_Attributes == null) {
+		    refreshIfStale(p_Dn, ldapObject);
+		}
+		break;
+	    case READ_ONLY:
+		ldapObject = m_Cache.get(p_Dn);
+		break;
+	    default:
+		break;
+	    }
+	}
+	if (ldapObject == null) {
+	    if (scanCache == null) {
+		ldapObject = new LdapObject(m_Router, p_Dn, p_Attributes);
+	    } else {
+		ldapObject = getLdapObject(scanCache, p_Dn, p_Attributes);
+	    }
+	}
+	return ldapObject;
+    }
+
+    /**
+     * Refresh in background a cached {@link LdapObject} that is older than
+     * the refresh delay. A single refresh of an object is done at a time, and
+     * objects are not refreshed when too many refreshes are waiting.
+     * 
+     * @param p_Dn
+     *            DN of the {@link LdapObject} in the cache
+     * @param p_LdapObject
+     *            The cached {@link LdapObject}
+     */
+    private void refreshIfStale(final String p_Dn,
+	    final LdapObject p_LdapObject) {
+	if (isStale(p_LdapObject)
+		&& (m_Refreshing.putIfAbsent(p_Dn, p_LdapObject) == null)) {
+	    try {
+		REFRESH_EXECUTOR.execute(new Runnable() {
+		    public void run() {
+			try {
+			    refresh(p_Dn, p_LdapObject, false);
+			} finally {
+			    m_Refreshing.remove(p_Dn);
+			}
+		    }
+		});
+	    } catch (RejectedExecutionException e) {
+		// The next read will try again
+		m_Refreshing.remove(p_Dn);
+	    }
+	}
+    }
+
+    /**
+     * Check if a cached {@link LdapObject} is older than the refresh delay
+     * 
+     * @param p_LdapObject
+     *            The cached {@link LdapObject}
+     * @return <code>true</code> if the object has to be refreshed
+     */
+    private boolean isStale(LdapObject p_LdapObject) {
+	long age = System.nanoTime() - p_LdapObject.getLoadTime();
+	return (m_RefreshAfterWrite >= 0) && !p_LdapObject.isNew()
+		&& (age >= m_RefreshAfterWrite);
+    }
+
+    /**
+     * Revalidate or reload a cached {@link LdapObject}. The object is put
+     * again in the cache if it has not been removed or replaced meanwhile, so
+     * its expiration is postponed. An object that does not exist anymore is
+     * removed from the cache.
+     * 
+     * @param p_Dn
+     *            DN of the {@link LdapObject} in the cache
+     * @param p_LdapObject
+     *            The cached {@link LdapObject}
+     * @param p_Changed
+     *            <code>true</code> if the entry is known to have changed, so
+     *            it is reloaded without checking its version
+     */
+    private void refresh(String p_Dn, LdapObject p_LdapObject,
+	    boolean p_Changed) {
+	Priority previous = Priority.start(Priority.BATCH);
+	try {
+	    long start = System.nanoTime();
+	    if (p_Changed) {
+		p_LdapObject.refresh();
+	    } else {
+		p_LdapObject.revalidate();
+	    }
+	    m_Cache.recordLoad(System.nanoTime() - start);
+	    m_Cache.replace(p_Dn, p_LdapObject, p_LdapObject);
+	} catch (NameNotFoundException e) {
+	    invalidate(p_Dn, false);
+	} catch (NamingException e) {
+	    LOG.warn(MESSAGE.getCacheRefreshErrorMessage(p_Dn), e);
+	} finally {
+	    Priority.restore(previous);
+	}
+    }
+
+    /**
+     * Start to listen to the changes of the entries of the tree of the root
+     * DN, with a persistent search. Cached objects are removed when their
+     * entry is added, renamed or removed, and are reloaded in background
+     * when their entry is modified. When the connection is lost, the manager
+     * subscribes again to the changes, and revalidates all the cached
+     * objects since changes may have been missed.
+     */
+    public synchronized void startChangeMonitoring() {
+	if (m_ChangeMonitor == null) {
+	    m_ChangeMonitor = new ChangeMonitor(this, m_Router
+		    .getPrimaryPool(), m_Root);
+	    m_ChangeMonitor.start();
+	}
+    }
+
+    /**
+     * Stop to listen to the changes of the entries
+     */
+    public synchronized void stopChangeMonitoring() {
+	if (m_ChangeMonitor != null) {
+	    m_ChangeMonitor.stop();
+	    m_ChangeMonitor = null;
+	}
+    }
+
+    /**
+     * Add a listener notified of the changes of the entries of the tree of
+     * the root DN, while the changes are monitored
+     * 
+     * @param p_Listener
+     *            The listener
+     * @see #startChangeMonitoring()
+     */
+    public void addChangeListener(LdapChangeListener p_Listener) {
+	m_ChangeListeners.add(p_Listener);
+    }
+
+    /**
+     * Remove a listener of the changes of the entries
+     * 
+     * @param p_Listener
+     *            The listener
+     */
+    public void removeChangeListener(LdapChangeListener p_Listener) {
+	m_ChangeListeners.remove(p_Listener);
+    }
+
+    /**
+     * Update the cache after the change of an entry by any client of the
+     * directory, and notify the listeners
+     * 
+     * @param p_Type
+     *            The kind of change
+     * @param p_Dn
+     *            The DN of the entry, before the change
+     * @param p_NewDn
+     *            The new DN of a renamed entry, or <code>null</code>
+     */
+    void changed(ChangeType p_Type, final String p_Dn, String p_NewDn) {
+	switch (p_Type) {
+	case MODIFIED:
+	    // The object may be cached with another form of the DN
+	    final String key = getKey(p_Dn);
+	    // Reads of the monitor are not recorded in the statistics
+	    final LdapObject ldapObject = m_Cache.getCache().get(key);
+	    if ((ldapObject != null) && !ldapObject.isNew()) {
+		try {
+		    REFRESH_EXECUTOR.execute(new Runnable() {
+			public void run() {
+			    refresh(key, ldapObject, true);
+			}
+		    });
+		} catch (RejectedExecutionException e) {
+		    invalidate(p_Dn, false);
+		}
+	    }
+	    break;
+	case RENAMED:
+	    invalidateSubtree(p_Dn);
+	    invalidate(p_NewDn, false);
+	    break;
+	case REMOVED:
+	    invalidate(p_Dn);
+	    break;
+	case ADDED:
+	    // An object may have been cached while the entry did not exist
+	    invalidate(p_Dn, false);
+	    break;
+	default:
+	    break;
+	}
+	for (LdapChangeListener listener : m_ChangeListeners) {
+	    try {
+		listener.changed(p_Type, p_Dn, p_NewDn);
+	    } catch (RuntimeException e) {
+		LOG.warn(MESSAGE.getChangeListenerErrorMessage(p_Dn), e);
+	    }
+	}
+    }
+
+    /**
+     * Return {@link LdapObject} from a cache, it is added to the cache if it
+     * was not found
+     * 
+     * @param p_Cache
+     *            The cache
+     * @param p_Dn
+     *            DN of the LdapObject to find in the cache
+     * @param p_Attributes
+     *            Attributes of the LdapObject. It is used to create
+     *            {@link LdapObject} if it was not in cache or update the
+     *            {@link LdapObject} otherwise. If <code>null</code> LdapObject
+     *            will be create with new {@link Attributes} and will not be
+     *            update.
      * @return {@link LdapObject} from cache.
      */
-    private LdapObject getLdapObject(String p_Dn, Attributes p_Attributes) {
-	LdapObject ldapObject;
-	synchronized (m_Cache) {
-	    ldapObject = m_Cache.get(p_Dn);
+    private LdapObject getLdapObject(
+	    ConcurrentCache<String, LdapObject> p_Cache, String p_Dn,
+	    Attributes p_Attributes) {
+	LdapObject ldapObject = p_Cache.get(p_Dn);
+	if (ldapObject == null) {
+	    LdapObject created = new LdapObject(m_Router, p_Dn, p_Attributes);
+	    // Another thread may have added the same DN in the meantime
+	    ldapObject = p_Cache.putIfAbsent(p_Dn, created);
 	    if (ldapObject == null) {
-		ldapObject = new LdapObject(m_Pool, p_Dn, p_Attributes);
-		m_Cache.put(p_Dn, ldapObject);
+		ldapObject = created;
+		if (p_Cache == m_Cache) {
+		    index(p_Dn);
+		}
 	    } else if (p_Attributes != null) {
-		ldapObject.setAttributes(p_Attributes);
+		updateLdapObject(p_Cache, p_Dn, ldapObject, p_Attributes);
 	    }
+	} else if (p_Attributes != null) {
+	    updateLdapObject(p_Cache, p_Dn, ldapObject, p_Attributes);
 	}
 	return ldapObject;
     }
+
+    /**
+     * Update the attributes of a cached {@link LdapObject}. The object is put
+     * again in the cache, so caches bounded by weight take the new attributes
+     * into account. An object with unsaved modifications is left unchanged.
+     * 
+     * @param p_Cache
+     *            The cache that contains the {@link LdapObject}
+     * @param p_Dn
+     *            DN of the {@link LdapObject} in the cache
+     * @param p_LdapObject
+     *            The cached {@link LdapObject}
+     * @param p_Attributes
+     *            The new attributes of the {@link LdapObject}
+     */
+    private void updateLdapObject(ConcurrentCache<String, LdapObject> p_Cache,
+	    String p_Dn, LdapObject p_LdapObject, Attributes p_Attributes) {
+	if (!p_LdapObject.isModified()) {
+	    p_LdapObject.setAttributes(p_Attributes);
+	    p_Cache.put(p_Dn, p_LdapObject);
+	}
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.bean;
+
+import java.util.Map;
+
+import javax.naming.NamingException;
+
+public interface LdapObjectManagerMBean {
+    /**
+     * Return the number of reads of the cache that found an object
+     * 
+     * @return The number of hits
+     */
+    long getHitCount();
+
+    /**
+     * Return the number of reads of the cache that did not find an object
+     * 
+     * @return The number of misses
+     */
+    long getMissCount();
+
+    /**
+     * Return the ratio of reads of the cache that found an object
+     * 
+     * @return The hit rate, between 0 and 1
+     */
+    double getHitRate();
+
+    /**
+     * Return the number of reads of objects from the directory
+     * 
+     * @return The number of searches and restorations
+     */
+    long getLoadCount();
+
+    /**
+     * Return the average duration of the reads of objects from the directory
+     * 
+     * @return The average load time, in milliseconds
+     */
+    double getAverageLoadTime();
+
+    /**
+     * Return the number of objects in the cache
+     * 
+     * @return The size of the cache
+     */
+    int getSize();
+
+    /**
+     * Return the number of objects removed because the cache was full
+     * 
+     * @return The number of evictions
+     */
+    long getSizeEvictionCount();
+
+    /**
+     * Return the number of objects removed because they have expired
+     * 
+     * @return The number of expirations
+     */
+    long getExpiredEvictionCount();
+
+    /**
+     * Return the number of objects collected by the garbage collector
+     * 
+     * @return The number of collected objects
+     */
+    long getCollectedEvictionCount();
+
+    /**
+     * Return the number of objects removed by the application or by an
+     * invalidation
+     * 
+     * @return The number of explicit removals
+     */
+    long getExplicitRemovalCount();
+
+    /**
+     * Return the DN of the cached objects that are read the most often
+     * 
+     * @param p_Count
+     *            The maximum number of DN
+     * @return The DN and their number of hits, from the most read
+     */
+    Map<String, Long> getHottestDns(int p_Count);
+
+    /**
+     * Return the number of cached objects of each object class
+     * 
+     * @return The number of cached objects by object class
+     */
+    Map<String, Integer> getSizeByObjectClass();
+
+    /**
+     * Remove an object from the cache
+     * 
+     * @param p_Dn
+     *            The DN of the object
+     * @return <code>true</code> if the object was in the cache
+     */
+    boolean invalidate(String p_Dn);
+
+    /**
+     * Remove an object and all the objects of its subtree from the cache
+     * 
+     * @param p_Dn
+     *            The DN of the root of the subtree
+     * @return The number of removed objects
+     */
+    int invalidateSubtree(String p_Dn);
+
+    /**
+     * Remove all the objects from the cache
+     */
+    void clearCache();
+
+    /**
+     * Check that the cached objects are up to date, their attributes are
+     * reloaded only if their version has changed
+     * 
+     * @return The number of objects reloaded or removed
+     * @throws NamingException
+     *             If an error occurs
+     */
+    int revalidateCache() throws NamingException;
+
+    /**
+     * Reset the statistics of the cache
+     */
+    void resetStatistics();
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.bean;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+
+import ldapbeans.util.cache.Weigher;
+
+public class LdapObjectWeigher implements Weigher<String, LdapObject> {
+
+    /** Estimated size of an object without its fields, in bytes */
+    private final static int OBJECT_SIZE;
+
+    /** Estimated size of an attribute and its entry in the attributes */
+    private final static int ATTRIBUTE_SIZE;
+
+    /** Estimated size of a value that is neither a string nor an array */
+    private final static int VALUE_SIZE;
+
+    /** Static constructor */
+    static {
+	OBJECT_SIZE = 16;
+	ATTRIBUTE_SIZE = 96;
+	VALUE_SIZE = 32;
+    }
+
+    /**
+     * {@inheritDoc} The weight is an estimation of the size in memory of the
+     * entry, in bytes: it depends on the length of the DN, of the attribute
+     * ids and of the values.
+     * 
+     * @see Weigher#weigh(Object, Object)
+     */
+    public int weigh(String p_Dn, LdapObject p_LdapObject) {
+	long weight = 2 * OBJECT_SIZE + getSize(p_Dn);
+	Attributes attributes = p_LdapObject.getAttributes();
+	if (attributes != null) {
+	    NamingEnumeration<? extends Attribute> enumeration = attributes
+		    .getAll();
+	    while (enumeration.hasMoreElements()) {
+		Attribute attribute = enumeration.nextElement();
+		weight += ATTRIBUTE_SIZE + getSize(attribute.getID());
+		try {
+		    NamingEnumeration<?> values = attribute.getAll();
+		    while (values.hasMoreElements()) {
+			weight += getSize(values.nextElement());
+		    }
+		} catch (NamingException e) {
+		    // Do nothing, skip the values of this attribute
+		}
+	    }
+	}
+	return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return the estimated size of a value in memory
+     * 
+     * @param p_Value
+     *            The value
+     * @return The size of the value, in bytes
+     */
+    private static long getSize(Object p_Value) {
+	long size;
+	if (p_Value == null) {
+	    size = 0;
+	} else if (p_Value instanceof String) {
+	    size = 2 * OBJECT_SIZE + 2L * ((String) p_Value).length();
+	} else if (p_Value instanceof byte[]) {
+	    size = OBJECT_SIZE + ((byte[]) p_Value).length;
+	} else {
+	    size = VALUE_SIZE;
+	}
+	return size;
+    }
+}
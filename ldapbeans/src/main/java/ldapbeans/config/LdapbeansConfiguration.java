@@ -47,6 +47,48 @@ public final class LdapbeansConfiguration implements
      */
     private final static String PROPERTY_DEBUG_LINE_NUMBER_ENABLED;
 
+    /**
+     * Name of the property that describe the timeout (in milliseconds) of the
+     * connection to the directory
+     */
+    private final static String PROPERTY_CONNECT_TIMEOUT;
+
+    /**
+     * Name of the property that describe the timeout (in milliseconds) of the
+     * responses of the directory
+     */
+    private final static String PROPERTY_READ_TIMEOUT;
+
+    /**
+     * Name of the property that describe the maximum number of reads of single
+     * entries per second
+     */
+    private final static String PROPERTY_READ_RATE_LIMIT;
+
+    /**
+     * Name of the property that describe the maximum number of searches per
+     * second
+     */
+    private final static String PROPERTY_SEARCH_RATE_LIMIT;
+
+    /**
+     * Name of the property that describe the maximum number of writes per
+     * second
+     */
+    private final static String PROPERTY_WRITE_RATE_LIMIT;
+
+    /**
+     * Name of the property that describe the maximum estimated size (in
+     * bytes) of the entries kept in the cache
+     */
+    private final static String PROPERTY_CACHE_MAX_WEIGHT;
+
+    /**
+     * Name of the property that describe the specification of the cache of
+     * the new instances of LdapBeanManager
+     */
+    private final static String PROPERTY_CACHE_SPEC;
+
     /** Singleton instance of this class */
     private final static LdapbeansConfiguration INSTANCE;
 
@@ -57,6 +99,13 @@ public final class LdapbeansConfiguration implements
 	PROPERTY_USE_PROXY_BEAN = "ldapbeans.use.proxy.bean";
 	PROPERTY_DEBUG_LINE_NUMBER_ENABLED = "ldapbeans."
 		+ "debug.line.number.enabled";
+	PROPERTY_CONNECT_TIMEOUT = "ldapbeans.connect.timeout";
+	PROPERTY_READ_TIMEOUT = "ldapbeans.read.timeout";
+	PROPERTY_READ_RATE_LIMIT = "ldapbeans.rate.limit.read";
+	PROPERTY_SEARCH_RATE_LIMIT = "ldapbeans.rate.limit.search";
+	PROPERTY_WRITE_RATE_LIMIT = "ldapbeans.rate.limit.write";
+	PROPERTY_CACHE_MAX_WEIGHT = "ldapbeans.cache.max.weight";
+	PROPERTY_CACHE_SPEC = "ldapbeans.cache.spec";
 	INSTANCE = new LdapbeansConfiguration();
     }
 
@@ -96,6 +145,27 @@ public final class LdapbeansConfiguration implements
      */
     private final boolean m_IsDebugLineNumberEnabled;
 
+    /** Timeout (in milliseconds) of the connection to the directory */
+    private long m_ConnectTimeout;
+
+    /** Timeout (in milliseconds) of the responses of the directory */
+    private long m_ReadTimeout;
+
+    /** Maximum number of reads of single entries per second */
+    private long m_ReadRateLimit;
+
+    /** Maximum number of searches per second */
+    private long m_SearchRateLimit;
+
+    /** Maximum number of writes per second */
+    private long m_WriteRateLimit;
+
+    /** Maximum estimated size (in bytes) of the entries kept in the cache */
+    private long m_CacheMaxWeight;
+
+    /** Specification of the cache of the new instances of LdapBeanManager */
+    private String m_CacheSpec;
+
     /**
      * Create a new configuration
      */
@@ -107,6 +177,34 @@ public final class LdapbeansConfiguration implements
 	m_UseProxyBean = System.getProperty(PROPERTY_USE_PROXY_BEAN) != null;
 	m_IsDebugLineNumberEnabled = System
 		.getProperty(PROPERTY_DEBUG_LINE_NUMBER_ENABLED) != null;
+	m_ConnectTimeout = getLongProperty(PROPERTY_CONNECT_TIMEOUT);
+	m_ReadTimeout = getLongProperty(PROPERTY_READ_TIMEOUT);
+	m_ReadRateLimit = getLongProperty(PROPERTY_READ_RATE_LIMIT);
+	m_SearchRateLimit = getLongProperty(PROPERTY_SEARCH_RATE_LIMIT);
+	m_WriteRateLimit = getLongProperty(PROPERTY_WRITE_RATE_LIMIT);
+	m_CacheMaxWeight = getLongProperty(PROPERTY_CACHE_MAX_WEIGHT);
+	m_CacheSpec = System.getProperty(PROPERTY_CACHE_SPEC);
+    }
+
+    /**
+     * Return the value of a system property that contains a number
+     * 
+     * @param p_Name
+     *            Name of the property
+     * @return The value of the property, or 0 if the property is not set or
+     *         is not a number
+     */
+    private static long getLongProperty(String p_Name) {
+	long result = 0;
+	String value = System.getProperty(p_Name);
+	if (value != null) {
+	    try {
+		result = Long.parseLong(value.trim());
+	    } catch (NumberFormatException e) {
+		result = 0;
+	    }
+	}
+	return result;
     }
 
     /**
@@ -150,4 +248,102 @@ public final class LdapbeansConfiguration implements
     public boolean isDebugLineNumberEnabled() {
 	return m_IsDebugLineNumberEnabled;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getConnectTimeout() {
+	return m_ConnectTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setConnectTimeout(long p_ConnectTimeout) {
+	m_ConnectTimeout = p_ConnectTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getReadTimeout() {
+	return m_ReadTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setReadTimeout(long p_ReadTimeout) {
+	m_ReadTimeout = p_ReadTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getReadRateLimit() {
+	return m_ReadRateLimit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setReadRateLimit(long p_ReadRateLimit) {
+	m_ReadRateLimit = p_ReadRateLimit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSearchRateLimit() {
+	return m_SearchRateLimit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSearchRateLimit(long p_SearchRateLimit) {
+	m_SearchRateLimit = p_SearchRateLimit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWriteRateLimit() {
+	return m_WriteRateLimit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setWriteRateLimit(long p_WriteRateLimit) {
+	m_WriteRateLimit = p_WriteRateLimit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCacheMaxWeight() {
+	return m_CacheMaxWeight;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setCacheMaxWeight(long p_CacheMaxWeight) {
+	m_CacheMaxWeight = p_CacheMaxWeight;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getCacheSpec() {
+	return m_CacheSpec;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setCacheSpec(String p_CacheSpec) {
+	m_CacheSpec = p_CacheSpec;
+    }
 }
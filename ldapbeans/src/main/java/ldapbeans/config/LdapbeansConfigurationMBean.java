@@ -22,6 +22,8 @@ package ldapbeans.config;
 
 import java.lang.reflect.Proxy;
 
+import ldapbeans.bean.LdapBeanManager;
+
 public interface LdapbeansConfigurationMBean {
 
     /**
@@ -70,4 +72,132 @@ public interface LdapbeansConfigurationMBean {
      */
     void setUseProxyBean(boolean p_UseProxyBean);
 
+    /**
+     * Return the timeout of the connection to the directory
+     * 
+     * @return The timeout (in milliseconds) of the connection to the
+     *         directory, or 0 if there is no timeout
+     */
+    long getConnectTimeout();
+
+    /**
+     * Set the timeout of the connection to the directory. It is used for new
+     * connections.
+     * 
+     * @param p_ConnectTimeout
+     *            The timeout (in milliseconds) of the connection to the
+     *            directory, or 0 if there is no timeout
+     */
+    void setConnectTimeout(long p_ConnectTimeout);
+
+    /**
+     * Return the timeout of the responses of the directory
+     * 
+     * @return The timeout (in milliseconds) of the responses of the
+     *         directory, or 0 if there is no timeout
+     */
+    long getReadTimeout();
+
+    /**
+     * Set the timeout of the responses of the directory. It is used for new
+     * connections.
+     * 
+     * @param p_ReadTimeout
+     *            The timeout (in milliseconds) of the responses of the
+     *            directory, or 0 if there is no timeout
+     */
+    void setReadTimeout(long p_ReadTimeout);
+
+    /**
+     * Return the maximum rate of reads of single entries of a new
+     * {@link LdapBeanManager}
+     * 
+     * @return The maximum number of reads of single entries per second, or 0
+     *         if there is no limit
+     */
+    long getReadRateLimit();
+
+    /**
+     * Set the maximum rate of reads of single entries of a new
+     * {@link LdapBeanManager}
+     * 
+     * @param p_ReadRateLimit
+     *            The maximum number of reads of single entries per second, or
+     *            0 if there is no limit
+     */
+    void setReadRateLimit(long p_ReadRateLimit);
+
+    /**
+     * Return the maximum rate of searches of a new {@link LdapBeanManager}
+     * 
+     * @return The maximum number of searches per second, or 0 if there is
+     *         no limit
+     */
+    long getSearchRateLimit();
+
+    /**
+     * Set the maximum rate of searches of a new {@link LdapBeanManager}
+     * 
+     * @param p_SearchRateLimit
+     *            The maximum number of searches per second, or 0 if there is
+     *            no limit
+     */
+    void setSearchRateLimit(long p_SearchRateLimit);
+
+    /**
+     * Return the maximum rate of writes of a new {@link LdapBeanManager}
+     * 
+     * @return The maximum number of writes per second, or 0 if there is
+     *         no limit
+     */
+    long getWriteRateLimit();
+
+    /**
+     * Set the maximum rate of writes of a new {@link LdapBeanManager}
+     * 
+     * @param p_WriteRateLimit
+     *            The maximum number of writes per second, or 0 if there is
+     *            no limit
+     */
+    void setWriteRateLimit(long p_WriteRateLimit);
+
+    /**
+     * Return the maximum estimated size of the entries cached by a new
+     * {@link LdapBeanManager}
+     * 
+     * @return The maximum size of the cache in bytes, or 0 if there is no
+     *         limit
+     */
+    long getCacheMaxWeight();
+
+    /**
+     * Set the maximum estimated size of the entries cached by a new
+     * {@link LdapBeanManager}
+     * 
+     * @param p_CacheMaxWeight
+     *            The maximum size of the cache in bytes, or 0 if there is no
+     *            limit
+     */
+    void setCacheMaxWeight(long p_CacheMaxWeight);
+
+    /**
+     * Return the specification of the cache of a new {@link LdapBeanManager}
+     * created without its own specification
+     * 
+     * @return The specification, for example
+     *         <code>policy=tinylfu,maximumSize=10000</code>, or
+     *         <code>null</code> to use the cache class implementation
+     */
+    String getCacheSpec();
+
+    /**
+     * Set the specification of the cache of a new {@link LdapBeanManager}
+     * created without its own specification
+     * 
+     * @param p_CacheSpec
+     *            The specification, or <code>null</code> to use the cache
+     *            class implementation
+     */
+    void setCacheSpec(String p_CacheSpec);
+
 }
\ No newline at end of file
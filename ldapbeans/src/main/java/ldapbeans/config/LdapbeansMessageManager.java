@@ -72,6 +72,82 @@ public final class LdapbeansMessageManager {
 	return new Message("ldapbeans.cache.impl.error", p_ClassName);
     }
 
+    /**
+     * Return the message to use when a cached object can not be refreshed
+     * 
+     * @param p_Dn
+     *            The DN of the object
+     * @return The cache refresh error message
+     */
+    public Message getCacheRefreshErrorMessage(String p_Dn) {
+	return new Message("ldapbeans.cache.refresh.error", p_Dn);
+    }
+
+    /**
+     * Return the message to use when a listener of the changes of the
+     * directory fails
+     * 
+     * @param p_Dn
+     *            The DN of the changed entry
+     * @return The change listener error message
+     */
+    public Message getChangeListenerErrorMessage(String p_Dn) {
+	return new Message("ldapbeans.change.listener.error", p_Dn);
+    }
+
+    /**
+     * Return the message to use when the changes of the directory can not be
+     * listened to
+     * 
+     * @param p_Root
+     *            The root DN of the listened tree
+     * @param p_Delay
+     *            The delay (in milliseconds) before the next try
+     * @return The change monitor error message
+     */
+    public Message getChangeMonitorErrorMessage(String p_Root, long p_Delay) {
+	return new Message("ldapbeans.change.monitor.error", p_Root, Long
+		.valueOf(p_Delay));
+    }
+
+    /**
+     * Return the message to use when the changes of the directory are
+     * listened to again after an error
+     * 
+     * @param p_Root
+     *            The root DN of the listened tree
+     * @return The change monitor reconnection message
+     */
+    public Message getChangeMonitorReconnectedMessage(String p_Root) {
+	return new Message("ldapbeans.change.monitor.reconnected", p_Root);
+    }
+
+    /**
+     * Return the message to use when the cache could not be revalidated
+     * after the changes of the directory have been listened to again
+     * 
+     * @param p_Root
+     *            The root DN of the listened tree
+     * @return The change monitor revalidation error message
+     */
+    public Message getChangeMonitorRevalidationErrorMessage(String p_Root) {
+	return new Message("ldapbeans.change.monitor.revalidation.error",
+		p_Root);
+    }
+
+    /**
+     * Return cache specification error message
+     * 
+     * @param p_Spec
+     *            The specification that is not valid
+     * @param p_Error
+     *            The description of the error
+     * @return The cache specification error message
+     */
+    public Message getCacheSpecErrorMessage(String p_Spec, String p_Error) {
+	return new Message("ldapbeans.cache.spec.error", p_Spec, p_Error);
+    }
+
     /**
      * Return the message to use when trying to write generated class in a file
      * 
@@ -149,6 +225,19 @@ public final class LdapbeansMessageManager {
 		p_Method);
     }
 
+    /**
+     * Return the message to use when a listener of the invalidations of an
+     * invalidation bus fails
+     * 
+     * @param p_Key
+     *            The key of the invalidated entry, or of the root of the
+     *            subtree
+     * @return The invalidation listener error message
+     */
+    public Message getInvalidationListenerErrorMessage(String p_Key) {
+	return new Message("ldapbeans.invalidation.listener.error", p_Key);
+    }
+
     /**
      * Return the message to use when an error occurs during the creation of a
      * LdapBean
@@ -160,4 +249,15 @@ public final class LdapbeansMessageManager {
 	return new Message("ldapbeans.bean.creation.error");
     }
 
+    /**
+     * Return the message to use when a MBean can not be registered
+     * 
+     * @param p_Name
+     *            The name of the MBean
+     * @return The message to use when a MBean can not be registered
+     */
+    public Message getMBeanRegistrationErrorMessage(String p_Name) {
+	return new Message("ldapbeans.jmx.registration.error", p_Name);
+    }
+
 }
@@ -0,0 +1,56 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DaemonThreadFactory implements ThreadFactory {
+
+    /** Prefix of the name of the created threads */
+    private final String m_Name;
+
+    /** Number of created threads */
+    private final AtomicInteger m_Count = new AtomicInteger();
+
+    /**
+     * Construct a factory of daemon threads, so background tasks of
+     * ldapbeans never prevent the JVM from exiting
+     * 
+     * @param p_Name
+     *            Prefix of the name of the created threads
+     */
+    public DaemonThreadFactory(String p_Name) {
+	m_Name = p_Name;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ThreadFactory#newThread(Runnable)
+     */
+    public Thread newThread(Runnable p_Runnable) {
+	Thread thread = new Thread(p_Runnable, m_Name + "-"
+		+ m_Count.incrementAndGet());
+	thread.setDaemon(true);
+	return thread;
+    }
+}
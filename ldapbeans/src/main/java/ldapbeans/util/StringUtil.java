@@ -78,4 +78,39 @@ public final class StringUtil {
 	}
 	return result;
     }
+
+    /**
+     * Escape a value that will be used in a LDAP search filter (RFC 4515)
+     * 
+     * @param p_Value
+     *            The value to escape
+     * @return The escaped value
+     */
+    public static String escapeFilterValue(String p_Value) {
+	StringBuilder result = new StringBuilder(p_Value.length());
+	for (int i = 0; i < p_Value.length(); i++) {
+	    char c = p_Value.charAt(i);
+	    switch (c) {
+	    case '\\':
+		result.append("\\5c");
+		break;
+	    case '*':
+		result.append("\\2a");
+		break;
+	    case '(':
+		result.append("\\28");
+		break;
+	    case ')':
+		result.append("\\29");
+		break;
+	    case '\0':
+		result.append("\\00");
+		break;
+	    default:
+		result.append(c);
+		break;
+	    }
+	}
+	return result.toString();
+    }
 }
@@ -29,6 +29,58 @@ import ldapbeans.util.cache.Cache.CacheEntry;
 public abstract class AbstractCache<K, V> extends
 	AbstractCollection<CacheEntry<K, V>> implements Cache<K, V> {
 
+    /** Listener of the entries removed by the cache itself */
+    private volatile RemovalListener<? super K, ? super V> m_RemovalListener;
+
+    /**
+     * Set the listener of the entries removed by the cache itself, because
+     * it is full, or because they have expired or have been collected
+     * 
+     * @param p_RemovalListener
+     *            The listener, or <code>null</code>
+     */
+    public void setRemovalListener(
+	    RemovalListener<? super K, ? super V> p_RemovalListener) {
+	m_RemovalListener = p_RemovalListener;
+    }
+
+    /**
+     * Return the listener of the entries removed by the cache itself
+     * 
+     * @return The listener, or <code>null</code>
+     */
+    public RemovalListener<? super K, ? super V> getRemovalListener() {
+	return m_RemovalListener;
+    }
+
+    /**
+     * Notify the listener that an entry has been removed by the cache itself
+     * 
+     * @param p_Key
+     *            The key of the removed entry
+     * @param p_Value
+     *            The value of the removed entry, or <code>null</code> if it
+     *            has been collected
+     * @param p_Cause
+     *            The reason of the removal
+     */
+    protected void notifyRemoval(K p_Key, V p_Value, RemovalCause p_Cause) {
+	RemovalListener<? super K, ? super V> listener = m_RemovalListener;
+	if (listener != null) {
+	    listener.removed(p_Key, p_Value, p_Cause);
+	}
+    }
+
+    /**
+     * Remove the expired entries. It is called regularly for the caches
+     * registered with {@link TTLCache#scheduleCleanUp(AbstractCache)}, and
+     * may also be called by the application. Does nothing for the caches
+     * whose entries do not expire.
+     */
+    public void cleanUp() {
+	// Entries of this cache do not expire
+    }
+
     /**
      * Copy all element of the cache passed in parameter to this cache
      * 
@@ -0,0 +1,102 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ldapbeans.config.LdapbeansMessageManager;
+import ldapbeans.util.i18n.Logger;
+
+public abstract class AbstractInvalidationBus implements InvalidationBus {
+
+    /** The logger for this class */
+    private final static Logger LOG = Logger.getLogger();
+
+    /** Message manager instance */
+    private final static LdapbeansMessageManager MESSAGE = LdapbeansMessageManager
+	    .getInstance();
+
+    /** Listeners of the invalidations */
+    private final List<InvalidationListener> m_Listeners;
+
+    /**
+     * Constructor
+     */
+    protected AbstractInvalidationBus() {
+	m_Listeners = new CopyOnWriteArrayList<InvalidationListener>();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see InvalidationBus#subscribe(InvalidationListener)
+     */
+    public void subscribe(InvalidationListener p_Listener) {
+	m_Listeners.add(p_Listener);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see InvalidationBus#unsubscribe(InvalidationListener)
+     */
+    public void unsubscribe(InvalidationListener p_Listener) {
+	m_Listeners.remove(p_Listener);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see InvalidationBus#close()
+     */
+    public void close() {
+	m_Listeners.clear();
+    }
+
+    /**
+     * Notify the listeners of an invalidation, except its source. A listener
+     * that fails does not prevent the others from being notified.
+     * 
+     * @param p_Source
+     *            The listener of the member that published the
+     *            invalidation, or <code>null</code> if it has been received
+     *            from another process
+     * @param p_Key
+     *            The key of the entry, or of the root of the subtree
+     * @param p_Subtree
+     *            <code>true</code> to invalidate all the entries of the
+     *            subtree
+     */
+    protected void deliver(InvalidationListener p_Source, String p_Key,
+	    boolean p_Subtree) {
+	for (InvalidationListener listener : m_Listeners) {
+	    if (listener != p_Source) {
+		try {
+		    listener.invalidated(p_Key, p_Subtree);
+		} catch (RuntimeException e) {
+		    LOG.warn(MESSAGE.getInvalidationListenerErrorMessage(p_Key),
+			    e);
+		}
+	    }
+	}
+    }
+}
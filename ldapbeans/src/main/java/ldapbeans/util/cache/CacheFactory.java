@@ -1,82 +1,208 @@
-/*
- * This file is part of ldapbeans
- *
- * Released under LGPL
- *
- * ldapbeans is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Lesser General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- *
- * ldapbeans is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU Lesser General Public License for more details.
- *
- * You should have received a copy of the GNU Lesser General Public License
- * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
- *
- * Copyright 2010 Bruno Macherel
- */
-package ldapbeans.util.cache;
-
-public final class CacheFactory {
-    public static enum CacheType {
-	SIMPLE, LRU, COMMITABLE, SOFT, WEAK
-    }
-
-    /** Unique instance of the CacheActory */
-    private final static CacheFactory INSTANCE = new CacheFactory();
-
-    /**
-     * Return the unique instance of the cache factory
-     * 
-     * @return the unique instance of this class
-     */
-    public static CacheFactory getInstance() {
-	return INSTANCE;
-    }
-
-    /**
-     * Constructor that disallow to instanciate this class.
-     */
-    private CacheFactory() {
-	// Nothing to do
-    }
-
-    /**
-     * Create a new cache. The implementation depending of the type.
-     * 
-     * @param <K>
-     *            Type of keys
-     * @param <V>
-     *            Type of values
-     * @param p_Type
-     *            The kind of cache
-     * @return A new cache
-     */
-    public <K, V> Cache<K, V> createCache(CacheType p_Type) {
-	Cache<K, V> cache;
-	switch (p_Type) {
-	case SIMPLE:
-	    cache = new SimpleCache<K, V>();
-	    break;
-	case LRU:
-	    cache = new LRUCacheImpl<K, V>();
-	    break;
-	case COMMITABLE:
-	    cache = new CommitableCacheImpl<K, V>();
-	    break;
-	case SOFT:
-	    cache = new SoftCache<K, V>();
-	    break;
-	case WEAK:
-	    cache = new WeakCache<K, V>();
-	    break;
-	default:
-	    cache = new SimpleCache<K, V>();
-	    break;
-	}
-	return cache;
-    }
-}
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+public final class CacheFactory {
+    public static enum CacheType {
+	SIMPLE, LRU, COMMITABLE, SOFT, WEAK, CONCURRENT, CONCURRENT_LRU,
+	TINY_LFU
+    }
+
+    /** Unique instance of the CacheActory */
+    private final static CacheFactory INSTANCE = new CacheFactory();
+
+    /**
+     * Return the unique instance of the cache factory
+     * 
+     * @return the unique instance of this class
+     */
+    public static CacheFactory getInstance() {
+	return INSTANCE;
+    }
+
+    /**
+     * Constructor that disallow to instanciate this class.
+     */
+    private CacheFactory() {
+	// Nothing to do
+    }
+
+    /**
+     * Create a new cache. The implementation depending of the type.
+     * 
+     * @param <K>
+     *            Type of keys
+     * @param <V>
+     *            Type of values
+     * @param p_Type
+     *            The kind of cache
+     * @return A new cache
+     */
+    public <K, V> Cache<K, V> createCache(CacheType p_Type) {
+	Cache<K, V> cache;
+	switch (p_Type) {
+	case SIMPLE:
+	    cache = new SimpleCache<K, V>();
+	    break;
+	case LRU:
+	    cache = new LRUCacheImpl<K, V>();
+	    break;
+	case COMMITABLE:
+	    cache = new CommitableCacheImpl<K, V>();
+	    break;
+	case SOFT:
+	    cache = new SoftCache<K, V>();
+	    break;
+	case WEAK:
+	    cache = new WeakCache<K, V>();
+	    break;
+	case CONCURRENT:
+	    cache = new ConcurrentHashCache<K, V>();
+	    break;
+	case CONCURRENT_LRU:
+	    cache = new ConcurrentLRUCache<K, V>();
+	    break;
+	case TINY_LFU:
+	    cache = new TinyLFUCache<K, V>();
+	    break;
+	default:
+	    cache = new SimpleCache<K, V>();
+	    break;
+	}
+	return cache;
+    }
+
+    /**
+     * Create a new thread safe cache from a specification. When the policy
+     * is not specified, it is {@link CacheType#CONCURRENT_LRU} if entries are
+     * bounded by number or weight, {@link CacheType#CONCURRENT} otherwise.
+     * The {@link CacheType#LRU}, {@link CacheType#CONCURRENT_LRU} and
+     * {@link CacheType#TINY_LFU} policies support all the options, and
+     * {@link CacheType#CONCURRENT} supports the expiration. Their caches are
+     * read without lock: a {@link ConcurrentPolicyCache} replays the reads
+     * on the policy, which is bounded by number and weight, and expires the
+     * entries itself. The other policies do not support any option, and
+     * their caches are protected by a {@link SynchronizedCache}.
+     * 
+     * @param <K>
+     *            Type of keys
+     * @param <V>
+     *            Type of values
+     * @param p_Spec
+     *            The specification of the cache
+     * @param p_Weigher
+     *            The weigher of the entries, or <code>null</code> if the
+     *            specification does not bound the weight of the cache
+     * @return A new cache
+     * @throws IllegalArgumentException
+     *             If the policy does not support the options
+     * @see CacheSpec#parse(String)
+     */
+    public <K, V> ConcurrentCache<K, V> createCache(CacheSpec p_Spec,
+	    Weigher<? super K, ? super V> p_Weigher) {
+	long expiration = Math.max(p_Spec.getExpireAfterWrite(), p_Spec
+		.getExpireAfterAccess());
+	boolean bounded = (p_Spec.getMaximumSize() >= 0)
+		|| (p_Spec.getMaximumWeight() >= 0);
+	CacheType type = p_Spec.getPolicy();
+	if (type == null) {
+	    type = bounded ? CacheType.CONCURRENT_LRU : CacheType.CONCURRENT;
+	}
+	ConcurrentCache<K, V> result;
+	if ((type != CacheType.LRU) && (type != CacheType.CONCURRENT_LRU)
+		&& (type != CacheType.TINY_LFU)
+		&& (type != CacheType.CONCURRENT)) {
+	    if (bounded || (expiration >= 0)) {
+		throw new IllegalArgumentException("The policy " + type
+			+ " does not support options: " + p_Spec);
+	    }
+	    Cache<K, V> cache = createCache(type);
+	    result = new SynchronizedCache<K, V>(cache);
+	} else if ((expiration < 0) && !bounded
+		&& (type == CacheType.CONCURRENT)) {
+	    result = new ConcurrentHashCache<K, V>();
+	} else if ((expiration < 0) && (p_Spec.getMaximumWeight() < 0)
+		&& (type == CacheType.CONCURRENT_LRU)) {
+	    ConcurrentLRUCache<K, V> cache = new ConcurrentLRUCache<K, V>();
+	    cache.setMaxSize(p_Spec.getMaximumSize());
+	    result = cache;
+	} else {
+	    ExpirationPolicy expirationPolicy = ExpirationPolicy.AFTER_WRITE;
+	    if (p_Spec.getExpireAfterAccess() >= 0) {
+		expirationPolicy = ExpirationPolicy.AFTER_ACCESS;
+	    }
+	    result = new ConcurrentPolicyCache<K, V>(this.<K, V> createPolicy(
+		    type, p_Spec, p_Weigher), expiration, expirationPolicy);
+	}
+	return result;
+    }
+
+    /**
+     * Create the cache that choose the entries to evict for a
+     * {@link ConcurrentPolicyCache}
+     * 
+     * @param <K>
+     *            Type of keys
+     * @param <V>
+     *            Type of values
+     * @param p_Type
+     *            The kind of cache
+     * @param p_Spec
+     *            The specification of the cache
+     * @param p_Weigher
+     *            The weigher of the entries, or <code>null</code>
+     * @return The policy, or <code>null</code> if the cache is not bounded
+     * @throws IllegalArgumentException
+     *             If the policy does not support the options
+     */
+    @SuppressWarnings("unchecked")
+    private <K, V> AbstractCache<K, V> createPolicy(CacheType p_Type,
+	    CacheSpec p_Spec, Weigher<? super K, ? super V> p_Weigher) {
+	long maxWeight = p_Spec.getMaximumWeight();
+	if ((maxWeight >= 0) && (p_Weigher == null)) {
+	    throw new IllegalArgumentException("No weigher to bound "
+		    + "the weight of the cache: " + p_Spec);
+	}
+	AbstractCache<K, V> policy;
+	if (p_Type == CacheType.TINY_LFU) {
+	    if (maxWeight >= 0) {
+		policy = new TinyLFUCache<K, V>(p_Weigher, maxWeight);
+	    } else {
+		policy = new TinyLFUCache<K, V>();
+	    }
+	} else if (p_Type == CacheType.CONCURRENT) {
+	    if ((maxWeight >= 0) || (p_Spec.getMaximumSize() >= 0)) {
+		throw new IllegalArgumentException("The policy " + p_Type
+			+ " does not support maximumSize and maximumWeight: "
+			+ p_Spec);
+	    }
+	    policy = null;
+	} else if (maxWeight >= 0) {
+	    policy = new WeightedCache<K, V>(p_Weigher, maxWeight);
+	} else {
+	    policy = new LRUCacheImpl<K, V>();
+	}
+	if (p_Spec.getMaximumSize() >= 0) {
+	    ((LRUCache<K, V>) policy).setMaxSize(p_Spec.getMaximumSize());
+	}
+	return policy;
+    }
+}
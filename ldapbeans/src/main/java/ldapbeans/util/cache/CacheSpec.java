@@ -0,0 +1,289 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import ldapbeans.util.cache.CacheFactory.CacheType;
+
+public final class CacheSpec {
+
+    /** Multipliers of the units of sizes */
+    private final static Map<String, Long> SIZE_UNITS;
+
+    /** Multipliers of the units of durations, to milliseconds */
+    private final static Map<String, Long> DURATION_UNITS;
+
+    /** Static constructor */
+    static {
+	SIZE_UNITS = new HashMap<String, Long>();
+	SIZE_UNITS.put("", Long.valueOf(1));
+	SIZE_UNITS.put("b", Long.valueOf(1));
+	SIZE_UNITS.put("k", Long.valueOf(1L << 10));
+	SIZE_UNITS.put("kb", Long.valueOf(1L << 10));
+	SIZE_UNITS.put("m", Long.valueOf(1L << 20));
+	SIZE_UNITS.put("mb", Long.valueOf(1L << 20));
+	SIZE_UNITS.put("g", Long.valueOf(1L << 30));
+	SIZE_UNITS.put("gb", Long.valueOf(1L << 30));
+	DURATION_UNITS = new HashMap<String, Long>();
+	DURATION_UNITS.put("", Long.valueOf(1));
+	DURATION_UNITS.put("ms", Long.valueOf(1));
+	DURATION_UNITS.put("s", Long.valueOf(1000));
+	DURATION_UNITS.put("m", Long.valueOf(60 * 1000));
+	DURATION_UNITS.put("h", Long.valueOf(60 * 60 * 1000));
+	DURATION_UNITS.put("d", Long.valueOf(24 * 60 * 60 * 1000));
+    }
+
+    /** The specification, as it was parsed */
+    private final String m_Spec;
+
+    /** The kind of cache, or <code>null</code> if not specified */
+    private CacheType m_Policy;
+
+    /** Maximum number of entries, or -1 if not specified */
+    private int m_MaximumSize = -1;
+
+    /** Maximum estimated size of the entries, or -1 if not specified */
+    private long m_MaximumWeight = -1;
+
+    /** Delay after witch written entries expire, or -1 if not specified */
+    private long m_ExpireAfterWrite = -1;
+
+    /** Delay after witch read entries expire, or -1 if not specified */
+    private long m_ExpireAfterAccess = -1;
+
+    /** Delay after witch written entries are reloaded, or -1 if not set */
+    private long m_RefreshAfterWrite = -1;
+
+    /**
+     * Construct an empty specification
+     * 
+     * @param p_Spec
+     *            The specification
+     */
+    private CacheSpec(String p_Spec) {
+	m_Spec = p_Spec;
+    }
+
+    /**
+     * Parse a cache specification. The specification is a list of options
+     * separated by commas, for example
+     * <code>policy=tinylfu,maximumSize=10000</code> or
+     * <code>maximumWeight=512MB,expireAfterWrite=60s</code>. The options are:
+     * <ul>
+     * <li><code>policy</code>: the kind of cache, a {@link CacheType} whose
+     * case and underscores are ignored (<code>lru</code>,
+     * <code>concurrentlru</code>, <code>tinylfu</code>, <code>soft</code>
+     * ...)</li>
+     * <li><code>maximumSize</code>: the maximum number of entries</li>
+     * <li><code>maximumWeight</code>: the maximum estimated size of the
+     * entries, in bytes or with the unit <code>KB</code>, <code>MB</code> or
+     * <code>GB</code></li>
+     * <li><code>expireAfterWrite</code>, <code>expireAfterAccess</code>: the
+     * delay after witch entries expire, in milliseconds or with the unit
+     * <code>ms</code>, <code>s</code>, <code>m</code>, <code>h</code> or
+     * <code>d</code></li>
+     * <li><code>refreshAfterWrite</code>: the delay after witch entries are
+     * reloaded, with the same units</li>
+     * </ul>
+     * The options supported by each policy are listed by
+     * {@link CacheFactory#createCache(CacheSpec, Weigher)}.
+     * 
+     * @param p_Spec
+     *            The specification
+     * @return The parsed specification
+     * @throws IllegalArgumentException
+     *             If the specification is not valid
+     */
+    public static CacheSpec parse(String p_Spec) {
+	CacheSpec result = new CacheSpec(p_Spec);
+	for (String option : p_Spec.split(",")) {
+	    option = option.trim();
+	    if (option.length() > 0) {
+		result.parseOption(option);
+	    }
+	}
+	if ((result.m_ExpireAfterWrite >= 0)
+		&& (result.m_ExpireAfterAccess >= 0)) {
+	    throw new IllegalArgumentException("expireAfterWrite and "
+		    + "expireAfterAccess can not be combined: " + p_Spec);
+	}
+	return result;
+    }
+
+    /**
+     * Parse an option of the specification
+     * 
+     * @param p_Option
+     *            The option, with the form <code>name=value</code>
+     */
+    private void parseOption(String p_Option) {
+	int index = p_Option.indexOf('=');
+	if (index < 0) {
+	    throw new IllegalArgumentException("Option without value: "
+		    + p_Option);
+	}
+	String name = p_Option.substring(0, index).trim();
+	String value = p_Option.substring(index + 1).trim();
+	if ("policy".equals(name)) {
+	    m_Policy = parsePolicy(value);
+	} else if ("maximumSize".equals(name)) {
+	    long size = parseNumber(name, value, SIZE_UNITS);
+	    if (size > Integer.MAX_VALUE) {
+		throw new IllegalArgumentException("Invalid maximumSize: "
+			+ value);
+	    }
+	    m_MaximumSize = (int) size;
+	} else if ("maximumWeight".equals(name)) {
+	    m_MaximumWeight = parseNumber(name, value, SIZE_UNITS);
+	} else if ("expireAfterWrite".equals(name)) {
+	    m_ExpireAfterWrite = parseNumber(name, value, DURATION_UNITS);
+	} else if ("expireAfterAccess".equals(name)) {
+	    m_ExpireAfterAccess = parseNumber(name, value, DURATION_UNITS);
+	} else if ("refreshAfterWrite".equals(name)) {
+	    m_RefreshAfterWrite = parseNumber(name, value, DURATION_UNITS);
+	} else {
+	    throw new IllegalArgumentException("Unknown option: " + name);
+	}
+    }
+
+    /**
+     * Parse the kind of cache
+     * 
+     * @param p_Value
+     *            The name of a {@link CacheType}, its case and underscores
+     *            are ignored
+     * @return The kind of cache
+     */
+    private static CacheType parsePolicy(String p_Value) {
+	String name = p_Value.replace("_", "").replace("-", "");
+	for (CacheType type : CacheType.values()) {
+	    if (type.name().replace("_", "").equalsIgnoreCase(name)) {
+		return type;
+	    }
+	}
+	throw new IllegalArgumentException("Unknown policy: " + p_Value);
+    }
+
+    /**
+     * Parse a positive number followed by an optional unit
+     * 
+     * @param p_Name
+     *            The name of the option
+     * @param p_Value
+     *            The value of the option
+     * @param p_Units
+     *            The multiplier of each unit, by lower case name
+     * @return The number multiplied by the multiplier of its unit
+     */
+    private static long parseNumber(String p_Name, String p_Value,
+	    Map<String, Long> p_Units) {
+	int index = 0;
+	while ((index < p_Value.length())
+		&& Character.isDigit(p_Value.charAt(index))) {
+	    index++;
+	}
+	Long multiplier = p_Units.get(p_Value.substring(index).trim()
+		.toLowerCase(Locale.ENGLISH));
+	if ((index == 0) || (multiplier == null)) {
+	    throw new IllegalArgumentException("Invalid " + p_Name + ": "
+		    + p_Value);
+	}
+	try {
+	    long number = Long.parseLong(p_Value.substring(0, index));
+	    if (number > Long.MAX_VALUE / multiplier.longValue()) {
+		throw new IllegalArgumentException("Invalid " + p_Name + ": "
+			+ p_Value);
+	    }
+	    return number * multiplier.longValue();
+	} catch (NumberFormatException e) {
+	    throw new IllegalArgumentException("Invalid " + p_Name + ": "
+		    + p_Value);
+	}
+    }
+
+    /**
+     * Return the kind of cache
+     * 
+     * @return The kind of cache, or <code>null</code> if it was not specified
+     */
+    public CacheType getPolicy() {
+	return m_Policy;
+    }
+
+    /**
+     * Return the maximum number of entries
+     * 
+     * @return The maximum number of entries, or -1 if it was not specified
+     */
+    public int getMaximumSize() {
+	return m_MaximumSize;
+    }
+
+    /**
+     * Return the maximum estimated size of the entries
+     * 
+     * @return The maximum size in bytes, or -1 if it was not specified
+     */
+    public long getMaximumWeight() {
+	return m_MaximumWeight;
+    }
+
+    /**
+     * Return the delay after witch written entries expire
+     * 
+     * @return The delay in milliseconds, or -1 if it was not specified
+     */
+    public long getExpireAfterWrite() {
+	return m_ExpireAfterWrite;
+    }
+
+    /**
+     * Return the delay after witch read entries expire
+     * 
+     * @return The delay in milliseconds, or -1 if it was not specified
+     */
+    public long getExpireAfterAccess() {
+	return m_ExpireAfterAccess;
+    }
+
+    /**
+     * Return the delay after witch written entries have to be reloaded. The
+     * reload is not done by the cache, but by its owner.
+     * 
+     * @return The delay in milliseconds, or -1 if it was not specified
+     */
+    public long getRefreshAfterWrite() {
+	return m_RefreshAfterWrite;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+	return m_Spec;
+    }
+}
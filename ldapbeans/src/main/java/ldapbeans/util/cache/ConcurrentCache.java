@@ -0,0 +1,53 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+public interface ConcurrentCache<K, V> extends Cache<K, V> {
+
+    /**
+     * Add an entry to the cache if there is no entry for the key. It is
+     * atomic: when several threads add an entry for the same key, only one
+     * entry is kept.
+     * 
+     * @param p_Key
+     *            The key of the new entry
+     * @param p_Value
+     *            The value of the new entry
+     * @return The value of the entry that was already in the cache, or
+     *         <code>null</code> if the new entry has been added
+     */
+    V putIfAbsent(K p_Key, V p_Value);
+
+    /**
+     * Replace the value of an entry only if the entry is still in the cache
+     * with the expected value. It is atomic: the entry is not replaced when
+     * it has been removed or replaced by another thread.
+     * 
+     * @param p_Key
+     *            The key of the entry
+     * @param p_Expected
+     *            The value expected in the cache
+     * @param p_Value
+     *            The new value of the entry
+     * @return <code>true</code> if the value has been replaced
+     */
+    boolean replace(K p_Key, V p_Expected, V p_Value);
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class ConcurrentHashCache<K, V> extends SimpleCache<K, V> implements
+	ConcurrentCache<K, V> {
+
+    /** Map where entries are stored */
+    private final ConcurrentMap<K, V> m_Map;
+
+    /**
+     * Construct an empty cache
+     */
+    public ConcurrentHashCache() {
+	this(new ConcurrentHashMap<K, V>());
+    }
+
+    /**
+     * Construct a cache that store its entries in a concurrent map
+     * 
+     * @param p_Map
+     *            The map where entries are stored
+     */
+    private ConcurrentHashCache(ConcurrentMap<K, V> p_Map) {
+	super(p_Map);
+	m_Map = p_Map;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ConcurrentCache#putIfAbsent(Object, Object)
+     */
+    public V putIfAbsent(K p_Key, V p_Value) {
+	return m_Map.putIfAbsent(p_Key, p_Value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ConcurrentCache#replace(Object, Object, Object)
+     */
+    public boolean replace(K p_Key, V p_Expected, V p_Value) {
+	return m_Map.replace(p_Key, p_Expected, p_Value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.AbstractCollection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(Object p_Key) {
+	return m_Map.remove(p_Key) != null;
+    }
+}
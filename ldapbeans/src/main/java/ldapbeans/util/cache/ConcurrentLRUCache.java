@@ -0,0 +1,316 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ConcurrentLRUCache<K, V> extends AbstractCache<K, V> implements
+	LRUCache<K, V>, ConcurrentCache<K, V> {
+
+    /** Number of buffered reads that triggers the update of the order */
+    private final static int DRAIN_THRESHOLD;
+
+    /** Maximum number of buffered reads, other reads are not recorded */
+    private final static int MAX_BUFFERED_READS;
+
+    /** Static constructor */
+    static {
+	DRAIN_THRESHOLD = 64;
+	MAX_BUFFERED_READS = 1024;
+    }
+
+    /** Entries of the cache */
+    private final ConcurrentMap<K, CacheEntry<K, V>> m_Map;
+
+    /**
+     * Entries of the cache, from the least to the most recently used. It is
+     * protected by the lock.
+     */
+    private final LinkedHashMap<K, CacheEntry<K, V>> m_Order;
+
+    /** Lock of the modifications of the cache and of the order */
+    private final ReentrantLock m_Lock;
+
+    /** Entries that have been read since the last update of the order */
+    private final Queue<CacheEntry<K, V>> m_ReadBuffer;
+
+    /** Number of entries in the read buffer */
+    private final AtomicInteger m_BufferedReads;
+
+    /** Maximum size of the cache, or -1 if there is no limit */
+    private volatile int m_MaxSize;
+
+    /**
+     * Construct a cache without limit
+     */
+    public ConcurrentLRUCache() {
+	m_Map = new ConcurrentHashMap<K, CacheEntry<K, V>>();
+	m_Order = new LinkedHashMap<K, CacheEntry<K, V>>(16, 0.75f, true);
+	m_Lock = new ReentrantLock();
+	m_ReadBuffer = new ConcurrentLinkedQueue<CacheEntry<K, V>>();
+	m_BufferedReads = new AtomicInteger();
+	m_MaxSize = -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#containsKey(Object)
+     */
+    public boolean containsKey(K p_Key) {
+	return m_Map.containsKey(p_Key);
+    }
+
+    /**
+     * {@inheritDoc} The read does not wait for other threads: it is recorded
+     * in a buffer, and the order of the entries is updated later by a
+     * single thread. Reads may not be recorded when the buffer is full.
+     * 
+     * @see Cache#get(Object)
+     */
+    public V get(K p_Key) {
+	V result = null;
+	CacheEntry<K, V> entry = m_Map.get(p_Key);
+	if (entry != null) {
+	    result = entry.getValue();
+	    if (m_BufferedReads.get() < MAX_BUFFERED_READS) {
+		m_ReadBuffer.add(entry);
+		if ((m_BufferedReads.incrementAndGet() >= DRAIN_THRESHOLD)
+			&& m_Lock.tryLock()) {
+		    try {
+			drainReadBuffer();
+		    } finally {
+			m_Lock.unlock();
+		    }
+		}
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#put(Object, Object)
+     */
+    public void put(K p_Key, V p_Value) {
+	CacheEntry<K, V> entry = new LRUCacheImpl.LRUCacheEntry<K, V>(p_Key,
+		p_Value);
+	m_Lock.lock();
+	try {
+	    drainReadBuffer();
+	    m_Map.put(p_Key, entry);
+	    m_Order.put(p_Key, entry);
+	    evict();
+	} finally {
+	    m_Lock.unlock();
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ConcurrentCache#putIfAbsent(Object, Object)
+     */
+    public V putIfAbsent(K p_Key, V p_Value) {
+	V result = get(p_Key);
+	if (result == null) {
+	    m_Lock.lock();
+	    try {
+		CacheEntry<K, V> entry = m_Map.get(p_Key);
+		if (entry == null) {
+		    put(p_Key, p_Value);
+		} else {
+		    result = entry.getValue();
+		}
+	    } finally {
+		m_Lock.unlock();
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ConcurrentCache#replace(Object, Object, Object)
+     */
+    public boolean replace(K p_Key, V p_Expected, V p_Value) {
+	boolean result;
+	m_Lock.lock();
+	try {
+	    CacheEntry<K, V> entry = m_Map.get(p_Key);
+	    result = (entry != null) && p_Expected.equals(entry.getValue());
+	    if (result) {
+		put(p_Key, p_Value);
+	    }
+	} finally {
+	    m_Lock.unlock();
+	}
+	return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.AbstractCollection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(Object p_Key) {
+	m_Lock.lock();
+	try {
+	    m_Order.remove(p_Key);
+	    return m_Map.remove(p_Key) != null;
+	} finally {
+	    m_Lock.unlock();
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#clear()
+     */
+    @Override
+    public void clear() {
+	m_Lock.lock();
+	try {
+	    m_ReadBuffer.clear();
+	    m_BufferedReads.set(0);
+	    m_Order.clear();
+	    m_Map.clear();
+	} finally {
+	    m_Lock.unlock();
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LRUCache#getMaxSize()
+     */
+    public int getMaxSize() {
+	return m_MaxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LRUCache#setMaxSize(int)
+     */
+    public void setMaxSize(int p_MaxSize) {
+	m_Lock.lock();
+	try {
+	    m_MaxSize = p_MaxSize;
+	    drainReadBuffer();
+	    evict();
+	} finally {
+	    m_Lock.unlock();
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#size()
+     */
+    @Override
+    public int size() {
+	return m_Map.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#iterator()
+     */
+    @Override
+    public Iterator<CacheEntry<K, V>> iterator() {
+	final Iterator<CacheEntry<K, V>> iterator = m_Map.values().iterator();
+	return new Iterator<CacheEntry<K, V>>() {
+	    /** Last returned entry */
+	    private CacheEntry<K, V> m_Last;
+
+	    public boolean hasNext() {
+		return iterator.hasNext();
+	    }
+
+	    public CacheEntry<K, V> next() {
+		m_Last = iterator.next();
+		return m_Last;
+	    }
+
+	    public void remove() {
+		ConcurrentLRUCache.this.remove(m_Last.getKey());
+	    }
+	};
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#keySet()
+     */
+    public Set<K> keySet() {
+	return Collections.unmodifiableSet(m_Map.keySet());
+    }
+
+    /**
+     * Apply the buffered reads to the order of the entries. It must be called
+     * with the lock.
+     */
+    private void drainReadBuffer() {
+	CacheEntry<K, V> entry = m_ReadBuffer.poll();
+	while (entry != null) {
+	    m_BufferedReads.decrementAndGet();
+	    // The access ordered map moves the entry to the end, it does
+	    // nothing if the entry has been removed since the read
+	    m_Order.get(entry.getKey());
+	    entry = m_ReadBuffer.poll();
+	}
+    }
+
+    /**
+     * Remove the least recently used entries while the cache is too big. It
+     * must be called with the lock.
+     */
+    private void evict() {
+	if (m_MaxSize >= 0) {
+	    Iterator<CacheEntry<K, V>> iterator = m_Order.values().iterator();
+	    while ((m_Order.size() > m_MaxSize) && iterator.hasNext()) {
+		CacheEntry<K, V> entry = iterator.next();
+		m_Map.remove(entry.getKey());
+		iterator.remove();
+		notifyRemoval(entry.getKey(), entry.getValue(),
+			RemovalCause.SIZE);
+	    }
+	}
+    }
+}
@@ -0,0 +1,526 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ldapbeans.util.cache.TTLCache.TTLCacheEntry;
+
+public class ConcurrentPolicyCache<K, V> extends AbstractCache<K, V>
+	implements ConcurrentCache<K, V> {
+    private static class PolicyCacheEntry<K, V> extends TTLCacheEntry<K, V> {
+	/** Time of the creation of the entry, in milliseconds */
+	private final long m_WriteTime;
+
+	/** Time of the last use of the entry, in milliseconds */
+	private volatile long m_AccessTime;
+
+	/**
+	 * Construct a {@link CacheEntry} for {@link ConcurrentPolicyCache}
+	 * 
+	 * @param p_Key
+	 *            The key of the entry
+	 * @param p_Value
+	 *            The value of the entry
+	 * @param p_Time
+	 *            The time of the creation of the entry, in milliseconds
+	 */
+	public PolicyCacheEntry(K p_Key, V p_Value, long p_Time) {
+	    super(p_Key, p_Value);
+	    m_WriteTime = p_Time;
+	    m_AccessTime = p_Time;
+	}
+    }
+
+    /** Number of buffered reads that triggers their replay on the policy */
+    private final static int DRAIN_THRESHOLD;
+
+    /** Maximum number of buffered reads, other reads are not recorded */
+    private final static int MAX_BUFFERED_READS;
+
+    /** Static constructor */
+    static {
+	DRAIN_THRESHOLD = 64;
+	MAX_BUFFERED_READS = 1024;
+    }
+
+    /** Entries of the cache */
+    private final ConcurrentMap<K, PolicyCacheEntry<K, V>> m_Map;
+
+    /**
+     * The cache that choose the entries to evict, or <code>null</code> if
+     * the size of the cache is not bounded. It is protected by the lock.
+     */
+    private final AbstractCache<K, V> m_Policy;
+
+    /**
+     * Buckets of the entries by expiration time, or <code>null</code> if
+     * entries do not expire. It is protected by the lock.
+     */
+    private final TimingWheel<K, V> m_Wheel;
+
+    /** Entries expired by the last advance of the wheel */
+    private final List<TTLCacheEntry<K, V>> m_Expired;
+
+    /** Delay after witch entries expire, in milliseconds, or -1 */
+    private final long m_Ttl;
+
+    /** Event from which the delay before expiration is counted */
+    private final ExpirationPolicy m_ExpirationPolicy;
+
+    /** Lock of the modifications of the cache and of the policy */
+    private final ReentrantLock m_Lock;
+
+    /** Keys that have been read since the last replay on the policy */
+    private final Queue<K> m_ReadBuffer;
+
+    /** Number of keys in the read buffer */
+    private final AtomicInteger m_BufferedReads;
+
+    /**
+     * Construct a cache whose entries do not expire
+     * 
+     * @param p_Policy
+     *            The cache that choose the entries to evict, or
+     *            <code>null</code> if the size of the cache is not bounded
+     */
+    public ConcurrentPolicyCache(AbstractCache<K, V> p_Policy) {
+	this(p_Policy, -1, ExpirationPolicy.AFTER_WRITE);
+    }
+
+    /**
+     * Construct a thread safe cache from a cache that is not. The entries
+     * are read without lock, and the reads are replayed later on the policy,
+     * by batches, so it can keep the most recently or frequently used
+     * entries. The policy is only used to choose the entries to evict, and
+     * must notify its removals.
+     * 
+     * @param p_Policy
+     *            The cache that choose the entries to evict, or
+     *            <code>null</code> if the size of the cache is not bounded
+     * @param p_Ttl
+     *            The delay after witch entries expire, in milliseconds, or a
+     *            negative value if entries never expire
+     * @param p_ExpirationPolicy
+     *            Event from which the delay is counted
+     */
+    public ConcurrentPolicyCache(AbstractCache<K, V> p_Policy, long p_Ttl,
+	    ExpirationPolicy p_ExpirationPolicy) {
+	m_Map = new ConcurrentHashMap<K, PolicyCacheEntry<K, V>>();
+	m_Policy = p_Policy;
+	m_Ttl = p_Ttl;
+	m_ExpirationPolicy = p_ExpirationPolicy;
+	m_Lock = new ReentrantLock();
+	m_ReadBuffer = new ConcurrentLinkedQueue<K>();
+	m_BufferedReads = new AtomicInteger();
+	if (p_Policy != null) {
+	    p_Policy.setRemovalListener(new RemovalListener<K, V>() {
+		public void removed(K p_Key, V p_Value, RemovalCause p_Cause) {
+		    evicted(p_Key, p_Value, p_Cause);
+		}
+	    });
+	}
+	m_Expired = new ArrayList<TTLCacheEntry<K, V>>();
+	if (p_Ttl >= 0) {
+	    // The clock and the scheduler are those of the TTLCache
+	    m_Wheel = new TimingWheel<K, V>(TTLCache.now());
+	    TTLCache.scheduleCleanUp(this);
+	} else {
+	    m_Wheel = null;
+	}
+    }
+
+    /**
+     * Return the cache that choose the entries to evict. It must only be
+     * read, and it is not thread safe.
+     * 
+     * @return The policy, or <code>null</code> if the size of the cache is
+     *         not bounded
+     */
+    public AbstractCache<K, V> getPolicy() {
+	return m_Policy;
+    }
+
+    /**
+     * Return the delay after witch entries expire
+     * 
+     * @return The delay, in milliseconds, or -1 if entries never expire
+     */
+    public long getTtl() {
+	return (m_Ttl < 0) ? -1 : m_Ttl;
+    }
+
+    /**
+     * Return the event from which the delay before expiration is counted
+     * 
+     * @return The expiration policy
+     */
+    public ExpirationPolicy getExpirationPolicy() {
+	return m_ExpirationPolicy;
+    }
+
+    /**
+     * {@inheritDoc} Expired entries are never returned, even if they have not
+     * been removed yet.
+     * 
+     * @see Cache#containsKey(Object)
+     */
+    public boolean containsKey(K p_Key) {
+	PolicyCacheEntry<K, V> entry = m_Map.get(p_Key);
+	return (entry != null) && !isExpired(entry, TTLCache.now());
+    }
+
+    /**
+     * {@inheritDoc} The read does not wait for other threads: it is recorded
+     * in a buffer, and replayed later on the policy by a single thread.
+     * Reads may not be recorded when the buffer is full.
+     * 
+     * @see Cache#get(Object)
+     */
+    public V get(K p_Key) {
+	V result = null;
+	PolicyCacheEntry<K, V> entry = m_Map.get(p_Key);
+	if (entry != null) {
+	    long time = TTLCache.now();
+	    if (!isExpired(entry, time)) {
+		result = entry.getValue();
+		entry.m_AccessTime = time;
+	    }
+	}
+	// Misses are recorded too, so the policy may count the frequency of
+	// the keys that are not in the cache yet
+	if (m_BufferedReads.get() < MAX_BUFFERED_READS) {
+	    m_ReadBuffer.add(p_Key);
+	    if ((m_BufferedReads.incrementAndGet() >= DRAIN_THRESHOLD)
+		    && m_Lock.tryLock()) {
+		try {
+		    drainReadBuffer();
+		} finally {
+		    m_Lock.unlock();
+		}
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#put(Object, Object)
+     */
+    public void put(K p_Key, V p_Value) {
+	PolicyCacheEntry<K, V> entry = new PolicyCacheEntry<K, V>(p_Key,
+		p_Value, TTLCache.now());
+	m_Lock.lock();
+	try {
+	    drainReadBuffer();
+	    PolicyCacheEntry<K, V> previous = m_Map.put(p_Key, entry);
+	    if (m_Wheel != null) {
+		if (previous != null) {
+		    m_Wheel.deschedule(previous);
+		}
+		entry.setExpirationTime(entry.m_WriteTime + m_Ttl);
+		m_Wheel.schedule(entry);
+	    }
+	    if (m_Policy != null) {
+		// The policy may evict the new entry
+		m_Policy.put(p_Key, p_Value);
+	    }
+	} finally {
+	    m_Lock.unlock();
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ConcurrentCache#putIfAbsent(Object, Object)
+     */
+    public V putIfAbsent(K p_Key, V p_Value) {
+	V result = get(p_Key);
+	if (result == null) {
+	    m_Lock.lock();
+	    try {
+		PolicyCacheEntry<K, V> entry = m_Map.get(p_Key);
+		if ((entry == null) || isExpired(entry, TTLCache.now())) {
+		    put(p_Key, p_Value);
+		} else {
+		    result = entry.getValue();
+		}
+	    } finally {
+		m_Lock.unlock();
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ConcurrentCache#replace(Object, Object, Object)
+     */
+    public boolean replace(K p_Key, V p_Expected, V p_Value) {
+	boolean result;
+	m_Lock.lock();
+	try {
+	    PolicyCacheEntry<K, V> entry = m_Map.get(p_Key);
+	    result = (entry != null) && !isExpired(entry, TTLCache.now())
+		    && p_Expected.equals(entry.getValue());
+	    if (result) {
+		put(p_Key, p_Value);
+	    }
+	} finally {
+	    m_Lock.unlock();
+	}
+	return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.AbstractCollection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(Object p_Key) {
+	m_Lock.lock();
+	try {
+	    if (m_Policy != null) {
+		m_Policy.remove(p_Key);
+	    }
+	    PolicyCacheEntry<K, V> entry = m_Map.remove(p_Key);
+	    if ((entry != null) && (m_Wheel != null)) {
+		m_Wheel.deschedule(entry);
+	    }
+	    return entry != null;
+	} finally {
+	    m_Lock.unlock();
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#clear()
+     */
+    @Override
+    public void clear() {
+	m_Lock.lock();
+	try {
+	    m_ReadBuffer.clear();
+	    m_BufferedReads.set(0);
+	    if (m_Wheel != null) {
+		for (PolicyCacheEntry<K, V> entry : m_Map.values()) {
+		    m_Wheel.deschedule(entry);
+		}
+	    }
+	    if (m_Policy != null) {
+		m_Policy.clear();
+	    }
+	    m_Map.clear();
+	} finally {
+	    m_Lock.unlock();
+	}
+    }
+
+    /**
+     * {@inheritDoc} Expired entries are removed first.
+     * 
+     * @see Cache#size()
+     */
+    @Override
+    public int size() {
+	if (m_Wheel != null) {
+	    cleanUp();
+	}
+	return m_Map.size();
+    }
+
+    /**
+     * {@inheritDoc} Expired entries are removed first. The iteration does not
+     * prevent other threads to modify the cache.
+     * 
+     * @see Cache#iterator()
+     */
+    @Override
+    public Iterator<CacheEntry<K, V>> iterator() {
+	if (m_Wheel != null) {
+	    cleanUp();
+	}
+	final Iterator<PolicyCacheEntry<K, V>> iterator = m_Map.values()
+		.iterator();
+	return new Iterator<CacheEntry<K, V>>() {
+	    /** Last returned entry */
+	    private CacheEntry<K, V> m_Last;
+
+	    public boolean hasNext() {
+		return iterator.hasNext();
+	    }
+
+	    public CacheEntry<K, V> next() {
+		m_Last = iterator.next();
+		return m_Last;
+	    }
+
+	    public void remove() {
+		ConcurrentPolicyCache.this.remove(m_Last.getKey());
+	    }
+	};
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#keySet()
+     */
+    public Set<K> keySet() {
+	return Collections.unmodifiableSet(m_Map.keySet());
+    }
+
+    /**
+     * {@inheritDoc} The buffered reads are replayed on the policy first.
+     * 
+     * @see AbstractCache#cleanUp()
+     */
+    @Override
+    public void cleanUp() {
+	m_Lock.lock();
+	try {
+	    drainReadBuffer();
+	} finally {
+	    m_Lock.unlock();
+	}
+    }
+
+    /**
+     * Replay the buffered reads on the policy and on the timing wheel, then
+     * remove the expired entries. It must be called with the lock.
+     */
+    private void drainReadBuffer() {
+	K key = m_ReadBuffer.poll();
+	while (key != null) {
+	    m_BufferedReads.decrementAndGet();
+	    if (m_Policy != null) {
+		m_Policy.get(key);
+	    }
+	    if ((m_Wheel != null)
+		    && (m_ExpirationPolicy == ExpirationPolicy.AFTER_ACCESS)) {
+		PolicyCacheEntry<K, V> entry = m_Map.get(key);
+		if (entry != null) {
+		    reschedule(entry);
+		}
+	    }
+	    key = m_ReadBuffer.poll();
+	}
+	if (m_Wheel != null) {
+	    expire(TTLCache.now());
+	}
+    }
+
+    /**
+     * Remove the entries of the elapsed buckets of the timing wheel. It must
+     * be called with the lock.
+     * 
+     * @param p_Time
+     *            The current time, in milliseconds
+     */
+    private void expire(long p_Time) {
+	m_Wheel.advance(p_Time, m_Expired);
+	for (TTLCacheEntry<K, V> expired : m_Expired) {
+	    PolicyCacheEntry<K, V> entry = (PolicyCacheEntry<K, V>) expired;
+	    if (!isExpired(entry, p_Time)) {
+		// The entry has been used by a read that was not buffered
+		reschedule(entry);
+	    } else if (m_Map.get(entry.getKey()) == entry) {
+		m_Map.remove(entry.getKey());
+		if (m_Policy != null) {
+		    m_Policy.remove(entry.getKey());
+		}
+		notifyRemoval(entry.getKey(), entry.getValue(),
+			RemovalCause.EXPIRED);
+	    }
+	}
+	m_Expired.clear();
+    }
+
+    /**
+     * Move an entry to the bucket of the timing wheel corresponding to its
+     * last use. It must be called with the lock.
+     * 
+     * @param p_Entry
+     *            The entry
+     */
+    private void reschedule(PolicyCacheEntry<K, V> p_Entry) {
+	m_Wheel.deschedule(p_Entry);
+	if (m_ExpirationPolicy == ExpirationPolicy.AFTER_ACCESS) {
+	    p_Entry.setExpirationTime(p_Entry.m_AccessTime + m_Ttl);
+	}
+	m_Wheel.schedule(p_Entry);
+    }
+
+    /**
+     * Remove an entry evicted by the policy. It is called with the lock.
+     * 
+     * @param p_Key
+     *            The key of the evicted entry
+     * @param p_Value
+     *            The value of the evicted entry
+     * @param p_Cause
+     *            The reason of the removal
+     */
+    private void evicted(K p_Key, V p_Value, RemovalCause p_Cause) {
+	PolicyCacheEntry<K, V> entry = m_Map.remove(p_Key);
+	if ((entry != null) && (m_Wheel != null)) {
+	    m_Wheel.deschedule(entry);
+	}
+	notifyRemoval(p_Key, p_Value, p_Cause);
+    }
+
+    /**
+     * Return <code>true</code> if an entry has expired
+     * 
+     * @param p_Entry
+     *            The entry
+     * @param p_Time
+     *            The current time, in milliseconds
+     * @return <code>true</code> if the entry has expired
+     */
+    private boolean isExpired(PolicyCacheEntry<K, V> p_Entry, long p_Time) {
+	boolean result = false;
+	if (m_Ttl >= 0) {
+	    long time = p_Entry.m_WriteTime;
+	    if (m_ExpirationPolicy == ExpirationPolicy.AFTER_ACCESS) {
+		time = p_Entry.m_AccessTime;
+	    }
+	    result = p_Time - time >= m_Ttl;
+	}
+	return result;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+final class FrequencySketch<K> {
+
+    /** Number of hash functions, each counter is incremented in each row */
+    private final static int DEPTH;
+
+    /** Seeds of the hash functions */
+    private final static int[] SEEDS;
+
+    /** Maximum value of a 4 bits counter */
+    private final static int MAX_COUNT;
+
+    /** Mask that keeps the 3 low bits of each counter, used to halve them */
+    private final static long RESET_MASK;
+
+    /** Static constructor */
+    static {
+	DEPTH = 4;
+	SEEDS = new int[] { 0x97cb3127, 0xb6d5e0c1, 0x4e0b43a5, 0xec7d3b87 };
+	MAX_COUNT = 15;
+	RESET_MASK = 0x7777777777777777L;
+    }
+
+    /** Counters of 4 bits, 16 counters in each long */
+    private long[] m_Table;
+
+    /** Number of increments after which all counters are halved */
+    private int m_SampleSize;
+
+    /** Number of increments since the last halving */
+    private int m_Size;
+
+    /**
+     * Construct a sketch that estimates the frequency of the keys
+     * 
+     * @param p_MaxSize
+     *            The maximum number of entries of the cache
+     */
+    public FrequencySketch(int p_MaxSize) {
+	setMaxSize(p_MaxSize);
+    }
+
+    /**
+     * Resize the sketch. The counters are reset.
+     * 
+     * @param p_MaxSize
+     *            The maximum number of entries of the cache
+     */
+    public void setMaxSize(int p_MaxSize) {
+	int width = 16;
+	while ((width < p_MaxSize) && (width < (1 << 30))) {
+	    width <<= 1;
+	}
+	m_Table = new long[width];
+	m_SampleSize = (int) Math.min(10L * width, Integer.MAX_VALUE);
+	m_Size = 0;
+    }
+
+    /**
+     * Return the estimated frequency of a key. It is the minimum of the
+     * counters of the key, so collisions can only overestimate it.
+     * 
+     * @param p_Key
+     *            The key
+     * @return The estimated number of recent uses of the key, up to 15
+     */
+    public int frequency(K p_Key) {
+	int hash = spread(p_Key.hashCode());
+	int frequency = MAX_COUNT;
+	for (int i = 0; i < DEPTH; i++) {
+	    int h = hash(hash, i);
+	    int count = (int) ((m_Table[index(h)] >>> offset(h)) & MAX_COUNT);
+	    frequency = Math.min(frequency, count);
+	}
+	return frequency;
+    }
+
+    /**
+     * Increment the frequency of a key. All the counters are halved
+     * periodically, so the frequency reflects the recent uses.
+     * 
+     * @param p_Key
+     *            The key
+     */
+    public void increment(K p_Key) {
+	int hash = spread(p_Key.hashCode());
+	boolean added = false;
+	for (int i = 0; i < DEPTH; i++) {
+	    int h = hash(hash, i);
+	    int index = index(h);
+	    int offset = offset(h);
+	    if (((m_Table[index] >>> offset) & MAX_COUNT) < MAX_COUNT) {
+		m_Table[index] += 1L << offset;
+		added = true;
+	    }
+	}
+	if (added && (++m_Size >= m_SampleSize)) {
+	    for (int i = 0; i < m_Table.length; i++) {
+		m_Table[i] = (m_Table[i] >>> 1) & RESET_MASK;
+	    }
+	    m_Size /= 2;
+	}
+    }
+
+    /**
+     * Return the hash of a key for a row of the sketch
+     * 
+     * @param p_Hash
+     *            The spread hash code of the key
+     * @param p_Row
+     *            The row
+     * @return The hash of the key for the row
+     */
+    private static int hash(int p_Hash, int p_Row) {
+	int h = (p_Hash + SEEDS[p_Row]) * SEEDS[p_Row];
+	return h ^ (h >>> 16);
+    }
+
+    /**
+     * Return the index of the long containing the counter
+     * 
+     * @param p_Hash
+     *            The hash of the key for a row
+     * @return The index in the table
+     */
+    private int index(int p_Hash) {
+	return p_Hash & (m_Table.length - 1);
+    }
+
+    /**
+     * Return the offset of the counter in its long
+     * 
+     * @param p_Hash
+     *            The hash of the key for a row
+     * @return The offset of the counter, in bits
+     */
+    private static int offset(int p_Hash) {
+	return (p_Hash >>> 28) << 2;
+    }
+
+    /**
+     * Spread the bits of a hash code, so keys with similar hash codes have
+     * different counters
+     * 
+     * @param p_HashCode
+     *            The hash code of a key
+     * @return The spread hash code
+     */
+    private static int spread(int p_HashCode) {
+	int h = p_HashCode * 0x9e3779b9;
+	return h ^ (h >>> 15);
+    }
+}
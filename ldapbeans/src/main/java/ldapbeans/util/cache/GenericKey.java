@@ -40,13 +40,8 @@ public class GenericKey {
 
     @Override
     public int hashCode() {
-	int hash = 1;
-	if (m_Keys != null) {
-	    for (Object obj : m_Keys) {
-		hash = hash ^ 53 + obj.hashCode();
-	    }
-	}
-	return hash;
+	// Keys may contain null elements
+	return Arrays.hashCode(m_Keys);
     }
 
     @Override
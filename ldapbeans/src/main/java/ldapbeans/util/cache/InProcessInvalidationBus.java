@@ -0,0 +1,34 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+public class InProcessInvalidationBus extends AbstractInvalidationBus {
+
+    /**
+     * {@inheritDoc} The listeners are notified synchronously.
+     * 
+     * @see InvalidationBus#publish(InvalidationListener, String, boolean)
+     */
+    public void publish(InvalidationListener p_Source, String p_Key,
+	    boolean p_Subtree) {
+	deliver(p_Source, p_Key, p_Subtree);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+public interface InvalidationBus {
+    /**
+     * Add a listener notified of the invalidations published by the other
+     * members of the bus
+     * 
+     * @param p_Listener
+     *            The listener
+     */
+    void subscribe(InvalidationListener p_Listener);
+
+    /**
+     * Remove a listener of the invalidations
+     * 
+     * @param p_Listener
+     *            The listener
+     */
+    void unsubscribe(InvalidationListener p_Listener);
+
+    /**
+     * Publish the invalidation of an entry, or of all the entries of a
+     * subtree. The invalidation is not delivered back to its source.
+     * Delivery is not guaranteed, so cached entries must still expire.
+     * 
+     * @param p_Source
+     *            The listener of the member that publish the invalidation,
+     *            or <code>null</code>
+     * @param p_Key
+     *            The key of the entry, or of the root of the subtree
+     * @param p_Subtree
+     *            <code>true</code> to invalidate all the entries of the
+     *            subtree
+     */
+    void publish(InvalidationListener p_Source, String p_Key,
+	    boolean p_Subtree);
+
+    /**
+     * Close the bus. Pending invalidations are published, then listeners
+     * are not notified anymore.
+     */
+    void close();
+}
@@ -0,0 +1,35 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+public interface InvalidationListener {
+    /**
+     * Called when an entry, or all the entries of a subtree, have been
+     * changed by another member of the bus
+     * 
+     * @param p_Key
+     *            The key of the entry, or of the root of the subtree
+     * @param p_Subtree
+     *            <code>true</code> if all the entries of the subtree have to
+     *            be invalidated
+     */
+    void invalidated(String p_Key, boolean p_Subtree);
+}
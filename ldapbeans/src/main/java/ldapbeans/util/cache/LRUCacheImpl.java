@@ -20,9 +20,9 @@
  */
 package ldapbeans.util.cache;
 
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 public class LRUCacheImpl<K, V> extends AbstractCache<K, V> implements
@@ -84,14 +84,28 @@ public class LRUCacheImpl<K, V> extends AbstractCache<K, V> implements
 	}
     }
 
-    private final LinkedList<CacheEntry<K, V>> m_Cache;
+    /** Entries of the cache, from the least to the most recently used */
+    private final LinkedHashMap<K, CacheEntry<K, V>> m_Cache;
     private int m_MaxSize;
 
     /**
      * Default constructor
      */
+    @SuppressWarnings("serial")
     public LRUCacheImpl() {
-	m_Cache = new LinkedList<CacheEntry<K, V>>();
+	// The map is in access order, so the eldest entry is the least
+	// recently used one
+	m_Cache = new LinkedHashMap<K, CacheEntry<K, V>>(16, 0.75f, true) {
+	    @Override
+	    protected boolean removeEldestEntry(
+		    Map.Entry<K, CacheEntry<K, V>> p_Eldest) {
+		boolean evict = (m_MaxSize >= 0) && (size() > m_MaxSize);
+		if (evict) {
+		    evicted(p_Eldest.getValue());
+		}
+		return evict;
+	    }
+	};
 	m_MaxSize = -1;
     }
 
@@ -101,8 +115,7 @@ public class LRUCacheImpl<K, V> extends AbstractCache<K, V> implements
      * @see Cache#containsKey(Object)
      */
     public boolean containsKey(K p_Key) {
-	CacheEntry<K, V> entry = createCacheEntry(p_Key, null);
-	return m_Cache.contains(entry);
+	return m_Cache.containsKey(p_Key);
     }
 
     /**
@@ -111,14 +124,7 @@ public class LRUCacheImpl<K, V> extends AbstractCache<K, V> implements
      * @see Cache#put(Object, Object)
      */
     public void put(K p_Key, V p_Value) {
-	CacheEntry<K, V> entry = createCacheEntry(p_Key, p_Value);
-	m_Cache.remove(entry);
-	if ((m_Cache.size() >= m_MaxSize) && (m_MaxSize >= 0)) {
-	    m_Cache.removeLast();
-	}
-	if ((m_Cache.size() < m_MaxSize) || (m_MaxSize < 0)) {
-	    m_Cache.addFirst(entry);
-	}
+	m_Cache.put(p_Key, createCacheEntry(p_Key, p_Value));
     }
 
     /**
@@ -127,13 +133,18 @@ public class LRUCacheImpl<K, V> extends AbstractCache<K, V> implements
      * @see Cache#get(Object)
      */
     public V get(K p_Key) {
-	for (CacheEntry<K, V> entry : m_Cache) {
-	    if (entry.getKey().equals(p_Key)) {
-		put(entry.getKey(), entry.getValue());
-		return entry.getValue();
-	    }
-	}
-	return null;
+	CacheEntry<K, V> entry = m_Cache.get(p_Key);
+	return (entry == null) ? null : entry.getValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.AbstractCollection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(Object p_Key) {
+	return m_Cache.remove(p_Key) != null;
     }
 
     /**
@@ -162,19 +173,34 @@ public class LRUCacheImpl<K, V> extends AbstractCache<K, V> implements
     public void setMaxSize(int p_MaxSize) {
 	m_MaxSize = p_MaxSize;
 	if (m_MaxSize >= 0) {
-	    while ((size() > m_MaxSize) && (size() > 0)) {
-		m_Cache.removeLast();
+	    Iterator<CacheEntry<K, V>> iterator = m_Cache.values().iterator();
+	    while ((size() > m_MaxSize) && iterator.hasNext()) {
+		CacheEntry<K, V> entry = iterator.next();
+		iterator.remove();
+		evicted(entry);
 	    }
 	}
     }
 
     /**
-     * {@inheritDoc}
+     * Called when an entry is removed because the cache is full. Notify the
+     * removal listener by default.
+     * 
+     * @param p_Entry
+     *            The removed entry
+     */
+    protected void evicted(CacheEntry<K, V> p_Entry) {
+	notifyRemoval(p_Entry.getKey(), p_Entry.getValue(), RemovalCause.SIZE);
+    }
+
+    /**
+     * {@inheritDoc} Entries are returned from the least to the most recently
+     * used.
      * 
      * @see Cache#
      */
     public Iterator<CacheEntry<K, V>> iterator() {
-	return m_Cache.iterator();
+	return m_Cache.values().iterator();
     }
 
     @Override
@@ -188,11 +214,7 @@ public class LRUCacheImpl<K, V> extends AbstractCache<K, V> implements
      * @see Cache#keySet()
      */
     public Set<K> keySet() {
-	Set<K> keySet = new HashSet<K>();
-	for (CacheEntry<K, V> entry : m_Cache) {
-	    keySet.add(entry.getKey());
-	}
-	return keySet;
+	return m_Cache.keySet();
     }
 
     /**
@@ -211,9 +233,10 @@ public class LRUCacheImpl<K, V> extends AbstractCache<K, V> implements
     /**
      * Return the internal structure of the cache
      * 
-     * @return The internal structure of the cache
+     * @return The entries of the cache, from the least to the most recently
+     *         used
      */
-    protected final LinkedList<CacheEntry<K, V>> getInternalCache() {
+    protected final LinkedHashMap<K, CacheEntry<K, V>> getInternalCache() {
 	return m_Cache;
     }
 }
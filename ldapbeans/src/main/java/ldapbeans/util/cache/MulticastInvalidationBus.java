@@ -0,0 +1,300 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import ldapbeans.util.DaemonThreadFactory;
+
+public class MulticastInvalidationBus extends AbstractInvalidationBus {
+
+    /** Identifier of the protocol, at the beginning of each datagram */
+    private final static int PROTOCOL = 0x4C424931;
+
+    /** Size of the header of a datagram : protocol, sender and count */
+    private final static int HEADER_SIZE = 14;
+
+    /** Maximum size of a datagram, so it is not fragmented */
+    private final static int MAX_PACKET_SIZE = 1400;
+
+    /** Maximum size of a received datagram */
+    private final static int MAX_RECEIVED_SIZE = 65535;
+
+    /** Default delay (in milliseconds) during which changes are batched */
+    private final static long DEFAULT_FLUSH_DELAY = 10;
+
+    /** Executor of the publication of the batches */
+    private final static ScheduledExecutorService SCHEDULER;
+
+    /** Static constructor */
+    static {
+	SCHEDULER = Executors
+		.newSingleThreadScheduledExecutor(new DaemonThreadFactory(
+			"ldapbeans-invalidation-bus"));
+    }
+
+    /** Identifier of this member, so its own datagrams are ignored */
+    private final long m_Id;
+
+    /** The multicast group */
+    private final InetAddress m_Group;
+
+    /** The port of the group */
+    private final int m_Port;
+
+    /** Delay (in milliseconds) during which invalidations are batched */
+    private final long m_FlushDelay;
+
+    /** The socket that send and receive the datagrams */
+    private final MulticastSocket m_Socket;
+
+    /**
+     * Invalidations waiting to be published, as the key prefixed by '1' for
+     * a subtree or '0' for an entry, so duplicates are published once
+     */
+    private final Set<String> m_Pending;
+
+    /** Flag that indicate if the publication of the batch is scheduled */
+    private boolean m_FlushScheduled;
+
+    /** Flag that indicate if the bus has been closed */
+    private volatile boolean m_Closed;
+
+    /**
+     * Construct a bus on the host only, whose invalidations are batched
+     * during 10 milliseconds
+     * 
+     * @param p_Group
+     *            The multicast group, for example 239.255.0.1
+     * @param p_Port
+     *            The port of the group
+     * @throws IOException
+     *             If the group can not be joined
+     */
+    public MulticastInvalidationBus(String p_Group, int p_Port)
+	    throws IOException {
+	this(InetAddress.getByName(p_Group), p_Port, 0, DEFAULT_FLUSH_DELAY);
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param p_Group
+     *            The multicast group
+     * @param p_Port
+     *            The port of the group
+     * @param p_TimeToLive
+     *            Number of routers the datagrams may cross, 0 to stay on the
+     *            host
+     * @param p_FlushDelay
+     *            Delay (in milliseconds) during which invalidations are
+     *            batched before they are published
+     * @throws IOException
+     *             If the group can not be joined
+     */
+    public MulticastInvalidationBus(InetAddress p_Group, int p_Port,
+	    int p_TimeToLive, long p_FlushDelay) throws IOException {
+	m_Id = new Random().nextLong();
+	m_Group = p_Group;
+	m_Port = p_Port;
+	m_FlushDelay = p_FlushDelay;
+	m_Pending = new LinkedHashSet<String>();
+	m_Socket = new MulticastSocket(p_Port);
+	m_Socket.setTimeToLive(p_TimeToLive);
+	// Other members may run on the same host
+	m_Socket.setLoopbackMode(false);
+	m_Socket.joinGroup(p_Group);
+	new DaemonThreadFactory("ldapbeans-invalidation-receiver").newThread(
+		new Runnable() {
+		    public void run() {
+			receive();
+		    }
+		}).start();
+    }
+
+    /**
+     * {@inheritDoc} The listeners of this process are notified
+     * synchronously, and the invalidation is published to the other
+     * processes with the next batch.
+     * 
+     * @see InvalidationBus#publish(InvalidationListener, String, boolean)
+     */
+    public void publish(InvalidationListener p_Source, String p_Key,
+	    boolean p_Subtree) {
+	deliver(p_Source, p_Key, p_Subtree);
+	synchronized (this) {
+	    if (!m_Closed) {
+		m_Pending.add((p_Subtree ? '1' : '0') + p_Key);
+		if (!m_FlushScheduled) {
+		    m_FlushScheduled = true;
+		    SCHEDULER.schedule(new Runnable() {
+			public void run() {
+			    flush();
+			}
+		    }, m_FlushDelay, TimeUnit.MILLISECONDS);
+		}
+	    }
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see InvalidationBus#close()
+     */
+    @Override
+    public void close() {
+	synchronized (this) {
+	    m_Closed = true;
+	}
+	flush();
+	try {
+	    m_Socket.leaveGroup(m_Group);
+	} catch (IOException e) {
+	    // Nothing to do, the socket is closed anyway
+	}
+	m_Socket.close();
+	super.close();
+    }
+
+    /**
+     * Publish the pending invalidations, in as few datagrams as possible
+     */
+    private void flush() {
+	Set<String> pending;
+	synchronized (this) {
+	    pending = new LinkedHashSet<String>(m_Pending);
+	    m_Pending.clear();
+	    m_FlushScheduled = false;
+	}
+	try {
+	    ByteArrayOutputStream packet = new ByteArrayOutputStream();
+	    int count = 0;
+	    for (String invalidation : pending) {
+		byte[] entry = encode(invalidation);
+		int size = HEADER_SIZE + packet.size() + entry.length;
+		if ((count > 0) && (size > MAX_PACKET_SIZE)) {
+		    send(packet.toByteArray(), count);
+		    packet.reset();
+		    count = 0;
+		}
+		packet.write(entry);
+		count++;
+	    }
+	    if (count > 0) {
+		send(packet.toByteArray(), count);
+	    }
+	} catch (IOException e) {
+	    // The invalidations are lost, the cached entries will expire
+	}
+    }
+
+    /**
+     * Encode an invalidation
+     * 
+     * @param p_Invalidation
+     *            The key prefixed by '1' for a subtree or '0' for an entry
+     * @return The encoded invalidation
+     * @throws IOException
+     *             If the key is too long
+     */
+    private static byte[] encode(String p_Invalidation) throws IOException {
+	ByteArrayOutputStream result = new ByteArrayOutputStream();
+	DataOutputStream output = new DataOutputStream(result);
+	output.writeBoolean(p_Invalidation.charAt(0) == '1');
+	output.writeUTF(p_Invalidation.substring(1));
+	output.flush();
+	return result.toByteArray();
+    }
+
+    /**
+     * Send a datagram to the group
+     * 
+     * @param p_Entries
+     *            The encoded invalidations
+     * @param p_Count
+     *            The number of invalidations
+     * @throws IOException
+     *             If the datagram can not be sent
+     */
+    private void send(byte[] p_Entries, int p_Count) throws IOException {
+	ByteArrayOutputStream packet = new ByteArrayOutputStream(HEADER_SIZE
+		+ p_Entries.length);
+	DataOutputStream output = new DataOutputStream(packet);
+	output.writeInt(PROTOCOL);
+	output.writeLong(m_Id);
+	output.writeShort(p_Count);
+	output.write(p_Entries);
+	output.flush();
+	byte[] data = packet.toByteArray();
+	m_Socket.send(new DatagramPacket(data, data.length, m_Group, m_Port));
+    }
+
+    /**
+     * Receive the datagrams of the other members until the bus is closed
+     */
+    private void receive() {
+	byte[] buffer = new byte[MAX_RECEIVED_SIZE];
+	while (!m_Closed) {
+	    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+	    try {
+		m_Socket.receive(packet);
+		receive(packet);
+	    } catch (IOException e) {
+		// The socket has been closed, or the datagram is malformed
+	    }
+	}
+    }
+
+    /**
+     * Notify the listeners of the invalidations of a datagram
+     * 
+     * @param p_Packet
+     *            The datagram
+     * @throws IOException
+     *             If the datagram is malformed
+     */
+    private void receive(DatagramPacket p_Packet) throws IOException {
+	DataInputStream input = new DataInputStream(new ByteArrayInputStream(
+		p_Packet.getData(), p_Packet.getOffset(), p_Packet
+			.getLength()));
+	if ((input.readInt() == PROTOCOL) && (input.readLong() != m_Id)) {
+	    int count = input.readUnsignedShort();
+	    for (int i = 0; i < count; i++) {
+		boolean subtree = input.readBoolean();
+		deliver(null, input.readUTF(), subtree);
+	    }
+	}
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+public interface RemovalListener<K, V> {
+    /**
+     * Called when an entry is removed by the cache itself
+     * 
+     * @param p_Key
+     *            The key of the removed entry
+     * @param p_Value
+     *            The value of the removed entry, or <code>null</code> if it
+     *            has been collected
+     * @param p_Cause
+     *            The reason of the removal
+     */
+    void removed(K p_Key, V p_Value, RemovalCause p_Cause);
+}
@@ -104,7 +104,24 @@ public class SimpleCache<K, V> extends AbstractCache<K, V> {
 
     }
 
-    private final Map<K, V> m_Cache = new HashMap<K, V>();
+    private final Map<K, V> m_Cache;
+
+    /**
+     * Construct an empty cache
+     */
+    public SimpleCache() {
+	this(new HashMap<K, V>());
+    }
+
+    /**
+     * Construct a cache that store its entries in a map
+     * 
+     * @param p_Map
+     *            The map where entries are stored
+     */
+    protected SimpleCache(Map<K, V> p_Map) {
+	m_Cache = p_Map;
+    }
 
     /**
      * {@inheritDoc}
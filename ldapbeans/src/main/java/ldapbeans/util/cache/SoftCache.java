@@ -20,22 +20,63 @@
  */
 package ldapbeans.util.cache;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SoftCache<K, V> extends AbstractCache<K, V> {
+    private static class SoftValue<K, V> extends SoftReference<V> {
+	private final K m_Key;
+
+	/**
+	 * Construct a reference to a value of the cache
+	 * 
+	 * @param p_Key
+	 *            The key of the value
+	 * @param p_Value
+	 *            The value
+	 * @param p_Queue
+	 *            The queue where the reference is added when the value is
+	 *            collected
+	 */
+	public SoftValue(K p_Key, V p_Value,
+		ReferenceQueue<? super V> p_Queue) {
+	    super(p_Value, p_Queue);
+	    m_Key = p_Key;
+	}
+
+	/**
+	 * Return the key of the value
+	 * 
+	 * @return The key of the value
+	 */
+	public K getKey() {
+	    return m_Key;
+	}
+    }
+
     private static class SoftCacheEntry<K, V> implements CacheEntry<K, V> {
-	private final CacheEntry<K, SoftReference<V>> m_Entry;
+	private final K m_Key;
+	private final V m_Value;
 
 	/**
-	 * Construct a {@link CacheEntry} for {@link SimpleCache}
+	 * Construct a {@link CacheEntry} for {@link SoftCache}
 	 * 
-	 * @param p_Entry
-	 *            An entry
+	 * @param p_Key
+	 *            The key of the entry
+	 * @param p_Value
+	 *            The value of the entry, that has not been collected
 	 */
-	public SoftCacheEntry(CacheEntry<K, SoftReference<V>> p_Entry) {
-	    m_Entry = p_Entry;
+	public SoftCacheEntry(K p_Key, V p_Value) {
+	    m_Key = p_Key;
+	    m_Value = p_Value;
 	}
 
 	/**
@@ -44,7 +85,7 @@ public class SoftCache<K, V> extends AbstractCache<K, V> {
 	 * @see CacheEntry#getKey()
 	 */
 	public K getKey() {
-	    return m_Entry.getKey();
+	    return m_Key;
 	}
 
 	/**
@@ -53,24 +94,27 @@ public class SoftCache<K, V> extends AbstractCache<K, V> {
 	 * @see CacheEntry#getValue()
 	 */
 	public V getValue() {
-	    return m_Entry.getValue().get();
+	    return m_Value;
 	}
 
     }
 
-    private static class SoftCacheIterator<K, V> implements
-	    Iterator<CacheEntry<K, V>> {
-	private final Iterator<CacheEntry<K, SoftReference<V>>> m_Iterator;
+    private class SoftCacheIterator implements Iterator<CacheEntry<K, V>> {
+	private final Iterator<Map.Entry<K, SoftValue<K, V>>> m_Iterator;
+
+	/** Next entry, its value is kept so it is not collected */
+	private CacheEntry<K, V> m_Next;
+
+	/** Last returned entry */
+	private CacheEntry<K, V> m_Last;
 
 	/**
-	 * Construct a new iterator the the {@link SimpleCache}
-	 * 
-	 * @param p_Iterator
-	 *            An iterator
+	 * Construct a new iterator the the {@link SoftCache}. Values that have
+	 * been collected are skipped.
 	 */
-	public SoftCacheIterator(
-		Iterator<CacheEntry<K, SoftReference<V>>> p_Iterator) {
-	    m_Iterator = p_Iterator;
+	public SoftCacheIterator() {
+	    m_Iterator = m_Cache.entrySet().iterator();
+	    m_Next = findNext();
 	}
 
 	/**
@@ -79,7 +123,7 @@ public class SoftCache<K, V> extends AbstractCache<K, V> {
 	 * @see Iterator#hasNext()
 	 */
 	public boolean hasNext() {
-	    return m_Iterator.hasNext();
+	    return m_Next != null;
 	}
 
 	/**
@@ -88,8 +132,12 @@ public class SoftCache<K, V> extends AbstractCache<K, V> {
 	 * @see Iterator#next()
 	 */
 	public CacheEntry<K, V> next() {
-	    CacheEntry<K, SoftReference<V>> entry = m_Iterator.next();
-	    return new SoftCacheEntry<K, V>(entry);
+	    if (m_Next == null) {
+		throw new NoSuchElementException();
+	    }
+	    m_Last = m_Next;
+	    m_Next = findNext();
+	    return m_Last;
 	}
 
 	/**
@@ -98,12 +146,74 @@ public class SoftCache<K, V> extends AbstractCache<K, V> {
 	 * @see Iterator#remove()
 	 */
 	public void remove() {
-	    m_Iterator.remove();
+	    if (m_Last == null) {
+		throw new IllegalStateException();
+	    }
+	    SoftCache.this.remove(m_Last.getKey());
+	    m_Last = null;
 	}
 
+	/**
+	 * Return the next entry whose value has not been collected
+	 * 
+	 * @return The next entry, or <code>null</code> if there is no more
+	 *         entry
+	 */
+	private CacheEntry<K, V> findNext() {
+	    CacheEntry<K, V> next = null;
+	    while ((next == null) && m_Iterator.hasNext()) {
+		Map.Entry<K, SoftValue<K, V>> entry = m_Iterator.next();
+		V value = entry.getValue().get();
+		if (value != null) {
+		    next = new SoftCacheEntry<K, V>(entry.getKey(), value);
+		}
+	    }
+	    return next;
+	}
     }
 
-    private final Cache<K, SoftReference<V>> m_Cache = null;
+    /** Values of the cache, they may be collected */
+    private final Map<K, SoftValue<K, V>> m_Cache;
+
+    /** Queue of the references whose value has been collected */
+    private final ReferenceQueue<V> m_Queue;
+
+    /** Most recently used values, they can not be collected */
+    private final Map<K, V> m_HotSet;
+
+    /** Maximum number of values that can not be collected */
+    private int m_HotSize;
+
+    /** Number of entries removed because their value has been collected */
+    private final AtomicLong m_EvictionCount;
+
+    /**
+     * Construct a cache whose values may all be collected
+     */
+    public SoftCache() {
+	this(0);
+    }
+
+    /**
+     * Construct a cache that keeps the most recently used values
+     * 
+     * @param p_HotSize
+     *            Number of most recently used values that can not be
+     *            collected
+     */
+    @SuppressWarnings("serial")
+    public SoftCache(int p_HotSize) {
+	m_Cache = new HashMap<K, SoftValue<K, V>>();
+	m_Queue = new ReferenceQueue<V>();
+	m_HotSet = new LinkedHashMap<K, V>(16, 0.75f, true) {
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<K, V> p_Eldest) {
+		return size() > m_HotSize;
+	    }
+	};
+	m_HotSize = p_HotSize;
+	m_EvictionCount = new AtomicLong();
+    }
 
     /**
      * {@inheritDoc}
@@ -111,7 +221,7 @@ public class SoftCache<K, V> extends AbstractCache<K, V> {
      * @see Cache#containsKey(Object)
      */
     public boolean containsKey(K p_Key) {
-	return m_Cache.containsKey(p_Key);
+	return get(p_Key) != null;
     }
 
     /**
@@ -120,7 +230,11 @@ public class SoftCache<K, V> extends AbstractCache<K, V> {
      * @see Cache#put(Object, Object)
      */
     public void put(K p_Key, V p_Value) {
-	m_Cache.put(p_Key, new SoftReference<V>(p_Value));
+	drainQueue();
+	m_Cache.put(p_Key, new SoftValue<K, V>(p_Key, p_Value, m_Queue));
+	if (m_HotSize > 0) {
+	    m_HotSet.put(p_Key, p_Value);
+	}
     }
 
     /**
@@ -129,7 +243,33 @@ public class SoftCache<K, V> extends AbstractCache<K, V> {
      * @see Cache#get(Object)
      */
     public V get(K p_Key) {
-	return m_Cache.get(p_Key).get();
+	drainQueue();
+	V value = null;
+	SoftValue<K, V> reference = m_Cache.get(p_Key);
+	if (reference != null) {
+	    value = reference.get();
+	    if (value == null) {
+		// The reference will be ignored when it is polled
+		m_Cache.remove(p_Key);
+		m_EvictionCount.incrementAndGet();
+		notifyRemoval(p_Key, null, RemovalCause.COLLECTED);
+	    } else if (m_HotSize > 0) {
+		m_HotSet.put(p_Key, value);
+	    }
+	}
+	return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.AbstractCollection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(Object p_Key) {
+	drainQueue();
+	m_HotSet.remove(p_Key);
+	return m_Cache.remove(p_Key) != null;
     }
 
     /**
@@ -137,31 +277,101 @@ public class SoftCache<K, V> extends AbstractCache<K, V> {
      * 
      * @see Cache#clear()
      */
+    @Override
     public void clear() {
+	m_HotSet.clear();
 	m_Cache.clear();
+	while (m_Queue.poll() != null) {
+	    // Removed references are not counted as evictions
+	}
     }
 
     /**
-     * {@inheritDoc}
+     * {@inheritDoc} Entries whose value has been collected are skipped.
      * 
      * @see Cache#iterator()
      */
+    @Override
     public Iterator<CacheEntry<K, V>> iterator() {
-	return new SoftCacheIterator<K, V>(m_Cache.iterator());
+	drainQueue();
+	return new SoftCacheIterator();
     }
 
     /**
-     * {@inheritDoc}
+     * {@inheritDoc} The set may contain keys whose value has just been
+     * collected.
      * 
      * @see Cache#keySet()
      */
     public Set<K> keySet() {
+	drainQueue();
 	return m_Cache.keySet();
     }
 
+    /**
+     * {@inheritDoc} The size may include entries whose value has just been
+     * collected.
+     * 
+     * @see Cache#size()
+     */
     @Override
     public int size() {
+	drainQueue();
 	return m_Cache.size();
     }
 
+    /**
+     * Return the maximum number of most recently used values that can not be
+     * collected
+     * 
+     * @return The size of the hot set
+     */
+    public int getHotSize() {
+	return m_HotSize;
+    }
+
+    /**
+     * Set the maximum number of most recently used values that can not be
+     * collected
+     * 
+     * @param p_HotSize
+     *            The size of the hot set, 0 to allow all values to be
+     *            collected
+     */
+    public void setHotSize(int p_HotSize) {
+	m_HotSize = p_HotSize;
+	Iterator<V> iterator = m_HotSet.values().iterator();
+	while ((m_HotSet.size() > m_HotSize) && iterator.hasNext()) {
+	    iterator.next();
+	    iterator.remove();
+	}
+    }
+
+    /**
+     * Return the number of entries removed because their value has been
+     * collected by the garbage collector
+     * 
+     * @return The number of evictions by the garbage collector
+     */
+    public long getEvictionCount() {
+	return m_EvictionCount.get();
+    }
+
+    /**
+     * Remove the entries whose value has been collected
+     */
+    @SuppressWarnings("unchecked")
+    private void drainQueue() {
+	Reference<? extends V> reference = m_Queue.poll();
+	while (reference != null) {
+	    K key = ((SoftValue<K, V>) reference).getKey();
+	    // The entry may have been replaced since the value was collected
+	    if (m_Cache.get(key) == reference) {
+		m_Cache.remove(key);
+		m_EvictionCount.incrementAndGet();
+		notifyRemoval(key, null, RemovalCause.COLLECTED);
+	    }
+	    reference = m_Queue.poll();
+	}
+    }
 }
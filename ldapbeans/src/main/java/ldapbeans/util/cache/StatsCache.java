@@ -0,0 +1,358 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class StatsCache<K, V> extends AbstractCache<K, V> implements
+	ConcurrentCache<K, V>, RemovalListener<K, V> {
+
+    /** The cache whose usage is recorded */
+    private final ConcurrentCache<K, V> m_Cache;
+
+    /** Number of reads that found an entry */
+    private final AtomicLong m_HitCount;
+
+    /** Number of reads that did not find an entry */
+    private final AtomicLong m_MissCount;
+
+    /** Number of loads of values from their source */
+    private final AtomicLong m_LoadCount;
+
+    /** Total time (in nanoseconds) of the loads */
+    private final AtomicLong m_TotalLoadTime;
+
+    /** Number of removed entries, by cause */
+    private final Map<RemovalCause, AtomicLong> m_RemovalCounts;
+
+    /** Number of hits of the keys of the cache */
+    private final ConcurrentMap<K, AtomicLong> m_KeyHits;
+
+    /**
+     * Construct a cache that records the usage of another cache. The
+     * evictions are recorded if the cache, or the cache protected by a
+     * {@link SynchronizedCache}, notifies its removals.
+     * 
+     * @param p_Cache
+     *            The cache whose usage is recorded
+     */
+    @SuppressWarnings("unchecked")
+    public StatsCache(ConcurrentCache<K, V> p_Cache) {
+	m_Cache = p_Cache;
+	m_HitCount = new AtomicLong();
+	m_MissCount = new AtomicLong();
+	m_LoadCount = new AtomicLong();
+	m_TotalLoadTime = new AtomicLong();
+	m_RemovalCounts = new EnumMap<RemovalCause, AtomicLong>(
+		RemovalCause.class);
+	for (RemovalCause cause : RemovalCause.values()) {
+	    m_RemovalCounts.put(cause, new AtomicLong());
+	}
+	m_KeyHits = new ConcurrentHashMap<K, AtomicLong>();
+	Cache<K, V> cache = p_Cache;
+	if (cache instanceof SynchronizedCache) {
+	    cache = ((SynchronizedCache<K, V>) cache).getCache();
+	}
+	if (cache instanceof AbstractCache) {
+	    ((AbstractCache<K, V>) cache).setRemovalListener(this);
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#containsKey(Object)
+     */
+    public boolean containsKey(K p_Key) {
+	return m_Cache.containsKey(p_Key);
+    }
+
+    /**
+     * {@inheritDoc} The read is recorded as a hit or a miss.
+     * 
+     * @see Cache#get(Object)
+     */
+    public V get(K p_Key) {
+	V result = m_Cache.get(p_Key);
+	if (result == null) {
+	    m_MissCount.incrementAndGet();
+	} else {
+	    m_HitCount.incrementAndGet();
+	    AtomicLong hits = m_KeyHits.get(p_Key);
+	    if (hits == null) {
+		AtomicLong created = new AtomicLong();
+		hits = m_KeyHits.putIfAbsent(p_Key, created);
+		if (hits == null) {
+		    hits = created;
+		}
+	    }
+	    hits.incrementAndGet();
+	}
+	return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#put(Object, Object)
+     */
+    public void put(K p_Key, V p_Value) {
+	m_Cache.put(p_Key, p_Value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ConcurrentCache#putIfAbsent(Object, Object)
+     */
+    public V putIfAbsent(K p_Key, V p_Value) {
+	return m_Cache.putIfAbsent(p_Key, p_Value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ConcurrentCache#replace(Object, Object, Object)
+     */
+    public boolean replace(K p_Key, V p_Expected, V p_Value) {
+	return m_Cache.replace(p_Key, p_Expected, p_Value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.AbstractCollection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(Object p_Key) {
+	boolean removed = m_Cache.remove(p_Key);
+	if (removed) {
+	    m_RemovalCounts.get(RemovalCause.EXPLICIT).incrementAndGet();
+	}
+	m_KeyHits.remove(p_Key);
+	return removed;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#clear()
+     */
+    @Override
+    public void clear() {
+	m_Cache.clear();
+	m_KeyHits.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#size()
+     */
+    @Override
+    public int size() {
+	return m_Cache.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#iterator()
+     */
+    @Override
+    public Iterator<CacheEntry<K, V>> iterator() {
+	return m_Cache.iterator();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#keySet()
+     */
+    public Set<K> keySet() {
+	return m_Cache.keySet();
+    }
+
+    /**
+     * {@inheritDoc} The removal is recorded with its cause, and the listener
+     * of the entries removed by this cache is notified.
+     * 
+     * @see RemovalListener#removed(Object, Object, RemovalCause)
+     */
+    public void removed(K p_Key, V p_Value, RemovalCause p_Cause) {
+	m_RemovalCounts.get(p_Cause).incrementAndGet();
+	m_KeyHits.remove(p_Key);
+	notifyRemoval(p_Key, p_Value, p_Cause);
+    }
+
+    /**
+     * Return the cache whose usage is recorded. Its reads are not recorded.
+     * 
+     * @return The cache
+     */
+    public ConcurrentCache<K, V> getCache() {
+	return m_Cache;
+    }
+
+    /**
+     * Record the load of a value from its source
+     * 
+     * @param p_Time
+     *            The duration of the load, in nanoseconds
+     */
+    public void recordLoad(long p_Time) {
+	m_LoadCount.incrementAndGet();
+	m_TotalLoadTime.addAndGet(p_Time);
+    }
+
+    /**
+     * Return the number of reads that found an entry
+     * 
+     * @return The number of hits
+     */
+    public long getHitCount() {
+	return m_HitCount.get();
+    }
+
+    /**
+     * Return the number of reads that did not find an entry
+     * 
+     * @return The number of misses
+     */
+    public long getMissCount() {
+	return m_MissCount.get();
+    }
+
+    /**
+     * Return the ratio of reads that found an entry
+     * 
+     * @return The hit rate, between 0 and 1, or 1 if there was no read
+     */
+    public double getHitRate() {
+	long hits = m_HitCount.get();
+	long reads = hits + m_MissCount.get();
+	return (reads == 0) ? 1 : (double) hits / reads;
+    }
+
+    /**
+     * Return the number of loads of values from their source
+     * 
+     * @return The number of loads
+     */
+    public long getLoadCount() {
+	return m_LoadCount.get();
+    }
+
+    /**
+     * Return the total duration of the loads
+     * 
+     * @return The total load time, in nanoseconds
+     */
+    public long getTotalLoadTime() {
+	return m_TotalLoadTime.get();
+    }
+
+    /**
+     * Return the number of entries removed for a cause
+     * 
+     * @param p_Cause
+     *            The cause of the removal
+     * @return The number of removed entries
+     */
+    public long getRemovalCount(RemovalCause p_Cause) {
+	return m_RemovalCounts.get(p_Cause).get();
+    }
+
+    /**
+     * Return the keys of the cache that have been read the most often since
+     * they were added
+     * 
+     * @param p_Count
+     *            The maximum number of keys
+     * @return The keys and their number of hits, from the most read
+     */
+    public Map<K, Long> getHottestKeys(int p_Count) {
+	final Map<K, Long> hits = new HashMap<K, Long>();
+	for (Map.Entry<K, AtomicLong> entry : m_KeyHits.entrySet()) {
+	    hits.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+	}
+	List<K> keys = new ArrayList<K>(hits.keySet());
+	Collections.sort(keys, new Comparator<K>() {
+	    public int compare(K p_First, K p_Second) {
+		return hits.get(p_Second).compareTo(hits.get(p_First));
+	    }
+	});
+	Map<K, Long> result = new LinkedHashMap<K, Long>();
+	Iterator<K> iterator = keys.iterator();
+	while ((result.size() < p_Count) && iterator.hasNext()) {
+	    K key = iterator.next();
+	    if (m_Cache.containsKey(key)) {
+		result.put(key, hits.get(key));
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Return a copy of the entries of the cache. Unlike the iterator, the
+     * copy can be used while other threads modify the cache.
+     * 
+     * @return The entries of the cache
+     */
+    public List<CacheEntry<K, V>> getEntries() {
+	List<CacheEntry<K, V>> result;
+	if (m_Cache instanceof SynchronizedCache) {
+	    Cache<K, V> cache = ((SynchronizedCache<K, V>) m_Cache).getCache();
+	    synchronized (cache) {
+		result = new ArrayList<CacheEntry<K, V>>(cache);
+	    }
+	} else {
+	    result = new ArrayList<CacheEntry<K, V>>(m_Cache);
+	}
+	return result;
+    }
+
+    /**
+     * Reset the statistics
+     */
+    public void resetStatistics() {
+	m_HitCount.set(0);
+	m_MissCount.set(0);
+	m_LoadCount.set(0);
+	m_TotalLoadTime.set(0);
+	for (AtomicLong count : m_RemovalCounts.values()) {
+	    count.set(0);
+	}
+	m_KeyHits.clear();
+    }
+}
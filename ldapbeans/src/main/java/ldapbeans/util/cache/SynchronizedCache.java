@@ -0,0 +1,171 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+import java.util.Iterator;
+import java.util.Set;
+
+public class SynchronizedCache<K, V> extends AbstractCache<K, V> implements
+	ConcurrentCache<K, V> {
+
+    /** The cache that is protected */
+    private final Cache<K, V> m_Cache;
+
+    /**
+     * Construct a cache that protect a cache that is not thread safe. Every
+     * access to the cache is synchronized on the cache.
+     * 
+     * @param p_Cache
+     *            The cache that is protected
+     */
+    public SynchronizedCache(Cache<K, V> p_Cache) {
+	m_Cache = p_Cache;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#containsKey(Object)
+     */
+    public boolean containsKey(K p_Key) {
+	synchronized (m_Cache) {
+	    return m_Cache.containsKey(p_Key);
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#put(Object, Object)
+     */
+    public void put(K p_Key, V p_Value) {
+	synchronized (m_Cache) {
+	    m_Cache.put(p_Key, p_Value);
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ConcurrentCache#putIfAbsent(Object, Object)
+     */
+    public V putIfAbsent(K p_Key, V p_Value) {
+	synchronized (m_Cache) {
+	    V result = m_Cache.get(p_Key);
+	    if (result == null) {
+		m_Cache.put(p_Key, p_Value);
+	    }
+	    return result;
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ConcurrentCache#replace(Object, Object, Object)
+     */
+    public boolean replace(K p_Key, V p_Expected, V p_Value) {
+	synchronized (m_Cache) {
+	    boolean result = p_Expected.equals(m_Cache.get(p_Key));
+	    if (result) {
+		m_Cache.put(p_Key, p_Value);
+	    }
+	    return result;
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#get(Object)
+     */
+    public V get(K p_Key) {
+	synchronized (m_Cache) {
+	    return m_Cache.get(p_Key);
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.AbstractCollection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(Object p_Key) {
+	synchronized (m_Cache) {
+	    return m_Cache.remove(p_Key);
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#clear()
+     */
+    @Override
+    public void clear() {
+	synchronized (m_Cache) {
+	    m_Cache.clear();
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#size()
+     */
+    @Override
+    public int size() {
+	synchronized (m_Cache) {
+	    return m_Cache.size();
+	}
+    }
+
+    /**
+     * {@inheritDoc} The iteration must be synchronized on the cache returned
+     * by {@link #getCache()}.
+     * 
+     * @see Cache#iterator()
+     */
+    @Override
+    public Iterator<CacheEntry<K, V>> iterator() {
+	return m_Cache.iterator();
+    }
+
+    /**
+     * {@inheritDoc} The iteration must be synchronized on the cache returned
+     * by {@link #getCache()}.
+     * 
+     * @see Cache#keySet()
+     */
+    public Set<K> keySet() {
+	return m_Cache.keySet();
+    }
+
+    /**
+     * Return the cache that is protected
+     * 
+     * @return The cache that is protected
+     */
+    public Cache<K, V> getCache() {
+	return m_Cache;
+    }
+}
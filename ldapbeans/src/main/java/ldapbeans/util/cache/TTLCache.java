@@ -20,14 +20,32 @@
  */
 package ldapbeans.util.cache;
 
-import java.util.LinkedList;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import ldapbeans.util.DaemonThreadFactory;
 
 public class TTLCache<K, V> extends LRUCacheImpl<K, V> {
     protected static class TTLCacheEntry<K, V> extends LRUCacheEntry<K, V> {
 	private final long m_Timestamp = System.currentTimeMillis();
 
+	/** Time when the entry expires, in milliseconds */
+	private long m_ExpirationTime = Long.MAX_VALUE;
+
+	/** Previous entry in the bucket of the timing wheel */
+	private TTLCacheEntry<K, V> m_Previous;
+
+	/** Next entry in the bucket of the timing wheel */
+	private TTLCacheEntry<K, V> m_Next;
+
 	/**
 	 * Construct a {@link CacheEntry} for {@link TTLCache}
 	 * 
@@ -50,52 +68,426 @@ public class TTLCache<K, V> extends LRUCacheImpl<K, V> {
 	public long getTimestamp() {
 	    return m_Timestamp;
 	}
+
+	/**
+	 * Return the time when the entry expires
+	 * 
+	 * @return The time when the entry expires, in milliseconds on the
+	 *         clock of the caches
+	 */
+	long getExpirationTime() {
+	    return m_ExpirationTime;
+	}
+
+	/**
+	 * Set the time when the entry expires
+	 * 
+	 * @param p_ExpirationTime
+	 *            The time when the entry expires, in milliseconds on the
+	 *            clock of the caches
+	 */
+	void setExpirationTime(long p_ExpirationTime) {
+	    m_ExpirationTime = p_ExpirationTime;
+	}
+
+	/**
+	 * Return the previous entry in the bucket of the timing wheel
+	 * 
+	 * @return The previous entry
+	 */
+	TTLCacheEntry<K, V> getPrevious() {
+	    return m_Previous;
+	}
+
+	/**
+	 * Set the previous entry in the bucket of the timing wheel
+	 * 
+	 * @param p_Previous
+	 *            The previous entry
+	 */
+	void setPrevious(TTLCacheEntry<K, V> p_Previous) {
+	    m_Previous = p_Previous;
+	}
+
+	/**
+	 * Return the next entry in the bucket of the timing wheel
+	 * 
+	 * @return The next entry, or <code>null</code> if the entry is not
+	 *         scheduled
+	 */
+	TTLCacheEntry<K, V> getNext() {
+	    return m_Next;
+	}
+
+	/**
+	 * Set the next entry in the bucket of the timing wheel
+	 * 
+	 * @param p_Next
+	 *            The next entry
+	 */
+	void setNext(TTLCacheEntry<K, V> p_Next) {
+	    m_Next = p_Next;
+	}
     }
 
-    private final Timer m_Timer = new Timer();
+    /** Delay between two cleanups of all the caches, in milliseconds */
+    private final static long CLEANUP_PERIOD;
+
+    /** Origin of the clock of the caches */
+    private final static long ORIGIN;
+
+    /** Caches cleaned up by the scheduler */
+    private final static Queue<WeakReference<AbstractCache<?, ?>>> CACHES;
+
+    /** Scheduler shared by all the caches */
+    private final static ScheduledExecutorService SCHEDULER;
+
+    /** Static constructor */
+    static {
+	CLEANUP_PERIOD = 1000;
+	ORIGIN = System.nanoTime();
+	CACHES = new ConcurrentLinkedQueue<WeakReference<AbstractCache<?, ?>>>();
+	SCHEDULER = Executors
+		.newSingleThreadScheduledExecutor(new DaemonThreadFactory(
+			"ldapbeans-cache-cleaner"));
+	SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+	    public void run() {
+		Iterator<WeakReference<AbstractCache<?, ?>>> iterator;
+		iterator = CACHES.iterator();
+		while (iterator.hasNext()) {
+		    AbstractCache<?, ?> cache = iterator.next().get();
+		    if (cache == null) {
+			iterator.remove();
+		    } else {
+			cache.cleanUp();
+		    }
+		}
+	    }
+	}, CLEANUP_PERIOD, CLEANUP_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    /** Buckets of the entries by expiration time */
+    private final TimingWheel<K, V> m_Wheel;
+
+    /** Entries expired by the last advance of the wheel */
+    private final List<TTLCacheEntry<K, V>> m_Expired;
+
     private long m_Ttl = -1;
 
+    /** Event that postpones the expiration of entries */
+    private ExpirationPolicy m_Policy = ExpirationPolicy.AFTER_WRITE;
+
     /**
      * Construct a cache in witch object expired
      */
     public TTLCache() {
 	super();
-	m_Timer.schedule(new TimerTask() {
-	    @Override
-	    public void run() {
-		purge();
-	    }
-	}, 0, 100);
+	m_Wheel = new TimingWheel<K, V>(now());
+	m_Expired = new ArrayList<TTLCacheEntry<K, V>>();
+	scheduleCleanUp(this);
+    }
+
+    /**
+     * Register a cache whose expired entries are removed regularly by the
+     * scheduler shared by all the caches. The cache is weakly referenced, so
+     * it is no longer cleaned up once it is collected.
+     * 
+     * @param p_Cache
+     *            The cache to clean up
+     */
+    static void scheduleCleanUp(AbstractCache<?, ?> p_Cache) {
+	CACHES.add(new WeakReference<AbstractCache<?, ?>>(p_Cache));
+    }
+
+    /**
+     * Construct a cache in witch object expired
+     * 
+     * @param p_Ttl
+     *            The delay after witch entries expire, in milliseconds
+     * @param p_Policy
+     *            Event from which the delay is counted
+     */
+    public TTLCache(long p_Ttl, ExpirationPolicy p_Policy) {
+	this();
+	m_Ttl = p_Ttl;
+	m_Policy = p_Policy;
     }
 
     /**
-     * Set the delay after witch entry will expired
+     * Set the delay after witch entry will expired. The delay applies to
+     * entries written or read after the call.
      * 
      * @param p_Ttl
-     *            The delay
+     *            The delay, in milliseconds, or a negative value if entries
+     *            never expire
      */
-    public void setTtl(long p_Ttl) {
+    public synchronized void setTtl(long p_Ttl) {
 	m_Ttl = p_Ttl;
     }
 
+    /**
+     * Return the delay after witch entry will expired
+     * 
+     * @return The delay, in milliseconds
+     */
+    public synchronized long getTtl() {
+	return m_Ttl;
+    }
+
+    /**
+     * Set the event from which the delay before expiration is counted
+     * 
+     * @param p_Policy
+     *            {@link ExpirationPolicy#AFTER_WRITE} to expire entries after
+     *            their creation, {@link ExpirationPolicy#AFTER_ACCESS} to
+     *            expire them after their last use
+     */
+    public synchronized void setExpirationPolicy(ExpirationPolicy p_Policy) {
+	m_Policy = p_Policy;
+    }
+
+    /**
+     * Return the event from which the delay before expiration is counted
+     * 
+     * @return The expiration policy
+     */
+    public synchronized ExpirationPolicy getExpirationPolicy() {
+	return m_Policy;
+    }
+
+    /**
+     * {@inheritDoc} Expired entries are never returned, even if they have not
+     * been removed yet.
+     * 
+     * @see LRUCacheImpl#containsKey(Object)
+     */
+    @Override
+    public synchronized boolean containsKey(K p_Key) {
+	return getEntry(p_Key) != null;
+    }
+
+    /**
+     * {@inheritDoc} With {@link ExpirationPolicy#AFTER_ACCESS}, the entry is
+     * renewed, so it expires after the delay following its last use.
+     * 
+     * @see LRUCacheImpl#get(Object)
+     */
+    @Override
+    public synchronized V get(K p_Key) {
+	V value = null;
+	TTLCacheEntry<K, V> entry = getEntry(p_Key);
+	if (entry != null) {
+	    value = entry.getValue();
+	    if ((m_Policy == ExpirationPolicy.AFTER_ACCESS) && (m_Ttl >= 0)) {
+		m_Wheel.deschedule(entry);
+		entry.setExpirationTime(m_Wheel.getTime() + m_Ttl);
+		m_Wheel.schedule(entry);
+	    }
+	}
+	return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LRUCacheImpl#put(Object, Object)
+     */
+    @Override
+    public synchronized void put(K p_Key, V p_Value) {
+	advance(now(), false);
+	descheduleEntry(getInternalCache().get(p_Key));
+	super.put(p_Key, p_Value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LRUCacheImpl#remove(Object)
+     */
+    @Override
+    public synchronized boolean remove(Object p_Key) {
+	descheduleEntry(getInternalCache().get(p_Key));
+	return super.remove(p_Key);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LRUCacheImpl#clear()
+     */
+    @Override
+    public synchronized void clear() {
+	for (CacheEntry<K, V> entry : getInternalCache().values()) {
+	    descheduleEntry(entry);
+	}
+	super.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LRUCacheImpl#setMaxSize(int)
+     */
+    @Override
+    public synchronized void setMaxSize(int p_MaxSize) {
+	super.setMaxSize(p_MaxSize);
+    }
+
+    /**
+     * {@inheritDoc} Expired entries are removed first.
+     * 
+     * @see LRUCacheImpl#size()
+     */
+    @Override
+    public synchronized int size() {
+	advance(now(), false);
+	return super.size();
+    }
+
+    /**
+     * {@inheritDoc} Expired entries are removed first. The iteration must be
+     * synchronized on the cache, as the cache may be cleaned up by another
+     * thread.
+     * 
+     * @see LRUCacheImpl#iterator()
+     */
+    @Override
+    public synchronized Iterator<CacheEntry<K, V>> iterator() {
+	advance(now(), false);
+	final Iterator<CacheEntry<K, V>> iterator = super.iterator();
+	return new Iterator<CacheEntry<K, V>>() {
+	    /** Last returned entry */
+	    private CacheEntry<K, V> m_Last;
+
+	    public boolean hasNext() {
+		return iterator.hasNext();
+	    }
+
+	    public CacheEntry<K, V> next() {
+		m_Last = iterator.next();
+		return m_Last;
+	    }
+
+	    public void remove() {
+		iterator.remove();
+		descheduleEntry(m_Last);
+	    }
+	};
+    }
+
+    /**
+     * {@inheritDoc} Expired entries are removed first.
+     * 
+     * @see LRUCacheImpl#keySet()
+     */
+    @Override
+    public synchronized Set<K> keySet() {
+	advance(now(), false);
+	return super.keySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see AbstractCache#cleanUp()
+     */
+    @Override
+    public synchronized void cleanUp() {
+	advance(now(), true);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LRUCacheImpl#evicted(CacheEntry)
+     */
+    @Override
+    protected void evicted(CacheEntry<K, V> p_Entry) {
+	descheduleEntry(p_Entry);
+	super.evicted(p_Entry);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LRUCacheImpl#createCacheEntry(Object, Object)
+     */
     @Override
     protected CacheEntry<K, V> createCacheEntry(K p_Key, V p_Value) {
-	CacheEntry<K, V> entry = new TTLCacheEntry<K, V>(p_Key, p_Value);
+	TTLCacheEntry<K, V> entry = new TTLCacheEntry<K, V>(p_Key, p_Value);
+	if (m_Ttl >= 0) {
+	    entry.setExpirationTime(m_Wheel.getTime() + m_Ttl);
+	    m_Wheel.schedule(entry);
+	}
 	return entry;
     }
 
     /**
-     * Remove expired entries
+     * Return an entry that has not expired. An expired entry is removed.
+     * 
+     * @param p_Key
+     *            The key of the entry
+     * @return The entry, or <code>null</code> if there is no entry or if it
+     *         has expired
      */
-    private final void purge() {
-	long timespamp = System.currentTimeMillis();
-	LinkedList<CacheEntry<K, V>> cache = getInternalCache();
-	if (m_Ttl >= 0) {
-	    while (!cache.isEmpty()
-		    && ((TTLCacheEntry<K, V>) cache.getLast()).getTimestamp()
-			    + m_Ttl < timespamp) {
-		cache.removeLast();
+    @SuppressWarnings("unchecked")
+    private TTLCacheEntry<K, V> getEntry(K p_Key) {
+	long time = now();
+	advance(time, false);
+	TTLCacheEntry<K, V> entry = (TTLCacheEntry<K, V>) getInternalCache()
+		.get(p_Key);
+	if ((entry != null) && (entry.getExpirationTime() <= time)) {
+	    m_Wheel.deschedule(entry);
+	    getInternalCache().remove(p_Key);
+	    notifyRemoval(p_Key, entry.getValue(), RemovalCause.EXPIRED);
+	    entry = null;
+	}
+	return entry;
+    }
+
+    /**
+     * Remove an entry from the timing wheel
+     * 
+     * @param p_Entry
+     *            The entry, may be <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    private void descheduleEntry(CacheEntry<K, V> p_Entry) {
+	if (p_Entry != null) {
+	    m_Wheel.deschedule((TTLCacheEntry<K, V>) p_Entry);
+	}
+    }
+
+    /**
+     * Remove the entries of the elapsed buckets of the timing wheel. The
+     * cleanup is amortized over the operations on the cache: unless it is
+     * forced, the wheel is only advanced when the time has changed.
+     * 
+     * @param p_Time
+     *            The current time
+     * @param p_Force
+     *            <code>true</code> to advance the wheel even if the time has
+     *            not changed
+     */
+    private void advance(long p_Time, boolean p_Force) {
+	if (p_Force || (p_Time != m_Wheel.getTime())) {
+	    m_Wheel.advance(p_Time, m_Expired);
+	    for (TTLCacheEntry<K, V> entry : m_Expired) {
+		getInternalCache().remove(entry.getKey());
+		notifyRemoval(entry.getKey(), entry.getValue(),
+			RemovalCause.EXPIRED);
 	    }
+	    m_Expired.clear();
 	}
     }
+
+    /**
+     * Return the time of the clock of the caches. It is not affected by
+     * changes of the system time.
+     * 
+     * @return The time, in milliseconds
+     */
+    static long now() {
+	return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ORIGIN);
+    }
 }
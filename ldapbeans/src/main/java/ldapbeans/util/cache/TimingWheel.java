@@ -0,0 +1,209 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+import java.util.List;
+
+import ldapbeans.util.cache.TTLCache.TTLCacheEntry;
+
+final class TimingWheel<K, V> {
+
+    /** Number of bits of the number of buckets of a level */
+    private final static int BUCKET_BITS;
+
+    /**
+     * Number of bits of the duration of a bucket of each level, in
+     * milliseconds
+     */
+    private final static int[] SHIFTS;
+
+    /** Maximum delay that can be scheduled without being rescheduled */
+    private final static long MAX_DELAY;
+
+    /** Static constructor */
+    static {
+	BUCKET_BITS = 6;
+	// Buckets of 64 ms, 4 s, 4 min, 4.6 h and 12 days
+	SHIFTS = new int[] { 6, 12, 18, 24, 30 };
+	MAX_DELAY = ((1L << BUCKET_BITS) - 2) << SHIFTS[SHIFTS.length - 1];
+    }
+
+    /**
+     * Buckets of each level, a bucket is a circular list starting with a
+     * sentinel
+     */
+    private final TTLCacheEntry<K, V>[][] m_Buckets;
+
+    /** Time of the wheel, in milliseconds */
+    private long m_Time;
+
+    /**
+     * Construct an empty timing wheel
+     * 
+     * @param p_Time
+     *            The current time, in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long p_Time) {
+	m_Time = p_Time;
+	m_Buckets = (TTLCacheEntry<K, V>[][]) new TTLCacheEntry<?, ?>
+		[SHIFTS.length][1 << BUCKET_BITS];
+	for (TTLCacheEntry<K, V>[] level : m_Buckets) {
+	    for (int i = 0; i < level.length; i++) {
+		level[i] = new TTLCacheEntry<K, V>(null, null);
+		level[i].setPrevious(level[i]);
+		level[i].setNext(level[i]);
+	    }
+	}
+    }
+
+    /**
+     * Return the time of the wheel
+     * 
+     * @return The time of the last advance of the wheel, in milliseconds
+     */
+    public long getTime() {
+	return m_Time;
+    }
+
+    /**
+     * Add an entry in the bucket corresponding to its expiration time
+     * 
+     * @param p_Entry
+     *            The entry to schedule
+     */
+    public void schedule(TTLCacheEntry<K, V> p_Entry) {
+	long delay = Math.min(p_Entry.getExpirationTime() - m_Time,
+		MAX_DELAY);
+	long time = m_Time + Math.max(delay, 0);
+	int level = getLevel(time);
+	TTLCacheEntry<K, V> sentinel = getBucket(level, time >>> SHIFTS[level]);
+	p_Entry.setNext(sentinel);
+	p_Entry.setPrevious(sentinel.getPrevious());
+	sentinel.getPrevious().setNext(p_Entry);
+	sentinel.setPrevious(p_Entry);
+    }
+
+    /**
+     * Return the level of the bucket of a time: the lowest level where the
+     * time is less than a turn of the wheel ahead. Above the first level,
+     * the bucket is never the current one of its level, otherwise the entry
+     * would be processed again at each advance.
+     * 
+     * @param p_Time
+     *            The time, in milliseconds, not before the time of the wheel
+     * @return The level
+     */
+    int getLevel(long p_Time) {
+	// A time that is a turn ahead on a level is at least in the next
+	// bucket of the level above
+	int level = 0;
+	while ((level < SHIFTS.length - 1)
+		&& ((p_Time >>> SHIFTS[level]) - (m_Time >>> SHIFTS[level])
+			>= 1 << BUCKET_BITS)) {
+	    level++;
+	}
+	return level;
+    }
+
+    /**
+     * Remove an entry from its bucket. Does nothing if the entry is not
+     * scheduled.
+     * 
+     * @param p_Entry
+     *            The entry to remove
+     */
+    public void deschedule(TTLCacheEntry<K, V> p_Entry) {
+	if (p_Entry.getNext() != null) {
+	    p_Entry.getNext().setPrevious(p_Entry.getPrevious());
+	    p_Entry.getPrevious().setNext(p_Entry.getNext());
+	    p_Entry.setNext(null);
+	    p_Entry.setPrevious(null);
+	}
+    }
+
+    /**
+     * Advance the wheel to the given time. Entries of the elapsed buckets are
+     * expired or moved to the level corresponding to their remaining delay.
+     * The current bucket of each level is also processed, so entries are not
+     * expired later than the current tick.
+     * 
+     * @param p_Time
+     *            The current time, in milliseconds
+     * @param p_Expired
+     *            List where expired entries are added. They are no longer
+     *            scheduled.
+     */
+    public void advance(long p_Time, List<TTLCacheEntry<K, V>> p_Expired) {
+	if (p_Time >= m_Time) {
+	    long previous = m_Time;
+	    m_Time = p_Time;
+	    for (int level = 0; level < SHIFTS.length; level++) {
+		long previousTicks = previous >>> SHIFTS[level];
+		long lastTicks = Math.min(p_Time >>> SHIFTS[level],
+			previousTicks + (1 << BUCKET_BITS) - 1);
+		for (long tick = previousTicks; tick <= lastTicks; tick++) {
+		    expire(getBucket(level, tick), p_Expired);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Expire or reschedule the entries of a bucket
+     * 
+     * @param p_Sentinel
+     *            The sentinel of the bucket
+     * @param p_Expired
+     *            List where expired entries are added
+     */
+    private void expire(TTLCacheEntry<K, V> p_Sentinel,
+	    List<TTLCacheEntry<K, V>> p_Expired) {
+	TTLCacheEntry<K, V> entry = p_Sentinel.getNext();
+	// The bucket is detached, so rescheduled entries may be added to it
+	p_Sentinel.setNext(p_Sentinel);
+	p_Sentinel.setPrevious(p_Sentinel);
+	while (entry != p_Sentinel) {
+	    TTLCacheEntry<K, V> next = entry.getNext();
+	    if (entry.getExpirationTime() <= m_Time) {
+		entry.setNext(null);
+		entry.setPrevious(null);
+		p_Expired.add(entry);
+	    } else {
+		schedule(entry);
+	    }
+	    entry = next;
+	}
+    }
+
+    /**
+     * Return the sentinel of a bucket
+     * 
+     * @param p_Level
+     *            The level of the bucket
+     * @param p_Ticks
+     *            The time, in number of buckets of the level
+     * @return The sentinel of the bucket
+     */
+    private TTLCacheEntry<K, V> getBucket(int p_Level, long p_Ticks) {
+	return m_Buckets[p_Level][(int) (p_Ticks & ((1 << BUCKET_BITS) - 1))];
+    }
+}
@@ -0,0 +1,575 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+public class TinyLFUCache<K, V> extends AbstractCache<K, V> implements
+	LRUCache<K, V> {
+    private static class TinyLFUCacheEntry<K, V> implements CacheEntry<K, V> {
+	private final K m_Key;
+	private V m_Value;
+
+	/** Weight of the entry, or 0 if the cache has no weigher */
+	private int m_Weight;
+
+	/** Segment that contains the entry */
+	private Map<K, TinyLFUCacheEntry<K, V>> m_Segment;
+
+	/**
+	 * Construct a {@link CacheEntry} for {@link TinyLFUCache}
+	 * 
+	 * @param p_Key
+	 *            The key of the entry
+	 * @param p_Value
+	 *            The value of the entry
+	 * @param p_Weight
+	 *            The weight of the entry
+	 */
+	public TinyLFUCacheEntry(K p_Key, V p_Value, int p_Weight) {
+	    m_Key = p_Key;
+	    m_Value = p_Value;
+	    m_Weight = p_Weight;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see CacheEntry#getKey()
+	 */
+	public K getKey() {
+	    return m_Key;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see CacheEntry#getValue()
+	 */
+	public V getValue() {
+	    return m_Value;
+	}
+    }
+
+    /** Default maximum number of entries */
+    private final static int DEFAULT_MAX_SIZE;
+
+    /** Percentage of the entries kept in the admission window */
+    private final static int WINDOW_PERCENT;
+
+    /** Percentage of the main space kept in the protected segment */
+    private final static int PROTECTED_PERCENT;
+
+    /** Static constructor */
+    static {
+	DEFAULT_MAX_SIZE = 10000;
+	WINDOW_PERCENT = 1;
+	PROTECTED_PERCENT = 80;
+    }
+
+    /** Entries of the cache */
+    private final Map<K, TinyLFUCacheEntry<K, V>> m_Cache;
+
+    /** New entries, from the least to the most recently used */
+    private final Map<K, TinyLFUCacheEntry<K, V>> m_Window;
+
+    /**
+     * Entries admitted in the main space that have not been used since, from
+     * the least to the most recently used
+     */
+    private final Map<K, TinyLFUCacheEntry<K, V>> m_Probation;
+
+    /**
+     * Entries used again after their admission in the main space, from the
+     * least to the most recently used
+     */
+    private final Map<K, TinyLFUCacheEntry<K, V>> m_Protected;
+
+    /** Estimation of the frequency of the keys */
+    private final FrequencySketch<K> m_Sketch;
+
+    private int m_MaxSize;
+    private int m_MaxWindowSize;
+    private int m_MaxProtectedSize;
+
+    /** Estimation of the weight of the entries, or <code>null</code> */
+    private final Weigher<? super K, ? super V> m_Weigher;
+
+    /** Maximum total weight of the entries, or -1 if there is no limit */
+    private long m_MaxWeight;
+
+    /** Maximum total weight of the entries of the window */
+    private long m_MaxWindowWeight;
+
+    /** Maximum total weight of the entries of the protected segment */
+    private long m_MaxProtectedWeight;
+
+    /** Total weight of the entries */
+    private long m_Weight;
+
+    /** Total weight of the entries of the window */
+    private long m_WindowWeight;
+
+    /** Total weight of the entries of the protected segment */
+    private long m_ProtectedWeight;
+
+    /** Number of entries for witch the sketch has been sized */
+    private int m_SketchSize;
+
+    /**
+     * Construct a cache with the default maximum size
+     */
+    public TinyLFUCache() {
+	this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Construct a cache that keeps the most frequently used entries. New
+     * entries go through a small LRU window, then are admitted in the main
+     * space only if they are used more frequently than the entry they would
+     * replace, so a scan does not evict the frequently used entries.
+     * 
+     * @param p_MaxSize
+     *            The maximum number of entries
+     */
+    public TinyLFUCache(int p_MaxSize) {
+	this(p_MaxSize, null, -1);
+    }
+
+    /**
+     * Construct a cache bounded by the total weight of its entries instead
+     * of their number. The window and the segments of the main space are
+     * bounded by their share of the maximum weight.
+     * 
+     * @param p_Weigher
+     *            Estimation of the weight of the entries
+     * @param p_MaxWeight
+     *            Maximum total weight of the entries
+     */
+    public TinyLFUCache(Weigher<? super K, ? super V> p_Weigher,
+	    long p_MaxWeight) {
+	this(-1, p_Weigher, p_MaxWeight);
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param p_MaxSize
+     *            The maximum number of entries, or -1
+     * @param p_Weigher
+     *            Estimation of the weight of the entries, or
+     *            <code>null</code>
+     * @param p_MaxWeight
+     *            Maximum total weight of the entries, or -1
+     */
+    private TinyLFUCache(int p_MaxSize,
+	    Weigher<? super K, ? super V> p_Weigher, long p_MaxWeight) {
+	m_Cache = new HashMap<K, TinyLFUCacheEntry<K, V>>();
+	m_Window = new LinkedHashMap<K, TinyLFUCacheEntry<K, V>>();
+	m_Probation = new LinkedHashMap<K, TinyLFUCacheEntry<K, V>>();
+	m_Protected = new LinkedHashMap<K, TinyLFUCacheEntry<K, V>>();
+	m_Sketch = new FrequencySketch<K>(p_MaxSize);
+	m_Weigher = p_Weigher;
+	setMaxWeight(p_MaxWeight);
+	setMaxSize(p_MaxSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#containsKey(Object)
+     */
+    public boolean containsKey(K p_Key) {
+	return m_Cache.containsKey(p_Key);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#get(Object)
+     */
+    public V get(K p_Key) {
+	V result = null;
+	m_Sketch.increment(p_Key);
+	TinyLFUCacheEntry<K, V> entry = m_Cache.get(p_Key);
+	if (entry != null) {
+	    result = entry.getValue();
+	    onHit(entry);
+	}
+	return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#put(Object, Object)
+     */
+    public void put(K p_Key, V p_Value) {
+	m_Sketch.increment(p_Key);
+	TinyLFUCacheEntry<K, V> entry = m_Cache.get(p_Key);
+	if (entry == null) {
+	    entry = new TinyLFUCacheEntry<K, V>(p_Key, p_Value, weigh(p_Key,
+		    p_Value));
+	    m_Cache.put(p_Key, entry);
+	    m_Weight += entry.m_Weight;
+	    moveTo(entry, m_Window);
+	    growSketch();
+	} else {
+	    // The weight of the entry is updated with its value
+	    addWeight(entry.m_Segment, -entry.m_Weight);
+	    m_Weight -= entry.m_Weight;
+	    entry.m_Value = p_Value;
+	    entry.m_Weight = weigh(p_Key, p_Value);
+	    addWeight(entry.m_Segment, entry.m_Weight);
+	    m_Weight += entry.m_Weight;
+	    onHit(entry);
+	}
+	evict();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.AbstractCollection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(Object p_Key) {
+	TinyLFUCacheEntry<K, V> entry = m_Cache.remove(p_Key);
+	if (entry != null) {
+	    entry.m_Segment.remove(p_Key);
+	    addWeight(entry.m_Segment, -entry.m_Weight);
+	    m_Weight -= entry.m_Weight;
+	}
+	return entry != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#clear()
+     */
+    @Override
+    public void clear() {
+	m_Cache.clear();
+	m_Window.clear();
+	m_Probation.clear();
+	m_Protected.clear();
+	m_Weight = 0;
+	m_WindowWeight = 0;
+	m_ProtectedWeight = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#iterator()
+     */
+    @Override
+    public Iterator<CacheEntry<K, V>> iterator() {
+	final Iterator<TinyLFUCacheEntry<K, V>> iterator = m_Cache.values()
+		.iterator();
+	return new Iterator<CacheEntry<K, V>>() {
+	    /** Last returned entry */
+	    private TinyLFUCacheEntry<K, V> m_Last;
+
+	    public boolean hasNext() {
+		return iterator.hasNext();
+	    }
+
+	    public CacheEntry<K, V> next() {
+		m_Last = iterator.next();
+		return m_Last;
+	    }
+
+	    public void remove() {
+		iterator.remove();
+		m_Last.m_Segment.remove(m_Last.getKey());
+		addWeight(m_Last.m_Segment, -m_Last.m_Weight);
+		m_Weight -= m_Last.m_Weight;
+	    }
+	};
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#keySet()
+     */
+    public Set<K> keySet() {
+	return Collections.unmodifiableSet(m_Cache.keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Cache#size()
+     */
+    @Override
+    public int size() {
+	return m_Cache.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LRUCache#getMaxSize()
+     */
+    public int getMaxSize() {
+	return m_MaxSize;
+    }
+
+    /**
+     * {@inheritDoc} The frequencies of the keys are forgotten.
+     * 
+     * @see LRUCache#setMaxSize(int)
+     */
+    public void setMaxSize(int p_MaxSize) {
+	m_MaxSize = p_MaxSize;
+	if (p_MaxSize < 0) {
+	    m_MaxWindowSize = Integer.MAX_VALUE;
+	    m_MaxProtectedSize = Integer.MAX_VALUE;
+	} else {
+	    m_MaxWindowSize = Math.max(1, p_MaxSize * WINDOW_PERCENT / 100);
+	    m_MaxProtectedSize = (int) ((long) Math.max(0, p_MaxSize
+		    - m_MaxWindowSize)
+		    * PROTECTED_PERCENT / 100);
+	}
+	m_SketchSize = p_MaxSize;
+	m_Sketch.setMaxSize(p_MaxSize);
+	evict();
+	while (isProtectedFull()) {
+	    moveTo(m_Protected.values().iterator().next(), m_Probation);
+	}
+    }
+
+    /**
+     * Return the total weight of the entries
+     * 
+     * @return The total weight, or 0 if the cache has no weigher
+     */
+    public long getWeight() {
+	return m_Weight;
+    }
+
+    /**
+     * Return the maximum total weight of the entries
+     * 
+     * @return The maximum total weight, or -1 if there is no limit
+     */
+    public long getMaxWeight() {
+	return m_MaxWeight;
+    }
+
+    /**
+     * Set the maximum total weight of the entries. It is ignored if the
+     * cache has no weigher.
+     * 
+     * @param p_MaxWeight
+     *            The maximum total weight, or -1 if there is no limit
+     */
+    public void setMaxWeight(long p_MaxWeight) {
+	if ((m_Weigher == null) || (p_MaxWeight < 0)) {
+	    m_MaxWeight = -1;
+	    m_MaxWindowWeight = Long.MAX_VALUE;
+	    m_MaxProtectedWeight = Long.MAX_VALUE;
+	} else {
+	    m_MaxWeight = p_MaxWeight;
+	    m_MaxWindowWeight = Math.max(1, p_MaxWeight * WINDOW_PERCENT / 100);
+	    m_MaxProtectedWeight = Math.max(0, p_MaxWeight - m_MaxWindowWeight)
+		    * PROTECTED_PERCENT / 100;
+	}
+	evict();
+	while (isProtectedFull()) {
+	    moveTo(m_Protected.values().iterator().next(), m_Probation);
+	}
+    }
+
+    /**
+     * Promote an entry that has been used
+     * 
+     * @param p_Entry
+     *            The used entry
+     */
+    private void onHit(TinyLFUCacheEntry<K, V> p_Entry) {
+	if (p_Entry.m_Segment == m_Probation) {
+	    moveTo(p_Entry, m_Protected);
+	    while (isProtectedFull()) {
+		moveTo(m_Protected.values().iterator().next(), m_Probation);
+	    }
+	} else {
+	    moveTo(p_Entry, p_Entry.m_Segment);
+	}
+    }
+
+    /**
+     * Move the least recently used entries of the window to the main space,
+     * then remove entries while the cache is too big. When the cache is full,
+     * an entry leaving the window is admitted only if it is more frequently
+     * used than the least recently used entry of the main space.
+     */
+    private void evict() {
+	while ((m_Window.size() > m_MaxWindowSize)
+		|| (m_WindowWeight > m_MaxWindowWeight)) {
+	    TinyLFUCacheEntry<K, V> candidate = getFirst(m_Window);
+	    TinyLFUCacheEntry<K, V> victim = null;
+	    if (isFull()) {
+		victim = getFirst(m_Probation);
+		if (victim == null) {
+		    victim = getFirst(m_Protected);
+		}
+		if ((victim == null)
+			|| (m_Sketch.frequency(candidate.getKey()) <= m_Sketch
+				.frequency(victim.getKey()))) {
+		    victim = candidate;
+		}
+	    }
+	    if (victim != candidate) {
+		moveTo(candidate, m_Probation);
+	    }
+	    if (victim != null) {
+		evict(victim);
+	    }
+	}
+	while (isFull()) {
+	    TinyLFUCacheEntry<K, V> victim = getFirst(m_Probation);
+	    if (victim == null) {
+		victim = getFirst(m_Protected);
+	    }
+	    if (victim == null) {
+		victim = getFirst(m_Window);
+	    }
+	    evict(victim);
+	}
+    }
+
+    /**
+     * Remove an entry because the cache is full
+     * 
+     * @param p_Entry
+     *            The removed entry
+     */
+    private void evict(TinyLFUCacheEntry<K, V> p_Entry) {
+	remove(p_Entry.getKey());
+	notifyRemoval(p_Entry.getKey(), p_Entry.getValue(), RemovalCause.SIZE);
+    }
+
+    /**
+     * Move an entry at the end of a segment
+     * 
+     * @param p_Entry
+     *            The entry
+     * @param p_Segment
+     *            The segment
+     */
+    private void moveTo(TinyLFUCacheEntry<K, V> p_Entry,
+	    Map<K, TinyLFUCacheEntry<K, V>> p_Segment) {
+	if (p_Entry.m_Segment != null) {
+	    p_Entry.m_Segment.remove(p_Entry.getKey());
+	    addWeight(p_Entry.m_Segment, -p_Entry.m_Weight);
+	}
+	p_Segment.put(p_Entry.getKey(), p_Entry);
+	p_Entry.m_Segment = p_Segment;
+	addWeight(p_Segment, p_Entry.m_Weight);
+    }
+
+    /**
+     * Add a weight to the weight of a segment
+     * 
+     * @param p_Segment
+     *            The segment
+     * @param p_Weight
+     *            The weight to add, negative to subtract it
+     */
+    private void addWeight(Map<K, TinyLFUCacheEntry<K, V>> p_Segment,
+	    long p_Weight) {
+	if (p_Segment == m_Window) {
+	    m_WindowWeight += p_Weight;
+	} else if (p_Segment == m_Protected) {
+	    m_ProtectedWeight += p_Weight;
+	}
+    }
+
+    /**
+     * Return the weight of an entry
+     * 
+     * @param p_Key
+     *            The key of the entry
+     * @param p_Value
+     *            The value of the entry
+     * @return The weight, or 0 if the cache has no weigher
+     */
+    private int weigh(K p_Key, V p_Value) {
+	return (m_Weigher == null) ? 0 : m_Weigher.weigh(p_Key, p_Value);
+    }
+
+    /**
+     * Return <code>true</code> if the cache has too many entries or if they
+     * are too heavy
+     * 
+     * @return <code>true</code> if entries have to be evicted
+     */
+    private boolean isFull() {
+	return ((m_MaxSize >= 0) && (m_Cache.size() > m_MaxSize))
+		|| ((m_MaxWeight >= 0) && (m_Weight > m_MaxWeight));
+    }
+
+    /**
+     * Return <code>true</code> if the protected segment has too many
+     * entries or if they are too heavy
+     * 
+     * @return <code>true</code> if entries have to be moved to the
+     *         probation segment
+     */
+    private boolean isProtectedFull() {
+	return (m_Protected.size() > m_MaxProtectedSize)
+		|| (m_ProtectedWeight > m_MaxProtectedWeight);
+    }
+
+    /**
+     * Resize the sketch when a cache that is not bounded by its number of
+     * entries has grown, so the frequencies stay accurate
+     */
+    private void growSketch() {
+	if ((m_MaxSize < 0) && (m_Cache.size() > m_SketchSize)) {
+	    m_SketchSize = Math.max(m_SketchSize, 16) * 2;
+	    m_Sketch.setMaxSize(m_SketchSize);
+	}
+    }
+
+    /**
+     * Return the least recently used entry of a segment
+     * 
+     * @param p_Segment
+     *            The segment
+     * @return The first entry, or <code>null</code> if the segment is empty
+     */
+    private TinyLFUCacheEntry<K, V> getFirst(
+	    Map<K, TinyLFUCacheEntry<K, V>> p_Segment) {
+	Iterator<TinyLFUCacheEntry<K, V>> iterator = p_Segment.values()
+		.iterator();
+	return iterator.hasNext() ? iterator.next() : null;
+    }
+}
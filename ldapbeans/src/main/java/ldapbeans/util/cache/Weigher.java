@@ -0,0 +1,35 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+public interface Weigher<K, V> {
+    /**
+     * Return the weight of an entry, for example an estimation of its size in
+     * memory
+     * 
+     * @param p_Key
+     *            The key of the entry
+     * @param p_Value
+     *            The value of the entry
+     * @return The weight of the entry, it must not be negative
+     */
+    int weigh(K p_Key, V p_Value);
+}
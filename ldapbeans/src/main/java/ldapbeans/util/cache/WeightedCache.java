@@ -0,0 +1,235 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.cache;
+
+import java.util.Iterator;
+
+public class WeightedCache<K, V> extends LRUCacheImpl<K, V> {
+    protected static class WeightedCacheEntry<K, V> extends
+	    LRUCacheEntry<K, V> {
+	private final int m_Weight;
+
+	/**
+	 * Construct a {@link CacheEntry} for {@link WeightedCache}
+	 * 
+	 * @param p_Key
+	 *            The key of the entry
+	 * @param p_Value
+	 *            The value of the entry
+	 * @param p_Weight
+	 *            The weight of the entry
+	 */
+	public WeightedCacheEntry(K p_Key, V p_Value, int p_Weight) {
+	    super(p_Key, p_Value);
+	    m_Weight = p_Weight;
+	}
+
+	/**
+	 * Return the weight of the entry
+	 * 
+	 * @return The weight computed when the entry was put in the cache
+	 */
+	public int getWeight() {
+	    return m_Weight;
+	}
+    }
+
+    /** Estimation of the weight of the entries */
+    private final Weigher<? super K, ? super V> m_Weigher;
+
+    /** Maximum total weight of the entries */
+    private long m_MaxWeight;
+
+    /** Total weight of the entries */
+    private long m_Weight;
+
+    /** Number of entries removed to stay under the maximum weight */
+    private long m_EvictionCount;
+
+    /**
+     * Construct a cache bounded by the total weight of its entries. The least
+     * recently used entries are removed when the total weight exceeds the
+     * maximum.
+     * 
+     * @param p_Weigher
+     *            Estimation of the weight of the entries
+     * @param p_MaxWeight
+     *            Maximum total weight of the entries
+     */
+    public WeightedCache(Weigher<? super K, ? super V> p_Weigher,
+	    long p_MaxWeight) {
+	super();
+	m_Weigher = p_Weigher;
+	m_MaxWeight = p_MaxWeight;
+    }
+
+    /**
+     * {@inheritDoc} The weight of the entry is computed once, an entry whose
+     * value changes has to be put again.
+     * 
+     * @see LRUCacheImpl#put(Object, Object)
+     */
+    @Override
+    public void put(K p_Key, V p_Value) {
+	subtract(getInternalCache().get(p_Key));
+	super.put(p_Key, p_Value);
+	trim();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LRUCacheImpl#remove(Object)
+     */
+    @Override
+    public boolean remove(Object p_Key) {
+	subtract(getInternalCache().get(p_Key));
+	return super.remove(p_Key);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LRUCacheImpl#clear()
+     */
+    @Override
+    public void clear() {
+	super.clear();
+	m_Weight = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LRUCacheImpl#iterator()
+     */
+    @Override
+    public Iterator<CacheEntry<K, V>> iterator() {
+	final Iterator<CacheEntry<K, V>> iterator = super.iterator();
+	return new Iterator<CacheEntry<K, V>>() {
+	    /** Last returned entry */
+	    private CacheEntry<K, V> m_Last;
+
+	    public boolean hasNext() {
+		return iterator.hasNext();
+	    }
+
+	    public CacheEntry<K, V> next() {
+		m_Last = iterator.next();
+		return m_Last;
+	    }
+
+	    public void remove() {
+		iterator.remove();
+		subtract(m_Last);
+	    }
+	};
+    }
+
+    /**
+     * Return the total weight of the entries
+     * 
+     * @return The total weight of the entries
+     */
+    public long getWeight() {
+	return m_Weight;
+    }
+
+    /**
+     * Return the maximum total weight of the entries
+     * 
+     * @return The maximum total weight of the entries
+     */
+    public long getMaxWeight() {
+	return m_MaxWeight;
+    }
+
+    /**
+     * Set the maximum total weight of the entries. The least recently used
+     * entries are removed if the current weight is too high.
+     * 
+     * @param p_MaxWeight
+     *            The maximum total weight of the entries
+     */
+    public void setMaxWeight(long p_MaxWeight) {
+	m_MaxWeight = p_MaxWeight;
+	trim();
+    }
+
+    /**
+     * Return the number of entries removed because the cache was full
+     * 
+     * @return The number of evictions
+     */
+    public long getEvictionCount() {
+	return m_EvictionCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LRUCacheImpl#evicted(CacheEntry)
+     */
+    @Override
+    protected void evicted(CacheEntry<K, V> p_Entry) {
+	subtract(p_Entry);
+	m_EvictionCount++;
+	super.evicted(p_Entry);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see LRUCacheImpl#createCacheEntry(Object, Object)
+     */
+    @Override
+    protected CacheEntry<K, V> createCacheEntry(K p_Key, V p_Value) {
+	int weight = m_Weigher.weigh(p_Key, p_Value);
+	m_Weight += weight;
+	return new WeightedCacheEntry<K, V>(p_Key, p_Value, weight);
+    }
+
+    /**
+     * Remove the least recently used entries while the total weight is too
+     * high
+     */
+    private void trim() {
+	Iterator<CacheEntry<K, V>> iterator = getInternalCache().values()
+		.iterator();
+	while ((m_Weight > m_MaxWeight) && iterator.hasNext()) {
+	    CacheEntry<K, V> entry = iterator.next();
+	    iterator.remove();
+	    evicted(entry);
+	}
+    }
+
+    /**
+     * Subtract the weight of an entry from the total weight
+     * 
+     * @param p_Entry
+     *            The removed entry, may be <code>null</code>
+     */
+    private void subtract(CacheEntry<K, V> p_Entry) {
+	if (p_Entry != null) {
+	    m_Weight -= ((WeightedCacheEntry<K, V>) p_Entry).getWeight();
+	}
+    }
+}
@@ -156,15 +156,50 @@ public abstract class AbstractPool<T> implements Pool<T> {
      * @see Pool#release(Object)
      */
     public void release(T p_Object) throws NotPooledObjectException {
+	boolean retained = false;
 	synchronized (m_Lock) {
 	    if (m_Used.remove(p_Object)) {
 		if (m_Available.size() <= m_Size) {
 		    m_Available.add(p_Object);
+		    retained = true;
 		}
 	    } else {
 		throw new NotPooledObjectException();
 	    }
 	}
+	if (!retained) {
+	    destroy(p_Object);
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Pool#invalidate(Object)
+     */
+    public void invalidate(T p_Object) throws NotPooledObjectException {
+	synchronized (m_Lock) {
+	    if (!m_Used.remove(p_Object)) {
+		throw new NotPooledObjectException();
+	    }
+	}
+	destroy(p_Object);
+    }
+
+    /**
+     * Remove all available objects from the pool. Objects that are used are
+     * not affected. It may be used when available objects are probably
+     * broken (for example after a connection error).
+     */
+    protected void invalidateAvailable() {
+	List<T> invalidated;
+	synchronized (m_Lock) {
+	    invalidated = new ArrayList<T>(m_Available);
+	    m_Available.clear();
+	}
+	for (T object : invalidated) {
+	    destroy(object);
+	}
     }
 
     /**
@@ -187,6 +222,16 @@ public abstract class AbstractPool<T> implements Pool<T> {
 	// Do nothing by default
     }
 
+    /**
+     * Free resources of an object that is removed from the pool
+     * 
+     * @param p_Object
+     *            The object that is removed from the pool
+     */
+    protected void destroy(T p_Object) {
+	// Do nothing by default
+    }
+
     /**
      * Create new instance of object that will be stored in the pool
      * 
@@ -0,0 +1,232 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+import ldapbeans.util.pool.exception.BulkheadFullException;
+
+public class AdaptiveLimit {
+
+    /** Weight of the limit computed from an operation in the new limit */
+    private final static double SMOOTHING;
+
+    /** Factor applied to the limit when an operation is dropped */
+    private final static double BACKOFF_FACTOR;
+
+    /** Minimum value of the gradient */
+    private final static double MIN_GRADIENT;
+
+    /** Number of samples after which the no load latency is measured again */
+    private final static int MIN_RTT_RESET;
+
+    /** Static constructor */
+    static {
+	SMOOTHING = 0.2;
+	BACKOFF_FACTOR = 0.9;
+	MIN_GRADIENT = 0.5;
+	MIN_RTT_RESET = 1000;
+    }
+
+    /** Minimum number of operations in flight */
+    private final int m_MinLimit;
+
+    /** Maximum number of operations in flight */
+    private final int m_MaxLimit;
+
+    /** Maximum time (in milliseconds) to wait for a permission */
+    private final long m_MaxWait;
+
+    /** Current number of operations allowed in flight */
+    private double m_Limit;
+
+    /** Number of operations in flight */
+    private int m_InFlight;
+
+    /** Latency (in nanoseconds) of the directory without load */
+    private long m_MinRtt;
+
+    /** Ratio of the no load latency to the last latency */
+    private double m_Gradient = 1;
+
+    /** Number of samples since the no load latency was measured */
+    private int m_SampleCount;
+
+    /** Number of operations that have not received a permission */
+    private long m_RejectedCount;
+
+    /**
+     * Construct an adaptive limit
+     * 
+     * @param p_MinLimit
+     *            Minimum number of operations in flight
+     * @param p_MaxLimit
+     *            Maximum number of operations in flight
+     * @param p_InitialLimit
+     *            Initial number of operations in flight
+     * @param p_MaxWait
+     *            Maximum time (in milliseconds) to wait for a permission
+     *            when the limit is reached
+     */
+    public AdaptiveLimit(int p_MinLimit, int p_MaxLimit, int p_InitialLimit,
+	    long p_MaxWait) {
+	m_MinLimit = p_MinLimit;
+	m_MaxLimit = p_MaxLimit;
+	m_Limit = Math.max(p_MinLimit, Math.min(p_MaxLimit, p_InitialLimit));
+	m_MaxWait = p_MaxWait;
+    }
+
+    /**
+     * Acquire the permission to execute an operation. The permission must be
+     * released with {@link #release(long, boolean)} when the operation is
+     * finished.
+     * 
+     * @throws BulkheadFullException
+     *             If the permission has not been acquired in time
+     */
+    public synchronized void acquire() throws BulkheadFullException {
+	long start = System.currentTimeMillis();
+	// The wait is bounded by the deadline of the operation
+	long maxWait = Math.min(m_MaxWait, Deadline.remaining(m_MaxWait));
+	long remaining = maxWait;
+	boolean interrupted = false;
+	while ((m_InFlight >= getLimit()) && (remaining > 0) && !interrupted) {
+	    try {
+		wait(remaining);
+	    } catch (InterruptedException e) {
+		interrupted = true;
+	    }
+	    remaining = maxWait - (System.currentTimeMillis() - start);
+	}
+	if (interrupted) {
+	    Thread.currentThread().interrupt();
+	}
+	if (m_InFlight >= getLimit()) {
+	    m_RejectedCount++;
+	    throw new BulkheadFullException("Too many operations in flight");
+	}
+	m_InFlight++;
+    }
+
+    /**
+     * Release the permission of an operation and adapt the limit. The limit
+     * is reduced when the operation has been dropped. Otherwise, the limit
+     * is multiplied by the ratio of the latency without load to the latency
+     * of the operation (the gradient), then the square root of the limit is
+     * added to allow some operations to be queued in the directory. The
+     * limit grows while the latency is stable and shrinks when it rises,
+     * whatever its size. The new limit is smoothed with the previous one.
+     * 
+     * @param p_Rtt
+     *            The round trip time (in nanoseconds) of the operation
+     * @param p_Dropped
+     *            <code>true</code> if the operation failed because the
+     *            directory is overloaded or unreachable
+     */
+    public synchronized void release(long p_Rtt, boolean p_Dropped) {
+	int inFlight = m_InFlight;
+	m_InFlight--;
+	if (p_Dropped) {
+	    m_Limit = m_Limit * BACKOFF_FACTOR;
+	} else {
+	    long rtt = Math.max(1, p_Rtt);
+	    if ((m_MinRtt == 0) || (rtt < m_MinRtt)
+		    || (++m_SampleCount >= MIN_RTT_RESET)) {
+		// The latency without load may change with the directory
+		m_MinRtt = rtt;
+		m_SampleCount = 0;
+	    }
+	    m_Gradient = Math.max(MIN_GRADIENT, (double) m_MinRtt / rtt);
+	    // The gradient is applied before the allowance for the queue is
+	    // added, otherwise a small limit could never shrink
+	    double limit = m_Limit * m_Gradient + Math.sqrt(m_Limit);
+	    if ((limit < m_Limit) || (inFlight * 2 >= m_Limit)) {
+		// The limit only grows when it is actually used
+		m_Limit = m_Limit * (1 - SMOOTHING) + limit * SMOOTHING;
+	    }
+	}
+	m_Limit = Math.max(m_MinLimit, Math.min(m_MaxLimit, m_Limit));
+	notifyAll();
+    }
+
+    /**
+     * Return the current number of operations allowed in flight
+     * 
+     * @return The current limit
+     */
+    public synchronized int getLimit() {
+	return (int) m_Limit;
+    }
+
+    /**
+     * Return the minimum number of operations in flight
+     * 
+     * @return The minimum limit
+     */
+    public int getMinLimit() {
+	return m_MinLimit;
+    }
+
+    /**
+     * Return the maximum number of operations in flight
+     * 
+     * @return The maximum limit
+     */
+    public int getMaxLimit() {
+	return m_MaxLimit;
+    }
+
+    /**
+     * Return the ratio of the latency without load to the last latency. A
+     * gradient of 1 means that the directory is not loaded.
+     * 
+     * @return The gradient, between 0.5 and 1
+     */
+    public synchronized double getGradient() {
+	return m_Gradient;
+    }
+
+    /**
+     * Return the latency of the directory without load
+     * 
+     * @return The minimum round trip time (in nanoseconds), or 0 if no
+     *         operation has been executed
+     */
+    public synchronized long getMinRtt() {
+	return m_MinRtt;
+    }
+
+    /**
+     * Return the number of operations in flight
+     * 
+     * @return The number of operations in flight
+     */
+    public synchronized int getInFlight() {
+	return m_InFlight;
+    }
+
+    /**
+     * Return the number of operations that have not received a permission
+     * 
+     * @return The number of rejected operations
+     */
+    public synchronized long getRejectedCount() {
+	return m_RejectedCount;
+    }
+}
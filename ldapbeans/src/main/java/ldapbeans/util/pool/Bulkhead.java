@@ -0,0 +1,139 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import ldapbeans.util.pool.exception.BulkheadFullException;
+
+public class Bulkhead {
+
+    /** Semaphores limiting concurrent calls for each type of operation */
+    private volatile Map<OperationType, Semaphore> m_Semaphores;
+
+    /** Limit of concurrent calls for each type of operation */
+    private volatile Map<OperationType, Integer> m_Limits;
+
+    /** Maximum time (in milliseconds) to wait for a permission */
+    private final long m_MaxWait;
+
+    /**
+     * Construct a bulkhead without limit
+     * 
+     * @param p_MaxWait
+     *            Maximum time (in milliseconds) to wait for a permission
+     *            when the limit is reached
+     */
+    public Bulkhead(long p_MaxWait) {
+	m_MaxWait = p_MaxWait;
+	m_Semaphores = new EnumMap<OperationType, Semaphore>(
+		OperationType.class);
+	m_Limits = new EnumMap<OperationType, Integer>(OperationType.class);
+    }
+
+    /**
+     * Change the maximum number of concurrent calls for a type of operation.
+     * Calls that are running keep their permission.
+     * 
+     * @param p_Type
+     *            The type of operation
+     * @param p_MaxConcurrentCalls
+     *            The maximum number of concurrent calls, or a negative value
+     *            for no limit
+     */
+    public synchronized void setMaxConcurrentCalls(OperationType p_Type,
+	    int p_MaxConcurrentCalls) {
+	Map<OperationType, Semaphore> semaphores;
+	Map<OperationType, Integer> limits;
+	semaphores = new EnumMap<OperationType, Semaphore>(m_Semaphores);
+	limits = new EnumMap<OperationType, Integer>(m_Limits);
+	if (p_MaxConcurrentCalls < 0) {
+	    semaphores.remove(p_Type);
+	    limits.remove(p_Type);
+	} else {
+	    semaphores.put(p_Type, new Semaphore(p_MaxConcurrentCalls, true));
+	    limits.put(p_Type, Integer.valueOf(p_MaxConcurrentCalls));
+	}
+	m_Semaphores = semaphores;
+	m_Limits = limits;
+    }
+
+    /**
+     * Return the maximum number of concurrent calls for a type of operation
+     * 
+     * @param p_Type
+     *            The type of operation
+     * @return The maximum number of concurrent calls, or -1 if there is no
+     *         limit
+     */
+    public int getMaxConcurrentCalls(OperationType p_Type) {
+	Integer limit = m_Limits.get(p_Type);
+	return limit == null ? -1 : limit.intValue();
+    }
+
+    /**
+     * Return the number of calls that can still be started for a type of
+     * operation
+     * 
+     * @param p_Type
+     *            The type of operation
+     * @return The number of available permissions, or -1 if there is no limit
+     */
+    public int getAvailableCalls(OperationType p_Type) {
+	Semaphore semaphore = m_Semaphores.get(p_Type);
+	return semaphore == null ? -1 : semaphore.availablePermits();
+    }
+
+    /**
+     * Acquire the permission to execute an operation. The returned semaphore
+     * must be released when the operation is finished.
+     * 
+     * @param p_Type
+     *            The type of operation
+     * @return The semaphore to release, or <code>null</code> if there is no
+     *         limit for this type of operation
+     * @throws BulkheadFullException
+     *             If the permission has not been acquired in time
+     */
+    public Semaphore acquire(OperationType p_Type)
+	    throws BulkheadFullException {
+	Semaphore semaphore = m_Semaphores.get(p_Type);
+	if (semaphore != null) {
+	    boolean acquired;
+	    try {
+		// The wait is bounded by the deadline of the operation
+		acquired = semaphore.tryAcquire(Math.min(m_MaxWait, Deadline
+			.remaining(m_MaxWait)), TimeUnit.MILLISECONDS);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		acquired = false;
+	    }
+	    if (!acquired) {
+		throw new BulkheadFullException("Too many concurrent "
+			+ p_Type + " operations");
+	    }
+	}
+	return semaphore;
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+public class CircuitBreaker {
+
+    /** State of a circuit breaker */
+    public static enum State {
+	/** Calls are permitted, results are recorded */
+	CLOSED,
+	/** Calls are rejected until the open duration is elapsed */
+	OPEN,
+	/** A limited number of calls are permitted to probe the directory */
+	HALF_OPEN
+    }
+
+    /** Number of calls recorded to compute failure and slow call rates */
+    private final int m_WindowSize;
+
+    /** Minimum number of recorded calls before the circuit can open */
+    private final int m_MinimumCalls;
+
+    /** Failure rate (percentage) from witch the circuit opens */
+    private final int m_FailureRateThreshold;
+
+    /** Slow call rate (percentage) from witch the circuit opens */
+    private final int m_SlowCallRateThreshold;
+
+    /** Duration (in milliseconds) from witch a call is slow */
+    private final long m_SlowCallDuration;
+
+    /** Duration (in milliseconds) during witch the circuit stays open */
+    private final long m_OpenDuration;
+
+    /** Number of calls permitted when the circuit is half open */
+    private final int m_HalfOpenCalls;
+
+    /** Failure flags of the recorded calls */
+    private final boolean[] m_Failures;
+
+    /** Slow flags of the recorded calls */
+    private final boolean[] m_SlowCalls;
+
+    /** Index where the next call will be recorded */
+    private int m_Index = 0;
+
+    /** Number of recorded calls */
+    private int m_CallCount = 0;
+
+    /** Number of recorded failures */
+    private int m_FailureCount = 0;
+
+    /** Number of recorded slow calls */
+    private int m_SlowCallCount = 0;
+
+    /** Current state */
+    private State m_State = State.CLOSED;
+
+    /** Time when the circuit has been opened */
+    private long m_OpenTime = 0;
+
+    /** Number of calls permitted since the circuit is half open */
+    private int m_HalfOpenPermitted = 0;
+
+    /** Number of successful calls since the circuit is half open */
+    private int m_HalfOpenSucceeded = 0;
+
+    /** Number of calls rejected because the circuit was open */
+    private long m_RejectedCount = 0;
+
+    /**
+     * Construct a circuit breaker with default thresholds: the circuit opens
+     * during 5 seconds when half of the last 20 calls (at least 10) failed or
+     * when all of them took more than 10 seconds, then 3 successful calls
+     * close it.
+     */
+    public CircuitBreaker() {
+	this(20, 10, 50, 100, 10000, 5000, 3);
+    }
+
+    /**
+     * Construct a circuit breaker
+     * 
+     * @param p_WindowSize
+     *            Number of calls recorded to compute failure and slow call
+     *            rates
+     * @param p_MinimumCalls
+     *            Minimum number of recorded calls before the circuit can open
+     * @param p_FailureRateThreshold
+     *            Failure rate (percentage) from witch the circuit opens
+     * @param p_SlowCallRateThreshold
+     *            Slow call rate (percentage) from witch the circuit opens
+     * @param p_SlowCallDuration
+     *            Duration (in milliseconds) from witch a call is slow
+     * @param p_OpenDuration
+     *            Duration (in milliseconds) during witch the circuit stays
+     *            open before probing the directory
+     * @param p_HalfOpenCalls
+     *            Number of successful probe calls needed to close the circuit
+     */
+    public CircuitBreaker(int p_WindowSize, int p_MinimumCalls,
+	    int p_FailureRateThreshold, int p_SlowCallRateThreshold,
+	    long p_SlowCallDuration, long p_OpenDuration, int p_HalfOpenCalls) {
+	m_WindowSize = p_WindowSize;
+	m_MinimumCalls = Math.min(p_MinimumCalls, p_WindowSize);
+	m_FailureRateThreshold = p_FailureRateThreshold;
+	m_SlowCallRateThreshold = p_SlowCallRateThreshold;
+	m_SlowCallDuration = p_SlowCallDuration;
+	m_OpenDuration = p_OpenDuration;
+	m_HalfOpenCalls = p_HalfOpenCalls;
+	m_Failures = new boolean[p_WindowSize];
+	m_SlowCalls = new boolean[p_WindowSize];
+    }
+
+    /**
+     * Ask the permission to execute a call. If the permission is granted,
+     * {@link #onResult(boolean, long)} or {@link #releasePermission()} must
+     * be called when the call is finished.
+     * 
+     * @return <code>true</code> if the call is permitted, <code>false</code>
+     *         if it must be rejected
+     */
+    public synchronized boolean tryAcquirePermission() {
+	boolean permitted;
+	long now = System.currentTimeMillis();
+	if ((m_State == State.OPEN) && (now - m_OpenTime >= m_OpenDuration)) {
+	    m_State = State.HALF_OPEN;
+	    m_HalfOpenPermitted = 0;
+	    m_HalfOpenSucceeded = 0;
+	}
+	switch (m_State) {
+	case CLOSED:
+	    permitted = true;
+	    break;
+	case HALF_OPEN:
+	    permitted = m_HalfOpenPermitted < m_HalfOpenCalls;
+	    if (permitted) {
+		m_HalfOpenPermitted++;
+	    }
+	    break;
+	default:
+	    permitted = false;
+	    break;
+	}
+	if (!permitted) {
+	    m_RejectedCount++;
+	}
+	return permitted;
+    }
+
+    /**
+     * Give back a permission that was not used (the call has not been
+     * executed)
+     */
+    public synchronized void releasePermission() {
+	if ((m_State == State.HALF_OPEN) && (m_HalfOpenPermitted > 0)) {
+	    m_HalfOpenPermitted--;
+	}
+    }
+
+    /**
+     * Record the result of a permitted call
+     * 
+     * @param p_Failure
+     *            <code>true</code> if the call failed, <code>false</code>
+     *            otherwise
+     * @param p_Duration
+     *            Duration of the call in milliseconds
+     */
+    public synchronized void onResult(boolean p_Failure, long p_Duration) {
+	boolean slow = p_Duration >= m_SlowCallDuration;
+	switch (m_State) {
+	case HALF_OPEN:
+	    if (p_Failure || slow) {
+		open();
+	    } else if (++m_HalfOpenSucceeded >= m_HalfOpenCalls) {
+		close();
+	    }
+	    break;
+	case CLOSED:
+	    record(p_Failure, slow);
+	    if ((m_CallCount >= m_MinimumCalls)
+		    && ((getFailureRate() >= m_FailureRateThreshold)
+			|| (getSlowCallRate() >= m_SlowCallRateThreshold))) {
+		open();
+	    }
+	    break;
+	default:
+	    // Result of a call permitted before the circuit opened
+	    break;
+	}
+    }
+
+    /**
+     * Return the current state of the circuit
+     * 
+     * @return The current state of the circuit
+     */
+    public synchronized State getState() {
+	return m_State;
+    }
+
+    /**
+     * Return the failure rate of the recorded calls
+     * 
+     * @return The failure rate (percentage)
+     */
+    public synchronized int getFailureRate() {
+	return m_CallCount == 0 ? 0 : (100 * m_FailureCount) / m_CallCount;
+    }
+
+    /**
+     * Return the slow call rate of the recorded calls
+     * 
+     * @return The slow call rate (percentage)
+     */
+    public synchronized int getSlowCallRate() {
+	return m_CallCount == 0 ? 0 : (100 * m_SlowCallCount) / m_CallCount;
+    }
+
+    /**
+     * Return the number of calls rejected because the circuit was open
+     * 
+     * @return The number of rejected calls
+     */
+    public synchronized long getRejectedCount() {
+	return m_RejectedCount;
+    }
+
+    /**
+     * Record a call in the sliding window
+     * 
+     * @param p_Failure
+     *            <code>true</code> if the call failed
+     * @param p_Slow
+     *            <code>true</code> if the call was slow
+     */
+    private void record(boolean p_Failure, boolean p_Slow) {
+	if (m_CallCount == m_WindowSize) {
+	    // Forget the oldest call
+	    if (m_Failures[m_Index]) {
+		m_FailureCount--;
+	    }
+	    if (m_SlowCalls[m_Index]) {
+		m_SlowCallCount--;
+	    }
+	} else {
+	    m_CallCount++;
+	}
+	m_Failures[m_Index] = p_Failure;
+	m_SlowCalls[m_Index] = p_Slow;
+	if (p_Failure) {
+	    m_FailureCount++;
+	}
+	if (p_Slow) {
+	    m_SlowCallCount++;
+	}
+	m_Index = (m_Index + 1) % m_WindowSize;
+    }
+
+    /**
+     * Open the circuit
+     */
+    private void open() {
+	m_State = State.OPEN;
+	m_OpenTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Close the circuit and forget recorded calls
+     */
+    private void close() {
+	m_State = State.CLOSED;
+	m_Index = 0;
+	m_CallCount = 0;
+	m_FailureCount = 0;
+	m_SlowCallCount = 0;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+
+public interface ContextCallback<T> {
+
+    /**
+     * Execute an operation with a {@link LdapContext} acquired from a pool.
+     * The context must not be kept or released by the callback: the pool
+     * will release it when the callback returns.
+     * 
+     * @param p_Context
+     *            The context to use
+     * @return The result of the operation
+     * @throws NamingException
+     *             If an error occurs
+     */
+    T doInContext(LdapContext p_Context) throws NamingException;
+}
@@ -0,0 +1,171 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+import java.util.concurrent.Callable;
+
+import javax.naming.TimeLimitExceededException;
+
+public final class Deadline {
+
+    /** Deadline of the operation executed by the current thread */
+    private final static ThreadLocal<Deadline> CURRENT;
+
+    /** Static constructor */
+    static {
+	CURRENT = new ThreadLocal<Deadline>();
+    }
+
+    /** Time (in milliseconds) when the operation has to be finished */
+    private final long m_Time;
+
+    /**
+     * Construct a deadline
+     * 
+     * @param p_Time
+     *            Time (in milliseconds) when the operation has to be finished
+     */
+    private Deadline(long p_Time) {
+	m_Time = p_Time;
+    }
+
+    /**
+     * Return the deadline of the operation executed by the current thread
+     * 
+     * @return The deadline of the current thread, or <code>null</code> if
+     *         there is no deadline
+     */
+    public static Deadline current() {
+	return CURRENT.get();
+    }
+
+    /**
+     * Start an operation that has to be finished before a timeout. If the
+     * current thread already has a deadline that expires earlier, it is kept,
+     * so nested operations never extend the time left to the outer operation.
+     * The previous deadline has to be restored with {@link #restore(Deadline)}
+     * when the operation is finished.
+     * 
+     * @param p_Timeout
+     *            Timeout (in milliseconds) of the operation, or 0 if the
+     *            operation has no timeout of its own
+     * @return The previous deadline of the current thread
+     */
+    public static Deadline start(long p_Timeout) {
+	Deadline previous = CURRENT.get();
+	if (p_Timeout > 0) {
+	    long time = System.currentTimeMillis() + p_Timeout;
+	    if ((previous == null) || (time < previous.m_Time)) {
+		CURRENT.set(new Deadline(time));
+	    }
+	}
+	return previous;
+    }
+
+    /**
+     * Restore the deadline of the current thread. It is used when an
+     * operation is finished, or to give the deadline of an operation to
+     * another thread that execute a part of it.
+     * 
+     * @param p_Deadline
+     *            The deadline, or <code>null</code> to remove the deadline of
+     *            the current thread
+     */
+    public static void restore(Deadline p_Deadline) {
+	if (p_Deadline == null) {
+	    CURRENT.remove();
+	} else {
+	    CURRENT.set(p_Deadline);
+	}
+    }
+
+    /**
+     * Return a task that is executed with the deadline of the current thread,
+     * whatever the thread that execute it. It is used when a part of an
+     * operation is executed by another thread.
+     * 
+     * @param <T>
+     *            Type of the result of the task
+     * @param p_Task
+     *            The task
+     * @return The task executed with the deadline of the current thread
+     */
+    public static <T> Callable<T> propagate(final Callable<T> p_Task) {
+	final Deadline deadline = CURRENT.get();
+	return new Callable<T>() {
+	    public T call() throws Exception {
+		Deadline previous = CURRENT.get();
+		restore(deadline);
+		try {
+		    return p_Task.call();
+		} finally {
+		    restore(previous);
+		}
+	    }
+	};
+    }
+
+    /**
+     * Return the time left to the operation of the current thread
+     * 
+     * @param p_Default
+     *            Value returned if the current thread has no deadline
+     * @return The time left (in milliseconds), 0 if the deadline is expired, or
+     *         the default value if there is no deadline
+     */
+    public static long remaining(long p_Default) {
+	Deadline deadline = CURRENT.get();
+	return (deadline == null) ? p_Default : deadline.getRemaining();
+    }
+
+    /**
+     * Check that the deadline of the current thread is not expired
+     * 
+     * @throws TimeLimitExceededException
+     *             If the deadline is expired
+     */
+    public static void check() throws TimeLimitExceededException {
+	Deadline deadline = CURRENT.get();
+	if ((deadline != null) && deadline.isExpired()) {
+	    throw new TimeLimitExceededException("Deadline exceeded");
+	}
+    }
+
+    /**
+     * Return the time left before the deadline
+     * 
+     * @return The time left (in milliseconds), or 0 if the deadline is
+     *         expired
+     */
+    public long getRemaining() {
+	return Math.max(0, m_Time - System.currentTimeMillis());
+    }
+
+    /**
+     * Return <code>true</code> if the deadline is expired
+     * 
+     * @return <code>true</code> if the deadline is expired,
+     *         <code>false</code> otherwise
+     */
+    public boolean isExpired() {
+	return getRemaining() == 0;
+    }
+}
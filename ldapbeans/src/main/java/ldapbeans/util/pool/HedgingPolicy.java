@@ -0,0 +1,195 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ldapbeans.util.DaemonThreadFactory;
+
+public class HedgingPolicy {
+
+    /** Number of latencies used to compute the hedging delay */
+    private final static int SAMPLE_SIZE = 1000;
+
+    /** Number of recorded latencies between two computations of the delay */
+    private final static int DELAY_REFRESH_INTERVAL = 100;
+
+    /** Percentile of the latencies used as hedging delay */
+    private final double m_Percentile;
+
+    /** Minimum hedging delay (in milliseconds) */
+    private final long m_MinDelay;
+
+    /** Latencies of the last reads */
+    private final LatencyTracker m_Latencies = new LatencyTracker(SAMPLE_SIZE);
+
+    /** Number of latencies recorded since the delay was computed */
+    private final AtomicLong m_RecordedSinceRefresh = new AtomicLong();
+
+    /** Current hedging delay (in milliseconds) */
+    private volatile long m_Delay;
+
+    /** Executor of the hedged requests */
+    private final ExecutorService m_Executor;
+
+    /** Number of reads executed with this policy */
+    private final AtomicLong m_ReadCount = new AtomicLong();
+
+    /** Number of reads for witch a hedged request was sent */
+    private final AtomicLong m_HedgedCount = new AtomicLong();
+
+    /** Number of reads answered first by the hedged request */
+    private final AtomicLong m_HedgeWinCount = new AtomicLong();
+
+    /**
+     * Construct a hedging policy that send a second request when the first
+     * one has not answered after the 95th percentile of the latencies
+     */
+    public HedgingPolicy() {
+	this(95, 5, 50);
+    }
+
+    /**
+     * Construct a hedging policy
+     * 
+     * @param p_Percentile
+     *            Percentile of the latencies of the last reads after witch a
+     *            second request is sent
+     * @param p_MinDelay
+     *            Minimum delay (in milliseconds) before sending a second
+     *            request
+     * @param p_InitialDelay
+     *            Delay (in milliseconds) used until enough latencies are
+     *            recorded
+     */
+    public HedgingPolicy(double p_Percentile, long p_MinDelay,
+	    long p_InitialDelay) {
+	m_Percentile = p_Percentile;
+	m_MinDelay = p_MinDelay;
+	m_Delay = Math.max(p_MinDelay, p_InitialDelay);
+	m_Executor = Executors.newCachedThreadPool(new DaemonThreadFactory(
+		"ldapbeans-hedging"));
+    }
+
+    /**
+     * Return the delay after witch a second request is sent
+     * 
+     * @return The delay in milliseconds
+     */
+    public long getDelay() {
+	return m_Delay;
+    }
+
+    /**
+     * Record the latency of a read. The hedging delay is regularly computed
+     * again from the recorded latencies.
+     * 
+     * @param p_Latency
+     *            The latency in milliseconds
+     */
+    public void record(long p_Latency) {
+	m_Latencies.record(p_Latency);
+	long recorded = m_RecordedSinceRefresh.incrementAndGet();
+	if (recorded >= DELAY_REFRESH_INTERVAL) {
+	    m_RecordedSinceRefresh.set(0);
+	    m_Delay = Math.max(m_MinDelay,
+		    m_Latencies.getPercentile(m_Percentile));
+	}
+    }
+
+    /**
+     * Return the executor of the requests
+     * 
+     * @return The executor of the requests
+     */
+    ExecutorService getExecutor() {
+	return m_Executor;
+    }
+
+    /**
+     * Count a read executed with this policy
+     * 
+     * @param p_Hedged
+     *            <code>true</code> if a second request was sent
+     * @param p_HedgeWon
+     *            <code>true</code> if the second request answered first
+     */
+    void count(boolean p_Hedged, boolean p_HedgeWon) {
+	m_ReadCount.incrementAndGet();
+	if (p_Hedged) {
+	    m_HedgedCount.incrementAndGet();
+	}
+	if (p_HedgeWon) {
+	    m_HedgeWinCount.incrementAndGet();
+	}
+    }
+
+    /**
+     * Return the number of reads executed with this policy
+     * 
+     * @return The number of reads
+     */
+    public long getReadCount() {
+	return m_ReadCount.get();
+    }
+
+    /**
+     * Return the number of reads for witch a second request was sent
+     * 
+     * @return The number of hedged reads
+     */
+    public long getHedgedCount() {
+	return m_HedgedCount.get();
+    }
+
+    /**
+     * Return the number of reads answered first by the second request
+     * 
+     * @return The number of reads won by the hedged request
+     */
+    public long getHedgeWinCount() {
+	return m_HedgeWinCount.get();
+    }
+
+    /**
+     * Return the proportion of reads for witch a second request was sent
+     * 
+     * @return The hedge rate (between 0 and 1)
+     */
+    public double getHedgeRate() {
+	long readCount = m_ReadCount.get();
+	return readCount == 0 ? 0 : (double) m_HedgedCount.get() / readCount;
+    }
+
+    /**
+     * Return the proportion of hedged reads answered first by the second
+     * request
+     * 
+     * @return The hedge win rate (between 0 and 1)
+     */
+    public double getHedgeWinRate() {
+	long hedgedCount = m_HedgedCount.get();
+	return hedgedCount == 0 ? 0 : (double) m_HedgeWinCount.get()
+		/ hedgedCount;
+    }
+}
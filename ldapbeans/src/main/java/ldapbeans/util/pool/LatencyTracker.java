@@ -0,0 +1,89 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+import java.util.Arrays;
+
+public class LatencyTracker {
+
+    /** Last recorded latencies */
+    private final long[] m_Samples;
+
+    /** Index where the next latency will be recorded */
+    private int m_Index = 0;
+
+    /** Number of recorded latencies (limited to the size of the tracker) */
+    private int m_Count = 0;
+
+    /**
+     * Construct a tracker that keep the last latencies
+     * 
+     * @param p_Size
+     *            Number of latencies to keep
+     */
+    public LatencyTracker(int p_Size) {
+	m_Samples = new long[p_Size];
+    }
+
+    /**
+     * Record a latency
+     * 
+     * @param p_Latency
+     *            The latency in milliseconds
+     */
+    public synchronized void record(long p_Latency) {
+	m_Samples[m_Index] = p_Latency;
+	m_Index = (m_Index + 1) % m_Samples.length;
+	if (m_Count < m_Samples.length) {
+	    m_Count++;
+	}
+    }
+
+    /**
+     * Return the number of latencies that are kept
+     * 
+     * @return The number of latencies that are kept
+     */
+    public synchronized int getCount() {
+	return m_Count;
+    }
+
+    /**
+     * Return a percentile of the kept latencies
+     * 
+     * @param p_Percentile
+     *            The percentile (between 0 and 100)
+     * @return The latency in milliseconds, or -1 if no latency was recorded
+     */
+    public long getPercentile(double p_Percentile) {
+	long[] samples;
+	synchronized (this) {
+	    if (m_Count == 0) {
+		return -1;
+	    }
+	    samples = new long[m_Count];
+	    System.arraycopy(m_Samples, 0, samples, 0, m_Count);
+	}
+	Arrays.sort(samples);
+	int index = (int) Math.ceil(p_Percentile * samples.length / 100) - 1;
+	return samples[Math.max(0, Math.min(index, samples.length - 1))];
+    }
+}
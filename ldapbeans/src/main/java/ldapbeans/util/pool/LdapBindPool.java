@@ -0,0 +1,266 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+
+import ldapbeans.util.pool.exception.NotPooledObjectException;
+
+public class LdapBindPool extends LdapContextPool {
+
+    /** User name of the identity of the idle contexts, or <code>null</code> */
+    private final String m_Principal;
+
+    /** Password of the identity of the idle contexts, or <code>null</code> */
+    private final String m_Password;
+
+    /** Contexts whose identity has not been reset */
+    private final Set<LdapContext> m_Unusable;
+
+    /** Time when the metrics have been reset */
+    private volatile long m_StartTime = System.currentTimeMillis();
+
+    /** Number of verifications of credentials */
+    private final AtomicLong m_AuthenticationCount = new AtomicLong();
+
+    /** Number of verifications that succeeded */
+    private final AtomicLong m_SuccessCount = new AtomicLong();
+
+    /** Total time (in milliseconds) spent to verify credentials */
+    private final AtomicLong m_TotalTime = new AtomicLong();
+
+    /**
+     * Construct a pool of {@link LdapContext} used to verify credentials of
+     * users. The contexts re-bind on their connection to verify credentials,
+     * and then re-bind with the identity of the pool, so no connection is
+     * opened for each verification.
+     * 
+     * @param p_Size
+     *            Size of the pool
+     * @param p_Url
+     *            Url of the LDAP directory
+     * @param p_Principal
+     *            User name of the identity of the idle contexts, or
+     *            <code>null</code> for anonymous contexts
+     * @param p_Password
+     *            Password of the identity of the idle contexts, or
+     *            <code>null</code> for anonymous contexts
+     */
+    public LdapBindPool(int p_Size, String p_Url, String p_Principal,
+	    String p_Password) {
+	super(p_Size, p_Url, p_Principal, p_Password);
+	m_Principal = p_Principal;
+	m_Password = p_Password;
+	m_Unusable = Collections.synchronizedSet(new HashSet<LdapContext>());
+    }
+
+    /**
+     * Verify the credentials of a user
+     * 
+     * @param p_Dn
+     *            DN of the user
+     * @param p_Password
+     *            Password of the user
+     * @return <code>true</code> if the credentials are valid,
+     *         <code>false</code> otherwise
+     * @throws NamingException
+     *             If the credentials can not be verified
+     */
+    public boolean authenticate(final String p_Dn, final String p_Password)
+	    throws NamingException {
+	boolean result = false;
+	long start = System.currentTimeMillis();
+	// An empty password would be an unauthenticated bind, that always
+	// succeeds (RFC 4513)
+	if ((p_Dn != null) && (p_Dn.length() > 0) && (p_Password != null)
+		&& (p_Password.length() > 0)) {
+	    result = execute(OperationType.BIND,
+		    new ContextCallback<Boolean>() {
+			public Boolean doInContext(LdapContext p_Context)
+				throws NamingException {
+			    return Boolean.valueOf(bind(p_Context, p_Dn,
+				    p_Password));
+			}
+		    }).booleanValue();
+	}
+	m_AuthenticationCount.incrementAndGet();
+	if (result) {
+	    m_SuccessCount.incrementAndGet();
+	}
+	m_TotalTime.addAndGet(System.currentTimeMillis() - start);
+	return result;
+    }
+
+    /**
+     * Bind a context with the credentials of a user, and then bind it again
+     * with the identity of the pool
+     * 
+     * @param p_Context
+     *            The context
+     * @param p_Dn
+     *            DN of the user
+     * @param p_Password
+     *            Password of the user
+     * @return <code>true</code> if the credentials are valid,
+     *         <code>false</code> otherwise
+     * @throws NamingException
+     *             If an error occurs
+     */
+    private boolean bind(LdapContext p_Context, String p_Dn,
+	    String p_Password) throws NamingException {
+	boolean result = false;
+	p_Context.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+	p_Context.addToEnvironment(Context.SECURITY_PRINCIPAL, p_Dn);
+	p_Context.addToEnvironment(Context.SECURITY_CREDENTIALS, p_Password);
+	try {
+	    p_Context.reconnect(null);
+	    result = true;
+	} catch (AuthenticationException e) {
+	    result = false;
+	} finally {
+	    reset(p_Context);
+	}
+	return result;
+    }
+
+    /**
+     * Bind a context with the identity of the pool. If it fails, the context
+     * is removed from the pool when it is released, since it must not be used
+     * with the identity of a user, or in an unknown state.
+     * 
+     * @param p_Context
+     *            The context
+     */
+    private void reset(LdapContext p_Context) {
+	try {
+	    if ((m_Principal != null) && (m_Password != null)) {
+		p_Context.addToEnvironment(Context.SECURITY_PRINCIPAL,
+			m_Principal);
+		p_Context.addToEnvironment(Context.SECURITY_CREDENTIALS,
+			m_Password);
+	    } else {
+		p_Context.addToEnvironment(Context.SECURITY_AUTHENTICATION,
+			"none");
+		p_Context.removeFromEnvironment(Context.SECURITY_PRINCIPAL);
+		p_Context.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+	    }
+	    p_Context.reconnect(null);
+	} catch (NamingException e) {
+	    m_Unusable.add(p_Context);
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see AbstractPool#release(Object)
+     */
+    @Override
+    public void release(LdapContext p_Object)
+	    throws NotPooledObjectException {
+	if (m_Unusable.remove(p_Object)) {
+	    invalidate(p_Object);
+	} else {
+	    super.release(p_Object);
+	}
+    }
+
+    /**
+     * {@inheritDoc} The context is forgotten, even if its identity has not
+     * been reset, since it is removed from the pool by every path, for
+     * example by {@link #invalidate(Object)} after a connection error.
+     * 
+     * @see LdapContextPool#destroy(LdapContext)
+     */
+    @Override
+    protected void destroy(LdapContext p_Object) {
+	m_Unusable.remove(p_Object);
+	super.destroy(p_Object);
+    }
+
+    /**
+     * Return the number of verifications of credentials
+     * 
+     * @return The number of verifications of credentials
+     */
+    public long getAuthenticationCount() {
+	return m_AuthenticationCount.get();
+    }
+
+    /**
+     * Return the number of verifications that succeeded
+     * 
+     * @return The number of verifications that succeeded
+     */
+    public long getSuccessCount() {
+	return m_SuccessCount.get();
+    }
+
+    /**
+     * Return the number of verifications that failed because of invalid
+     * credentials
+     * 
+     * @return The number of verifications that failed
+     */
+    public long getFailureCount() {
+	return m_AuthenticationCount.get() - m_SuccessCount.get();
+    }
+
+    /**
+     * Return the average time spent to verify credentials
+     * 
+     * @return The average time in milliseconds
+     */
+    public double getAverageTime() {
+	long count = m_AuthenticationCount.get();
+	return (count == 0) ? 0 : (double) m_TotalTime.get() / count;
+    }
+
+    /**
+     * Return the number of verifications of credentials per second since the
+     * metrics have been reset
+     * 
+     * @return The number of verifications per second
+     */
+    public double getThroughput() {
+	long duration = System.currentTimeMillis() - m_StartTime;
+	return (duration <= 0) ? 0 : m_AuthenticationCount.get() * 1000d
+		/ duration;
+    }
+
+    /**
+     * Reset the metrics of the pool
+     */
+    public void resetMetrics() {
+	m_AuthenticationCount.set(0);
+	m_SuccessCount.set(0);
+	m_TotalTime.set(0);
+	m_StartTime = System.currentTimeMillis();
+    }
+}
@@ -21,23 +21,55 @@
 package ldapbeans.util.pool;
 
 import java.util.Hashtable;
+import java.util.concurrent.Semaphore;
 
+import javax.naming.CommunicationException;
 import javax.naming.Context;
 import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.TimeLimitExceededException;
 import javax.naming.directory.DirContext;
 import javax.naming.ldap.InitialLdapContext;
 import javax.naming.ldap.LdapContext;
 
+import ldapbeans.config.LdapbeansConfiguration;
+import ldapbeans.util.pool.exception.BulkheadFullException;
+import ldapbeans.util.pool.exception.CircuitBreakerOpenException;
 import ldapbeans.util.pool.exception.PooledObjectCreationExeption;
 import ldapbeans.util.pool.exception.NotValidObjectException;
 
 public class LdapContextPool extends AbstractPool<LdapContext> {
 
+    /** the configuration */
+    private final static LdapbeansConfiguration CONFIG = LdapbeansConfiguration
+	    .getInstance();
+
     private final String m_Url;
     private final String m_Principal;
     private final String m_Password;
     private String m_TestObject = null;
 
+    /** Policy used to retry read operations that failed */
+    private volatile RetryPolicy m_RetryPolicy = new RetryPolicy(3, 50, 1000);
+
+    /** Circuit breaker of the directory, or <code>null</code> */
+    private volatile CircuitBreaker m_CircuitBreaker = new CircuitBreaker();
+
+    /** Limits of concurrent operations, or <code>null</code> */
+    private volatile Bulkhead m_Bulkhead = null;
+
+    /** Capacity shared by the priorities of operations, or <code>null</code> */
+    private volatile PriorityGate m_PriorityGate = null;
+
+    /** Adaptive limit of the operations in flight, or <code>null</code> */
+    private volatile AdaptiveLimit m_AdaptiveLimit = null;
+
+    /** Timeout (in milliseconds) of the connection to the directory */
+    private volatile long m_ConnectTimeout = CONFIG.getConnectTimeout();
+
+    /** Timeout (in milliseconds) of the responses of the directory */
+    private volatile long m_ReadTimeout = CONFIG.getReadTimeout();
+
     /**
      * Construct a {@link Pool} of {@link LdapContext}
      * 
@@ -69,26 +101,98 @@ public class LdapContextPool extends AbstractPool<LdapContext> {
     @Override
     protected LdapContext create() throws PooledObjectCreationExeption {
 	LdapContext context = null;
-	Hashtable<String, String> environment = new Hashtable<String, String>();
 	try {
-	    environment.put(DirContext.INITIAL_CONTEXT_FACTORY,
-		    "com.sun.jndi.ldap.LdapCtxFactory");
-	    environment.put(DirContext.PROVIDER_URL, m_Url);
-	    environment.put("com.sun.jndi.ldap.connect.pool", "false");
-	    environment.put(Context.REFERRAL, "follow");
-	    if ((m_Principal != null) && (m_Password != null)) {
-		environment.put(Context.SECURITY_AUTHENTICATION, "simple");
-		environment.put(Context.SECURITY_PRINCIPAL, m_Principal);
-		environment.put(Context.SECURITY_CREDENTIALS, m_Password);
-	    }
-
-	    context = new InitialLdapContext(environment, null);
+	    context = createContext(m_ReadTimeout);
 	} catch (NamingException e) {
 	    throw new PooledObjectCreationExeption(e);
 	}
 	return context;
     }
 
+    /**
+     * Create a context that is not managed by the pool, for long lived
+     * operations like the notifications of the changes of the directory. The
+     * context has no read timeout, and has to be closed by the caller.
+     * 
+     * @return A new context
+     * @throws NamingException
+     *             If the context can not be created
+     */
+    public LdapContext createUnpooledContext() throws NamingException {
+	return createContext(0);
+    }
+
+    /**
+     * Create a context connected to the directory
+     * 
+     * @param p_ReadTimeout
+     *            The timeout (in milliseconds) of the responses of the
+     *            directory, or 0 if there is no timeout
+     * @return A new context
+     * @throws NamingException
+     *             If the context can not be created
+     */
+    private LdapContext createContext(long p_ReadTimeout)
+	    throws NamingException {
+	Hashtable<String, String> environment = new Hashtable<String, String>();
+	environment.put(DirContext.INITIAL_CONTEXT_FACTORY,
+		"com.sun.jndi.ldap.LdapCtxFactory");
+	environment.put(DirContext.PROVIDER_URL, m_Url);
+	environment.put("com.sun.jndi.ldap.connect.pool", "false");
+	environment.put(Context.REFERRAL, "follow");
+	long connectTimeout = getConnectTimeout(m_ConnectTimeout);
+	if (connectTimeout > 0) {
+	    environment.put("com.sun.jndi.ldap.connect.timeout", String
+		    .valueOf(connectTimeout));
+	}
+	if (p_ReadTimeout > 0) {
+	    environment.put("com.sun.jndi.ldap.read.timeout", String
+		    .valueOf(p_ReadTimeout));
+	}
+	if ((m_Principal != null) && (m_Password != null)) {
+	    environment.put(Context.SECURITY_AUTHENTICATION, "simple");
+	    environment.put(Context.SECURITY_PRINCIPAL, m_Principal);
+	    environment.put(Context.SECURITY_CREDENTIALS, m_Password);
+	}
+	return new InitialLdapContext(environment, null);
+    }
+
+    /**
+     * Return the timeout of a new connection. A connection created during an
+     * operation that has a deadline must not wait longer than the time left
+     * to the operation.
+     * 
+     * @param p_ConnectTimeout
+     *            The timeout of the connections of the pool, or 0 if there is
+     *            no timeout
+     * @return The timeout of the new connection, or 0 if there is no timeout
+     */
+    private static long getConnectTimeout(long p_ConnectTimeout) {
+	long result = p_ConnectTimeout;
+	Deadline deadline = Deadline.current();
+	if (deadline != null) {
+	    long remaining = Math.max(1, deadline.getRemaining());
+	    if ((result <= 0) || (remaining < result)) {
+		result = remaining;
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see AbstractPool#destroy(Object)
+     */
+    @Override
+    protected void destroy(LdapContext p_Object) {
+	try {
+	    p_Object.close();
+	} catch (NamingException e) {
+	    // Nothing to do, the context is not used anymore
+	}
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -123,4 +227,360 @@ public class LdapContextPool extends AbstractPool<LdapContext> {
 	m_TestObject = p_Dn;
     }
 
+    /**
+     * Return the URL of the LDAP directory
+     * 
+     * @return The URL of the LDAP directory
+     */
+    public String getUrl() {
+	return m_Url;
+    }
+
+    /**
+     * Change the timeout of the connection to the directory. It is used for
+     * new connections.
+     * 
+     * @param p_ConnectTimeout
+     *            The timeout (in milliseconds), or 0 if there is no timeout
+     */
+    public void setConnectTimeout(long p_ConnectTimeout) {
+	m_ConnectTimeout = p_ConnectTimeout;
+    }
+
+    /**
+     * Return the timeout of the connection to the directory
+     * 
+     * @return The timeout (in milliseconds), or 0 if there is no timeout
+     */
+    public long getConnectTimeout() {
+	return m_ConnectTimeout;
+    }
+
+    /**
+     * Change the timeout of the responses of the directory. It is used for
+     * new connections.
+     * 
+     * @param p_ReadTimeout
+     *            The timeout (in milliseconds), or 0 if there is no timeout
+     */
+    public void setReadTimeout(long p_ReadTimeout) {
+	m_ReadTimeout = p_ReadTimeout;
+    }
+
+    /**
+     * Return the timeout of the responses of the directory
+     * 
+     * @return The timeout (in milliseconds), or 0 if there is no timeout
+     */
+    public long getReadTimeout() {
+	return m_ReadTimeout;
+    }
+
+    /**
+     * Change the policy used to retry read operations that failed because of
+     * a connection error
+     * 
+     * @param p_RetryPolicy
+     *            The retry policy
+     */
+    public void setRetryPolicy(RetryPolicy p_RetryPolicy) {
+	m_RetryPolicy = p_RetryPolicy;
+    }
+
+    /**
+     * Return the policy used to retry read operations that failed because of
+     * a connection error
+     * 
+     * @return The retry policy
+     */
+    public RetryPolicy getRetryPolicy() {
+	return m_RetryPolicy;
+    }
+
+    /**
+     * Change the circuit breaker of the directory. When the circuit is open,
+     * operations fail immediately instead of waiting for a broken directory.
+     * 
+     * @param p_CircuitBreaker
+     *            The circuit breaker, or <code>null</code> to disable it
+     */
+    public void setCircuitBreaker(CircuitBreaker p_CircuitBreaker) {
+	m_CircuitBreaker = p_CircuitBreaker;
+    }
+
+    /**
+     * Return the circuit breaker of the directory
+     * 
+     * @return The circuit breaker, or <code>null</code> if it is disabled
+     */
+    public CircuitBreaker getCircuitBreaker() {
+	return m_CircuitBreaker;
+    }
+
+    /**
+     * Change the limits of concurrent operations
+     * 
+     * @param p_Bulkhead
+     *            The limits of concurrent operations, or <code>null</code>
+     *            for no limit
+     */
+    public void setBulkhead(Bulkhead p_Bulkhead) {
+	m_Bulkhead = p_Bulkhead;
+    }
+
+    /**
+     * Return the limits of concurrent operations
+     * 
+     * @return The limits of concurrent operations, or <code>null</code> if
+     *         there is no limit
+     */
+    public Bulkhead getBulkhead() {
+	return m_Bulkhead;
+    }
+
+    /**
+     * Change the capacity shared by the priorities of operations. The
+     * priority of an operation is the {@link Priority} of the thread that
+     * execute it.
+     * 
+     * @param p_PriorityGate
+     *            The capacity shared by the priorities, or <code>null</code>
+     *            for no limit
+     */
+    public void setPriorityGate(PriorityGate p_PriorityGate) {
+	m_PriorityGate = p_PriorityGate;
+    }
+
+    /**
+     * Return the capacity shared by the priorities of operations
+     * 
+     * @return The capacity shared by the priorities, or <code>null</code> if
+     *         there is no limit
+     */
+    public PriorityGate getPriorityGate() {
+	return m_PriorityGate;
+    }
+
+    /**
+     * Change the adaptive limit of the operations in flight. The limit grows
+     * or shrinks with the latency of the directory, instead of depending on
+     * the size of the pool.
+     * 
+     * @param p_AdaptiveLimit
+     *            The adaptive limit, or <code>null</code> for no limit
+     */
+    public void setAdaptiveLimit(AdaptiveLimit p_AdaptiveLimit) {
+	m_AdaptiveLimit = p_AdaptiveLimit;
+    }
+
+    /**
+     * Return the adaptive limit of the operations in flight
+     * 
+     * @return The adaptive limit, or <code>null</code> if there is no limit
+     */
+    public AdaptiveLimit getAdaptiveLimit() {
+	return m_AdaptiveLimit;
+    }
+
+    /**
+     * Execute an operation with a context of the pool. The context is always
+     * released, or removed from the pool if a connection error occurs. Read
+     * only operations that failed because of a connection error are retried
+     * depending on the {@link RetryPolicy} of the pool.
+     * <p>
+     * The operation fails immediately with a
+     * {@link CircuitBreakerOpenException} if the circuit breaker is open, or
+     * with a {@link BulkheadFullException} if too many operations of the same
+     * type or of the same {@link Priority} are running, or if the
+     * {@link AdaptiveLimit} of operations in flight is reached.
+     * </p>
+     * <p>
+     * If the current thread has a {@link Deadline}, the operation fails with
+     * a {@link TimeLimitExceededException} when it is expired, and it is not
+     * retried if the deadline would expire before the next attempt.
+     * </p>
+     * 
+     * @param <T>
+     *            Type of the result of the operation
+     * @param p_Type
+     *            Type of the operation
+     * @param p_Callback
+     *            The operation to execute
+     * @return The result of the operation
+     * @throws NamingException
+     *             If an error occurs
+     */
+    public <T> T execute(OperationType p_Type, ContextCallback<T> p_Callback)
+	    throws NamingException {
+	int attempt = 1;
+	while (true) {
+	    Deadline.check();
+	    try {
+		return executeOnce(p_Type, p_Callback);
+	    } catch (NamingException e) {
+		if (!isConnectionError(e) || !waitRetry(p_Type, attempt++)) {
+		    throw e;
+		}
+	    } catch (PooledObjectCreationExeption e) {
+		if (!waitRetry(p_Type, attempt++)) {
+		    throw e;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Execute an operation once, if the circuit breaker and the bulkhead
+     * permit it
+     * 
+     * @param <T>
+     *            Type of the result of the operation
+     * @param p_Type
+     *            Type of the operation
+     * @param p_Callback
+     *            The operation to execute
+     * @return The result of the operation
+     * @throws NamingException
+     *             If an error occurs
+     */
+    private <T> T executeOnce(OperationType p_Type,
+	    ContextCallback<T> p_Callback) throws NamingException {
+	CircuitBreaker circuitBreaker = m_CircuitBreaker;
+	Bulkhead bulkhead = m_Bulkhead;
+	PriorityGate priorityGate = m_PriorityGate;
+	AdaptiveLimit adaptiveLimit = m_AdaptiveLimit;
+	Priority priority = Priority.current();
+	Semaphore permit = null;
+	boolean prioritized = false;
+	if ((circuitBreaker != null)
+		&& !circuitBreaker.tryAcquirePermission()) {
+	    throw new CircuitBreakerOpenException(
+		    "Circuit breaker is open for " + m_Url);
+	}
+	try {
+	    if (bulkhead != null) {
+		permit = bulkhead.acquire(p_Type);
+	    }
+	    if (priorityGate != null) {
+		priorityGate.acquire(priority);
+		prioritized = true;
+	    }
+	    if (adaptiveLimit != null) {
+		adaptiveLimit.acquire();
+	    }
+	} catch (BulkheadFullException e) {
+	    if (prioritized) {
+		priorityGate.release(priority);
+	    }
+	    if (permit != null) {
+		permit.release();
+	    }
+	    if (circuitBreaker != null) {
+		circuitBreaker.releasePermission();
+	    }
+	    throw e;
+	}
+	long start = System.currentTimeMillis();
+	long startNanos = System.nanoTime();
+	boolean failure = false;
+	boolean dropped = false;
+	try {
+	    return executeWithContext(p_Callback);
+	} catch (NamingException e) {
+	    failure = isConnectionError(e);
+	    dropped = failure || (e instanceof TimeLimitExceededException);
+	    throw e;
+	} catch (PooledObjectCreationExeption e) {
+	    failure = true;
+	    dropped = true;
+	    throw e;
+	} finally {
+	    if (adaptiveLimit != null) {
+		adaptiveLimit.release(System.nanoTime() - startNanos, dropped);
+	    }
+	    if (priorityGate != null) {
+		priorityGate.release(priority);
+	    }
+	    if (permit != null) {
+		permit.release();
+	    }
+	    if (circuitBreaker != null) {
+		circuitBreaker.onResult(failure, System.currentTimeMillis()
+			- start);
+	    }
+	}
+    }
+
+    /**
+     * Execute an operation once with a context of the pool
+     * 
+     * @param <T>
+     *            Type of the result of the operation
+     * @param p_Callback
+     *            The operation to execute
+     * @return The result of the operation
+     * @throws NamingException
+     *             If an error occurs
+     */
+    private <T> T executeWithContext(ContextCallback<T> p_Callback)
+	    throws NamingException {
+	LdapContext context = acquire();
+	try {
+	    return p_Callback.doInContext(context);
+	} catch (NamingException e) {
+	    if (isConnectionError(e)) {
+		// The connection is broken, and other idle connections have
+		// probably been broken by the same failure
+		invalidate(context);
+		context = null;
+		invalidateAvailable();
+	    }
+	    throw e;
+	} finally {
+	    if (context != null) {
+		release(context);
+	    }
+	}
+    }
+
+    /**
+     * Wait before retrying an operation
+     * 
+     * @param p_Type
+     *            Type of the operation
+     * @param p_Attempt
+     *            Number of the attempt that failed
+     * @return <code>true</code> if the operation has to be retried,
+     *         <code>false</code> otherwise
+     */
+    private boolean waitRetry(OperationType p_Type, int p_Attempt) {
+	boolean retry = false;
+	RetryPolicy retryPolicy = m_RetryPolicy;
+	long delay = retryPolicy.getDelay(p_Attempt);
+	// The operation is not retried if the next attempt would be too late
+	if (p_Type.isReadOnly() && (p_Attempt < retryPolicy.getMaxAttempts())
+		&& (delay < Deadline.remaining(Long.MAX_VALUE))) {
+	    try {
+		Thread.sleep(delay);
+		retry = true;
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+	return retry;
+    }
+
+    /**
+     * Return <code>true</code> if the exception means that the connection to
+     * the directory is broken, <code>false</code> otherwise
+     * 
+     * @param p_Exception
+     *            The exception to check
+     * @return <code>true</code> if the exception means that the connection to
+     *         the directory is broken, <code>false</code> otherwise
+     */
+    protected boolean isConnectionError(NamingException p_Exception) {
+	return (p_Exception instanceof CommunicationException)
+		|| (p_Exception instanceof ServiceUnavailableException);
+    }
 }
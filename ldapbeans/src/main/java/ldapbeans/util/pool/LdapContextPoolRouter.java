@@ -0,0 +1,552 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import javax.naming.TimeLimitExceededException;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+import ldapbeans.util.pool.exception.RateLimitExceededException;
+
+public class LdapContextPoolRouter {
+
+    /** Pool of {@link LdapContext} connected to the writable directory */
+    private final LdapContextPool m_PrimaryPool;
+
+    /** Pools of {@link LdapContext} connected to the read replicas */
+    private final List<LdapContextPool> m_ReplicaPools;
+
+    /** Index of the next replica to use */
+    private final AtomicInteger m_NextReplica;
+
+    /**
+     * Time (in milliseconds) during witch a thread that has written in the
+     * directory will read from the primary directory
+     */
+    private volatile long m_ReadYourWritesWindow = 0;
+
+    /** Time of the last write of the current thread */
+    private final ThreadLocal<Long> m_LastWriteTime;
+
+    /** Policy used to hedge reads, or <code>null</code> */
+    private volatile HedgingPolicy m_HedgingPolicy = null;
+
+    /** Limiter of the rate of operations, or <code>null</code> */
+    private volatile RateLimiter m_RateLimiter = null;
+
+    /**
+     * Control sent with every operation to execute it as another user, or
+     * <code>null</code> to execute operations as the user of the pools
+     */
+    private final ProxiedAuthorizationControl m_ProxiedAuthorization;
+
+    /**
+     * Construct a router that send all operations to the same pool
+     * 
+     * @param p_Pool
+     *            Pool of {@link LdapContext}
+     */
+    public LdapContextPoolRouter(LdapContextPool p_Pool) {
+	this(p_Pool, null);
+    }
+
+    /**
+     * Construct a router that send write operations to the primary pool and
+     * read operations to the replica pools
+     * 
+     * @param p_PrimaryPool
+     *            Pool of {@link LdapContext} connected to the writable
+     *            directory
+     * @param p_ReplicaPools
+     *            Pools of {@link LdapContext} connected to the read replicas,
+     *            or <code>null</code> if there is no replica
+     */
+    public LdapContextPoolRouter(LdapContextPool p_PrimaryPool,
+	    List<LdapContextPool> p_ReplicaPools) {
+	m_PrimaryPool = p_PrimaryPool;
+	if (p_ReplicaPools == null) {
+	    m_ReplicaPools = Collections.emptyList();
+	} else {
+	    m_ReplicaPools = Collections
+		    .unmodifiableList(new ArrayList<LdapContextPool>(
+			    p_ReplicaPools));
+	}
+	m_NextReplica = new AtomicInteger();
+	m_LastWriteTime = new ThreadLocal<Long>();
+	m_ProxiedAuthorization = null;
+    }
+
+    /**
+     * Construct a router that share the pools of another router, and execute
+     * operations as another user
+     * 
+     * @param p_Router
+     *            The router that own the pools
+     * @param p_ProxiedAuthorization
+     *            Control sent with every operation
+     */
+    private LdapContextPoolRouter(LdapContextPoolRouter p_Router,
+	    ProxiedAuthorizationControl p_ProxiedAuthorization) {
+	m_PrimaryPool = p_Router.m_PrimaryPool;
+	m_ReplicaPools = p_Router.m_ReplicaPools;
+	m_NextReplica = p_Router.m_NextReplica;
+	// Writes of a user have to be seen by reads of the other users
+	m_LastWriteTime = p_Router.m_LastWriteTime;
+	m_ReadYourWritesWindow = p_Router.m_ReadYourWritesWindow;
+	m_HedgingPolicy = p_Router.m_HedgingPolicy;
+	m_RateLimiter = p_Router.m_RateLimiter;
+	m_ProxiedAuthorization = p_ProxiedAuthorization;
+    }
+
+    /**
+     * Return a router that share the pools of this router, but execute every
+     * operation as another user, with the proxied authorization control (RFC
+     * 4370). The user of the pools must be allowed to use this control. The
+     * settings of this router are copied to the new router.
+     * 
+     * @param p_Dn
+     *            DN of the user
+     * @return A router that execute operations as the user
+     */
+    public LdapContextPoolRouter proxiedAs(String p_Dn) {
+	return new LdapContextPoolRouter(this, ProxiedAuthorizationControl
+		.forDn(p_Dn));
+    }
+
+    /**
+     * Return the control sent with every operation to execute it as another
+     * user
+     * 
+     * @return The proxied authorization control, or <code>null</code> if
+     *         operations are executed as the user of the pools
+     */
+    public ProxiedAuthorizationControl getProxiedAuthorization() {
+	return m_ProxiedAuthorization;
+    }
+
+    /**
+     * Return the pool to use for an operation. Write operations always use
+     * the primary pool. Read operations use the replica pools (round robin),
+     * unless there is no replica or the current thread is pinned to the
+     * primary pool because it has written recently.
+     * 
+     * @param p_Type
+     *            The type of the operation
+     * @return The pool to use for the operation
+     */
+    public LdapContextPool getPool(OperationType p_Type) {
+	LdapContextPool pool;
+	if (!p_Type.isReadOnly() || m_ReplicaPools.isEmpty()
+		|| isPinnedToPrimary()) {
+	    pool = m_PrimaryPool;
+	} else {
+	    pool = m_ReplicaPools.get(nextReplicaIndex());
+	}
+	return pool;
+    }
+
+    /**
+     * Return the index of the next replica to use
+     * 
+     * @return The index of the next replica to use
+     */
+    private int nextReplicaIndex() {
+	return (m_NextReplica.getAndIncrement() & Integer.MAX_VALUE)
+		% m_ReplicaPools.size();
+    }
+
+    /**
+     * Execute an operation with a context of the pool corresponding to the
+     * type of the operation
+     * 
+     * @param <T>
+     *            Type of the result of the operation
+     * @param p_Type
+     *            Type of the operation
+     * @param p_Callback
+     *            The operation to execute
+     * @return The result of the operation
+     * @throws NamingException
+     *             If an error occurs
+     * @see LdapContextPool#execute(OperationType, ContextCallback)
+     */
+    public <T> T execute(OperationType p_Type, ContextCallback<T> p_Callback)
+	    throws NamingException {
+	T result;
+	ContextCallback<T> callback = authorize(p_Callback);
+	HedgingPolicy hedgingPolicy = m_HedgingPolicy;
+	RateLimiter rateLimiter = throttle(p_Type);
+	long start = System.currentTimeMillis();
+	try {
+	    if ((hedgingPolicy != null) && (p_Type == OperationType.READ)
+		    && (m_ReplicaPools.size() > 1) && !isPinnedToPrimary()) {
+		result = executeHedged(callback, hedgingPolicy);
+	    } else {
+		result = getPool(p_Type).execute(p_Type, callback);
+	    }
+	} finally {
+	    if (rateLimiter != null) {
+		rateLimiter.record(p_Type, System.currentTimeMillis() - start);
+	    }
+	}
+	if (!p_Type.isReadOnly()) {
+	    written();
+	}
+	return result;
+    }
+
+    /**
+     * Execute an operation with the primary pool, whatever the type of the
+     * operation. It is used to read data that is about to be written.
+     * 
+     * @param <T>
+     *            Type of the result of the operation
+     * @param p_Type
+     *            Type of the operation
+     * @param p_Callback
+     *            The operation to execute
+     * @return The result of the operation
+     * @throws NamingException
+     *             If an error occurs
+     * @see LdapContextPool#execute(OperationType, ContextCallback)
+     */
+    public <T> T executeOnPrimary(OperationType p_Type,
+	    ContextCallback<T> p_Callback) throws NamingException {
+	T result;
+	RateLimiter rateLimiter = throttle(p_Type);
+	long start = System.currentTimeMillis();
+	try {
+	    result = m_PrimaryPool.execute(p_Type, authorize(p_Callback));
+	} finally {
+	    if (rateLimiter != null) {
+		rateLimiter.record(p_Type, System.currentTimeMillis() - start);
+	    }
+	}
+	if (!p_Type.isReadOnly()) {
+	    written();
+	}
+	return result;
+    }
+
+    /**
+     * Take the token of an operation from the rate limiter of this router
+     * 
+     * @param p_Type
+     *            Type of the operation
+     * @return The rate limiter, or <code>null</code> if there is no limit
+     * @throws NamingException
+     *             If the token has not been received in time
+     */
+    private RateLimiter throttle(OperationType p_Type) throws NamingException {
+	RateLimiter rateLimiter = m_RateLimiter;
+	if (rateLimiter != null) {
+	    if (rateLimiter.isBlocking()) {
+		rateLimiter.acquire(p_Type);
+	    } else if (!rateLimiter.tryAcquire(p_Type)) {
+		throw new RateLimitExceededException("Too many " + p_Type
+			+ " operations per second");
+	    }
+	}
+	return rateLimiter;
+    }
+
+    /**
+     * Return the operation to execute with the identity of this router. If
+     * operations are executed as another user, the proxied authorization
+     * control is set on the context during the operation. The pooled context
+     * is always restored without request controls.
+     * 
+     * @param <T>
+     *            Type of the result of the operation
+     * @param p_Callback
+     *            The operation
+     * @return The operation to execute
+     */
+    private <T> ContextCallback<T> authorize(
+	    final ContextCallback<T> p_Callback) {
+	ContextCallback<T> result = p_Callback;
+	if (m_ProxiedAuthorization != null) {
+	    final Control[] controls = new Control[] { m_ProxiedAuthorization };
+	    result = new ContextCallback<T>() {
+		public T doInContext(LdapContext p_Context)
+			throws NamingException {
+		    p_Context.setRequestControls(controls);
+		    try {
+			return p_Callback.doInContext(p_Context);
+		    } finally {
+			p_Context.setRequestControls(null);
+		    }
+		}
+	    };
+	}
+	return result;
+    }
+
+    /**
+     * Execute a read on a replica. If the replica has not answered after the
+     * delay of the hedging policy, the same read is sent to another replica.
+     * The first answer is returned and the other request is cancelled.
+     * 
+     * @param <T>
+     *            Type of the result of the operation
+     * @param p_Callback
+     *            The read to execute. It must not have side effects, since it
+     *            may be executed twice.
+     * @param p_HedgingPolicy
+     *            The hedging policy
+     * @return The result of the operation
+     * @throws NamingException
+     *             If an error occurs
+     */
+    private <T> T executeHedged(ContextCallback<T> p_Callback,
+	    HedgingPolicy p_HedgingPolicy) throws NamingException {
+	int index = nextReplicaIndex();
+	LdapContextPool firstPool = m_ReplicaPools.get(index);
+	LdapContextPool secondPool = m_ReplicaPools.get((index + 1)
+		% m_ReplicaPools.size());
+	CompletionService<T> completionService;
+	completionService = new ExecutorCompletionService<T>(p_HedgingPolicy
+		.getExecutor());
+	long start = System.currentTimeMillis();
+	Future<T> first = completionService.submit(createReadTask(firstPool,
+		p_Callback));
+	Future<T> second = null;
+	long secondStart = start;
+	Future<T> done = null;
+	NamingException namingException = null;
+	RuntimeException runtimeException = null;
+	try {
+	    done = completionService.poll(Math.min(p_HedgingPolicy.getDelay(),
+		    Deadline.remaining(Long.MAX_VALUE)), TimeUnit.MILLISECONDS);
+	    if (done == null) {
+		Deadline.check();
+		secondStart = System.currentTimeMillis();
+		second = completionService.submit(createReadTask(secondPool,
+			p_Callback));
+	    }
+	    int pending = (second == null) ? 1 : 2;
+	    if (done != null) {
+		pending--;
+	    }
+	    while (true) {
+		if (done == null) {
+		    done = completionService.poll(Deadline
+			    .remaining(Long.MAX_VALUE), TimeUnit.MILLISECONDS);
+		    if (done == null) {
+			throw new TimeLimitExceededException(
+				"Deadline exceeded");
+		    }
+		    pending--;
+		}
+		try {
+		    T result = done.get();
+		    // The latency of the replica that answered is measured
+		    // from its own request, not from the first one
+		    p_HedgingPolicy.record(System.currentTimeMillis()
+			    - ((done == second) ? secondStart : start));
+		    p_HedgingPolicy.count(second != null, done == second);
+		    return result;
+		} catch (ExecutionException e) {
+		    Throwable cause = e.getCause();
+		    if ((namingException == null)
+			    && (runtimeException == null)) {
+			if (cause instanceof NamingException) {
+			    namingException = (NamingException) cause;
+			} else if (cause instanceof RuntimeException) {
+			    runtimeException = (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+			    throw (Error) cause;
+			} else {
+			    runtimeException = new RuntimeException(cause);
+			}
+		    }
+		    if (pending == 0) {
+			// All requests failed, the first error is reported
+			p_HedgingPolicy.count(second != null, false);
+			if (namingException != null) {
+			    throw namingException;
+			}
+			throw runtimeException;
+		    }
+		    // Wait for the other request
+		    done = null;
+		}
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedNamingException();
+	} finally {
+	    // The slowest request is abandoned
+	    first.cancel(true);
+	    if (second != null) {
+		second.cancel(true);
+	    }
+	}
+    }
+
+    /**
+     * Create a task that execute a read with a context of a pool. The task
+     * has the same deadline and priority than the current thread.
+     * 
+     * @param <T>
+     *            Type of the result of the operation
+     * @param p_Pool
+     *            The pool to use
+     * @param p_Callback
+     *            The read to execute
+     * @return The task that execute the read
+     */
+    private static <T> Callable<T> createReadTask(final LdapContextPool p_Pool,
+	    final ContextCallback<T> p_Callback) {
+	return Priority.propagate(Deadline.propagate(new Callable<T>() {
+	    public T call() throws NamingException {
+		return p_Pool.execute(OperationType.READ, p_Callback);
+	    }
+	}));
+    }
+
+    /**
+     * Change the policy used to hedge reads of a single entry. Hedging
+     * requires at least two replicas.
+     * 
+     * @param p_HedgingPolicy
+     *            The hedging policy, or <code>null</code> to disable hedging
+     */
+    public void setHedgingPolicy(HedgingPolicy p_HedgingPolicy) {
+	m_HedgingPolicy = p_HedgingPolicy;
+    }
+
+    /**
+     * Return the policy used to hedge reads of a single entry
+     * 
+     * @return The hedging policy, or <code>null</code> if hedging is disabled
+     */
+    public HedgingPolicy getHedgingPolicy() {
+	return m_HedgingPolicy;
+    }
+
+    /**
+     * Change the limiter of the rate of operations. Routers of other users
+     * created afterward share the same limiter.
+     * 
+     * @param p_RateLimiter
+     *            The rate limiter, or <code>null</code> for no limit
+     * @see #proxiedAs(String)
+     */
+    public void setRateLimiter(RateLimiter p_RateLimiter) {
+	m_RateLimiter = p_RateLimiter;
+    }
+
+    /**
+     * Return the limiter of the rate of operations
+     * 
+     * @return The rate limiter, or <code>null</code> if there is no limit
+     */
+    public RateLimiter getRateLimiter() {
+	return m_RateLimiter;
+    }
+
+    /**
+     * Return the pool connected to the writable directory
+     * 
+     * @return The pool connected to the writable directory
+     */
+    public LdapContextPool getPrimaryPool() {
+	return m_PrimaryPool;
+    }
+
+    /**
+     * Return the pools connected to the read replicas
+     * 
+     * @return The pools connected to the read replicas
+     */
+    public List<LdapContextPool> getReplicaPools() {
+	return m_ReplicaPools;
+    }
+
+    /**
+     * Notify the router that the current thread has written in the directory
+     */
+    public void written() {
+	if (m_ReadYourWritesWindow > 0) {
+	    m_LastWriteTime.set(Long.valueOf(System.currentTimeMillis()));
+	}
+    }
+
+    /**
+     * Return <code>true</code> if the current thread has to read from the
+     * primary directory, <code>false</code> otherwise
+     * 
+     * @return <code>true</code> if the current thread has to read from the
+     *         primary directory, <code>false</code> otherwise
+     */
+    public boolean isPinnedToPrimary() {
+	boolean pinned = false;
+	Long lastWriteTime = m_LastWriteTime.get();
+	if (lastWriteTime != null) {
+	    long elapsed = System.currentTimeMillis()
+		    - lastWriteTime.longValue();
+	    if (elapsed < m_ReadYourWritesWindow) {
+		pinned = true;
+	    } else {
+		m_LastWriteTime.remove();
+	    }
+	}
+	return pinned;
+    }
+
+    /**
+     * Return the read-your-writes window
+     * 
+     * @return Time (in milliseconds) during witch a thread that has written in
+     *         the directory will read from the primary directory
+     */
+    public long getReadYourWritesWindow() {
+	return m_ReadYourWritesWindow;
+    }
+
+    /**
+     * Change the read-your-writes window. After a write, the thread will read
+     * from the primary directory during this time, so it will not read stale
+     * entries from a replica that has not been updated yet.
+     * 
+     * @param p_ReadYourWritesWindow
+     *            Time (in milliseconds) during witch a thread that has written
+     *            in the directory will read from the primary directory, or 0
+     *            to disable
+     */
+    public void setReadYourWritesWindow(long p_ReadYourWritesWindow) {
+	m_ReadYourWritesWindow = p_ReadYourWritesWindow;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+public enum OperationType {
+    /** Read of a single entry from its DN */
+    READ(true),
+    /** Search in the directory */
+    SEARCH(true),
+    /** Creation, modification, rename or removal of an entry */
+    WRITE(false),
+    /** Verification of the credentials of a user */
+    BIND(true);
+
+    /** Flag that indicate if the operation does not modify the directory */
+    private final boolean m_ReadOnly;
+
+    /**
+     * Constructor
+     * 
+     * @param p_ReadOnly
+     *            <code>true</code> if the operation does not modify the
+     *            directory
+     */
+    private OperationType(boolean p_ReadOnly) {
+	m_ReadOnly = p_ReadOnly;
+    }
+
+    /**
+     * Return <code>true</code> if the operation does not modify the directory,
+     * <code>false</code> otherwise.
+     * 
+     * @return <code>true</code> if the operation does not modify the
+     *         directory, <code>false</code> otherwise.
+     */
+    public boolean isReadOnly() {
+	return m_ReadOnly;
+    }
+}
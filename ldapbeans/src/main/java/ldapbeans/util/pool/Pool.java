@@ -47,6 +47,17 @@ public interface Pool<T> {
      */
     void release(T p_Object) throws NotPooledObjectException;
 
+    /**
+     * Remove an object from the pool instead of releasing it. It must be used
+     * when the object is broken and must not be used anymore.
+     * 
+     * @param p_Object
+     *            The object to remove from the pool
+     * @throws NotPooledObjectException
+     *             If the object does not come from the pool
+     */
+    void invalidate(T p_Object) throws NotPooledObjectException;
+
     /**
      * Validate an object from the pool
      * 
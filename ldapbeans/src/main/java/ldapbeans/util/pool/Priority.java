@@ -0,0 +1,127 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+import java.util.concurrent.Callable;
+
+public enum Priority {
+    /** Operation for which a user is waiting */
+    INTERACTIVE(70),
+    /** Background operation, like a synchronization job */
+    BATCH(30);
+
+    /** Priority of the operations executed by the current thread */
+    private final static ThreadLocal<Priority> CURRENT;
+
+    /** Static constructor */
+    static {
+	CURRENT = new ThreadLocal<Priority>();
+    }
+
+    /** Default share (in percent) of the capacity reserved to the priority */
+    private final int m_DefaultShare;
+
+    /**
+     * Constructor
+     * 
+     * @param p_DefaultShare
+     *            Default share (in percent) of the capacity reserved to the
+     *            priority
+     */
+    private Priority(int p_DefaultShare) {
+	m_DefaultShare = p_DefaultShare;
+    }
+
+    /**
+     * Return the default share of the capacity reserved to the priority
+     * 
+     * @return The default share (in percent)
+     */
+    public int getDefaultShare() {
+	return m_DefaultShare;
+    }
+
+    /**
+     * Return the priority of the operations executed by the current thread
+     * 
+     * @return The priority of the current thread, {@link #INTERACTIVE} by
+     *         default
+     */
+    public static Priority current() {
+	Priority priority = CURRENT.get();
+	return (priority == null) ? INTERACTIVE : priority;
+    }
+
+    /**
+     * Change the priority of the operations executed by the current thread.
+     * The previous priority has to be restored with
+     * {@link #restore(Priority)} when the operations are finished.
+     * 
+     * @param p_Priority
+     *            The priority of the operations
+     * @return The previous priority of the current thread, or
+     *         <code>null</code> if it has the default priority
+     */
+    public static Priority start(Priority p_Priority) {
+	Priority previous = CURRENT.get();
+	CURRENT.set(p_Priority);
+	return previous;
+    }
+
+    /**
+     * Restore the priority of the current thread
+     * 
+     * @param p_Priority
+     *            The priority, or <code>null</code> for the default priority
+     */
+    public static void restore(Priority p_Priority) {
+	if (p_Priority == null) {
+	    CURRENT.remove();
+	} else {
+	    CURRENT.set(p_Priority);
+	}
+    }
+
+    /**
+     * Return a task that is executed with the priority of the current thread,
+     * whatever the thread that execute it.
+     * 
+     * @param <T>
+     *            Type of the result of the task
+     * @param p_Task
+     *            The task
+     * @return The task executed with the priority of the current thread
+     */
+    public static <T> Callable<T> propagate(final Callable<T> p_Task) {
+	final Priority priority = CURRENT.get();
+	return new Callable<T>() {
+	    public T call() throws Exception {
+		Priority previous = CURRENT.get();
+		restore(priority);
+		try {
+		    return p_Task.call();
+		} finally {
+		    restore(previous);
+		}
+	    }
+	};
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+import java.util.EnumMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import ldapbeans.util.pool.exception.BulkheadFullException;
+
+public class PriorityGate {
+
+    /** Priorities, from the highest to the lowest */
+    private final static Priority[] PRIORITIES;
+
+    /** Static constructor */
+    static {
+	PRIORITIES = Priority.values();
+    }
+
+    /** Lock that protects the state of the gate */
+    private final Object m_Lock = new Object();
+
+    /** Maximum number of concurrent operations */
+    private final int m_Capacity;
+
+    /** Maximum time (in milliseconds) to wait for a permission */
+    private final long m_MaxWait;
+
+    /** Number of concurrent operations */
+    private int m_Used;
+
+    /** Capacity reserved to each priority */
+    private final int[] m_Reserved;
+
+    /** Number of concurrent operations of each priority */
+    private final int[] m_UsedByPriority;
+
+    /** Operations waiting for a permission, for each priority */
+    private final Map<Priority, LinkedList<Waiter>> m_Waiters;
+
+    /** Number of permissions given to each priority */
+    private final long[] m_AcquiredCount;
+
+    /** Number of permissions of each priority that have been waited */
+    private final long[] m_QueuedCount;
+
+    /** Number of permissions of each priority that have not been given */
+    private final long[] m_RejectedCount;
+
+    /** Total time (in milliseconds) waited by each priority */
+    private final long[] m_QueueTime;
+
+    /** Maximum time (in milliseconds) waited by each priority */
+    private final long[] m_MaxQueueTime;
+
+    /**
+     * Operation waiting for a permission
+     */
+    private final static class Waiter {
+	/** Flag that indicate if the permission has been given */
+	private boolean m_Granted;
+    }
+
+    /**
+     * Construct a gate where each priority has its default share of the
+     * capacity
+     * 
+     * @param p_Capacity
+     *            Maximum number of concurrent operations
+     * @param p_MaxWait
+     *            Maximum time (in milliseconds) to wait for a permission
+     *            when the capacity is used
+     * @see Priority#getDefaultShare()
+     */
+    public PriorityGate(int p_Capacity, long p_MaxWait) {
+	m_Capacity = p_Capacity;
+	m_MaxWait = p_MaxWait;
+	m_Reserved = new int[PRIORITIES.length];
+	m_UsedByPriority = new int[PRIORITIES.length];
+	m_AcquiredCount = new long[PRIORITIES.length];
+	m_QueuedCount = new long[PRIORITIES.length];
+	m_RejectedCount = new long[PRIORITIES.length];
+	m_QueueTime = new long[PRIORITIES.length];
+	m_MaxQueueTime = new long[PRIORITIES.length];
+	m_Waiters = new EnumMap<Priority, LinkedList<Waiter>>(Priority.class);
+	for (Priority priority : PRIORITIES) {
+	    m_Waiters.put(priority, new LinkedList<Waiter>());
+	    m_Reserved[priority.ordinal()] = p_Capacity
+		    * priority.getDefaultShare() / 100;
+	}
+    }
+
+    /**
+     * Change the share of the capacity reserved to a priority. Operations of
+     * a priority can always use its reserved capacity, and can borrow the
+     * capacity of other priorities while it is idle.
+     * 
+     * @param p_Priority
+     *            The priority
+     * @param p_Share
+     *            The share (in percent) of the capacity
+     */
+    public void setReservedShare(Priority p_Priority, int p_Share) {
+	synchronized (m_Lock) {
+	    m_Reserved[p_Priority.ordinal()] = m_Capacity * p_Share / 100;
+	    dispatch();
+	}
+    }
+
+    /**
+     * Return the capacity reserved to a priority
+     * 
+     * @param p_Priority
+     *            The priority
+     * @return The number of operations of the priority that can always be
+     *         executed concurrently
+     */
+    public int getReservedCapacity(Priority p_Priority) {
+	synchronized (m_Lock) {
+	    return m_Reserved[p_Priority.ordinal()];
+	}
+    }
+
+    /**
+     * Return the maximum number of concurrent operations
+     * 
+     * @return The maximum number of concurrent operations
+     */
+    public int getCapacity() {
+	return m_Capacity;
+    }
+
+    /**
+     * Acquire the permission to execute an operation. Operations that wait
+     * for a permission are served by priority, then in arrival order. The
+     * permission must be released with {@link #release(Priority)} when the
+     * operation is finished.
+     * 
+     * @param p_Priority
+     *            The priority of the operation
+     * @throws BulkheadFullException
+     *             If the permission has not been acquired in time
+     */
+    public void acquire(Priority p_Priority) throws BulkheadFullException {
+	int index = p_Priority.ordinal();
+	long start = System.currentTimeMillis();
+	// The wait is bounded by the deadline of the operation
+	long maxWait = Math.min(m_MaxWait, Deadline.remaining(m_MaxWait));
+	synchronized (m_Lock) {
+	    if (!hasWaiters(p_Priority) && canAcquire(p_Priority)) {
+		take(p_Priority);
+		m_AcquiredCount[index]++;
+	    } else {
+		Waiter waiter = new Waiter();
+		m_Waiters.get(p_Priority).addLast(waiter);
+		boolean interrupted = false;
+		long remaining = maxWait;
+		while (!waiter.m_Granted && (remaining > 0) && !interrupted) {
+		    try {
+			m_Lock.wait(remaining);
+		    } catch (InterruptedException e) {
+			interrupted = true;
+		    }
+		    remaining = maxWait
+			    - (System.currentTimeMillis() - start);
+		}
+		if (interrupted) {
+		    Thread.currentThread().interrupt();
+		}
+		if (!waiter.m_Granted) {
+		    m_Waiters.get(p_Priority).remove(waiter);
+		    m_RejectedCount[index]++;
+		    // Capacity kept for this operation may be borrowed
+		    dispatch();
+		    throw new BulkheadFullException("No capacity for "
+			    + p_Priority + " operations");
+		}
+		long time = System.currentTimeMillis() - start;
+		m_AcquiredCount[index]++;
+		m_QueuedCount[index]++;
+		m_QueueTime[index] += time;
+		m_MaxQueueTime[index] = Math.max(m_MaxQueueTime[index], time);
+	    }
+	}
+    }
+
+    /**
+     * Release the permission of an operation
+     * 
+     * @param p_Priority
+     *            The priority of the operation
+     */
+    public void release(Priority p_Priority) {
+	synchronized (m_Lock) {
+	    m_Used--;
+	    m_UsedByPriority[p_Priority.ordinal()]--;
+	    dispatch();
+	}
+    }
+
+    /**
+     * Return <code>true</code> if operations of the same or of a higher
+     * priority are waiting for a permission
+     * 
+     * @param p_Priority
+     *            The priority
+     * @return <code>true</code> if an operation that must be served before
+     *         is waiting
+     */
+    private boolean hasWaiters(Priority p_Priority) {
+	boolean result = false;
+	for (int i = 0; i <= p_Priority.ordinal(); i++) {
+	    result |= !m_Waiters.get(PRIORITIES[i]).isEmpty();
+	}
+	return result;
+    }
+
+    /**
+     * Return <code>true</code> if an operation of a priority can be executed
+     * now. It can use the capacity reserved to its priority, or the capacity
+     * that is not needed by operations of other priorities that are waiting.
+     * 
+     * @param p_Priority
+     *            The priority of the operation
+     * @return <code>true</code> if the operation can be executed
+     */
+    private boolean canAcquire(Priority p_Priority) {
+	boolean result = false;
+	int index = p_Priority.ordinal();
+	if (m_Used < m_Capacity) {
+	    if (m_UsedByPriority[index] < m_Reserved[index]) {
+		result = true;
+	    } else {
+		int needed = 0;
+		for (Priority priority : PRIORITIES) {
+		    int other = priority.ordinal();
+		    if ((other != index)
+			    && !m_Waiters.get(priority).isEmpty()) {
+			needed += Math.max(0, m_Reserved[other]
+				- m_UsedByPriority[other]);
+		    }
+		}
+		result = m_Capacity - m_Used > needed;
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Use the capacity for an operation of a priority
+     * 
+     * @param p_Priority
+     *            The priority of the operation
+     */
+    private void take(Priority p_Priority) {
+	m_Used++;
+	m_UsedByPriority[p_Priority.ordinal()]++;
+    }
+
+    /**
+     * Give the available capacity to the waiting operations, by priority
+     */
+    private void dispatch() {
+	boolean granted = false;
+	for (Priority priority : PRIORITIES) {
+	    LinkedList<Waiter> waiters = m_Waiters.get(priority);
+	    while (!waiters.isEmpty() && canAcquire(priority)) {
+		waiters.removeFirst().m_Granted = true;
+		take(priority);
+		granted = true;
+	    }
+	}
+	if (granted) {
+	    m_Lock.notifyAll();
+	}
+    }
+
+    /**
+     * Return the number of running operations of a priority
+     * 
+     * @param p_Priority
+     *            The priority
+     * @return The number of running operations
+     */
+    public int getUsedCapacity(Priority p_Priority) {
+	synchronized (m_Lock) {
+	    return m_UsedByPriority[p_Priority.ordinal()];
+	}
+    }
+
+    /**
+     * Return the number of operations of a priority that are waiting for a
+     * permission
+     * 
+     * @param p_Priority
+     *            The priority
+     * @return The number of waiting operations
+     */
+    public int getWaitingCount(Priority p_Priority) {
+	synchronized (m_Lock) {
+	    return m_Waiters.get(p_Priority).size();
+	}
+    }
+
+    /**
+     * Return the number of permissions given to a priority
+     * 
+     * @param p_Priority
+     *            The priority
+     * @return The number of permissions given
+     */
+    public long getAcquiredCount(Priority p_Priority) {
+	synchronized (m_Lock) {
+	    return m_AcquiredCount[p_Priority.ordinal()];
+	}
+    }
+
+    /**
+     * Return the number of permissions of a priority that have been waited
+     * 
+     * @param p_Priority
+     *            The priority
+     * @return The number of permissions given after a wait
+     */
+    public long getQueuedCount(Priority p_Priority) {
+	synchronized (m_Lock) {
+	    return m_QueuedCount[p_Priority.ordinal()];
+	}
+    }
+
+    /**
+     * Return the number of operations of a priority that have not received
+     * a permission in time
+     * 
+     * @param p_Priority
+     *            The priority
+     * @return The number of rejected operations
+     */
+    public long getRejectedCount(Priority p_Priority) {
+	synchronized (m_Lock) {
+	    return m_RejectedCount[p_Priority.ordinal()];
+	}
+    }
+
+    /**
+     * Return the average time waited by the operations of a priority,
+     * including the operations that did not wait
+     * 
+     * @param p_Priority
+     *            The priority
+     * @return The average queue time (in milliseconds)
+     */
+    public double getAverageQueueTime(Priority p_Priority) {
+	synchronized (m_Lock) {
+	    int index = p_Priority.ordinal();
+	    return (m_AcquiredCount[index] == 0) ? 0
+		    : (double) m_QueueTime[index] / m_AcquiredCount[index];
+	}
+    }
+
+    /**
+     * Return the maximum time waited by an operation of a priority
+     * 
+     * @param p_Priority
+     *            The priority
+     * @return The maximum queue time (in milliseconds)
+     */
+    public long getMaxQueueTime(Priority p_Priority) {
+	synchronized (m_Lock) {
+	    return m_MaxQueueTime[p_Priority.ordinal()];
+	}
+    }
+
+    /**
+     * Reset the queue time metrics
+     */
+    public void resetMetrics() {
+	synchronized (m_Lock) {
+	    for (int i = 0; i < PRIORITIES.length; i++) {
+		m_AcquiredCount[i] = 0;
+		m_QueuedCount[i] = 0;
+		m_RejectedCount[i] = 0;
+		m_QueueTime[i] = 0;
+		m_MaxQueueTime[i] = 0;
+	    }
+	}
+    }
+}
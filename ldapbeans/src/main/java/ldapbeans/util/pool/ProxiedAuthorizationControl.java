@@ -0,0 +1,88 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+import java.io.UnsupportedEncodingException;
+
+import javax.naming.ldap.BasicControl;
+
+@SuppressWarnings("serial")
+public class ProxiedAuthorizationControl extends BasicControl {
+
+    /** OID of the proxied authorization control (RFC 4370) */
+    public final static String OID = "2.16.840.1.113730.3.4.18";
+
+    /** Authorization identity of the user */
+    private final String m_AuthorizationId;
+
+    /**
+     * Construct a proxied authorization control. The control is always
+     * critical: the directory must refuse the operation instead of executing
+     * it with the identity of the connection.
+     * 
+     * @param p_AuthorizationId
+     *            Authorization identity of the user (for example
+     *            <code>dn:uid=user,ou=people,dc=example,dc=com</code> or
+     *            <code>u:user</code>), or an empty string for the anonymous
+     *            identity
+     */
+    public ProxiedAuthorizationControl(String p_AuthorizationId) {
+	super(OID, true, encode(p_AuthorizationId));
+	m_AuthorizationId = p_AuthorizationId;
+    }
+
+    /**
+     * Create a proxied authorization control for the user of a DN
+     * 
+     * @param p_Dn
+     *            DN of the user
+     * @return The proxied authorization control
+     */
+    public static ProxiedAuthorizationControl forDn(String p_Dn) {
+	return new ProxiedAuthorizationControl("dn:" + p_Dn);
+    }
+
+    /**
+     * Return the authorization identity of the user
+     * 
+     * @return The authorization identity of the user
+     */
+    public String getAuthorizationId() {
+	return m_AuthorizationId;
+    }
+
+    /**
+     * Encode the value of the control. The value is the authorization
+     * identity, without any BER encoding.
+     * 
+     * @param p_AuthorizationId
+     *            Authorization identity of the user
+     * @return The value of the control
+     */
+    private static byte[] encode(String p_AuthorizationId) {
+	try {
+	    return p_AuthorizationId.getBytes("UTF-8");
+	} catch (UnsupportedEncodingException e) {
+	    // UTF-8 is always supported
+	    throw new IllegalStateException(e);
+	}
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.naming.InterruptedNamingException;
+import javax.naming.TimeLimitExceededException;
+
+public class RateLimiter implements RateLimiterMBean {
+
+    /** Minimum factor applied to the rates by the adaptive throttling */
+    private final static double MIN_THROTTLE_FACTOR;
+
+    /** Factor applied to the throttle factor when the directory is slow */
+    private final static double DECREASE_FACTOR;
+
+    /** Increment of the throttle factor when the directory is fast */
+    private final static double INCREMENT;
+
+    /** Static constructor */
+    static {
+	MIN_THROTTLE_FACTOR = 0.1;
+	DECREASE_FACTOR = 0.8;
+	INCREMENT = 0.01;
+    }
+
+    /**
+     * Token bucket of a type of operation
+     */
+    private final static class Bucket {
+	/** Maximum number of operations per second */
+	private final double m_Rate;
+	/** Maximum number of tokens */
+	private final double m_Burst;
+	/** Number of tokens, negative if tokens have been reserved */
+	private double m_Tokens;
+	/** Time (in nanoseconds) of the last refill */
+	private long m_LastRefill;
+
+	/**
+	 * Construct a full bucket
+	 * 
+	 * @param p_Rate
+	 *            Maximum number of operations per second
+	 * @param p_Burst
+	 *            Maximum number of tokens
+	 */
+	private Bucket(double p_Rate, double p_Burst) {
+	    m_Rate = p_Rate;
+	    m_Burst = p_Burst;
+	    m_Tokens = p_Burst;
+	    m_LastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Add the tokens produced since the last refill
+	 * 
+	 * @param p_ThrottleFactor
+	 *            Factor applied to the rate
+	 */
+	private void refill(double p_ThrottleFactor) {
+	    long now = System.nanoTime();
+	    m_Tokens = Math.min(m_Burst, m_Tokens + (now - m_LastRefill)
+		    * m_Rate * p_ThrottleFactor / 1000000000d);
+	    m_LastRefill = now;
+	}
+    }
+
+    /** Token buckets of the types of operation that are limited */
+    private final Map<OperationType, Bucket> m_Buckets;
+
+    /** Flag that indicate if operations wait for a token */
+    private final boolean m_Blocking;
+
+    /** Flag that indicate if the rates depend on the directory latency */
+    private volatile boolean m_Adaptive = false;
+
+    /** Latency (in milliseconds) above which the directory is slow */
+    private volatile long m_TargetLatency = 100;
+
+    /** Factor applied to the rates by the adaptive throttling */
+    private double m_ThrottleFactor = 1;
+
+    /** Number of operations that had to wait for a token */
+    private long m_DelayedCount;
+
+    /** Number of operations that have not received a token */
+    private long m_RejectedCount;
+
+    /** Total time (in milliseconds) waited for tokens */
+    private long m_TotalWaitTime;
+
+    /**
+     * Construct a limiter without limit
+     * 
+     * @param p_Blocking
+     *            <code>true</code> if operations wait for a token,
+     *            <code>false</code> if they fail with a
+     *            <code>RateLimitExceededException</code> when there is no
+     *            token
+     */
+    public RateLimiter(boolean p_Blocking) {
+	m_Blocking = p_Blocking;
+	m_Buckets = new EnumMap<OperationType, Bucket>(OperationType.class);
+    }
+
+    /**
+     * Change the rate of a type of operation. Up to one second of operations
+     * can be executed in a burst.
+     * 
+     * @param p_Type
+     *            The type of operation
+     * @param p_Rate
+     *            The maximum number of operations per second, or 0 for no
+     *            limit
+     */
+    public void setRate(OperationType p_Type, double p_Rate) {
+	setRate(p_Type, p_Rate, Math.max(1, p_Rate));
+    }
+
+    /**
+     * Change the rate of a type of operation
+     * 
+     * @param p_Type
+     *            The type of operation
+     * @param p_Rate
+     *            The maximum number of operations per second, or 0 for no
+     *            limit
+     * @param p_Burst
+     *            The maximum number of operations that can be executed at
+     *            once after an idle period
+     */
+    public synchronized void setRate(OperationType p_Type, double p_Rate,
+	    double p_Burst) {
+	if (p_Rate <= 0) {
+	    m_Buckets.remove(p_Type);
+	} else {
+	    m_Buckets.put(p_Type, new Bucket(p_Rate, p_Burst));
+	}
+    }
+
+    /**
+     * Return the rate of a type of operation
+     * 
+     * @param p_Type
+     *            The type of operation
+     * @return The maximum number of operations per second, or 0 if there is
+     *         no limit
+     */
+    public synchronized double getRate(OperationType p_Type) {
+	Bucket bucket = m_Buckets.get(p_Type);
+	return (bucket == null) ? 0 : bucket.m_Rate;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see RateLimiterMBean#getRate(String)
+     */
+    public double getRate(String p_Type) {
+	return getRate(OperationType.valueOf(p_Type));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see RateLimiterMBean#setRate(String, double)
+     */
+    public void setRate(String p_Type, double p_Rate) {
+	setRate(OperationType.valueOf(p_Type), p_Rate);
+    }
+
+    /**
+     * Return the number of operations that can be started immediately for a
+     * type of operation
+     * 
+     * @param p_Type
+     *            The type of operation
+     * @return The number of available tokens, or -1 if there is no limit
+     */
+    public synchronized double getAvailableTokens(OperationType p_Type) {
+	double result = -1;
+	Bucket bucket = m_Buckets.get(p_Type);
+	if (bucket != null) {
+	    bucket.refill(m_ThrottleFactor);
+	    result = Math.max(0, bucket.m_Tokens);
+	}
+	return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see RateLimiterMBean#getAvailableTokens(String)
+     */
+    public double getAvailableTokens(String p_Type) {
+	return getAvailableTokens(OperationType.valueOf(p_Type));
+    }
+
+    /**
+     * Wait for the token of an operation. The wait is bounded by the deadline
+     * of the current thread.
+     * 
+     * @param p_Type
+     *            The type of operation
+     * @throws TimeLimitExceededException
+     *             If the deadline would expire before the token is available
+     * @throws InterruptedNamingException
+     *             If the current thread is interrupted while waiting
+     */
+    public void acquire(OperationType p_Type)
+	    throws TimeLimitExceededException, InterruptedNamingException {
+	long wait = 0;
+	synchronized (this) {
+	    Bucket bucket = m_Buckets.get(p_Type);
+	    if (bucket != null) {
+		bucket.refill(m_ThrottleFactor);
+		if (bucket.m_Tokens < 1) {
+		    wait = (long) Math.ceil((1 - bucket.m_Tokens) * 1000
+			    / (bucket.m_Rate * m_ThrottleFactor));
+		    if (wait > Deadline.remaining(Long.MAX_VALUE)) {
+			m_RejectedCount++;
+			throw new TimeLimitExceededException(
+				"Deadline exceeded");
+		    }
+		    m_DelayedCount++;
+		    m_TotalWaitTime += wait;
+		}
+		// The token is reserved, so concurrent operations wait for the
+		// next tokens
+		bucket.m_Tokens--;
+	    }
+	}
+	if (wait > 0) {
+	    try {
+		Thread.sleep(wait);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new InterruptedNamingException();
+	    }
+	}
+    }
+
+    /**
+     * Take the token of an operation if it is available
+     * 
+     * @param p_Type
+     *            The type of operation
+     * @return <code>true</code> if the operation can be executed,
+     *         <code>false</code> if there is no token
+     */
+    public synchronized boolean tryAcquire(OperationType p_Type) {
+	boolean result = true;
+	Bucket bucket = m_Buckets.get(p_Type);
+	if (bucket != null) {
+	    bucket.refill(m_ThrottleFactor);
+	    if (bucket.m_Tokens >= 1) {
+		bucket.m_Tokens--;
+	    } else {
+		m_RejectedCount++;
+		result = false;
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Record the latency of an operation. When the rates are adaptive, they
+     * are reduced while the directory is slower than the target latency, and
+     * restored progressively when it is faster.
+     * 
+     * @param p_Type
+     *            The type of operation
+     * @param p_Latency
+     *            The latency (in milliseconds) of the operation
+     */
+    public void record(OperationType p_Type, long p_Latency) {
+	if (m_Adaptive) {
+	    synchronized (this) {
+		// Tokens produced before the change use the previous factor
+		for (Bucket bucket : m_Buckets.values()) {
+		    bucket.refill(m_ThrottleFactor);
+		}
+		if (p_Latency > m_TargetLatency) {
+		    m_ThrottleFactor = Math.max(MIN_THROTTLE_FACTOR,
+			    m_ThrottleFactor * DECREASE_FACTOR);
+		} else {
+		    m_ThrottleFactor = Math.min(1, m_ThrottleFactor
+			    + INCREMENT);
+		}
+	    }
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see RateLimiterMBean#isBlocking()
+     */
+    public boolean isBlocking() {
+	return m_Blocking;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see RateLimiterMBean#isAdaptive()
+     */
+    public boolean isAdaptive() {
+	return m_Adaptive;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see RateLimiterMBean#setAdaptive(boolean)
+     */
+    public synchronized void setAdaptive(boolean p_Adaptive) {
+	m_Adaptive = p_Adaptive;
+	if (!p_Adaptive) {
+	    for (Bucket bucket : m_Buckets.values()) {
+		bucket.refill(m_ThrottleFactor);
+	    }
+	    m_ThrottleFactor = 1;
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see RateLimiterMBean#getTargetLatency()
+     */
+    public long getTargetLatency() {
+	return m_TargetLatency;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see RateLimiterMBean#setTargetLatency(long)
+     */
+    public void setTargetLatency(long p_TargetLatency) {
+	m_TargetLatency = p_TargetLatency;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see RateLimiterMBean#getThrottleFactor()
+     */
+    public synchronized double getThrottleFactor() {
+	return m_ThrottleFactor;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see RateLimiterMBean#getDelayedCount()
+     */
+    public synchronized long getDelayedCount() {
+	return m_DelayedCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see RateLimiterMBean#getRejectedCount()
+     */
+    public synchronized long getRejectedCount() {
+	return m_RejectedCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see RateLimiterMBean#getTotalWaitTime()
+     */
+    public synchronized long getTotalWaitTime() {
+	return m_TotalWaitTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see RateLimiterMBean#resetMetrics()
+     */
+    public synchronized void resetMetrics() {
+	m_DelayedCount = 0;
+	m_RejectedCount = 0;
+	m_TotalWaitTime = 0;
+    }
+}
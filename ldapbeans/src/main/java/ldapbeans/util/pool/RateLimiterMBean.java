@@ -0,0 +1,130 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+public interface RateLimiterMBean {
+
+    /**
+     * Return the rate of a type of operation
+     * 
+     * @param p_Type
+     *            Name of the type of operation
+     * @return The maximum number of operations per second, or 0 if there is
+     *         no limit
+     * @see OperationType
+     */
+    double getRate(String p_Type);
+
+    /**
+     * Change the rate of a type of operation
+     * 
+     * @param p_Type
+     *            Name of the type of operation
+     * @param p_Rate
+     *            The maximum number of operations per second, or 0 for no
+     *            limit
+     * @see OperationType
+     */
+    void setRate(String p_Type, double p_Rate);
+
+    /**
+     * Return the number of operations that can be started immediately for a
+     * type of operation
+     * 
+     * @param p_Type
+     *            Name of the type of operation
+     * @return The number of available tokens, or -1 if there is no limit
+     * @see OperationType
+     */
+    double getAvailableTokens(String p_Type);
+
+    /**
+     * Return <code>true</code> if operations wait for a token,
+     * <code>false</code> if they fail when there is no token
+     * 
+     * @return <code>true</code> if operations wait for a token
+     */
+    boolean isBlocking();
+
+    /**
+     * Return <code>true</code> if the rates are reduced when the directory
+     * is slow
+     * 
+     * @return <code>true</code> if the rates are adaptive
+     */
+    boolean isAdaptive();
+
+    /**
+     * Enable or disable the reduction of the rates when the directory is slow
+     * 
+     * @param p_Adaptive
+     *            <code>true</code> if the rates are adaptive
+     */
+    void setAdaptive(boolean p_Adaptive);
+
+    /**
+     * Return the latency above which the directory is considered slow
+     * 
+     * @return The target latency (in milliseconds)
+     */
+    long getTargetLatency();
+
+    /**
+     * Change the latency above which the directory is considered slow
+     * 
+     * @param p_TargetLatency
+     *            The target latency (in milliseconds)
+     */
+    void setTargetLatency(long p_TargetLatency);
+
+    /**
+     * Return the factor applied to the rates by the adaptive throttling
+     * 
+     * @return The factor, between 0 and 1
+     */
+    double getThrottleFactor();
+
+    /**
+     * Return the number of operations that had to wait for a token
+     * 
+     * @return The number of delayed operations
+     */
+    long getDelayedCount();
+
+    /**
+     * Return the number of operations that have not received a token
+     * 
+     * @return The number of rejected operations
+     */
+    long getRejectedCount();
+
+    /**
+     * Return the total time waited for tokens
+     * 
+     * @return The total wait time (in milliseconds)
+     */
+    long getTotalWaitTime();
+
+    /**
+     * Reset the metrics of the limiter
+     */
+    void resetMetrics();
+}
@@ -0,0 +1,89 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+import java.util.Random;
+
+public class RetryPolicy {
+
+    /** Policy that never retry an operation */
+    public final static RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    /** Random generator used to compute jitter */
+    private final static Random RANDOM = new Random();
+
+    /** Maximum number of attempts (including the first one) */
+    private final int m_MaxAttempts;
+
+    /** Delay before the first retry */
+    private final long m_InitialDelay;
+
+    /** Maximum delay between two attempts */
+    private final long m_MaxDelay;
+
+    /**
+     * Construct a retry policy with exponential backoff
+     * 
+     * @param p_MaxAttempts
+     *            Maximum number of attempts (including the first one)
+     * @param p_InitialDelay
+     *            Delay (in milliseconds) before the first retry
+     * @param p_MaxDelay
+     *            Maximum delay (in milliseconds) between two attempts
+     */
+    public RetryPolicy(int p_MaxAttempts, long p_InitialDelay,
+	    long p_MaxDelay) {
+	m_MaxAttempts = p_MaxAttempts;
+	m_InitialDelay = p_InitialDelay;
+	m_MaxDelay = p_MaxDelay;
+    }
+
+    /**
+     * Return the maximum number of attempts (including the first one)
+     * 
+     * @return The maximum number of attempts
+     */
+    public int getMaxAttempts() {
+	return m_MaxAttempts;
+    }
+
+    /**
+     * Return the delay to wait before the next attempt. The delay doubles
+     * after each attempt (up to the maximum delay) and half of it is random,
+     * so clients that failed together do not retry together.
+     * 
+     * @param p_Attempt
+     *            Number of the attempt that just failed (starting at 1)
+     * @return The delay in milliseconds
+     */
+    public long getDelay(int p_Attempt) {
+	long delay = m_InitialDelay;
+	for (int i = 1; (i < p_Attempt) && (delay < m_MaxDelay); i++) {
+	    delay *= 2;
+	}
+	delay = Math.min(delay, m_MaxDelay);
+	long jitter = 0;
+	if (delay > 1) {
+	    jitter = (long) (RANDOM.nextDouble() * (delay / 2));
+	}
+	return delay - (delay / 2) + jitter;
+    }
+}
@@ -39,4 +39,13 @@ public abstract class PoolException extends RuntimeException {
     public PoolException(Throwable p_Cause) {
 	super(p_Cause);
     }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see PoolException#RuntimeException(String)
+     */
+    public PoolException(String p_Message) {
+	super(p_Message);
+    }
 }
@@ -20,21 +20,43 @@
  */
 package ldapbeans;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.naming.TimeLimitExceededException;
+import javax.naming.directory.Attributes;
 import javax.naming.directory.SchemaViolationException;
 
 import junit.framework.Assert;
 import ldapbeans.bean.BeanForBooleanTest;
 import ldapbeans.bean.BeanForNumberTest;
 import ldapbeans.bean.BeanForTest;
+import ldapbeans.bean.CacheMode;
+import ldapbeans.bean.CacheScope;
+import ldapbeans.bean.ChangeType;
 import ldapbeans.bean.LdapBean;
 import ldapbeans.bean.LdapBeanHelper;
 import ldapbeans.bean.LdapBeanManager;
+import ldapbeans.bean.LdapChangeListener;
+import ldapbeans.bean.LdapObject;
+import ldapbeans.bean.LdapObjectManager;
 import ldapbeans.bean.OrganizationalUnit;
 import ldapbeans.bean.Person;
+import ldapbeans.util.cache.CacheSpec;
+import ldapbeans.util.cache.InProcessInvalidationBus;
+import ldapbeans.util.cache.InvalidationBus;
+import ldapbeans.util.pool.AdaptiveLimit;
+import ldapbeans.util.pool.FakeLdapContextPool;
+import ldapbeans.util.pool.OperationType;
+import ldapbeans.util.pool.RateLimiter;
 
 import org.apache.directory.server.annotations.CreateLdapServer;
 import org.apache.directory.server.annotations.CreateTransport;
@@ -849,4 +871,571 @@ public class LdapBeanTest {
 	foo.setComplexDescription(10, 20, foo);
 	Assert.assertEquals("foo-10-20", foo.getDescriptionArray()[0]);
     }
+
+    /**
+     * Test the verification of credentials
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testAuthenticate() throws Exception {
+	LdapBeanManager manager = getLdapBeanManager();
+	Assert.assertTrue(manager
+		.authenticate("uid=admin,ou=system", "secret"));
+	Assert.assertFalse(manager.authenticate("uid=admin,ou=system", "bad"));
+	// Unauthenticated binds are refused
+	Assert.assertFalse(manager.authenticate("uid=admin,ou=system", ""));
+	Person person = manager.create(Person.class, "cn=auth,ou=system");
+	person.setUid("auth");
+	person.setCommonName("auth");
+	person.setSurname("surname");
+	person.setPassword("password");
+	person.store();
+	// The DN of the uid is found by a search
+	Assert.assertTrue(manager.authenticate("auth", "password"));
+	Assert.assertFalse(manager.authenticate("auth", "secret"));
+	Assert.assertFalse(manager.authenticate("unknown", "secret"));
+	Assert.assertFalse(manager.authenticate("*", "password"));
+	Assert.assertTrue(manager.authenticate("auth", "password"));
+	// The connection is reused with its anonymous identity
+	Assert.assertEquals(1, manager.getBindPool().size());
+	Assert.assertTrue(manager
+		.authenticate("uid=admin,ou=system", "secret"));
+	Assert.assertEquals(1, manager.getBindPool().size());
+	Assert.assertEquals(7, manager.getBindPool().getAuthenticationCount());
+	Assert.assertEquals(4, manager.getBindPool().getSuccessCount());
+	person.remove();
+    }
+
+    /**
+     * Test the registry of {@link LdapBeanManager}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testGetInstance() throws Exception {
+	String url = "ldap://localhost:" + ldapServer.getPort();
+	LdapBeanManager manager = getLdapBeanManager();
+	Assert.assertSame(manager, LdapBeanManager.getInstance(url,
+		"ou=system"));
+	// Another root dn gives another instance, that share the connections
+	LdapBeanManager other = LdapBeanManager.getInstance(url,
+		"ou=configuration,ou=system");
+	Assert.assertNotSame(manager, other);
+	Assert.assertSame(manager.getPoolRouter().getPrimaryPool(), other
+		.getPoolRouter().getPrimaryPool());
+	// Another identity gives other connections
+	LdapBeanManager admin = LdapBeanManager.getInstance(url, "ou=system",
+		"uid=admin,ou=system", "secret");
+	Assert.assertNotSame(manager, admin);
+	Assert.assertNotSame(manager.getPoolRouter().getPrimaryPool(), admin
+		.getPoolRouter().getPrimaryPool());
+	Assert.assertSame(admin, LdapBeanManager.getInstance(url,
+		"ou=system", "uid=admin,ou=system", "secret"));
+	// A wrong password is refused
+	try {
+	    LdapBeanManager.getInstance(url, "ou=system",
+		    "uid=admin,ou=system", "wrong");
+	    Assert.fail("The password should be refused");
+	} catch (IllegalArgumentException e) {
+	    Assert.assertFalse(e.getMessage().contains("wrong"));
+	}
+	try {
+	    LdapBeanManager.getInstance(url, "ou=system",
+		    "uid=admin,ou=system", null);
+	    Assert.fail("The password should be refused");
+	} catch (IllegalArgumentException e) {
+	    // Expected
+	}
+    }
+
+    /**
+     * Test the registration of the rate limiter of a {@link LdapBeanManager}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testRateLimiter() throws Exception {
+	LdapBeanManager manager = getLdapBeanManager();
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	ObjectName name = new ObjectName("ldapbeans:type=RateLimiter,name="
+		+ ObjectName.quote("ldap://localhost:" + ldapServer.getPort()
+			+ "/ou=system"));
+	RateLimiter rateLimiter = new RateLimiter(true);
+	rateLimiter.setRate(OperationType.READ, 1000);
+	manager.setRateLimiter(rateLimiter);
+	try {
+	    Assert.assertNotNull(manager.findByDn(Person.class,
+		    "cn=Kim Wilde,ou=system"));
+	    Assert.assertEquals(Boolean.TRUE, server.getAttribute(name,
+		    "Blocking"));
+	    Assert.assertEquals(Double.valueOf(1000), server.invoke(name,
+		    "getRate", new Object[] { "READ" },
+		    new String[] { String.class.getName() }));
+	    // The limiter is not replaced by a call with another password
+	    try {
+		LdapBeanManager.getInstance("ldap://localhost:"
+			+ ldapServer.getPort(), "ou=system", null, "wrong");
+		Assert.fail("The password should be refused");
+	    } catch (IllegalArgumentException e) {
+		// Expected
+	    }
+	    Assert.assertEquals(Double.valueOf(1000), server.invoke(name,
+		    "getRate", new Object[] { "READ" },
+		    new String[] { String.class.getName() }));
+	    // The limiter of a proxied instance is not registered
+	    LdapBeanManager proxied = manager
+		    .getProxiedManager("cn=Kim Wilde,ou=system");
+	    proxied.setRateLimiter(new RateLimiter(false));
+	    Assert.assertEquals(Boolean.TRUE, server.getAttribute(name,
+		    "Blocking"));
+	    Assert.assertSame(rateLimiter, manager.getRateLimiter());
+	    // The proxied instance of a user is kept
+	    Assert.assertSame(proxied, manager
+		    .getProxiedManager("cn=Kim Wilde,ou=system"));
+	    proxied.setRateLimiter(null);
+	} finally {
+	    manager.setRateLimiter(null);
+	}
+	Assert.assertFalse(server.isRegistered(name));
+	Assert.assertNull(manager.getRateLimiter());
+    }
+
+    /**
+     * Test the searches that do not modify the cache
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testCacheMode() throws Exception {
+	LdapBeanManager manager = getLdapBeanManager();
+	String dn = "cn=Kim Wilde,ou=system";
+	String filter = "(cn=Kim Wilde)";
+
+	// Objects found by a scan are kept in the cache of the scan
+	CacheScope previous = CacheScope.startScan();
+	try {
+	    manager.search(Person.class, filter).get(0).setSurname("scan");
+	    Assert.assertEquals("scan", manager.findByDn(Person.class, dn)
+		    .getSurname());
+	} finally {
+	    CacheScope.restore(previous);
+	}
+	Person cached = manager.findByDn(Person.class, dn);
+	Assert.assertFalse("scan".equals(cached.getSurname()));
+
+	// Transient objects do not modify the cached ones
+	List<Person> persons = manager.search(Person.class, filter, 0,
+		CacheMode.NONE);
+	persons.get(0).setSurname("transient");
+	Assert.assertFalse("transient".equals(manager.findByDn(Person.class,
+		dn).getSurname()));
+
+	// Cached objects are returned but are not updated
+	cached.setSurname("cached");
+	persons = manager.search(Person.class, filter, 0, CacheMode.READ_ONLY);
+	Assert.assertEquals("cached", persons.get(0).getSurname());
+	persons = manager.search(Person.class, filter, 0, CacheMode.NONE);
+	Assert.assertFalse("cached".equals(persons.get(0).getSurname()));
+	Assert.assertEquals("cached", manager.findByDn(Person.class, dn)
+		.getSurname());
+    }
+
+    /**
+     * Test the statistics and the operations of the cache published in the
+     * platform MBean server
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testCacheStatistics() throws Exception {
+	LdapBeanManager manager = getLdapBeanManager();
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	ObjectName name = new ObjectName("ldapbeans:type=Cache,name="
+		+ ObjectName.quote("ldap://localhost:" + ldapServer.getPort()
+			+ "/ou=system"));
+	String dn = "cn=Kim Wilde,ou=system";
+	server.invoke(name, "clearCache", null, null);
+	server.invoke(name, "resetStatistics", null, null);
+
+	// The first read loads the object, the second one finds it in cache
+	Assert.assertNotNull(manager.findByDn(Person.class, dn));
+	Assert.assertNotNull(manager.findByDn(Person.class, dn));
+	Assert.assertEquals(Long.valueOf(1), server.getAttribute(name,
+		"HitCount"));
+	Assert.assertEquals(Long.valueOf(1), server.getAttribute(name,
+		"MissCount"));
+	Assert.assertEquals(Long.valueOf(1), server.getAttribute(name,
+		"LoadCount"));
+	Assert.assertEquals(Integer.valueOf(1), server.getAttribute(name,
+		"Size"));
+	Map<?, ?> sizes = (Map<?, ?>) server.getAttribute(name,
+		"SizeByObjectClass");
+	Assert.assertEquals(Integer.valueOf(1), sizes.get("person"));
+
+	// DN are compared as LDAP names
+	Assert.assertEquals(Boolean.TRUE, server.invoke(name, "invalidate",
+		new Object[] { "CN=Kim Wilde, ou=system" },
+		new String[] { String.class.getName() }));
+	Assert.assertEquals(Integer.valueOf(0), server.getAttribute(name,
+		"Size"));
+	Assert.assertEquals(Long.valueOf(1), server.getAttribute(name,
+		"ExplicitRemovalCount"));
+	Assert.assertNotNull(manager.findByDn(Person.class, dn));
+	Assert.assertEquals(Boolean.TRUE, server.invoke(name, "invalidate",
+		new Object[] { "cn=kim wilde,OU=System" },
+		new String[] { String.class.getName() }));
+	Assert.assertEquals(Boolean.FALSE, server.invoke(name, "invalidate",
+		new Object[] { dn }, new String[] { String.class.getName() }));
+	Assert.assertNotNull(manager.findByDn(Person.class, dn));
+	Assert.assertEquals(Integer.valueOf(1), server.invoke(name,
+		"invalidateSubtree", new Object[] { "ou=system" },
+		new String[] { String.class.getName() }));
+
+	// The MBean is not replaced by a call with another password
+	Assert.assertNotNull(manager.findByDn(Person.class, dn));
+	try {
+	    LdapBeanManager.getInstance("ldap://localhost:"
+		    + ldapServer.getPort(), "ou=system", null, "wrong");
+	    Assert.fail("The password should be refused");
+	} catch (IllegalArgumentException e) {
+	    // Expected
+	}
+	Assert.assertEquals(Integer.valueOf(1), server.getAttribute(name,
+		"Size"));
+    }
+
+    /**
+     * Test the refresh in background of the cached objects
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testCacheRefresh() throws Exception {
+	LdapBeanManager manager = getLdapBeanManager();
+	String dn = "cn=Kim Wilde,ou=system";
+	LdapObjectManager ldapObjectManager = new LdapObjectManager(manager
+		.getPoolRouter(), "ou=system", CacheSpec
+		.parse("refreshAfterWrite=0ms"));
+	LdapObject ldapObject = ldapObjectManager.getLdapObjectByDn(dn);
+	ldapObjectManager.restoreLdapObject(ldapObject);
+	Attributes attributes = ldapObject.getAttributes();
+
+	// The modification time has a resolution of one second
+	Thread.sleep(1100);
+	Person person = manager.findByDn(Person.class, dn);
+	person.setSurname("refreshed");
+	person.store();
+	try {
+	    // The cached object is returned, and is refreshed in background
+	    Assert.assertSame(ldapObject, ldapObjectManager
+		    .getLdapObjectByDn(dn));
+	    long end = System.currentTimeMillis() + 5000;
+	    while ((ldapObject.getAttributes() == attributes)
+		    && (System.currentTimeMillis() < end)) {
+		Thread.sleep(10);
+	    }
+	    Assert.assertEquals("refreshed", ldapObject.getAttributes()
+		    .get("sn").get());
+	    Assert.assertSame(ldapObject, ldapObjectManager
+		    .getLdapObjectByDn(dn));
+
+	    // Unsaved modifications of a bean are not overwritten by a reload
+	    person.setSurname("unsaved");
+	    Thread.sleep(1100);
+	    ldapObject.getAttributes().put("sn", "changed");
+	    ldapObjectManager.storeLdapObject(ldapObject);
+	    manager.revalidateCache();
+	    Assert.assertEquals("unsaved", person.getSurname());
+	    manager.search(Person.class, "(cn=Kim Wilde)");
+	    Assert.assertEquals("unsaved", person.getSurname());
+	    person.restore();
+	    Assert.assertEquals("changed", person.getSurname());
+	} finally {
+	    person.setSurname("Wilde");
+	    person.store();
+	}
+    }
+
+    /**
+     * Test the revalidation of the cached objects with their version
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testCacheRevalidation() throws Exception {
+	LdapBeanManager manager = getLdapBeanManager();
+	String dn = "cn=Kim Wilde,ou=system";
+	Person removed = manager.create(Person.class, "cn=removed,ou=system");
+	removed.setCommonName("removed");
+	removed.setSurname("removed");
+	removed.store();
+	LdapObjectManager ldapObjectManager = new LdapObjectManager(manager
+		.getPoolRouter(), "ou=system", CacheSpec.parse(""));
+	LdapObject ldapObject = ldapObjectManager.getLdapObjectByDn(dn);
+	ldapObjectManager.restoreLdapObject(ldapObject);
+	Assert.assertEquals(1, ldapObjectManager.search("(cn=removed)")
+		.size());
+
+	// The version is kept apart from the attributes
+	Assert.assertNotNull(ldapObject.getEntryUuid());
+	Assert.assertNotNull(ldapObject.getVersion());
+	Assert.assertNull(ldapObject.getAttributes().get("entryUUID"));
+	Attributes attributes = ldapObject.getAttributes();
+	Assert.assertEquals(0, ldapObjectManager.revalidateCache());
+	Assert.assertFalse(ldapObject.revalidate());
+	Assert.assertSame(attributes, ldapObject.getAttributes());
+
+	// Only modified and removed objects are reloaded. The modification
+	// time has a resolution of one second.
+	Thread.sleep(1100);
+	Person person = manager.findByDn(Person.class, dn);
+	person.setSurname("revalidated");
+	person.store();
+	removed.remove();
+	try {
+	    Assert.assertEquals(2, ldapObjectManager.revalidateCache());
+	    Assert.assertEquals("revalidated", ldapObject.getAttributes()
+		    .get("sn").get());
+	    Assert.assertEquals(1, ldapObjectManager.getSize());
+	} finally {
+	    Thread.sleep(1100);
+	    person.setSurname("Wilde");
+	    person.store();
+	}
+	Assert.assertTrue(ldapObject.revalidate());
+	Assert.assertEquals("Wilde", ldapObject.getAttributes().get("sn")
+		.get());
+
+	// The version given by a write is read back
+	Thread.sleep(1100);
+	String version = ldapObject.getVersion();
+	ldapObject.store();
+	Assert.assertFalse(version.equals(ldapObject.getVersion()));
+	Assert.assertFalse(ldapObject.revalidate());
+    }
+
+    /**
+     * Test that the cache is kept in sync with the changes of the directory
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testChangeMonitoring() throws Exception {
+	LdapBeanManager manager = getLdapBeanManager();
+	String dn = "cn=Kim Wilde,ou=system";
+	LdapObjectManager ldapObjectManager = new LdapObjectManager(manager
+		.getPoolRouter(), "ou=system", CacheSpec.parse(""));
+	final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+	ldapObjectManager.addChangeListener(new LdapChangeListener() {
+	    public void changed(ChangeType p_Type, String p_Dn, String p_NewDn) {
+		events.add(p_Type + " " + p_Dn);
+	    }
+	});
+	ldapObjectManager.startChangeMonitoring();
+	LdapObject ldapObject = ldapObjectManager.getLdapObjectByDn(dn);
+	ldapObjectManager.restoreLdapObject(ldapObject);
+	Person person = manager.findByDn(Person.class, dn);
+	try {
+	    Thread.sleep(1100);
+	    person.setSurname("monitored");
+	    person.store();
+	    String event = events.poll(10, TimeUnit.SECONDS);
+	    Assert.assertNotNull(event);
+	    Assert.assertTrue(event.startsWith("MODIFIED "));
+	    Assert.assertTrue(event.toLowerCase().endsWith(
+		    dn.toLowerCase()));
+	    // The cached object is reloaded in background
+	    long end = System.currentTimeMillis() + 10000;
+	    while (!"monitored".equals(ldapObject.getAttributes().get("sn")
+		    .get())
+		    && (System.currentTimeMillis() < end)) {
+		Thread.sleep(50);
+	    }
+	    Assert.assertEquals("monitored", ldapObject.getAttributes().get(
+		    "sn").get());
+	    Assert.assertSame(ldapObject, ldapObjectManager
+		    .getLdapObjectByDn(dn));
+
+	    // The object is reloaded when it is cached with another form of
+	    // the DN than the one of the change
+	    ldapObjectManager.clearCache();
+	    ldapObject = ldapObjectManager
+		    .getLdapObjectByDn("CN=KIM WILDE, OU=SYSTEM");
+	    ldapObjectManager.restoreLdapObject(ldapObject);
+	    events.clear();
+	    Thread.sleep(1100);
+	    person.setSurname("monitored again");
+	    person.store();
+	    Assert.assertNotNull(events.poll(10, TimeUnit.SECONDS));
+	    end = System.currentTimeMillis() + 10000;
+	    while (!"monitored again".equals(ldapObject.getAttributes().get(
+		    "sn").get())
+		    && (System.currentTimeMillis() < end)) {
+		Thread.sleep(50);
+	    }
+	    Assert.assertEquals("monitored again", ldapObject.getAttributes()
+		    .get("sn").get());
+	} finally {
+	    ldapObjectManager.stopChangeMonitoring();
+	    Thread.sleep(1100);
+	    person.setSurname("Wilde");
+	    person.store();
+	}
+    }
+
+    /**
+     * Test that the objects stored by a manager are invalidated in the cache
+     * of the other managers of the bus
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testInvalidationBus() throws Exception {
+	LdapBeanManager manager = getLdapBeanManager();
+	String dn = "cn=Kim Wilde,ou=system";
+	LdapObjectManager writer = new LdapObjectManager(manager
+		.getPoolRouter(), "ou=system", CacheSpec.parse(""));
+	LdapObjectManager reader = new LdapObjectManager(manager
+		.getPoolRouter(), "ou=system", CacheSpec.parse(""));
+	InvalidationBus bus = new InProcessInvalidationBus();
+	writer.setInvalidationBus(bus);
+	reader.setInvalidationBus(bus);
+	LdapObject written = writer.getLdapObjectByDn(dn);
+	writer.restoreLdapObject(written);
+	LdapObject read = reader.getLdapObjectByDn(dn);
+	reader.restoreLdapObject(read);
+	Assert.assertEquals(1, reader.getSize());
+	try {
+	    written.getAttributes().put("sn", "invalidated");
+	    writer.storeLdapObject(written);
+	    // The writer keeps its object, the reader reloads it
+	    Assert.assertEquals(1, writer.getSize());
+	    Assert.assertEquals(0, reader.getSize());
+	    read = reader.getLdapObjectByDn(dn);
+	    reader.restoreLdapObject(read);
+	    Assert.assertEquals("invalidated", read.getAttributes().get("sn")
+		    .get());
+	} finally {
+	    written.getAttributes().put("sn", "Wilde");
+	    writer.storeLdapObject(written);
+	}
+	Assert.assertEquals(0, reader.getSize());
+
+	// A removed object is invalidated by every manager
+	String removedDn = "cn=invalidated,ou=system";
+	Person removed = manager.create(Person.class, removedDn);
+	removed.setCommonName("invalidated");
+	removed.setSurname("invalidated");
+	removed.store();
+	LdapObject removedObject = writer.getLdapObjectByDn(removedDn);
+	writer.restoreLdapObject(removedObject);
+	reader.restoreLdapObject(reader.getLdapObjectByDn(removedDn));
+	writer.removeLdapObject(removedObject);
+	Assert.assertEquals(1, writer.getSize());
+	Assert.assertEquals(0, reader.getSize());
+	reader.setInvalidationBus(null);
+	read = reader.getLdapObjectByDn(dn);
+	reader.restoreLdapObject(read);
+	writer.storeLdapObject(written);
+	Assert.assertEquals(1, reader.getSize());
+    }
+
+    /**
+     * Test the routing of operations to the partitions of a namespace
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testRoutingInstance() throws Exception {
+	String url = "ldap://localhost:" + ldapServer.getPort();
+	Person parent = getLdapBeanManager().create(Person.class,
+		"cn=partition,ou=system");
+	parent.setCommonName("partition");
+	parent.setSurname("surname");
+	parent.store();
+	LdapBeanManager partition = LdapBeanManager.getInstance(url,
+		"cn=partition,ou=system");
+	LdapBeanManager configuration = LdapBeanManager.getInstance(url,
+		"ou=configuration,ou=system");
+	LdapBeanManager manager = LdapBeanManager.getRoutingInstance(
+		"ou=system", configuration, partition);
+	Person person = manager.create(Person.class,
+		"cn=routed,cn=partition,ou=system");
+	person.setUid("routed");
+	person.setCommonName("routed");
+	person.setSurname("surname");
+	person.store();
+	try {
+	    // Beans are read by the partition with the longest suffix
+	    Person routed = manager.findByDn(Person.class,
+		    "cn=routed,cn=partition,ou=system");
+	    Assert.assertNotNull(routed);
+	    Assert.assertEquals("routed", routed.getUid());
+	    // Other dn are read by the first partition
+	    Assert.assertNotNull(manager.findByDn(Person.class,
+		    "cn=Kim Wilde,ou=system"));
+	    // Searches are merged, only partitions are searched
+	    List<Person> persons = manager.search(Person.class,
+		    "(objectClass=person)");
+	    Assert.assertEquals(2, persons.size());
+	    Assert.assertTrue(persons.contains(person));
+	    Assert.assertNotNull(manager.findByUid(Person.class, "routed"));
+	    // The uid is a value, not a filter
+	    Assert.assertNull(manager.findByUid(Person.class, "rout*"));
+	    Assert.assertNull(manager.searchFirst(Person.class,
+		    "(cn=Kim Wilde)"));
+	    // Only partitions in the tree of the root dn are searched
+	    LdapBeanManager configurationOnly = LdapBeanManager
+		    .getRoutingInstance("ou=configuration,ou=system",
+			    partition, configuration);
+	    Assert.assertNull(configurationOnly.findByUid(Person.class,
+		    "routed"));
+	} finally {
+	    person.remove();
+	    parent.remove();
+	}
+    }
+
+    /**
+     * Test that a search exceeding its time limit fails instead of returning
+     * partial results
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testSearchTimeLimit() throws Exception {
+	FakeLdapContextPool pool = new FakeLdapContextPool("ldap://fake");
+	pool.setCircuitBreaker(null);
+	pool.setSearchTimeLimitExceeded(true);
+	AdaptiveLimit limit = new AdaptiveLimit(2, 20, 10, 50);
+	pool.setAdaptiveLimit(limit);
+	LdapObjectManager ldapObjectManager = new LdapObjectManager(pool,
+		"ou=system");
+	try {
+	    ldapObjectManager.search("(objectClass=*)");
+	    Assert.fail("Search should exceed its time limit");
+	} catch (TimeLimitExceededException e) {
+	    // Expected
+	}
+	try {
+	    ldapObjectManager.searchFirst("(objectClass=*)");
+	    Assert.fail("Search should exceed its time limit");
+	} catch (TimeLimitExceededException e) {
+	    // Expected
+	}
+	// Both searches have been reported as dropped to the adaptive limit
+	Assert.assertEquals(8, limit.getLimit());
+    }
 }
@@ -53,4 +53,17 @@ public class StringUtilTest {
 	Assert.assertEquals(Arrays.asList(new String[] { "a", "b", "c" }),
 		Arrays.asList(groups));
     }
+
+    /**
+     * Test StringUtil.escapeFilterValue method
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testEscapeFilterValue() throws Exception {
+	Assert.assertEquals("foo", StringUtil.escapeFilterValue("foo"));
+	Assert.assertEquals("\\2a\\28uid=\\5c\\29", StringUtil
+		.escapeFilterValue("*(uid=\\)"));
+    }
 }
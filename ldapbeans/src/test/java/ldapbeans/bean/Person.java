@@ -89,6 +89,15 @@ public interface Person extends LdapBean {
     @LdapAttribute("sn")
     void setSurname(String p_Surname);
 
+    /**
+     * Set the password of the bean
+     * 
+     * @param p_Password
+     *            The password of the bean
+     */
+    @LdapAttribute("userPassword")
+    void setPassword(String p_Password);
+
     /**
      * Return the given name of the bean
      * 
@@ -20,8 +20,22 @@
  */
 package ldapbeans.util.cache;
 
+import static ldapbeans.util.cache.CacheFactory.CacheType.CONCURRENT;
+import static ldapbeans.util.cache.CacheFactory.CacheType.CONCURRENT_LRU;
 import static ldapbeans.util.cache.CacheFactory.CacheType.LRU;
 import static ldapbeans.util.cache.CacheFactory.CacheType.SIMPLE;
+import static ldapbeans.util.cache.CacheFactory.CacheType.SOFT;
+import static ldapbeans.util.cache.CacheFactory.CacheType.TINY_LFU;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
@@ -89,6 +103,204 @@ public class CacheTest {
 	if (!(cache instanceof LRUCache)) {
 	    Assert.fail("cache is not a LRU cache");
 	}
+	// Test for ConcurrentCache
+	cache = cacheFactory.createCache(CONCURRENT);
+	if (!(cache instanceof ConcurrentCache)) {
+	    Assert.fail("cache is not a concurrent cache");
+	}
+	// Test for concurrent LRUCache
+	cache = cacheFactory.createCache(CONCURRENT_LRU);
+	if (!(cache instanceof LRUCache)
+		|| !(cache instanceof ConcurrentCache)) {
+	    Assert.fail("cache is not a concurrent LRU cache");
+	}
+	// Test for TinyLFUCache
+	cache = cacheFactory.createCache(TINY_LFU);
+	if (!(cache instanceof TinyLFUCache)) {
+	    Assert.fail("cache is not a TinyLFU cache");
+	}
+    }
+
+    /**
+     * Test the caches created from a {@link CacheSpec}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testCacheSpec() throws Exception {
+	CacheFactory factory = CacheFactory.getInstance();
+	Weigher<String, String> weigher = new Weigher<String, String>() {
+	    public int weigh(String p_Key, String p_Value) {
+		return p_Value.length();
+	    }
+	};
+	CacheSpec spec = CacheSpec.parse("policy=tiny_lfu, maximumSize=2K,"
+		+ "refreshAfterWrite=30s");
+	Assert.assertEquals(TINY_LFU, spec.getPolicy());
+	Assert.assertEquals(2048, spec.getMaximumSize());
+	Assert.assertEquals(30000, spec.getRefreshAfterWrite());
+	Assert.assertEquals(-1, spec.getExpireAfterWrite());
+	Cache<String, String> cache = factory.createCache(spec, null);
+	// The policies are read without lock
+	Cache<String, String> policy;
+	policy = ((ConcurrentPolicyCache<String, String>) cache).getPolicy();
+	Assert.assertTrue(policy instanceof TinyLFUCache);
+	Assert.assertEquals(2048, ((LRUCache<String, String>) policy)
+		.getMaxSize());
+
+	spec = CacheSpec.parse("maximumWeight=512MB");
+	Assert.assertEquals(512L << 20, spec.getMaximumWeight());
+	cache = factory.createCache(spec, weigher);
+	policy = ((ConcurrentPolicyCache<String, String>) cache).getPolicy();
+	Assert.assertTrue(policy instanceof WeightedCache);
+
+	spec = CacheSpec.parse("expireAfterAccess=2m,maximumSize=10");
+	ConcurrentPolicyCache<String, String> expiringCache;
+	expiringCache = (ConcurrentPolicyCache<String, String>) factory
+		.<String, String> createCache(spec, null);
+	Assert.assertEquals(120000, expiringCache.getTtl());
+	Assert.assertEquals(ExpirationPolicy.AFTER_ACCESS, expiringCache
+		.getExpirationPolicy());
+	Assert.assertEquals(10, ((LRUCache<String, String>) expiringCache
+		.getPolicy()).getMaxSize());
+
+	// Weight, number and expiration can be combined with the policies
+	spec = CacheSpec.parse("policy=tinylfu,maximumWeight=512MB,"
+		+ "expireAfterWrite=60s,refreshAfterWrite=30s");
+	expiringCache = (ConcurrentPolicyCache<String, String>) factory
+		.createCache(spec, weigher);
+	Assert.assertEquals(60000, expiringCache.getTtl());
+	policy = expiringCache.getPolicy();
+	Assert.assertEquals(512L << 20, ((TinyLFUCache<String, String>) policy)
+		.getMaxWeight());
+	String[] supportedSpecs = new String[] {
+		"maximumWeight=512MB,expireAfterWrite=60s",
+		"policy=tinylfu,maximumSize=10,expireAfterWrite=1s",
+		"policy=lru,maximumSize=10,maximumWeight=1KB",
+		"policy=concurrent,expireAfterAccess=1s" };
+	for (String supportedSpec : supportedSpecs) {
+	    Assert.assertNotNull(factory.createCache(CacheSpec
+		    .parse(supportedSpec), weigher));
+	}
+
+	Assert.assertTrue(factory.createCache(CacheSpec.parse("maximumSize=5"),
+		null) instanceof ConcurrentLRUCache);
+	Assert.assertTrue(factory.createCache(CacheSpec.parse(""), null)
+		instanceof ConcurrentHashCache);
+
+	String[] invalidSpecs = new String[] { "policy=unknown",
+		"maximumSize=ten", "expireAfterWrite=10y", "other=1",
+		"maximumSize", "expireAfterWrite=1s,expireAfterAccess=1s" };
+	for (String invalidSpec : invalidSpecs) {
+	    try {
+		CacheSpec.parse(invalidSpec);
+		Assert.fail(invalidSpec);
+	    } catch (IllegalArgumentException e) {
+		// Expected
+	    }
+	}
+	String[] unsupportedSpecs = new String[] { "maximumWeight=1KB",
+		"policy=soft,maximumSize=1", "policy=weak,expireAfterWrite=1s",
+		"policy=concurrent,maximumSize=1" };
+	for (String unsupportedSpec : unsupportedSpecs) {
+	    try {
+		factory.createCache(CacheSpec.parse(unsupportedSpec), null);
+		Assert.fail(unsupportedSpec);
+	    } catch (IllegalArgumentException e) {
+		// Expected
+	    }
+	}
+    }
+
+    /**
+     * Test the {@link ConcurrentPolicyCache}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testConcurrentPolicyCache() throws Exception {
+	Weigher<String, String> weigher = new Weigher<String, String>() {
+	    public int weigh(String p_Key, String p_Value) {
+		return p_Value.length();
+	    }
+	};
+	ConcurrentPolicyCache<String, String> cache;
+	cache = new ConcurrentPolicyCache<String, String>(
+		new TinyLFUCache<String, String>(weigher, 10));
+	final List<String> evicted = new ArrayList<String>();
+	cache.setRemovalListener(new RemovalListener<String, String>() {
+	    public void removed(String p_Key, String p_Value,
+		    RemovalCause p_Cause) {
+		evicted.add(p_Key + ":" + p_Cause);
+	    }
+	});
+	// The policy bounds the weight of the entries
+	cache.put("k1", "12345");
+	cache.put("k2", "12345");
+	for (int i = 0; i < 100; i++) {
+	    Assert.assertEquals("12345", cache.get("k1"));
+	}
+	cache.cleanUp();
+	cache.put("k3", "1234567");
+	Assert.assertEquals(1, evicted.size());
+	Assert.assertTrue(cache.containsKey("k1"));
+	Assert.assertFalse(cache.containsKey(evicted.get(0).substring(0, 2)));
+	Assert.assertTrue(((TinyLFUCache<String, String>) cache.getPolicy())
+		.getWeight() <= 10);
+	Assert.assertEquals(cache.getPolicy().size(), cache.size());
+	Assert.assertNull(cache.putIfAbsent("k4", ""));
+	Assert.assertEquals("", cache.putIfAbsent("k4", "1"));
+	Assert.assertFalse(cache.replace("k4", "1", ""));
+	Assert.assertTrue(cache.replace("k4", "", ""));
+	Assert.assertTrue(cache.remove("k4"));
+	Assert.assertFalse(cache.getPolicy().containsKey("k4"));
+
+	// Entries expire after their last write
+	evicted.clear();
+	cache = new ConcurrentPolicyCache<String, String>(
+		new LRUCacheImpl<String, String>(), 100,
+		ExpirationPolicy.AFTER_WRITE);
+	cache.setRemovalListener(new RemovalListener<String, String>() {
+	    public void removed(String p_Key, String p_Value,
+		    RemovalCause p_Cause) {
+		evicted.add(p_Key + ":" + p_Cause);
+	    }
+	});
+	cache.put("k1", "v1");
+	Assert.assertEquals("v1", cache.get("k1"));
+	Thread.sleep(150);
+	Assert.assertNull(cache.get("k1"));
+	Assert.assertFalse(cache.containsKey("k1"));
+	cache.put("k2", "v2");
+	Assert.assertEquals(Arrays.asList("k1:EXPIRED"), evicted);
+	Assert.assertEquals(1, cache.size());
+	Assert.assertEquals(1, cache.getPolicy().size());
+
+	// Entries expire after their last use, and are removed by the
+	// scheduler of the caches
+	final BlockingQueue<String> expired = new LinkedBlockingQueue<String>();
+	cache = new ConcurrentPolicyCache<String, String>(null, 300,
+		ExpirationPolicy.AFTER_ACCESS);
+	cache.setRemovalListener(new RemovalListener<String, String>() {
+	    public void removed(String p_Key, String p_Value,
+		    RemovalCause p_Cause) {
+		expired.add(p_Key + ":" + p_Cause);
+	    }
+	});
+	cache.put("k1", "v1");
+	cache.put("k2", "v2");
+	for (int i = 0; i < 4; i++) {
+	    Thread.sleep(100);
+	    Assert.assertEquals("v1", cache.get("k1"));
+	}
+	Assert.assertFalse(cache.containsKey("k2"));
+	cache.cleanUp();
+	Assert.assertEquals("k2:EXPIRED", expired.poll());
+	Assert.assertTrue(cache.containsKey("k1"));
+	Assert.assertEquals("k1:EXPIRED", expired.poll(5, TimeUnit.SECONDS));
+	Assert.assertFalse(cache.containsKey("k1"));
     }
 
     /**
@@ -110,6 +322,101 @@ public class CacheTest {
 	testCache(cache, keys, null);
     }
 
+    /**
+     * Test the {@link SoftCache}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testSoftCache() throws Exception {
+	int size = 10;
+	SoftCache<String, String> cache = new SoftCache<String, String>(3);
+	String[] keys = new String[size];
+	String[] values = new String[size];
+	initCache(cache, keys, values);
+	testCache(cache, keys, null);
+	Assert.assertTrue(cache.remove("k0"));
+	Assert.assertFalse(cache.containsKey("k0"));
+	Assert.assertEquals(size - 1, cache.size());
+	cache.setHotSize(0);
+	Assert.assertEquals(0, cache.getHotSize());
+	cache.clear();
+	Assert.assertEquals(0, cache.size());
+	Assert.assertEquals(0, cache.getEvictionCount());
+
+	// The cache created by the factory is usable
+	Cache<String, String> softCache = CacheFactory.getInstance()
+		.createCache(SOFT);
+	softCache.put("key", "value");
+	Assert.assertTrue(softCache.containsKey("key"));
+    }
+
+    /**
+     * Test the {@link ConcurrentCache} implementations
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testConcurrentCache() throws Exception {
+	int size = 10;
+	final ConcurrentCache<String, String> cache;
+	cache = new ConcurrentHashCache<String, String>();
+	String[] keys = new String[size];
+	String[] values = new String[size];
+	initCache(cache, keys, values);
+	testCache(cache, keys, null);
+	Assert.assertEquals("v0", cache.putIfAbsent("k0", "other"));
+	Assert.assertNull(cache.putIfAbsent("k10", "v10"));
+	Assert.assertTrue(cache.replace("k10", "v10", "other"));
+	Assert.assertFalse(cache.replace("k10", "v10", "v10"));
+	Assert.assertTrue(cache.remove("k10"));
+	Assert.assertFalse(cache.remove("k10"));
+	Assert.assertFalse(cache.replace("k10", "other", "v10"));
+	Assert.assertEquals(size, cache.size());
+
+	// A single value is kept when threads add the same key
+	final String[] added = new String[4];
+	Thread[] threads = new Thread[added.length];
+	for (int i = 0; i < threads.length; i++) {
+	    final int index = i;
+	    threads[i] = new Thread() {
+		@Override
+		public void run() {
+		    for (int j = 0; j < 1000; j++) {
+			String value = "t" + index;
+			String previous = cache.putIfAbsent("shared" + j,
+				value);
+			if (j == 999) {
+			    added[index] = previous == null ? value
+				    : previous;
+			}
+		    }
+		}
+	    };
+	    threads[i].start();
+	}
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+	for (String value : added) {
+	    Assert.assertEquals(cache.get("shared999"), value);
+	}
+
+	// Caches that are not thread safe can be protected
+	LRUCache<String, String> lruCache = new LRUCacheImpl<String, String>();
+	ConcurrentCache<String, String> synchronizedCache;
+	synchronizedCache = new SynchronizedCache<String, String>(lruCache);
+	initCache(synchronizedCache, keys, values);
+	testCache(synchronizedCache, keys, null);
+	Assert.assertEquals("v1", synchronizedCache.putIfAbsent("k1", "v"));
+	Assert.assertFalse(synchronizedCache.replace("k1", "v", "v1"));
+	Assert.assertTrue(synchronizedCache.replace("k1", "v1", "v1"));
+	Assert.assertTrue(synchronizedCache.remove("k1"));
+	Assert.assertNull(lruCache.get("k1"));
+    }
+
     /**
      * Test the {@link LRUCache}
      * 
@@ -143,6 +450,212 @@ public class CacheTest {
 		new String[] { "k6", "k1", "k2", "k3", "k4" });
     }
 
+    /**
+     * Test the {@link ConcurrentLRUCache}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testConcurrentLRUCache() throws Exception {
+	int size = 10;
+	int cacheSize = 5;
+	final ConcurrentLRUCache<String, String> cache;
+	cache = new ConcurrentLRUCache<String, String>();
+	cache.setMaxSize(cacheSize);
+	String[] keys = new String[size];
+	String[] values = new String[size];
+
+	initCache(cache, keys, values);
+	checkLRUCache(cache, new String[] { "k5", "k6", "k7", "k8", "k9" },
+		new String[] { "k0", "k1", "k2", "k3", "k4" });
+	cache.clear();
+	initCache(cache, keys, values);
+	// Reads are applied to the order before the next write
+	cache.get(keys[5]);
+	cache.put(keys[0], values[0]);
+	checkLRUCache(cache, new String[] { "k0", "k5", "k7", "k8", "k9" },
+		new String[] { "k6", "k1", "k2", "k3", "k4" });
+	Assert.assertEquals("v0", cache.putIfAbsent("k0", "other"));
+	Assert.assertFalse(cache.replace("k0", "other", "v0"));
+	Assert.assertTrue(cache.replace("k0", "v0", "other"));
+	Assert.assertEquals("other", cache.get("k0"));
+	Assert.assertTrue(cache.remove("k0"));
+	Assert.assertFalse(cache.replace("k0", "other", "v0"));
+	Assert.assertEquals(cacheSize - 1, cache.size());
+	cache.setMaxSize(2);
+	Assert.assertEquals(2, cache.size());
+
+	// The size limit is kept when threads read and write
+	cache.setMaxSize(100);
+	Thread[] threads = new Thread[4];
+	for (int i = 0; i < threads.length; i++) {
+	    final int index = i;
+	    threads[i] = new Thread() {
+		@Override
+		public void run() {
+		    for (int j = 0; j < 10000; j++) {
+			String key = "key" + ((j * (index + 1)) % 500);
+			if (cache.get(key) == null) {
+			    cache.putIfAbsent(key, key);
+			}
+		    }
+		}
+	    };
+	    threads[i].start();
+	}
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+	Assert.assertEquals(100, cache.size());
+	Assert.assertEquals(100, cache.keySet().size());
+	for (Cache.CacheEntry<String, String> entry : cache) {
+	    Assert.assertEquals(entry.getKey(), entry.getValue());
+	}
+    }
+
+    /**
+     * Test the {@link StatsCache}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testStatsCache() throws Exception {
+	ConcurrentLRUCache<String, String> lru;
+	lru = new ConcurrentLRUCache<String, String>();
+	lru.setMaxSize(3);
+	StatsCache<String, String> cache = new StatsCache<String, String>(lru);
+	final List<String> evicted = new ArrayList<String>();
+	cache.setRemovalListener(new RemovalListener<String, String>() {
+	    public void removed(String p_Key, String p_Value,
+		    RemovalCause p_Cause) {
+		evicted.add(p_Key);
+	    }
+	});
+	Assert.assertEquals(1.0, cache.getHitRate(), 0);
+	cache.put("k0", "v0");
+	cache.put("k1", "v1");
+	cache.put("k2", "v2");
+	Assert.assertEquals("v1", cache.get("k1"));
+	Assert.assertEquals("v1", cache.get("k1"));
+	Assert.assertEquals("v2", cache.get("k2"));
+	Assert.assertNull(cache.get("k3"));
+	Assert.assertEquals(3, cache.getHitCount());
+	Assert.assertEquals(1, cache.getMissCount());
+	Assert.assertEquals(0.75, cache.getHitRate(), 0);
+
+	Map<String, Long> hottest = cache.getHottestKeys(1);
+	Assert.assertEquals(1, hottest.size());
+	Assert.assertEquals(Long.valueOf(2), hottest.get("k1"));
+	Assert.assertEquals(2, cache.getHottestKeys(10).size());
+
+	// The least recently used entry is evicted by the inner cache
+	cache.put("k3", "v3");
+	Assert.assertEquals(3, cache.size());
+	Assert.assertFalse(cache.containsKey("k0"));
+	Assert.assertEquals(1, cache.getRemovalCount(RemovalCause.SIZE));
+	Assert.assertEquals(Arrays.asList("k0"), evicted);
+	Assert.assertTrue(cache.remove("k1"));
+	Assert.assertFalse(cache.remove("k1"));
+	Assert.assertEquals(1, cache.getRemovalCount(RemovalCause.EXPLICIT));
+	Assert.assertFalse(cache.getHottestKeys(10).containsKey("k1"));
+	Assert.assertEquals(2, cache.getEntries().size());
+
+	cache.recordLoad(1000);
+	cache.recordLoad(3000);
+	Assert.assertEquals(2, cache.getLoadCount());
+	Assert.assertEquals(4000, cache.getTotalLoadTime());
+
+	cache.resetStatistics();
+	Assert.assertEquals(0, cache.getHitCount());
+	Assert.assertEquals(0, cache.getMissCount());
+	Assert.assertEquals(0, cache.getLoadCount());
+	Assert.assertEquals(0, cache.getRemovalCount(RemovalCause.SIZE));
+	Assert.assertEquals(2, cache.size());
+    }
+
+    /**
+     * Test the {@link TinyLFUCache}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testTinyLFUCache() throws Exception {
+	int size = 10;
+	TinyLFUCache<String, String> cache = new TinyLFUCache<String, String>(
+		100);
+	String[] keys = new String[size];
+	String[] values = new String[size];
+	initCache(cache, keys, values);
+	testCache(cache, keys, null);
+	Assert.assertTrue(cache.remove("k0"));
+	Assert.assertFalse(cache.containsKey("k0"));
+	Assert.assertEquals(size - 1, cache.size());
+
+	// Frequently used entries are not evicted by a scan
+	cache.clear();
+	for (int i = 0; i < 50; i++) {
+	    cache.put("hot" + i, "value");
+	}
+	for (int j = 0; j < 5; j++) {
+	    for (int i = 0; i < 50; i++) {
+		Assert.assertNotNull(cache.get("hot" + i));
+	    }
+	}
+	for (int i = 0; i < 1000; i++) {
+	    cache.put("scan" + i, "value");
+	}
+	Assert.assertEquals(100, cache.size());
+	for (int i = 0; i < 50; i++) {
+	    Assert.assertTrue(cache.containsKey("hot" + i));
+	}
+	// The most recent entry is kept in the admission window
+	Assert.assertTrue(cache.containsKey("scan999"));
+	cache.setMaxSize(10);
+	Assert.assertEquals(10, cache.size());
+    }
+
+    /**
+     * Test the {@link WeightedCache}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testWeightedCache() throws Exception {
+	WeightedCache<String, String> cache = new WeightedCache<String, String>(
+		new Weigher<String, String>() {
+		    public int weigh(String p_Key, String p_Value) {
+			return p_Value.length();
+		    }
+		}, 10);
+	cache.put("k0", "aaaa");
+	cache.put("k1", "bbbb");
+	Assert.assertEquals(8, cache.getWeight());
+	cache.get("k0");
+	// The least recently used entry is removed to stay under the limit
+	cache.put("k2", "cccc");
+	Assert.assertEquals(8, cache.getWeight());
+	Assert.assertEquals(1, cache.getEvictionCount());
+	Assert.assertFalse(cache.containsKey("k1"));
+	Assert.assertTrue(cache.containsKey("k0"));
+	// A heavy entry removes several light ones
+	cache.put("k3", "dddddddd");
+	Assert.assertEquals(3, cache.getEvictionCount());
+	Assert.assertEquals(1, cache.size());
+	// Replacing or removing an entry updates the weight
+	cache.put("k3", "d");
+	Assert.assertEquals(1, cache.getWeight());
+	Assert.assertTrue(cache.remove("k3"));
+	Assert.assertEquals(0, cache.getWeight());
+	cache.put("k4", "eeeeee");
+	cache.setMaxWeight(5);
+	Assert.assertEquals(0, cache.size());
+	Assert.assertEquals(0, cache.getWeight());
+    }
+
     /**
      * Test the {@link TTLCache}
      * 
@@ -162,6 +675,83 @@ public class CacheTest {
 	Assert.assertEquals(8, cache.size());
     }
 
+    /**
+     * Test the {@link ExpirationPolicy} of {@link TTLCache}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testTtlCacheExpirationPolicy() throws Exception {
+	TTLCache<String, String> writeCache = new TTLCache<String, String>(
+		300, ExpirationPolicy.AFTER_WRITE);
+	TTLCache<String, String> accessCache = new TTLCache<String, String>(
+		300, ExpirationPolicy.AFTER_ACCESS);
+	writeCache.put("key", "value");
+	accessCache.put("key", "value");
+	for (int i = 0; i < 4; i++) {
+	    Thread.sleep(100);
+	    accessCache.get("key");
+	    writeCache.get("key");
+	}
+	// Expired entries are never returned, even before the cleanup
+	Assert.assertFalse(writeCache.containsKey("key"));
+	Assert.assertNull(writeCache.get("key"));
+	Assert.assertEquals("value", accessCache.get("key"));
+	Thread.sleep(400);
+	Assert.assertNull(accessCache.get("key"));
+	Assert.assertEquals(0, accessCache.size());
+	Assert.assertEquals(0, writeCache.size());
+    }
+
+    /**
+     * Test the {@link TimingWheel} used by {@link TTLCache}
+     */
+    @Test
+    public void testTimingWheel() {
+	TimingWheel<String, String> wheel = new TimingWheel<String, String>(0);
+	List<TTLCache.TTLCacheEntry<String, String>> expired;
+	expired = new ArrayList<TTLCache.TTLCacheEntry<String, String>>();
+	long[] times = new long[] { 10, 100, 5000, 300000, 100000000L,
+		100000000000L };
+	for (long time : times) {
+	    TTLCache.TTLCacheEntry<String, String> entry;
+	    entry = new TTLCache.TTLCacheEntry<String, String>("k" + time,
+		    "v");
+	    entry.setExpirationTime(time);
+	    wheel.schedule(entry);
+	}
+	TTLCache.TTLCacheEntry<String, String> removed;
+	removed = new TTLCache.TTLCacheEntry<String, String>("removed", "v");
+	removed.setExpirationTime(50);
+	wheel.schedule(removed);
+	wheel.deschedule(removed);
+
+	// Entries expire at the first advance after their expiration time
+	for (long time : times) {
+	    wheel.advance(time - 1, expired);
+	    Assert.assertTrue(expired.isEmpty());
+	    wheel.advance(time, expired);
+	    Assert.assertEquals(1, expired.size());
+	    Assert.assertEquals("k" + time, expired.get(0).getKey());
+	    expired.clear();
+	}
+
+	// Less than a turn ahead stays on the first level, even at a boundary
+	// of the second level
+	wheel = new TimingWheel<String, String>(4096);
+	Assert.assertEquals(0, wheel.getLevel(4096 + 4032));
+	Assert.assertEquals(1, wheel.getLevel(4096 + 4096));
+	TTLCache.TTLCacheEntry<String, String> entry;
+	entry = new TTLCache.TTLCacheEntry<String, String>("boundary", "v");
+	entry.setExpirationTime(4096 + 4032);
+	wheel.schedule(entry);
+	wheel.advance(4096 + 4031, expired);
+	Assert.assertTrue(expired.isEmpty());
+	wheel.advance(4096 + 4032, expired);
+	Assert.assertEquals(1, expired.size());
+    }
+
     /**
      * Test {@link CommitableCache} Implementation
      */
@@ -253,5 +843,82 @@ public class CacheTest {
 	Assert.assertTrue(cache.containsKey(new GenericKey("1", "2")));
 	Assert.assertTrue(cache.containsKey(new GenericKey("1", "2", "3")));
 	Assert.assertTrue(cache.containsKey(new GenericKey("2", "1")));
+
+	// Keys may contain null elements
+	GenericKey key1Null = new GenericKey("1", null);
+	Assert.assertEquals(key1Null.hashCode(), new GenericKey("1", null)
+		.hashCode());
+	Assert.assertFalse(cache.containsKey(key1Null));
+	cache.put(key1Null, "v1null");
+	Assert.assertTrue(cache.containsKey(new GenericKey("1", null)));
+	Assert.assertFalse(new GenericKey("1", null).equals(key12));
+    }
+
+    /**
+     * Test the {@link InProcessInvalidationBus} and the
+     * {@link MulticastInvalidationBus}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testInvalidationBus() throws Exception {
+	final BlockingQueue<String> first = new LinkedBlockingQueue<String>();
+	final BlockingQueue<String> second = new LinkedBlockingQueue<String>();
+	InvalidationListener firstListener = new InvalidationListener() {
+	    public void invalidated(String p_Key, boolean p_Subtree) {
+		first.add(p_Key + (p_Subtree ? "/*" : ""));
+	    }
+	};
+	InvalidationListener secondListener = new InvalidationListener() {
+	    public void invalidated(String p_Key, boolean p_Subtree) {
+		second.add(p_Key + (p_Subtree ? "/*" : ""));
+	    }
+	};
+	// A listener that fails does not prevent the others to be notified
+	InvalidationListener failingListener = new InvalidationListener() {
+	    public void invalidated(String p_Key, boolean p_Subtree) {
+		throw new IllegalStateException(p_Key);
+	    }
+	};
+
+	// Invalidations are not delivered back to their source
+	InvalidationBus bus = new InProcessInvalidationBus();
+	bus.subscribe(failingListener);
+	bus.subscribe(firstListener);
+	bus.subscribe(secondListener);
+	bus.publish(firstListener, "k1", false);
+	bus.publish(null, "k2", true);
+	Assert.assertEquals(Arrays.asList("k2/*"), new ArrayList<String>(
+		first));
+	Assert.assertEquals(Arrays.asList("k1", "k2/*"),
+		new ArrayList<String>(second));
+	bus.unsubscribe(secondListener);
+	bus.publish(null, "k3", false);
+	Assert.assertEquals(2, second.size());
+	first.clear();
+	second.clear();
+
+	// Invalidations are batched, so duplicates are sent once
+	InvalidationBus sender = new MulticastInvalidationBus(InetAddress
+		.getByName("239.255.76.66"), 45566, 0, 200);
+	InvalidationBus receiver = new MulticastInvalidationBus(
+		"239.255.76.66", 45566);
+	try {
+	    sender.subscribe(firstListener);
+	    receiver.subscribe(failingListener);
+	    receiver.subscribe(secondListener);
+	    sender.publish(firstListener, "k1", false);
+	    sender.publish(firstListener, "k1", false);
+	    sender.publish(null, "k2", true);
+	    Assert.assertEquals("k2/*", first.poll());
+	    Assert.assertEquals("k1", second.poll(5, TimeUnit.SECONDS));
+	    Assert.assertEquals("k2/*", second.poll(5, TimeUnit.SECONDS));
+	    Assert.assertNull(second.poll(500, TimeUnit.MILLISECONDS));
+	    Assert.assertTrue(first.isEmpty());
+	} finally {
+	    sender.close();
+	    receiver.close();
+	}
     }
 }
@@ -0,0 +1,157 @@
+/*
+ * This file is part of ldapbeans
+ *
+ * Released under LGPL
+ *
+ * ldapbeans is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ldapbeans is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ldapbeans.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2010 Bruno Macherel
+ */
+package ldapbeans.util.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.TimeLimitExceededException;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+/**
+ * Pool of fake {@link LdapContext} that does not connect to any directory.
+ */
+public class FakeLdapContextPool extends LdapContextPool {
+
+    /** Contexts created by the pool */
+    private final List<LdapContext> m_Created = new ArrayList<LdapContext>();
+
+    /** Contexts closed by the pool */
+    private final List<LdapContext> m_Closed = new ArrayList<LdapContext>();
+
+    /** Whether the searches exceed their time limit */
+    private volatile boolean m_SearchTimeLimitExceeded;
+
+    /**
+     * Construct a new {@link FakeLdapContextPool}
+     * 
+     * @param p_Url
+     *            Url of the fake directory
+     */
+    public FakeLdapContextPool(String p_Url) {
+	super(5, p_Url, null, null);
+    }
+
+    @Override
+    protected LdapContext create() {
+	final LdapContext[] context = new LdapContext[1];
+	final Control[][] requestControls = new Control[1][];
+	context[0] = (LdapContext) Proxy.newProxyInstance(getClass()
+		.getClassLoader(), new Class<?>[] { LdapContext.class },
+		new InvocationHandler() {
+		    public Object invoke(Object p_Proxy, Method p_Method,
+			    Object[] p_Args) throws Throwable {
+			if ("close".equals(p_Method.getName())) {
+			    synchronized (m_Closed) {
+				m_Closed.add(context[0]);
+			    }
+			} else if ("equals".equals(p_Method.getName())) {
+			    return Boolean.valueOf(p_Proxy == p_Args[0]);
+			} else if ("hashCode".equals(p_Method.getName())) {
+			    return Integer.valueOf(System
+				    .identityHashCode(p_Proxy));
+			} else if ("toString".equals(p_Method.getName())) {
+			    return getUrl();
+			} else if ("setRequestControls".equals(p_Method
+				.getName())) {
+			    requestControls[0] = (Control[]) p_Args[0];
+			} else if ("getRequestControls".equals(p_Method
+				.getName())) {
+			    return requestControls[0];
+			} else if ("search".equals(p_Method.getName())
+				&& m_SearchTimeLimitExceeded) {
+			    return createTimeLimitExceededEnumeration();
+			}
+			return null;
+		    }
+		});
+	synchronized (m_Created) {
+	    m_Created.add(context[0]);
+	}
+	return context[0];
+    }
+
+    /**
+     * Create an enumeration of search results that behaves like the one of
+     * JNDI when the time limit of the search is exceeded:
+     * {@link NamingEnumeration#hasMore()} throws a
+     * {@link TimeLimitExceededException} while
+     * {@link NamingEnumeration#hasMoreElements()} simply returns
+     * <code>false</code>
+     * 
+     * @return The enumeration of search results
+     */
+    private NamingEnumeration<?> createTimeLimitExceededEnumeration() {
+	return (NamingEnumeration<?>) Proxy.newProxyInstance(getClass()
+		.getClassLoader(), new Class<?>[] { NamingEnumeration.class },
+		new InvocationHandler() {
+		    public Object invoke(Object p_Proxy, Method p_Method,
+			    Object[] p_Args) throws Throwable {
+			Object result = null;
+			if ("hasMore".equals(p_Method.getName())
+				|| "next".equals(p_Method.getName())) {
+			    throw new TimeLimitExceededException();
+			} else if ("hasMoreElements".equals(p_Method
+				.getName())) {
+			    result = Boolean.FALSE;
+			}
+			return result;
+		    }
+		});
+    }
+
+    /**
+     * Set whether the searches exceed their time limit
+     * 
+     * @param p_SearchTimeLimitExceeded
+     *            <code>true</code> if the searches exceed their time limit
+     */
+    public void setSearchTimeLimitExceeded(boolean p_SearchTimeLimitExceeded) {
+	m_SearchTimeLimitExceeded = p_SearchTimeLimitExceeded;
+    }
+
+    /**
+     * Return the number of contexts created by the pool
+     * 
+     * @return The number of contexts created by the pool
+     */
+    public int getCreatedCount() {
+	synchronized (m_Created) {
+	    return m_Created.size();
+	}
+    }
+
+    /**
+     * Return the number of contexts closed by the pool
+     * 
+     * @return The number of contexts closed by the pool
+     */
+    public int getClosedCount() {
+	synchronized (m_Closed) {
+	    return m_Closed.size();
+	}
+    }
+}
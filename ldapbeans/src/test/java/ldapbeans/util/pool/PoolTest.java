@@ -20,8 +20,20 @@
  */
 package ldapbeans.util.pool;
 
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.TimeLimitExceededException;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+import ldapbeans.util.pool.exception.BulkheadFullException;
+import ldapbeans.util.pool.exception.CircuitBreakerOpenException;
 import ldapbeans.util.pool.exception.NoMoreObjectInPoolException;
 import ldapbeans.util.pool.exception.NotValidObjectException;
+import ldapbeans.util.pool.exception.RateLimitExceededException;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -68,4 +80,680 @@ public class PoolTest {
 
 	Assert.assertNull("Object in pool should be null", o);
     }
+
+    /**
+     * Test {@link LdapContextPoolRouter}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testLdapContextPoolRouter() throws Exception {
+	LdapContextPool primary = new LdapContextPool(1, "ldap://primary",
+		null, null);
+	LdapContextPool replica1 = new LdapContextPool(1, "ldap://replica1",
+		null, null);
+	LdapContextPool replica2 = new LdapContextPool(1, "ldap://replica2",
+		null, null);
+	LdapContextPoolRouter router = new LdapContextPoolRouter(primary,
+		Arrays.asList(replica1, replica2));
+
+	Assert.assertSame(primary, router.getPool(OperationType.WRITE));
+	LdapContextPool first = router.getPool(OperationType.READ);
+	LdapContextPool second = router.getPool(OperationType.SEARCH);
+	Assert.assertNotSame(primary, first);
+	Assert.assertNotSame(primary, second);
+	Assert.assertNotSame("Replicas should be used in turn", first, second);
+
+	// Without read-your-writes window, reads still go to replicas
+	router.written();
+	Assert.assertNotSame(primary, router.getPool(OperationType.READ));
+
+	router.setReadYourWritesWindow(200);
+	router.written();
+	Assert.assertSame(primary, router.getPool(OperationType.READ));
+	Assert.assertSame(primary, router.getPool(OperationType.SEARCH));
+	Thread.sleep(300);
+	Assert.assertNotSame(primary, router.getPool(OperationType.READ));
+
+	// Router without replica
+	router = new LdapContextPoolRouter(primary);
+	Assert.assertSame(primary, router.getPool(OperationType.READ));
+    }
+
+    /**
+     * Test {@link LdapContextPool#execute(OperationType, ContextCallback)}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testExecute() throws Exception {
+	FakeLdapContextPool pool = new FakeLdapContextPool("ldap://fake");
+	pool.setRetryPolicy(new RetryPolicy(3, 1, 10));
+	final int[] calls = new int[1];
+	ContextCallback<String> failTwice = new ContextCallback<String>() {
+	    public String doInContext(LdapContext p_Context)
+		    throws NamingException {
+		if (calls[0]++ < 2) {
+		    throw new CommunicationException();
+		}
+		return "ok";
+	    }
+	};
+
+	// Read operations are retried, broken contexts are discarded
+	Assert.assertEquals("ok", pool.execute(OperationType.READ, failTwice));
+	Assert.assertEquals(3, calls[0]);
+	Assert.assertEquals(3, pool.getCreatedCount());
+	Assert.assertEquals(2, pool.getClosedCount());
+	Assert.assertEquals(0, pool.getUsedSize());
+	Assert.assertEquals(1, pool.getAvailableSize());
+
+	// Write operations are not retried
+	calls[0] = 0;
+	try {
+	    pool.execute(OperationType.WRITE, failTwice);
+	    Assert.fail("Write operation should not be retried");
+	} catch (CommunicationException e) {
+	    // Expected
+	}
+	Assert.assertEquals(1, calls[0]);
+	Assert.assertEquals(3, pool.getClosedCount());
+	Assert.assertEquals(0, pool.getUsedSize());
+
+	// Other errors are not retried, but the context is released
+	calls[0] = 0;
+	try {
+	    pool.execute(OperationType.READ, new ContextCallback<String>() {
+		public String doInContext(LdapContext p_Context)
+			throws NamingException {
+		    calls[0]++;
+		    throw new NamingException();
+		}
+	    });
+	    Assert.fail("An error should occur");
+	} catch (NamingException e) {
+	    // Expected
+	}
+	Assert.assertEquals(1, calls[0]);
+	Assert.assertEquals(0, pool.getUsedSize());
+	Assert.assertEquals(1, pool.getAvailableSize());
+    }
+
+    /**
+     * Test {@link RetryPolicy}
+     */
+    @Test
+    public void testRetryPolicy() {
+	RetryPolicy policy = new RetryPolicy(5, 100, 1000);
+	for (int i = 0; i < 100; i++) {
+	    long delay = policy.getDelay(1);
+	    Assert.assertTrue(delay >= 50 && delay <= 100);
+	    delay = policy.getDelay(3);
+	    Assert.assertTrue(delay >= 200 && delay <= 400);
+	    delay = policy.getDelay(10);
+	    Assert.assertTrue(delay >= 500 && delay <= 1000);
+	}
+    }
+
+    /**
+     * Test {@link CircuitBreaker}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testCircuitBreaker() throws Exception {
+	CircuitBreaker circuitBreaker = new CircuitBreaker(10, 4, 50, 100,
+		1000, 100, 2);
+	// Not enough calls to open the circuit
+	for (int i = 0; i < 3; i++) {
+	    Assert.assertTrue(circuitBreaker.tryAcquirePermission());
+	    circuitBreaker.onResult(true, 0);
+	}
+	Assert.assertEquals(CircuitBreaker.State.CLOSED,
+		circuitBreaker.getState());
+	Assert.assertTrue(circuitBreaker.tryAcquirePermission());
+	circuitBreaker.onResult(true, 0);
+	Assert.assertEquals(CircuitBreaker.State.OPEN,
+		circuitBreaker.getState());
+	Assert.assertFalse(circuitBreaker.tryAcquirePermission());
+	Assert.assertEquals(1, circuitBreaker.getRejectedCount());
+
+	// After the open duration, only 2 probe calls are permitted
+	Thread.sleep(150);
+	Assert.assertTrue(circuitBreaker.tryAcquirePermission());
+	Assert.assertEquals(CircuitBreaker.State.HALF_OPEN,
+		circuitBreaker.getState());
+	Assert.assertTrue(circuitBreaker.tryAcquirePermission());
+	Assert.assertFalse(circuitBreaker.tryAcquirePermission());
+	circuitBreaker.onResult(false, 0);
+	circuitBreaker.onResult(false, 0);
+	Assert.assertEquals(CircuitBreaker.State.CLOSED,
+		circuitBreaker.getState());
+	Assert.assertEquals(0, circuitBreaker.getFailureRate());
+
+	// Slow calls open the circuit too
+	for (int i = 0; i < 4; i++) {
+	    Assert.assertTrue(circuitBreaker.tryAcquirePermission());
+	    circuitBreaker.onResult(false, 2000);
+	}
+	Assert.assertEquals(CircuitBreaker.State.OPEN,
+		circuitBreaker.getState());
+
+	// A failed probe opens the circuit again
+	Thread.sleep(150);
+	Assert.assertTrue(circuitBreaker.tryAcquirePermission());
+	circuitBreaker.onResult(true, 0);
+	Assert.assertEquals(CircuitBreaker.State.OPEN,
+		circuitBreaker.getState());
+    }
+
+    /**
+     * Test that a pool fails fast when the circuit breaker is open
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testCircuitBreakerInPool() throws Exception {
+	FakeLdapContextPool pool = new FakeLdapContextPool("ldap://fake");
+	pool.setRetryPolicy(RetryPolicy.NONE);
+	pool.setCircuitBreaker(new CircuitBreaker(4, 4, 50, 100, 1000, 60000,
+		1));
+	final int[] calls = new int[1];
+	ContextCallback<String> fail = new ContextCallback<String>() {
+	    public String doInContext(LdapContext p_Context)
+		    throws NamingException {
+		calls[0]++;
+		throw new CommunicationException();
+	    }
+	};
+	for (int i = 0; i < 4; i++) {
+	    try {
+		pool.execute(OperationType.READ, fail);
+		Assert.fail("An error should occur");
+	    } catch (CommunicationException e) {
+		// Expected
+	    }
+	}
+	try {
+	    pool.execute(OperationType.READ, fail);
+	    Assert.fail("Circuit breaker should be open");
+	} catch (CircuitBreakerOpenException e) {
+	    // Expected
+	}
+	Assert.assertEquals(4, calls[0]);
+    }
+
+    /**
+     * Test {@link Bulkhead}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testBulkhead() throws Exception {
+	final FakeLdapContextPool pool = new FakeLdapContextPool("ldap://fake");
+	Bulkhead bulkhead = new Bulkhead(50);
+	bulkhead.setMaxConcurrentCalls(OperationType.SEARCH, 1);
+	pool.setBulkhead(bulkhead);
+	final CountDownLatch started = new CountDownLatch(1);
+	final CountDownLatch finish = new CountDownLatch(1);
+	Thread thread = new Thread() {
+	    @Override
+	    public void run() {
+		try {
+		    pool.execute(OperationType.SEARCH,
+			    new ContextCallback<Object>() {
+				public Object doInContext(LdapContext p_Context)
+					throws NamingException {
+				    started.countDown();
+				    try {
+					finish.await();
+				    } catch (InterruptedException e) {
+					// Nothing to do
+				    }
+				    return null;
+				}
+			    });
+		} catch (NamingException e) {
+		    // Nothing to do
+		}
+	    }
+	};
+	thread.start();
+	started.await();
+	ContextCallback<String> callback = new ContextCallback<String>() {
+	    public String doInContext(LdapContext p_Context)
+		    throws NamingException {
+		return "ok";
+	    }
+	};
+	try {
+	    pool.execute(OperationType.SEARCH, callback);
+	    Assert.fail("Search limit should be reached");
+	} catch (BulkheadFullException e) {
+	    // Expected
+	}
+	Assert.assertEquals(0,
+		bulkhead.getAvailableCalls(OperationType.SEARCH));
+	// Reads are not limited by searches
+	Assert.assertEquals("ok", pool.execute(OperationType.READ, callback));
+	finish.countDown();
+	thread.join();
+	Assert.assertEquals(1,
+		bulkhead.getAvailableCalls(OperationType.SEARCH));
+	Assert.assertEquals("ok", pool.execute(OperationType.SEARCH, callback));
+    }
+
+    /**
+     * Test hedged reads
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testHedgedRead() throws Exception {
+	FakeLdapContextPool primary = new FakeLdapContextPool("ldap://primary");
+	FakeLdapContextPool slow = new FakeLdapContextPool("ldap://slow");
+	FakeLdapContextPool fast = new FakeLdapContextPool("ldap://fast");
+	LdapContextPoolRouter router = new LdapContextPoolRouter(primary,
+		Arrays.asList((LdapContextPool) slow, fast));
+	final long[] latency = new long[1];
+	HedgingPolicy policy = new HedgingPolicy(95, 5, 100) {
+	    @Override
+	    public void record(long p_Latency) {
+		latency[0] = p_Latency;
+		super.record(p_Latency);
+	    }
+	};
+	router.setHedgingPolicy(policy);
+	ContextCallback<String> callback = new ContextCallback<String>() {
+	    public String doInContext(LdapContext p_Context)
+		    throws NamingException {
+		if ("ldap://slow".equals(p_Context.toString())) {
+		    try {
+			Thread.sleep(5000);
+		    } catch (InterruptedException e) {
+			// The request has been cancelled
+		    }
+		}
+		return p_Context.toString();
+	    }
+	};
+	long start = System.currentTimeMillis();
+	// The first replica is the slow one
+	Assert.assertEquals("ldap://fast", router.execute(OperationType.READ,
+		callback));
+	Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+	Assert.assertEquals(1, policy.getReadCount());
+	Assert.assertEquals(1, policy.getHedgedCount());
+	Assert.assertEquals(1, policy.getHedgeWinCount());
+	// The latency of the hedged request does not include the delay
+	Assert.assertTrue(latency[0] < 100);
+	// The fast replica answers before the delay, so no hedge is sent
+	Assert.assertEquals("ldap://fast", router.execute(OperationType.READ,
+		callback));
+	Assert.assertEquals(2, policy.getReadCount());
+	Assert.assertEquals(1, policy.getHedgedCount());
+	// Searches are never hedged
+	Assert.assertEquals("ldap://slow", router.getPool(OperationType.SEARCH)
+		.execute(OperationType.SEARCH, new ContextCallback<String>() {
+		    public String doInContext(LdapContext p_Context)
+			    throws NamingException {
+			return p_Context.toString();
+		    }
+		}));
+	Assert.assertEquals(2, policy.getReadCount());
+    }
+
+    /**
+     * Test deadlines of operations
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testDeadline() throws Exception {
+	Assert.assertNull(Deadline.current());
+	Deadline outer = Deadline.start(10000);
+	try {
+	    Deadline current = Deadline.current();
+	    Assert.assertNotNull(current);
+	    // A nested operation can not extend the deadline
+	    Deadline previous = Deadline.start(60000);
+	    Assert.assertSame(current, Deadline.current());
+	    Deadline.restore(previous);
+	    // But it can shorten it
+	    previous = Deadline.start(100);
+	    Assert.assertTrue(Deadline.current().getRemaining() <= 100);
+	    Deadline.restore(previous);
+	    Assert.assertSame(current, Deadline.current());
+	} finally {
+	    Deadline.restore(outer);
+	}
+	Assert.assertNull(Deadline.current());
+
+	FakeLdapContextPool pool = new FakeLdapContextPool("ldap://fake");
+	pool.setCircuitBreaker(null);
+	pool.setRetryPolicy(new RetryPolicy(10, 400, 400));
+	final int[] attempts = new int[1];
+	ContextCallback<Object> failure = new ContextCallback<Object>() {
+	    public Object doInContext(LdapContext p_Context)
+		    throws NamingException {
+		attempts[0]++;
+		throw new CommunicationException();
+	    }
+	};
+	Deadline previous = Deadline.start(150);
+	try {
+	    pool.execute(OperationType.READ, failure);
+	    Assert.fail("Operation should fail");
+	} catch (CommunicationException e) {
+	    // The next attempt would be after the deadline
+	    Assert.assertEquals(1, attempts[0]);
+	} finally {
+	    Deadline.restore(previous);
+	}
+
+	// Waits for a permit are bounded by the deadline
+	Bulkhead bulkhead = new Bulkhead(10000);
+	bulkhead.setMaxConcurrentCalls(OperationType.READ, 0);
+	pool.setBulkhead(bulkhead);
+	previous = Deadline.start(50);
+	long start = System.currentTimeMillis();
+	try {
+	    pool.execute(OperationType.READ, failure);
+	    Assert.fail("Permit should not be acquired");
+	} catch (BulkheadFullException e) {
+	    Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+	}
+	// The deadline is now expired
+	Thread.sleep(60);
+	try {
+	    pool.execute(OperationType.READ, failure);
+	    Assert.fail("Deadline should be expired");
+	} catch (TimeLimitExceededException e) {
+	    // Expected
+	} finally {
+	    Deadline.restore(previous);
+	}
+	Assert.assertEquals(1, attempts[0]);
+    }
+
+    /**
+     * Test operations executed as another user
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testProxiedAuthorization() throws Exception {
+	FakeLdapContextPool pool = new FakeLdapContextPool("ldap://fake");
+	LdapContextPoolRouter router = new LdapContextPoolRouter(pool);
+	LdapContextPoolRouter proxied = router
+		.proxiedAs("uid=user,ou=people,dc=example,dc=com");
+	Assert.assertNull(router.getProxiedAuthorization());
+	Assert.assertSame(pool, proxied.getPrimaryPool());
+	ContextCallback<Control[]> callback = new ContextCallback<Control[]>() {
+	    public Control[] doInContext(LdapContext p_Context)
+		    throws NamingException {
+		return p_Context.getRequestControls();
+	    }
+	};
+	Control[] controls = proxied.execute(OperationType.READ, callback);
+	Assert.assertEquals(1, controls.length);
+	Assert.assertEquals(ProxiedAuthorizationControl.OID, controls[0]
+		.getID());
+	Assert.assertTrue(controls[0].isCritical());
+	Assert.assertEquals("dn:uid=user,ou=people,dc=example,dc=com",
+		new String(controls[0].getEncodedValue(), "UTF-8"));
+	controls = proxied.executeOnPrimary(OperationType.READ, callback);
+	Assert.assertEquals(1, controls.length);
+	// The pooled context is restored without control
+	Assert.assertEquals(1, pool.getCreatedCount());
+	Assert.assertNull(router.execute(OperationType.READ, callback));
+    }
+
+    /**
+     * Start a thread that acquire a permission of a {@link PriorityGate}, and
+     * wait until it is waiting for the permission
+     * 
+     * @param p_Gate
+     *            The gate
+     * @param p_Priority
+     *            The priority of the permission
+     * @return The started thread
+     * @throws InterruptedException
+     *             If the current thread is interrupted
+     */
+    private static Thread startAcquire(final PriorityGate p_Gate,
+	    final Priority p_Priority) throws InterruptedException {
+	int waiting = p_Gate.getWaitingCount(p_Priority);
+	Thread thread = new Thread() {
+	    @Override
+	    public void run() {
+		try {
+		    p_Gate.acquire(p_Priority);
+		} catch (BulkheadFullException e) {
+		    // Checked by the metrics
+		}
+	    }
+	};
+	thread.start();
+	while (p_Gate.getWaitingCount(p_Priority) == waiting) {
+	    Thread.sleep(5);
+	}
+	return thread;
+    }
+
+    /**
+     * Test the capacity shared by priorities
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testPriorityGate() throws Exception {
+	PriorityGate gate = new PriorityGate(10, 2000);
+	Assert.assertEquals(7, gate.getReservedCapacity(Priority.INTERACTIVE));
+	Assert.assertEquals(3, gate.getReservedCapacity(Priority.BATCH));
+	// Batch operations borrow idle capacity
+	for (int i = 0; i < 10; i++) {
+	    gate.acquire(Priority.BATCH);
+	}
+	Thread batch = startAcquire(gate, Priority.BATCH);
+	Thread interactive = startAcquire(gate, Priority.INTERACTIVE);
+	// Waiting operations are served by priority
+	gate.release(Priority.BATCH);
+	interactive.join();
+	Assert.assertEquals(1, gate.getUsedCapacity(Priority.INTERACTIVE));
+	Assert.assertEquals(1, gate.getWaitingCount(Priority.BATCH));
+	gate.release(Priority.BATCH);
+	batch.join();
+	Assert.assertEquals(9, gate.getUsedCapacity(Priority.BATCH));
+	Assert.assertEquals(1, gate.getQueuedCount(Priority.INTERACTIVE));
+	Assert.assertEquals(11, gate.getAcquiredCount(Priority.BATCH));
+	Assert.assertEquals(1, gate.getQueuedCount(Priority.BATCH));
+
+	// Capacity reserved to waiting operations is not borrowed
+	gate = new PriorityGate(10, 2000);
+	for (int i = 0; i < 10; i++) {
+	    gate.acquire(Priority.INTERACTIVE);
+	}
+	batch = startAcquire(gate, Priority.BATCH);
+	Thread other = startAcquire(gate, Priority.INTERACTIVE);
+	gate.release(Priority.INTERACTIVE);
+	batch.join();
+	Assert.assertEquals(1, gate.getWaitingCount(Priority.INTERACTIVE));
+	gate.release(Priority.INTERACTIVE);
+	other.join();
+	Assert.assertEquals(9, gate.getUsedCapacity(Priority.INTERACTIVE));
+
+	// Operations are rejected when the capacity is not released in time
+	gate = new PriorityGate(1, 50);
+	final FakeLdapContextPool pool = new FakeLdapContextPool("ldap://fake");
+	pool.setPriorityGate(gate);
+	ContextCallback<String> callback = new ContextCallback<String>() {
+	    public String doInContext(LdapContext p_Context)
+		    throws NamingException {
+		return "ok";
+	    }
+	};
+	Priority previous = Priority.start(Priority.BATCH);
+	try {
+	    Assert.assertEquals("ok", pool.execute(OperationType.READ,
+		    callback));
+	    Assert.assertEquals(1, gate.getAcquiredCount(Priority.BATCH));
+	    gate.acquire(Priority.INTERACTIVE);
+	    try {
+		pool.execute(OperationType.READ, callback);
+		Assert.fail("Capacity should be used");
+	    } catch (BulkheadFullException e) {
+		// Expected
+	    }
+	} finally {
+	    Priority.restore(previous);
+	}
+	Assert.assertEquals(1, gate.getRejectedCount(Priority.BATCH));
+	Assert.assertEquals(Priority.INTERACTIVE, Priority.current());
+    }
+
+    /**
+     * Test {@link RateLimiter}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testRateLimiter() throws Exception {
+	RateLimiter rateLimiter = new RateLimiter(true);
+	rateLimiter.setRate(OperationType.WRITE, 10, 1);
+	Assert.assertTrue(rateLimiter.tryAcquire(OperationType.WRITE));
+	Assert.assertFalse(rateLimiter.tryAcquire(OperationType.WRITE));
+	Assert.assertEquals(1, rateLimiter.getRejectedCount());
+	// Other operations are not limited
+	Assert.assertTrue(rateLimiter.tryAcquire(OperationType.READ));
+	long start = System.currentTimeMillis();
+	rateLimiter.acquire(OperationType.WRITE);
+	Assert.assertTrue(System.currentTimeMillis() - start >= 50);
+	Assert.assertEquals(1, rateLimiter.getDelayedCount());
+	// The wait is bounded by the deadline
+	Deadline previous = Deadline.start(20);
+	try {
+	    rateLimiter.acquire(OperationType.WRITE);
+	    Assert.fail("Deadline should be exceeded");
+	} catch (TimeLimitExceededException e) {
+	    // Expected
+	} finally {
+	    Deadline.restore(previous);
+	}
+
+	// Rates are reduced while the directory is slow
+	rateLimiter.setAdaptive(true);
+	rateLimiter.setTargetLatency(10);
+	rateLimiter.record(OperationType.WRITE, 100);
+	Assert.assertEquals(0.8, rateLimiter.getThrottleFactor(), 0.001);
+	rateLimiter.record(OperationType.WRITE, 1);
+	Assert.assertEquals(0.81, rateLimiter.getThrottleFactor(), 0.001);
+	rateLimiter.setAdaptive(false);
+	Assert.assertEquals(1, rateLimiter.getThrottleFactor(), 0.001);
+
+	// Routers fail when there is no token with a non blocking limiter
+	FakeLdapContextPool pool = new FakeLdapContextPool("ldap://fake");
+	LdapContextPoolRouter router = new LdapContextPoolRouter(pool);
+	rateLimiter = new RateLimiter(false);
+	rateLimiter.setRate("SEARCH", 1);
+	router.setRateLimiter(rateLimiter);
+	ContextCallback<String> callback = new ContextCallback<String>() {
+	    public String doInContext(LdapContext p_Context)
+		    throws NamingException {
+		return "ok";
+	    }
+	};
+	Assert.assertEquals("ok", router.execute(OperationType.SEARCH,
+		callback));
+	try {
+	    router.execute(OperationType.SEARCH, callback);
+	    Assert.fail("Rate should be exceeded");
+	} catch (RateLimitExceededException e) {
+	    // Expected
+	}
+	Assert.assertEquals("ok", router.execute(OperationType.READ, callback));
+	Assert.assertSame(rateLimiter, router.proxiedAs("cn=user")
+		.getRateLimiter());
+    }
+
+    /**
+     * Test {@link AdaptiveLimit}
+     * 
+     * @throws Exception
+     *             If an error occurs
+     */
+    @Test
+    public void testAdaptiveLimit() throws Exception {
+	AdaptiveLimit limit = new AdaptiveLimit(2, 20, 4, 50);
+	// The limit grows while it is used and the latency is stable
+	for (int i = 0; i < 4; i++) {
+	    limit.acquire();
+	}
+	for (int i = 0; i < 10; i++) {
+	    limit.release(1000000, false);
+	    limit.acquire();
+	}
+	for (int i = 0; i < 4; i++) {
+	    limit.release(1000000, false);
+	}
+	Assert.assertEquals(8, limit.getLimit());
+	Assert.assertEquals(1, limit.getGradient(), 0.001);
+	for (int i = 0; i < 8; i++) {
+	    limit.acquire();
+	}
+	try {
+	    limit.acquire();
+	    Assert.fail("Limit should be reached");
+	} catch (BulkheadFullException e) {
+	    // Expected
+	}
+	Assert.assertEquals(1, limit.getRejectedCount());
+	// The limit is reduced when operations are dropped
+	for (int i = 0; i < 8; i++) {
+	    limit.release(1000000, true);
+	}
+	Assert.assertEquals(3, limit.getLimit());
+	Assert.assertEquals(0, limit.getInFlight());
+
+	// The limit shrinks when operations are queued in the directory
+	limit = new AdaptiveLimit(2, 100, 40, 50);
+	limit.acquire();
+	limit.release(1000000, false);
+	Assert.assertEquals(1000000, limit.getMinRtt());
+	limit.acquire();
+	limit.release(4000000, false);
+	Assert.assertEquals(0.5, limit.getGradient(), 0.001);
+	Assert.assertEquals(37, limit.getLimit());
+
+	// A small limit shrinks too when the latency rises
+	AdaptiveLimit small = new AdaptiveLimit(1, 20, 8, 50);
+	small.acquire();
+	small.release(1000000, false);
+	for (int i = 0; i < 10; i++) {
+	    small.acquire();
+	    small.release(4000000, false);
+	}
+	Assert.assertEquals(6, small.getLimit());
+
+	FakeLdapContextPool pool = new FakeLdapContextPool("ldap://fake");
+	pool.setAdaptiveLimit(limit);
+	Assert.assertNull(pool.execute(OperationType.READ,
+		new ContextCallback<Object>() {
+		    public Object doInContext(LdapContext p_Context)
+			    throws NamingException {
+			return null;
+		    }
+		}));
+	Assert.assertEquals(0, limit.getInFlight());
+    }
 }